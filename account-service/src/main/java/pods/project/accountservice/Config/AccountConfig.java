@@ -1,16 +1,40 @@
 package pods.project.accountservice.Config;
 
-import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.web.client.RestTemplate;
-import org.springframework.data.jpa.repository.JpaRepository;
+import pods.project.accountservice.services.WalletPartitions;
+import pods.project.serviceclient.ServiceClient;
+import pods.project.serviceclient.TargetOptions;
+
+import java.time.Duration;
 
 @Configuration
 public class AccountConfig {
-    
+
+    // Targets: "marketplace" (marketplace.service.url) and one per wallet partition (wallet.partition.urls)
     @Bean
-    public RestTemplate restTemplate(RestTemplateBuilder builder) {
+    public ServiceClient serviceClient(WalletPartitions walletPartitions,
+                                       @Value("${marketplace.service.url}") String marketplaceUrl,
+                                       @Value("${service-client.max-connections:64}") int maxConnections,
+                                       @Value("${service-client.connect-timeout-ms:2000}") long connectTimeoutMillis,
+                                       @Value("${service-client.timeout-ms:10000}") long timeoutMillis,
+                                       @Value("${service-client.max-attempts:3}") int maxAttempts,
+                                       @Value("${service-client.backoff-ms:50}") long backoffMillis,
+                                       @Value("${service-client.max-backoff-ms:1000}") long maxBackoffMillis,
+                                       @Value("${service-client.http2:false}") boolean http2) {
+        ServiceClient.Builder builder = ServiceClient.builder()
+            .defaults(TargetOptions.DEFAULTS
+                .maxConnections(maxConnections)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .timeout(Duration.ofMillis(timeoutMillis))
+                .maxAttempts(maxAttempts)
+                .backoff(Duration.ofMillis(backoffMillis), Duration.ofMillis(maxBackoffMillis))
+                .http2(http2))
+            .target("marketplace", marketplaceUrl);
+        for (int partition = 0; partition < walletPartitions.all().size(); partition++) {
+            builder.target(WalletPartitions.targetName(partition), walletPartitions.all().get(partition));
+        }
         return builder.build();
     }
 }
@@ -0,0 +1,8 @@
+package pods.project.accountservice.CustomException;
+
+public class DeletionInProgressException extends RuntimeException {
+
+    public DeletionInProgressException(String message) {
+        super(message);
+    }
+}
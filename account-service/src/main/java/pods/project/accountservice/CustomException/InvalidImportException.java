@@ -0,0 +1,8 @@
+package pods.project.accountservice.CustomException;
+
+public class InvalidImportException extends RuntimeException {
+
+    public InvalidImportException(String message) {
+        super(message);
+    }
+}
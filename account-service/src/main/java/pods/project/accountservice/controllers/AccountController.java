@@ -1,6 +1,8 @@
 package pods.project.accountservice.controllers;
 
 import pods.project.accountservice.entities.Account;
+import pods.project.accountservice.services.AccountDeletionSaga;
+import pods.project.accountservice.services.AccountImporter;
 import pods.project.accountservice.services.AccountService;
 import pods.project.accountservice.CustomException.*;
 import org.springframework.http.ResponseEntity;
@@ -13,6 +15,9 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import java.net.*;
 import java.io.*;
 import java.util.*;
@@ -20,28 +25,89 @@ import java.util.*;
 @RestController
 @RequestMapping("/users")
 public class AccountController {
+
+	private static final String NDJSON = "application/x-ndjson";
 	
 	@Autowired
     private AccountService accountService;
 
+	@Autowired
+	private AccountDeletionSaga accountDeletionSaga;
+
+	@Autowired
+	private AccountImporter accountImporter;
+
 	// POST /users/ - Create a new user
     @PostMapping("")
     public ResponseEntity<Object> createAccount(@RequestBody Account account) {
         try{
+			// An earlier user with this id may still be getting its orders and wallet removed
+			accountDeletionSaga.awaitPendingDeletion(account.getId());
 			Account newAccount = accountService.createAccount(account);
 			return new ResponseEntity<>(newAccount, HttpStatus.CREATED);
 		}
 		catch(EmailAlreadyExistsException ex){
 			return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
 		}
+		catch(DeletionInProgressException ex){
+			return new ResponseEntity<>(ex.getMessage(), HttpStatus.CONFLICT);
+		}
 		catch(Exception e){
 			return new ResponseEntity<>("Error in creating account" + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
 		}
 	}
 
+	// POST /users/import - Create many users from a JSON array (application/json) or
+	// CSV (text/csv, columns id,name,email[,discount_availed]) body; reports imported and rejected records
+    @PostMapping("/import")
+    public ResponseEntity<Object> importAccounts(@RequestHeader(value = "Content-Type", required = false) String contentType,
+			InputStream body) {
+        try{
+			if (contentType != null && contentType.startsWith("text/csv")) {
+				return new ResponseEntity<>(accountImporter.importCsv(body), HttpStatus.OK);
+			}
+			if (contentType == null || contentType.startsWith("application/json")) {
+				return new ResponseEntity<>(accountImporter.importJson(body), HttpStatus.OK);
+			}
+			return new ResponseEntity<>("Expected a JSON array or CSV body", HttpStatus.UNSUPPORTED_MEDIA_TYPE);
+		}
+		catch(InvalidImportException ex){
+			return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+		}
+		catch(Exception e){
+			return new ResponseEntity<>("Error in importing accounts" + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+		}
+	}
+
+	// GET /users - List users in id order, a page at a time (pass next_cursor as cursor for the next page)
+    @GetMapping(value = "", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Object> getUsers(@RequestParam(required = false) Integer cursor,
+			@RequestParam(defaultValue = "100") int limit) {
+        try{
+			return new ResponseEntity<>(accountService.getAccountPage(cursor, limit), HttpStatus.OK);
+		}
+		catch(Exception e){
+			return new ResponseEntity<>("Error in listing accounts", HttpStatus.INTERNAL_SERVER_ERROR);
+		}
+    }
+
+	// GET /users with Accept: application/x-ndjson - Every user after the cursor (or all of them),
+	// one JSON object per line, streamed as the database returns them
+    @GetMapping(value = "", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> streamUsers(@RequestParam(required = false) Integer cursor) {
+		StreamingResponseBody body = out -> accountService.streamAccounts(cursor, out);
+		return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON)).body(body);
+    }
+
+	// GET /users/cache/stats - Hits, misses and evictions of the account cache
+    @GetMapping("/cache/stats")
+    public ResponseEntity<Object> getCacheStats() {
+        return new ResponseEntity<>(accountService.getCacheStats(), HttpStatus.OK);
+    }
+
 	// GET /users/{userId} - Retrieve user by userId
+	// (no transaction here: a cache hit needs no database connection)
     @GetMapping("/{userId}")
-    @Transactional
     public ResponseEntity<Object> getUserById(@PathVariable int userId) {
         try{
 			Account account = accountService.getUserById(userId);
@@ -57,7 +123,6 @@ public class AccountController {
 
 	// PUT /users/ - Update the discount_availed field for the user
     @PutMapping("")
-    @Transactional
     public ResponseEntity<Object> updateDiscountAvailed(@RequestBody Account accountDetails) {
         try{
 			Account account = accountService.updateAccount(accountDetails);
@@ -66,12 +131,35 @@ public class AccountController {
 		catch(AccountNotExistsException ex){
 			return new ResponseEntity<>(ex.getMessage(), HttpStatus.NOT_FOUND);
 		}
+		catch(ObjectOptimisticLockingFailureException ex){
+			// Still losing to concurrent writers after the bounded retries
+			return new ResponseEntity<>("Account was updated concurrently, please retry", HttpStatus.CONFLICT);
+		}
 		catch(Exception e){
 			return new ResponseEntity<>("Error in updating account detail", HttpStatus.INTERNAL_SERVER_ERROR);
 		}
     }
 
+	// POST /users/{userId}/claim-discount - Atomically set discount_availed, reporting whether this call won the claim
+    @PostMapping("/{userId}/claim-discount")
+    public ResponseEntity<Object> claimDiscount(@PathVariable int userId) {
+        try{
+			boolean claimed = accountService.claimDiscount(userId);
+			Map<String, Object> result = new HashMap<>();
+			result.put("id", userId);
+			result.put("claimed", claimed);
+			return new ResponseEntity<>(result, HttpStatus.OK);
+		}
+		catch(AccountNotExistsException ex){
+			return new ResponseEntity<>(ex.getMessage(), HttpStatus.NOT_FOUND);
+		}
+		catch(Exception e){
+			return new ResponseEntity<>("Error in claiming discount", HttpStatus.INTERNAL_SERVER_ERROR);
+		}
+    }
+
     // DELETE /users/{userId} - Delete the user and their associated data
+	// (the user is gone from reads right away; orders and wallet are removed in the background)
 	@DeleteMapping("/{userId}")
 	public ResponseEntity<Object> deleteUser(@PathVariable int userId) {
 		try {
@@ -83,14 +171,6 @@ public class AccountController {
 			// Handle specific exception related to user not found
 			return new ResponseEntity<>(ex.getMessage(), HttpStatus.NOT_FOUND);
 		}
-		catch (FailedToCancelOrdersException ex) {
-			// Handle specific exception related to failing to cancel user orders
-			return new ResponseEntity<>(ex.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
-		} 
-		catch (FailedToRemoveWalletException ex) {
-			// Handle specific exception related to failing to remove user wallet
-			return new ResponseEntity<>(ex.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
-		} 
 		catch (Exception e) {
 			// Catch any other generic exceptions
 			return new ResponseEntity<>("Error in deleting account", HttpStatus.INTERNAL_SERVER_ERROR);
@@ -106,14 +186,6 @@ public class AccountController {
 			accountService.deleteAllUser();
 			return new ResponseEntity<>("All User deleted successfully", HttpStatus.OK);
 		}
-		catch (FailedToCancelOrdersException ex) {
-			// Handle specific exception related to failing to cancel users orders
-			return new ResponseEntity<>(ex.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
-		} 
-		catch (FailedToRemoveWalletException ex) {
-			// Handle specific exception related to failing to remove users wallet
-			return new ResponseEntity<>(ex.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
-		} 
 		catch (Exception e) {
 			// Catch any other generic exceptions
 			return new ResponseEntity<>("Error in deleting all user account", HttpStatus.INTERNAL_SERVER_ERROR);
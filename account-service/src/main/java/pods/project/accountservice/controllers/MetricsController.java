@@ -0,0 +1,23 @@
+package pods.project.accountservice.controllers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import pods.project.serviceclient.ServiceClient;
+
+@RestController
+@RequestMapping("/metrics")
+public class MetricsController {
+
+    @Autowired
+    private ServiceClient serviceClient;
+
+    // GET /metrics/http-client - Calls to marketplace-service and wallet-service, per target and endpoint
+    @GetMapping("/http-client")
+    public ResponseEntity<Object> getHttpClientMetrics() {
+        return new ResponseEntity<>(serviceClient.metrics(), HttpStatus.OK);
+    }
+}
@@ -2,6 +2,7 @@ package pods.project.accountservice.entities;
 
 //import javax.persistence.*;
 import jakarta.persistence.*;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 
@@ -18,6 +19,17 @@ public class Account {
     @Column(nullable = false)  // Ensures discount_availed is not null, but defaults to false
     private Boolean discountAvailed = false;
 
+    // Checked on every JPA update, so a write based on a stale read fails instead of overwriting
+    @Version
+    @Column(columnDefinition = "bigint default 0 not null")
+    private Long version;
+
+    // Set when a deletion is accepted; the row stays (hidden from reads, its email still
+    // taken) until the user's orders and wallet are gone, see AccountDeletionSaga
+    @JsonIgnore
+    @Column(columnDefinition = "boolean default false not null")
+    private Boolean deleting = false;
+
     // Getter and Setter for id
     public int getId() {
         return id;
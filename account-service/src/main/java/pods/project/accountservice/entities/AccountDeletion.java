@@ -0,0 +1,60 @@
+package pods.project.accountservice.entities;
+
+import jakarta.persistence.*;
+
+// Outbox row of a user deletion that still has to be carried out in marketplace-service
+// and wallet-service. It is written in the same transaction that marks the account(s)
+// as deleting, and removed in the one that finally deletes them.
+@Entity
+public class AccountDeletion {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // null: DELETE /users (every account marked as deleting at the time)
+    private Integer userId;
+
+    private boolean ordersCancelled;
+
+    private boolean walletRemoved;
+
+    private int attempts;
+
+    // Epoch milliseconds before which the deletion is not retried
+    private long nextAttemptAt;
+
+    @Column(length = 1000)
+    private String lastError;
+
+    public Long getId() {
+        return id;
+    }
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Integer userId) {
+        this.userId = userId;
+    }
+
+    public boolean isOrdersCancelled() {
+        return ordersCancelled;
+    }
+
+    public boolean isWalletRemoved() {
+        return walletRemoved;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public long getNextAttemptAt() {
+        return nextAttemptAt;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+}
@@ -0,0 +1,25 @@
+package pods.project.accountservice.entities;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+// Response of GET /users: accounts in id order after the given cursor, and the cursor to
+// pass for the next page (null when this page is the last one).
+public class AccountPage {
+    List<Account> users;
+    Integer next_cursor;
+
+    public AccountPage(List<Account> users, Integer next_cursor) {
+        this.users = users;
+        this.next_cursor = next_cursor;
+    }
+
+    public List<Account> getUsers() {
+        return users;
+    }
+
+    @JsonProperty("next_cursor")
+    public Integer getNextCursor() {
+        return next_cursor;
+    }
+}
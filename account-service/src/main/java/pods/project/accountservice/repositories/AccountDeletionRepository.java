@@ -0,0 +1,36 @@
+package pods.project.accountservice.repositories;
+
+import pods.project.accountservice.entities.AccountDeletion;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+@Repository
+public interface AccountDeletionRepository extends JpaRepository<AccountDeletion, Long> {
+    @Query(value = "SELECT d FROM AccountDeletion d WHERE d.nextAttemptAt <= :now ORDER BY d.id")
+    List<AccountDeletion> findDue(@Param("now") long now);
+
+    // Whether a deletion of this user (or of all users) is still being carried out
+    @Query(value = "SELECT COUNT(d) > 0 FROM AccountDeletion d WHERE d.userId = :userId OR d.userId IS NULL")
+    boolean existsPendingFor(@Param("userId") int userId);
+
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE AccountDeletion d SET d.ordersCancelled = true WHERE d.id = :id")
+    int markOrdersCancelled(@Param("id") long id);
+
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE AccountDeletion d SET d.walletRemoved = true WHERE d.id = :id")
+    int markWalletRemoved(@Param("id") long id);
+
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE AccountDeletion d SET d.attempts = d.attempts + 1, d.nextAttemptAt = :nextAttemptAt, d.lastError = :error WHERE d.id = :id")
+    int recordFailure(@Param("id") long id, @Param("nextAttemptAt") long nextAttemptAt, @Param("error") String error);
+}
@@ -5,19 +5,99 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 import org.springframework.data.repository.query.Param;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.domain.Limit;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
-import org.springframework.data.jpa.repository.Lock;
-import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.transaction.annotation.Transactional;
 import java.util.Optional;
 
 @Repository
 public interface AccountRepository extends JpaRepository<Account, Integer> {
-    @Lock(LockModeType.PESSIMISTIC_WRITE)
-    @Query(value = "SELECT a FROM Account a WHERE a.email = :email")
-    List<Account> findByEmail(@Param("email") String email);
+    // Sign-up as one INSERT: the primary key and the unique email index reject duplicates,
+    // without a locking read first (DataIntegrityViolationException on either).
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO account (id, name, email, discount_availed, version, deleting) "
+        + "VALUES (:id, :name, :email, :discountAvailed, 0, false)", nativeQuery = true)
+    int insert(@Param("id") int id, @Param("name") String name, @Param("email") String email,
+        @Param("discountAvailed") boolean discountAvailed);
 
-    @Lock(LockModeType.PESSIMISTIC_WRITE)
-    @Query(value = "SELECT a FROM Account a WHERE a.id = :id")
+    // What save() did for a POST with the id of an existing account: overwrite its fields
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query(value = "UPDATE Account a SET a.name = :name, a.email = :email, a.discountAvailed = :discountAvailed, "
+        + "a.version = a.version + 1 WHERE a.id = :id AND a.deleting = false")
+    int overwrite(@Param("id") int id, @Param("name") String name, @Param("email") String email,
+        @Param("discountAvailed") boolean discountAvailed);
+
+    // The deleting flag of the account with this id, or nothing if there is no such row (no lock)
+    @Transactional(readOnly = true)
+    @Query(value = "SELECT a.deleting FROM Account a WHERE a.id = :id")
+    Optional<Boolean> findDeletingById(@Param("id") int id);
+
+    // Whether the email is taken, also by an account still being deleted (no lock)
+    @Transactional(readOnly = true)
+    boolean existsByEmail(String email);
+
+    // Plain MVCC read for lookups: never waits for, or blocks, a concurrent writer.
+    // Accounts being deleted are no longer visible.
+    @Transactional(readOnly = true)
+    @Query(value = "SELECT a FROM Account a WHERE a.id = :id AND a.deleting = false")
     List<Account> findById(@Param("id") int id);
+
+    // Lookup by email for AccountCache
+    @Transactional(readOnly = true)
+    @Query(value = "SELECT a FROM Account a WHERE a.email = :email AND a.deleting = false")
+    List<Account> findActiveByEmail(@Param("email") String email);
+
+    // Keyset pagination for GET /users: seeks to the first id on the primary key index and
+    // reads limit rows from there, however deep the page is (unlike an OFFSET)
+    @Transactional(readOnly = true)
+    @Query(value = "SELECT a FROM Account a WHERE a.id >= :fromId AND a.deleting = false ORDER BY a.id")
+    List<Account> findPage(@Param("fromId") int fromId, Limit limit);
+
+    // The same order as a cursor over the result, fetched from the database a few rows at a time
+    // (GET /users as NDJSON). Call within a transaction and close the stream.
+    @QueryHints({
+        @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+        @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query(value = "SELECT a FROM Account a WHERE a.id >= :fromId AND a.deleting = false ORDER BY a.id")
+    Stream<Account> streamFrom(@Param("fromId") int fromId);
+
+    // Which of these ids / emails are taken (also by accounts being deleted), for AccountImporter
+    @Query(value = "SELECT a.id FROM Account a WHERE a.id IN :ids")
+    List<Integer> findTakenIds(@Param("ids") Collection<Integer> ids);
+
+    @Query(value = "SELECT a.email FROM Account a WHERE a.email IN :emails")
+    List<String> findTakenEmails(@Param("emails") Collection<String> emails);
+
+    // Single conditional UPDATE: returns 1 only for the caller that flips the flag.
+    @Modifying(clearAutomatically = true)
+    @Query(value = "UPDATE Account a SET a.discountAvailed = true, a.version = a.version + 1 WHERE a.id = :id AND a.discountAvailed = false AND a.deleting = false")
+    int claimDiscount(@Param("id") int id);
+
+    // First step of a deletion: returns 1 only for the caller that starts deleting the account
+    @Modifying(clearAutomatically = true)
+    @Query(value = "UPDATE Account a SET a.deleting = true, a.version = a.version + 1 WHERE a.id = :id AND a.deleting = false")
+    int markDeleting(@Param("id") int id);
+
+    @Modifying(clearAutomatically = true)
+    @Query(value = "UPDATE Account a SET a.deleting = true, a.version = a.version + 1 WHERE a.deleting = false")
+    int markAllDeleting();
+
+    // Last step of a deletion, once the user's orders and wallet are gone
+    @Modifying(clearAutomatically = true)
+    @Query(value = "DELETE FROM Account a WHERE a.id = :id AND a.deleting = true")
+    int deleteMarked(@Param("id") int id);
+
+    @Modifying(clearAutomatically = true)
+    @Query(value = "DELETE FROM Account a WHERE a.deleting = true")
+    int deleteAllMarked();
 }
\ No newline at end of file
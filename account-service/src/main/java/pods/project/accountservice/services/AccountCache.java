@@ -0,0 +1,131 @@
+package pods.project.accountservice.services;
+
+import pods.project.accountservice.entities.Account;
+import pods.project.accountservice.repositories.AccountRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import jakarta.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+// Read-through cache of accounts by id, and of account ids by email, in front of AccountRepository.
+//
+// Both are bounded Caffeine caches (W-TinyLFU eviction). Only existing accounts are cached.
+// The cached Account objects are shared between requests, so callers must not modify them
+// (writers read the account from the repository instead).
+//
+// Writers invalidate the account after their transaction commits: a read between the
+// invalidation and the commit would otherwise cache the old row again. A lookup that is
+// still loading when the invalidation comes is discarded by it. The email index needs
+// no invalidation of its own: an email is looked up through the id cache and the entry is
+// dropped when that account is gone or no longer has the email. account.cache.ttl-seconds
+// bounds how stale an entry can get from writes this instance does not see.
+@Component
+public class AccountCache {
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Value("${account.cache.max-size:10000}")
+    private long maxSize;
+
+    @Value("${account.cache.ttl-seconds:60}")
+    private long ttlSeconds;
+
+    private Cache<Integer, Account> accounts;
+    private Cache<String, Integer> emails;
+
+    @PostConstruct
+    public void start() {
+        accounts = Caffeine.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+            .recordStats()
+            .build();
+        emails = Caffeine.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+            .recordStats()
+            .build();
+    }
+
+    public Optional<Account> findById(int userId) {
+        return Optional.ofNullable(accounts.get(userId, id -> {
+            List<Account> found = accountRepository.findById(id.intValue());
+            return found.isEmpty() ? null : found.get(0);
+        }));
+    }
+
+    public Optional<Account> findByEmail(String email) {
+        Integer userId = emails.get(email, key -> {
+            List<Account> found = accountRepository.findActiveByEmail(key);
+            return found.isEmpty() ? null : found.get(0).getId();
+        });
+        if (userId == null) {
+            return Optional.empty();
+        }
+        Optional<Account> account = findById(userId);
+        if (account.isEmpty() || !email.equals(account.get().getEmail())) {
+            // Deleted, or the id now belongs to an account with another email: look it up again
+            emails.asMap().remove(email, userId);
+            return findByEmailUncached(email);
+        }
+        return account;
+    }
+
+    // Drops the account once the current transaction commits (right away outside of one)
+    public void invalidateAfterCommit(int userId) {
+        afterCommit(() -> accounts.invalidate(userId));
+    }
+
+    public void invalidateAllAfterCommit() {
+        afterCommit(accounts::invalidateAll);
+    }
+
+    // Hits, misses and evictions of both caches since startup
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("accounts", toMap(accounts.stats(), accounts.estimatedSize()));
+        stats.put("emails", toMap(emails.stats(), emails.estimatedSize()));
+        return stats;
+    }
+
+    private Optional<Account> findByEmailUncached(String email) {
+        List<Account> found = accountRepository.findActiveByEmail(email);
+        return found.isEmpty() ? Optional.empty() : Optional.of(found.get(0));
+    }
+
+    private void afterCommit(Runnable invalidation) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidation.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                // Committed or rolled back: dropping an entry is always safe
+                invalidation.run();
+            }
+        });
+    }
+
+    private static Map<String, Object> toMap(CacheStats stats, long size) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("size", size);
+        map.put("hits", stats.hitCount());
+        map.put("misses", stats.missCount());
+        map.put("hit_rate", stats.hitRate());
+        map.put("evictions", stats.evictionCount());
+        return map;
+    }
+}
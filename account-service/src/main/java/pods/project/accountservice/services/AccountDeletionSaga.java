@@ -0,0 +1,191 @@
+package pods.project.accountservice.services;
+
+import pods.project.accountservice.entities.AccountDeletion;
+import pods.project.accountservice.repositories.AccountDeletionRepository;
+import pods.project.accountservice.CustomException.DeletionInProgressException;
+import pods.project.accountservice.CustomException.FailedToCancelOrdersException;
+import pods.project.accountservice.CustomException.FailedToRemoveWalletException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Carries out the user deletions recorded in the AccountDeletion outbox.
+//
+// Each deletion cancels the orders in marketplace-service and then removes the wallet(s)
+// in wallet-service, on a worker thread and outside of any database transaction; many
+// deletions run side by side. A step that succeeds is recorded, so a retry only repeats
+// the rest (both are idempotent: a 404 counts as done). When both are done the account(s)
+// are deleted together with the outbox row. A failed deletion is retried with exponential
+// backoff; deletions left over from a previous run are picked up by the periodic scan.
+@Component
+public class AccountDeletionSaga {
+
+    private static final Logger log = LoggerFactory.getLogger(AccountDeletionSaga.class);
+
+    @Autowired
+    private AccountDeletionRepository accountDeletionRepository;
+
+    @Autowired
+    private AccountService accountService;
+
+    @Value("${account.deletion.threads:8}")
+    private int threads;
+
+    @Value("${account.deletion.scan-interval-ms:1000}")
+    private long scanIntervalMillis;
+
+    @Value("${account.deletion.max-backoff-ms:30000}")
+    private long maxBackoffMillis;
+
+    // How long creating an account waits for a pending deletion of the same id
+    @Value("${account.deletion.create-wait-ms:10000}")
+    private long createWaitMillis;
+
+    private ScheduledExecutorService scheduler;
+    private ExecutorService workers;
+    // Deletions currently being carried out by this instance
+    private final Set<Long> running = ConcurrentHashMap.newKeySet();
+    private final Object progress = new Object();
+
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "account-deletion-scan");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger workerCount = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "account-deletion-" + workerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::scan, scanIntervalMillis, scanIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    // Published by AccountService with the new outbox row; starts it right after the commit
+    @TransactionalEventListener
+    public void onDeletionRecorded(AccountDeletion deletion) {
+        run(deletion);
+    }
+
+    // Blocks while a deletion of this user id (or of all users) is still pending, so a new
+    // account with the id is not hit by the old one's cleanup
+    public void awaitPendingDeletion(int userId) {
+        long deadline = System.currentTimeMillis() + createWaitMillis;
+        while (accountDeletionRepository.existsPendingFor(userId)) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new DeletionInProgressException("User with id " + userId + " is still being deleted, please retry.");
+            }
+            synchronized (progress) {
+                try {
+                    // Woken when a deletion finishes; the timeout covers other instances
+                    progress.wait(Math.min(remaining, 100));
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DeletionInProgressException("User with id " + userId + " is still being deleted, please retry.");
+                }
+            }
+        }
+    }
+
+    private void scan() {
+        try {
+            accountDeletionRepository.findDue(System.currentTimeMillis()).forEach(this::run);
+        }
+        catch (Exception e) {
+            log.warn("Scanning pending account deletions failed: {}", e.getMessage());
+        }
+    }
+
+    private void run(AccountDeletion deletion) {
+        if (!running.add(deletion.getId())) {
+            return;
+        }
+        // Read the row again: the deletion may have finished since it was scanned (repeating its
+        // cleanup could hit a new account with the same id), and steps done since are skipped
+        CompletableFuture.supplyAsync(() -> accountDeletionRepository.findById(deletion.getId()), workers)
+            .thenCompose(current -> current.isEmpty() ? CompletableFuture.completedFuture(null) : carryOut(current.get()))
+            .whenComplete((result, error) -> {
+                if (error != null) {
+                    retryLater(deletion, error instanceof CompletionException ? error.getCause() : error);
+                }
+                running.remove(deletion.getId());
+                synchronized (progress) {
+                    progress.notifyAll();
+                }
+            });
+    }
+
+    // Orders first: cancelling them refunds the wallet, and a refund landing after the
+    // wallet was removed would create it again
+    private CompletableFuture<Void> carryOut(AccountDeletion deletion) {
+        return CompletableFuture.runAsync(() -> {
+            if (!deletion.isOrdersCancelled()) {
+                cancelOrders(deletion);
+            }
+            if (!deletion.isWalletRemoved()) {
+                removeWallets(deletion);
+            }
+            accountService.finishDeletion(deletion);
+        }, workers);
+    }
+
+    private void cancelOrders(AccountDeletion deletion) {
+        boolean cancelled = deletion.getUserId() == null ? accountService.cancelAllUsersOrders()
+            : accountService.cancelUserOrders(deletion.getUserId());
+        if (!cancelled) {
+            throw new FailedToCancelOrdersException(deletion.getUserId() == null ? "Failed to cancel users orders"
+                : "Failed to cancel user orders of user with id " + deletion.getUserId());
+        }
+        accountDeletionRepository.markOrdersCancelled(deletion.getId());
+    }
+
+    private void removeWallets(AccountDeletion deletion) {
+        boolean removed = deletion.getUserId() == null ? accountService.removeAllUsersWallets()
+            : accountService.removeUserWallet(deletion.getUserId());
+        if (!removed) {
+            throw new FailedToRemoveWalletException(deletion.getUserId() == null ? "Failed to remove users wallet"
+                : "Failed to remove user wallet of user with id " + deletion.getUserId());
+        }
+        accountDeletionRepository.markWalletRemoved(deletion.getId());
+    }
+
+    private void retryLater(AccountDeletion deletion, Throwable error) {
+        long backoff = Math.min(maxBackoffMillis, 500L << Math.min(deletion.getAttempts(), 16));
+        log.warn("Deletion {} of {} failed (attempt {}), retrying in {} ms: {}", deletion.getId(),
+            deletion.getUserId() == null ? "all users" : "user " + deletion.getUserId(), deletion.getAttempts() + 1, backoff, error.getMessage());
+        try {
+            String message = String.valueOf(error.getMessage());
+            accountDeletionRepository.recordFailure(deletion.getId(), System.currentTimeMillis() + backoff,
+                message.length() > 1000 ? message.substring(0, 1000) : message);
+        }
+        catch (Exception e) {
+            // The next scan retries it right away instead
+            log.warn("Recording the failure of deletion {} failed: {}", deletion.getId(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package pods.project.accountservice.services;
+
+import pods.project.accountservice.entities.Account;
+import pods.project.accountservice.repositories.AccountRepository;
+import pods.project.accountservice.CustomException.InvalidImportException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Bulk creation of accounts from a JSON array or a CSV body (POST /users/import).
+//
+// The body is read as a stream and imported in chunks of account.import.chunk-size
+// accounts, each in its own transaction, so neither the body nor the persistence context
+// grows with the size of the import. A chunk is checked for ids and emails repeated within
+// it, then against the primary key and the unique email index with one query each (earlier
+// chunks are committed by then, so this also catches repeats across chunks); the rest is
+// persisted and written with Hibernate's JDBC batching (hibernate.jdbc.batch_size).
+//
+// Unlike POST /users, an account whose id is taken is rejected rather than overwritten.
+// Rejected records are counted and the first few reported, the import goes on. If a
+// concurrent sign-up takes an id or email between the check and the insert, that chunk is
+// inserted again one account at a time.
+@Component
+public class AccountImporter {
+
+    // Rejected records listed in the result; the rest are only counted
+    private static final int MAX_REPORTED = 100;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private UserEventPublisher userEvents;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${account.import.chunk-size:1000}")
+    private int chunkSize;
+
+    private TransactionTemplate transactions;
+
+    // Next account of the body, or null at its end
+    private interface Records {
+        Account next(Import progress) throws IOException;
+    }
+
+    // Counts of one import
+    private static class Import {
+        long records;
+        long imported;
+        long rejected;
+        // Number of the last user event published for the imported accounts
+        long lastEvent;
+        final List<Map<String, Object>> reported = new ArrayList<>();
+
+        void reject(long record, Integer userId, String reason) {
+            rejected++;
+            if (reported.size() < MAX_REPORTED) {
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("record", record);
+                entry.put("id", userId);
+                entry.put("reason", reason);
+                reported.add(entry);
+            }
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        transactions = new TransactionTemplate(transactionManager);
+    }
+
+    // A JSON array of accounts, in the format POST /users takes
+    public Map<String, Object> importJson(InputStream body) throws IOException {
+        ObjectReader accountReader = objectMapper.readerFor(Account.class);
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new InvalidImportException("Expected a JSON array of accounts");
+            }
+            return importAll(progress -> {
+                JsonToken token = parser.nextToken();
+                if (token == JsonToken.END_ARRAY) {
+                    return null;
+                }
+                if (token != JsonToken.START_OBJECT) {
+                    throw new InvalidImportException("Expected an account object, got " + token);
+                }
+                return accountReader.readValue(parser);
+            });
+        }
+    }
+
+    // CSV with the columns id, name, email and (optionally) discount_availed, in this order
+    // or in the order of a header line naming them
+    public Map<String, Object> importCsv(InputStream body) throws IOException {
+        try (Reader in = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8), 65536)) {
+            return importAll(new CsvRecords(in));
+        }
+    }
+
+    private Map<String, Object> importAll(Records records) throws IOException {
+        long started = System.nanoTime();
+        Import progress = new Import();
+        List<Account> chunk = new ArrayList<>(chunkSize);
+        List<Long> chunkRecords = new ArrayList<>(chunkSize);
+        try {
+            Account account;
+            while ((account = records.next(progress)) != null) {
+                chunk.add(account);
+                chunkRecords.add(++progress.records);
+                if (chunk.size() == chunkSize) {
+                    importChunk(chunk, chunkRecords, progress);
+                    chunk.clear();
+                    chunkRecords.clear();
+                }
+            }
+        }
+        catch (IOException | InvalidImportException e) {
+            throw new InvalidImportException("Malformed input after record " + progress.records + " (" + e.getMessage()
+                + "); " + progress.imported + " accounts were imported before it");
+        }
+        importChunk(chunk, chunkRecords, progress);
+        userEvents.awaitDelivery(progress.lastEvent);
+
+        double seconds = (System.nanoTime() - started) / 1e9;
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("records", progress.records);
+        result.put("imported", progress.imported);
+        result.put("rejected", progress.rejected);
+        result.put("seconds", seconds);
+        result.put("accounts_per_second", seconds > 0 ? Math.round(progress.imported / seconds) : 0);
+        result.put("rejected_records", progress.reported);
+        return result;
+    }
+
+    private void importChunk(List<Account> chunk, List<Long> chunkRecords, Import progress) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        // Repeats within the chunk: the first one wins
+        Set<Integer> ids = new HashSet<>();
+        Set<String> emails = new HashSet<>();
+        List<Account> unique = new ArrayList<>(chunk.size());
+        List<Long> uniqueRecords = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            Account account = chunk.get(i);
+            if (!ids.add(account.getId())) {
+                progress.reject(chunkRecords.get(i), account.getId(), "Duplicate id in import");
+            }
+            else if (account.getEmail() != null && !emails.add(account.getEmail())) {
+                ids.remove(account.getId());
+                progress.reject(chunkRecords.get(i), account.getId(), "Duplicate email in import: " + account.getEmail());
+            }
+            else {
+                unique.add(account);
+                uniqueRecords.add(chunkRecords.get(i));
+            }
+        }
+
+        // Against the index: ids and emails of existing accounts
+        Set<Integer> takenIds = new HashSet<>(accountRepository.findTakenIds(ids));
+        Set<String> takenEmails = emails.isEmpty() ? Set.of() : new HashSet<>(accountRepository.findTakenEmails(emails));
+        List<Account> accepted = new ArrayList<>(unique.size());
+        List<Long> acceptedRecords = new ArrayList<>(unique.size());
+        for (int i = 0; i < unique.size(); i++) {
+            Account account = unique.get(i);
+            if (takenIds.contains(account.getId())) {
+                progress.reject(uniqueRecords.get(i), account.getId(), "Id already exists");
+            }
+            else if (takenEmails.contains(account.getEmail())) {
+                progress.reject(uniqueRecords.get(i), account.getId(), "Email " + account.getEmail() + " already exists");
+            }
+            else {
+                account.setDiscountAvailed(Boolean.TRUE.equals(account.getDiscountAvailed()));
+                accepted.add(account);
+                acceptedRecords.add(uniqueRecords.get(i));
+            }
+        }
+        if (accepted.isEmpty()) {
+            return;
+        }
+
+        try {
+            // New accounts need no cache invalidation: AccountCache does not remember misses
+            transactions.executeWithoutResult(status -> accepted.forEach(entityManager::persist));
+            progress.imported += accepted.size();
+            progress.lastEvent = userEvents.createdAll(accepted.stream().map(Account::getId).toList());
+        }
+        catch (DataIntegrityViolationException e) {
+            // Taken by a concurrent sign-up since the check
+            entityManager.clear();
+            List<Integer> inserted = new ArrayList<>(accepted.size());
+            for (int i = 0; i < accepted.size(); i++) {
+                if (insertOne(accepted.get(i), acceptedRecords.get(i), progress)) {
+                    inserted.add(accepted.get(i).getId());
+                }
+            }
+            progress.lastEvent = userEvents.createdAll(inserted);
+        }
+        finally {
+            // The request's EntityManager outlives the transaction (open-in-view): let go of the
+            // chunk, or every later flush would check all accounts imported so far
+            entityManager.clear();
+        }
+    }
+
+    private boolean insertOne(Account account, long record, Import progress) {
+        try {
+            accountRepository.insert(account.getId(), account.getName(), account.getEmail(), account.getDiscountAvailed());
+            progress.imported++;
+            return true;
+        }
+        catch (DataIntegrityViolationException e) {
+            progress.reject(record, account.getId(), account.getEmail() != null && accountRepository.existsByEmail(account.getEmail())
+                ? "Email " + account.getEmail() + " already exists" : "Id already exists");
+            return false;
+        }
+    }
+
+    private static class CsvRecords implements Records {
+        final Reader in;
+        // Column of each field; the default order unless the first line is a header
+        final Map<String, Integer> columns = new HashMap<>(Map.of("id", 0, "name", 1, "email", 2, "discount_availed", 3));
+        boolean started;
+
+        CsvRecords(Reader in) {
+            this.in = in;
+        }
+
+        @Override
+        public Account next(Import progress) throws IOException {
+            while (true) {
+                List<String> fields = readCsvRecord(in);
+                if (fields == null) {
+                    return null;
+                }
+                if (fields.size() == 1 && fields.get(0).isBlank()) {
+                    continue;
+                }
+                if (!started) {
+                    started = true;
+                    if (fields.get(0).trim().equalsIgnoreCase("id")) {
+                        readHeader(fields);
+                        continue;
+                    }
+                }
+                Account account = new Account();
+                try {
+                    account.setId(Integer.parseInt(field(fields, "id").trim()));
+                }
+                catch (NullPointerException | NumberFormatException e) {
+                    progress.reject(++progress.records, null, "Invalid id: " + field(fields, "id"));
+                    continue;
+                }
+                account.setName(field(fields, "name"));
+                String email = field(fields, "email");
+                account.setEmail(email == null || email.isBlank() ? null : email.trim());
+                String discountAvailed = field(fields, "discount_availed");
+                account.setDiscountAvailed(discountAvailed != null && Boolean.parseBoolean(discountAvailed.trim()));
+                return account;
+            }
+        }
+
+        private void readHeader(List<String> header) {
+            columns.clear();
+            for (int i = 0; i < header.size(); i++) {
+                columns.put(header.get(i).trim().toLowerCase(), i);
+            }
+        }
+
+        private String field(List<String> fields, String name) {
+            Integer column = columns.get(name);
+            return column == null || column >= fields.size() ? null : fields.get(column);
+        }
+    }
+
+    // One record as RFC 4180 fields (quoted fields may hold commas, quotes and line breaks),
+    // or null at the end of the input
+    private static List<String> readCsvRecord(Reader in) throws IOException {
+        int c = in.read();
+        if (c == -1) {
+            return null;
+        }
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    throw new InvalidImportException("Unterminated quoted CSV field");
+                }
+                if (c == '"') {
+                    c = in.read();
+                    if (c != '"') {
+                        quoted = false;
+                        continue;
+                    }
+                }
+                field.append((char) c);
+            }
+            else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            }
+            else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            }
+            else if (c == '\n' || c == -1) {
+                fields.add(field.toString());
+                return fields;
+            }
+            else if (c != '\r') {
+                field.append((char) c);
+            }
+            c = in.read();
+        }
+    }
+}
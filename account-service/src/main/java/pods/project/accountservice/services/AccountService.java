@@ -1,258 +1,325 @@
 package pods.project.accountservice.services;
 
 import pods.project.accountservice.entities.Account;
+import pods.project.accountservice.entities.AccountDeletion;
+import pods.project.accountservice.entities.AccountPage;
+import pods.project.accountservice.repositories.AccountDeletionRepository;
 import pods.project.accountservice.repositories.AccountRepository;
 import pods.project.accountservice.CustomException.AccountNotExistsException;
+import pods.project.accountservice.CustomException.DeletionInProgressException;
 import pods.project.accountservice.CustomException.EmailAlreadyExistsException;
-import pods.project.accountservice.CustomException.FailedToCancelOrdersException;
-import pods.project.accountservice.CustomException.FailedToRemoveWalletException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.client.RestTemplate;
-import org.springframework.http.ResponseEntity;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.HttpStatus;
 import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.web.client.HttpClientErrorException;
-
-
-
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import pods.project.serviceclient.ServiceCallException;
+import pods.project.serviceclient.ServiceClient;
+import pods.project.serviceclient.ServiceRequest;
+import pods.project.serviceclient.ServiceResponse;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class AccountService {
 
+    private static final int MAX_UPDATE_ATTEMPTS = 5;
+    private static final int MAX_CREATE_ATTEMPTS = 5;
+    // Accounts streamed between clearing the persistence context (the fetch size of streamFrom)
+    private static final int STREAM_CLEAR_INTERVAL = 500;
+
     @Autowired
     private AccountRepository accountRepository;
 
     @Autowired
-    private RestTemplate restTemplate;
+    private AccountDeletionRepository accountDeletionRepository;
+
+    @Autowired
+    private AccountCache accountCache;
+
+    @Autowired
+    private UserEventPublisher userEvents;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private ServiceClient serviceClient;
+
+    @Autowired
+    private ObjectMapper objectMapper;
 
-    @Value("${service2.delete.userid.marketplace-url}")
-    private String userMarketplaceUrl;
+    @PersistenceContext
+    private EntityManager entityManager;
 
-    @Value("${service2.delete.all.marketplace-url}")
-    private String allMarketplaceUrl;
+    // Largest page GET /users returns
+    @Value("${account.listing.max-page:1000}")
+    private int maxPageSize;
 
-    @Value("${service3.delete.userid.wallet-url}")
-    private String userWalletUrl;
+    @Value("${service2.delete.userid.marketplace-path}")
+    private String userMarketplacePath;
 
-    @Value("${service3.delete.all.wallet-url}")
-    private String allWalletUrl;
+    @Value("${service2.delete.all.marketplace-path}")
+    private String allMarketplacePath;
 
+    @Value("${service3.delete.userid.wallet-path}")
+    private String userWalletPath;
+
+    @Value("${service3.delete.all.wallet-path}")
+    private String allWalletPath;
+
+    @Autowired
+    private WalletPartitions walletPartitions;
 
-    public List<Account> getAllAccount() {
-        return accountRepository.findAll();
+
+    // One page of GET /users: up to limit accounts with an id above the cursor (from the
+    // first account without one), and the cursor of the page after it
+    public AccountPage getAccountPage(Integer cursor, int limit) {
+        int size = Math.max(1, Math.min(limit, maxPageSize));
+        if (cursor != null && cursor == Integer.MAX_VALUE) {
+            return new AccountPage(List.of(), null);
+        }
+        List<Account> accounts = accountRepository.findPage(cursor == null ? Integer.MIN_VALUE : cursor + 1, Limit.of(size));
+        return new AccountPage(accounts, accounts.size() == size ? accounts.get(size - 1).getId() : null);
+    }
+
+    // Writes every account with an id above the cursor to out, one JSON object per line in id
+    // order. Only about one fetch of rows is in memory: the persistence context is cleared
+    // after each. The read transaction stays open while the client reads, hence its own timeout.
+    @Transactional(readOnly = true, timeoutString = "${account.listing.stream-timeout-seconds:3600}")
+    public long streamAccounts(Integer cursor, OutputStream out) throws IOException {
+        if (cursor != null && cursor == Integer.MAX_VALUE) {
+            return 0;
+        }
+        ObjectWriter writer = objectMapper.writerFor(Account.class);
+        long written = 0;
+        try (Stream<Account> accounts = accountRepository.streamFrom(cursor == null ? Integer.MIN_VALUE : cursor + 1);
+             JsonGenerator json = objectMapper.getFactory().createGenerator(out)) {
+            json.setRootValueSeparator(new SerializedString("\n"));
+            Iterator<Account> iterator = accounts.iterator();
+            while (iterator.hasNext()) {
+                writer.writeValue(json, iterator.next());
+                if (++written % STREAM_CLEAR_INTERVAL == 0) {
+                    entityManager.clear();
+                }
+            }
+            json.writeRaw('\n');
+        }
+        return written;
     }
 
     // Method to check if an account exists with the given userId
+    // (served from AccountCache: the returned account must not be modified)
     public Account getUserById(int userId) {
         // Try to find the user by userId
-        List<Account> account = accountRepository.findById(userId);
-        if (account.isEmpty()) {
-            throw new AccountNotExistsException("User with id " + userId + " does not exist.");
-        }
-        return account.get(0);
+        return accountCache.findById(userId)
+            .orElseThrow(() -> new AccountNotExistsException("User with id " + userId + " does not exist."));
+    }
+
+    public Map<String, Object> getCacheStats() {
+        return accountCache.stats();
     }
 
-    // Method to check if an account exists with the given email
+    // Method to check if an account exists with the given email (served from AccountCache)
     public List<Account> findByEmail(String email) {
-        return accountRepository.findByEmail(email);
+        return accountCache.findByEmail(email).map(List::of).orElse(List.of());
     }
 
     // Update the account (set discountAvailed to true or false)
+    // Optimistic: the save fails on @Version if the account changed since it was read,
+    // in which case it is read again and retried a bounded number of times.
     public Account updateAccount(Account accountDetails) {
-        // Try to find the user by userId
-        Account existingAccount = null;
-        try{
-            existingAccount = this.getUserById(accountDetails.getId());
-        }
-        catch(AccountNotExistsException ex){
-            throw ex;
-        }
+        for (int attempt = 1; ; attempt++) {
+            // Try to find the user by userId (not from the cache: the account is modified below)
+            List<Account> found = accountRepository.findById(accountDetails.getId());
+            if (found.isEmpty()) {
+                throw new AccountNotExistsException("User with id " + accountDetails.getId() + " does not exist.");
+            }
+            Account existingAccount = found.get(0);
 
-        // Update the discount_availed field
-        existingAccount.setDiscountAvailed(accountDetails.getDiscountAvailed());
+            // Update the discount_availed field
+            existingAccount.setDiscountAvailed(accountDetails.getDiscountAvailed());
 
-        // Save the updated account
-        return accountRepository.save(existingAccount);
+            // Save the updated account
+            try {
+                Account saved = accountRepository.save(existingAccount);
+                accountCache.invalidateAfterCommit(saved.getId());
+                userEvents.updatedAfterCommit(saved.getId());
+                return saved;
+            }
+            catch (ObjectOptimisticLockingFailureException ex) {
+                if (attempt == MAX_UPDATE_ATTEMPTS) {
+                    throw ex;
+                }
+            }
+        }
     }
     
-    // Method to create a new account
+    // Atomically claim the first-order discount; true only for the request that wins the claim
     @Transactional
+    public boolean claimDiscount(int userId) {
+        if (accountRepository.claimDiscount(userId) == 1) {
+            accountCache.invalidateAfterCommit(userId);
+            return true;
+        }
+        // Nothing updated: either the discount was already availed or the user does not exist
+        if (!accountRepository.existsById(userId)) {
+            throw new AccountNotExistsException("User with id " + userId + " does not exist.");
+        }
+        return false;
+    }
+
+    // Method to create a new account
+    // Insert first: the unique email index decides, so concurrent sign-ups never wait on
+    // each other's locks. Not @Transactional: the failed insert must not doom a surrounding
+    // transaction, since the fallback still has to run.
     public Account createAccount(Account account) {
-        // Check if the email already exists in the database
-        List<Account> existingAccount = accountRepository.findByEmail(account.getEmail());
+        boolean discountAvailed = Boolean.TRUE.equals(account.getDiscountAvailed());
+        for (int attempt = 1; ; attempt++) {
+            try {
+                accountRepository.insert(account.getId(), account.getName(), account.getEmail(), discountAvailed);
+                break;
+            }
+            catch (DataIntegrityViolationException ex) {
+                // If the email already exists, throw an exception
+                if (accountRepository.existsByEmail(account.getEmail())) {
+                    throw new EmailAlreadyExistsException("Email " + account.getEmail() + " already exists.");
+                }
+                // Otherwise the id is taken: an existing account with the same id is overwritten
+                if (overwriteAccount(account, discountAvailed)) {
+                    break;
+                }
+                if (attempt == MAX_CREATE_ATTEMPTS) {
+                    throw new IllegalStateException("User with id " + account.getId() + " kept changing while it was being created.");
+                }
+            }
+        }
+        accountCache.invalidateAfterCommit(account.getId());
+        userEvents.created(account.getId());
+        account.setDiscountAvailed(discountAvailed);
+        return account;
+    }
 
-        // If the email already exists, throw an exception
-        if (!existingAccount.isEmpty()) {
+    // False if the account changed under the overwrite and the insert should be tried again:
+    // it finished being deleted, or the row the insert collided with was not committed yet
+    // (two creations of the same new id racing). Only a row marked deleting is a conflict.
+    private boolean overwriteAccount(Account account, boolean discountAvailed) {
+        int updated;
+        try {
+            updated = accountRepository.overwrite(account.getId(), account.getName(), account.getEmail(), discountAvailed);
+        }
+        catch (DataIntegrityViolationException ex) {
+            // The email was taken in the meantime
             throw new EmailAlreadyExistsException("Email " + account.getEmail() + " already exists.");
         }
-
-        // If email does not exist, create the new account and return result
-        return accountRepository.save(account);
+        if (updated == 1) {
+            return true;
+        }
+        if (accountRepository.findDeletingById(account.getId()).orElse(false)) {
+            throw new DeletionInProgressException("User with id " + account.getId() + " is still being deleted, please retry.");
+        }
+        return false;
     }
 
-    // Delete user by userId
+    // Delete user by userId.
+    // Only marks the account as deleting and records the deletion in the outbox, in one
+    // transaction; AccountDeletionSaga cancels the orders and removes the wallet after the
+    // commit and then deletes the account (see finishDeletion).
     @Transactional
     public void deleteUser(int userId) {
-        // Step 1: Check if the user exists
-        try{
-            Account existingAccount = this.getUserById(userId);
-        }
-        catch(AccountNotExistsException ex){
-            throw ex;
-        }
-
-        // Step 2: Call DELETE /marketplace/users/{userId} to cancel the user's orders
-        boolean ordersDeleted = this.cancelUserOrders(userId);
-
-        if (!ordersDeleted) {
-          throw new FailedToCancelOrdersException("Failed to cancel user orders of user with id " + userId);
+        // Step 1: Check if the user exists and is not already being deleted
+        if (accountRepository.markDeleting(userId) == 0) {
+            throw new AccountNotExistsException("User with id " + userId + " does not exist.");
         }
 
-        // Step 3: Call DELETE /wallets/{userId} to remove the user's wallet
-        boolean walletDeleted = this.removeUserWallet(userId);
-
-        if (!walletDeleted) {
-            throw new FailedToRemoveWalletException("Failed to remove user wallet of user with id " + userId);
-        }
+        accountCache.invalidateAfterCommit(userId);
+        userEvents.deletedAfterCommit(userId);
 
-        // Step 4: Delete the user in the Account Service
-        accountRepository.deleteById(userId);
+        // Step 2: Record the remote cleanup that has to happen
+        AccountDeletion deletion = new AccountDeletion();
+        deletion.setUserId(userId);
+        eventPublisher.publishEvent(accountDeletionRepository.save(deletion));
     }
 
-    // Delete all user
+    // Delete all user (the same way as deleteUser, for every account)
     @Transactional
     public void deleteAllUser() {
+        accountRepository.markAllDeleting();
+        accountCache.invalidateAllAfterCommit();
+        userEvents.allDeletedAfterCommit();
+        eventPublisher.publishEvent(accountDeletionRepository.save(new AccountDeletion()));
+    }
 
-        // Step 1: Call DELETE /marketplace/users/ to cancel the users orders
-        boolean ordersDeleted = this.cancelAllUsersOrders();
-
-        if (!ordersDeleted) {
-           throw new FailedToCancelOrdersException("Failed to cancel users orders");
+    // Last step of a deletion, once its orders and wallets are gone
+    @Transactional
+    public void finishDeletion(AccountDeletion deletion) {
+        if (deletion.getUserId() == null) {
+            accountRepository.deleteAllMarked();
         }
-
-        // Step 2: Call DELETE /wallets/ to remove the users wallet
-        boolean walletDeleted = this.removeAllUsersWallets();
-
-        if (!walletDeleted) {
-            throw new FailedToRemoveWalletException("Failed to remove users wallet");
+        else {
+            accountRepository.deleteMarked(deletion.getUserId());
         }
-
-        // Step 3: Delete all the users in the Account Service
-        accountRepository.deleteAll();
+        accountDeletionRepository.deleteById(deletion.getId());
     }
 
     public boolean cancelAllUsersOrders(){
-        try {
-            String url = allMarketplaceUrl;
-
-            // Make the API call
-            ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.DELETE, null, String.class);
-
-            // Handle specific HTTP status codes
-            if (response.getStatusCode() == HttpStatus.OK || response.getStatusCode() == HttpStatus.NOT_FOUND) {
-                // Success (200), Not found 404 
-                return true;
-            } 
-            else {
-                // Handle any other response codes as a 500 internal error
-                return false;
-            }
-        }
-        catch (HttpClientErrorException.NotFound ex) {
-            // Handle 404 Not Found exception separately
-            return true; 
-        }
-        catch (Exception e) {
-            // Catch any other exceptions
-            return false;
-        }
+        return removed(serviceClient.target("marketplace").delete(allMarketplacePath));
     }
 
-
+    // DELETE /wallets goes to every wallet partition in parallel; all of them must succeed
     public boolean removeAllUsersWallets(){
-        try {
-            String url = allWalletUrl;
-
-            // Make the API call
-            ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.DELETE, null, String.class);
-
-            // Handle specific HTTP status codes
-            if (response.getStatusCode() == HttpStatus.OK || response.getStatusCode() == HttpStatus.NOT_FOUND) {
-                // Success (200), Not found 404 
-                return true;
-            } 
-            else {
-                // Handle any other response codes as a 500 internal error
-                return false;
-            }
-        }
-        catch (HttpClientErrorException.NotFound ex) {
-            // Handle 404 Not Found exception separately
-            return true; 
-        }
-        catch (Exception e) {
-            // Catch any other exceptions
-            return false;
+        List<CompletableFuture<Boolean>> removals = new ArrayList<>();
+        for (int partition = 0; partition < walletPartitions.all().size(); partition++) {
+            removals.add(serviceClient.target(WalletPartitions.targetName(partition)).delete(allWalletPath).sendAsync()
+                .handle((response, failure) -> failure == null && removed(response)));
         }
+        return removals.stream().allMatch(CompletableFuture::join);
     }
 
     public boolean cancelUserOrders(int userId){
-        try {
-            String url = userMarketplaceUrl.replace("{userId}", String.valueOf(userId)); // Replace the placeholder {userId} with actual userId
-
-            // Make the API call
-            ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.DELETE, null, String.class);
-
-            // Handle specific HTTP status codes
-            if (response.getStatusCode() == HttpStatus.OK || response.getStatusCode() == HttpStatus.NOT_FOUND) {
-                // Success (200) , Not found 404 
-                return true;
-            } 
-            else {
-                // Handle any other response codes as a 500 internal error
-                return false;
-            }
-        }
-        catch (HttpClientErrorException.NotFound ex) {
-            // Handle 404 Not Found exception separately
-            return true; 
-        }
-        catch (Exception e) {
-            // Catch any other exceptions
-            return false;
-        }
+        // Replace the placeholder {userId} with actual userId
+        String path = userMarketplacePath.replace("{userId}", String.valueOf(userId));
+        return removed(serviceClient.target("marketplace").delete(path));
     }
 
     public boolean removeUserWallet(int userId){
+        // Replace the placeholder {userId} with actual userId, on the partition owning the user's wallet
+        String path = userWalletPath.replace("{userId}", String.valueOf(userId));
+        return removed(serviceClient.target(walletPartitions.targetFor(userId)).delete(path));
+    }
+
+    private boolean removed(ServiceRequest request) {
         try {
-            String url = userWalletUrl.replace("{userId}", String.valueOf(userId)); // Replace the placeholder {userId} with actual userId
-            
-            // Make the API call
-            ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.DELETE, null, String.class);
-
-            // Handle specific HTTP status codes
-            if (response.getStatusCode() == HttpStatus.OK || response.getStatusCode() == HttpStatus.NOT_FOUND) {
-                // Success (200), Not found 404
-                return true;
-            } 
-            else {
-                // Handle any other response codes as a 500 internal error
-                return false;
-            }
-        }
-        catch (HttpClientErrorException.NotFound ex) {
-            // Handle 404 Not Found exception separately
-            return true; 
+            return removed(request.send());
         }
-        catch (Exception e) {
-            // Catch any other exceptions
+        catch (ServiceCallException e) {
+            // No response, even after the client's retries
             return false;
         }
     }
 
+    private static boolean removed(ServiceResponse response) {
+        // Success (200), Not found 404; any other response code is an internal error
+        return response.status == 200 || response.status == 404;
+    }
+
 }
\ No newline at end of file
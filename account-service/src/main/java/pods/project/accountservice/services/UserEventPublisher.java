@@ -0,0 +1,213 @@
+package pods.project.accountservice.services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import pods.project.serviceclient.ServiceClient;
+import pods.project.serviceclient.ServiceResponse;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// Pushes account creations, deletions and updates to marketplace-service (POST /marketplace/user-events),
+// which keeps the set of existing user ids to turn away orders of unknown users locally, and
+// reloads the profiles (discount_availed) it caches of the users named.
+//
+// Events are numbered in the order they happen and delivered in that order, in batches, by
+// one sender thread; a failed delivery is retried with backoff until it gets through. The
+// stream id changes on every start, and events that do not fit in account.user-events.capacity
+// are dropped, so the marketplace sees a gap in the numbers whenever it may have missed
+// something, and then reloads the ids from GET /users.
+//
+// A creation waits (up to create-wait-ms) for the marketplace to have it, so an order placed
+// right after the sign-up is not turned away. Deletions are not waited for: a user the
+// marketplace still knows of fails at the wallet instead.
+@Component
+public class UserEventPublisher {
+
+    private static final Logger log = LoggerFactory.getLogger(UserEventPublisher.class);
+
+    @Value("${account.user-events.enabled:true}")
+    private boolean enabled;
+
+    @Value("${account.user-events.capacity:100000}")
+    private int capacity;
+
+    @Value("${account.user-events.max-batch:500}")
+    private int maxBatch;
+
+    @Value("${account.user-events.create-wait-ms:1000}")
+    private long createWaitMillis;
+
+    @Value("${account.user-events.max-backoff-ms:5000}")
+    private long maxBackoffMillis;
+
+    @Autowired
+    private ServiceClient serviceClient;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private Thread sender;
+    private final String stream = Long.toHexString(UUID.randomUUID().getMostSignificantBits() & Long.MAX_VALUE);
+
+    // Guarded by this
+    private final ArrayDeque<Map<String, Object>> queue = new ArrayDeque<>();
+    private long lastSeq;
+    private long deliveredSeq;
+    // The last delivery failed: nobody waits for deliveries until one gets through again
+    private boolean failing;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        sender = new Thread(this::deliver, "user-events");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (sender != null) {
+            sender.interrupt();
+        }
+    }
+
+    // Call once the account is committed; returns when the marketplace has it (or after create-wait-ms)
+    public void created(int userId) {
+        awaitDelivery(publish("created", List.of(userId)));
+    }
+
+    // Many accounts at once (bulk import); returns the event's number to pass to awaitDelivery
+    public long createdAll(Collection<Integer> userIds) {
+        return publish("created", userIds);
+    }
+
+    public void deletedAfterCommit(int userId) {
+        afterCommit(() -> publish("deleted", List.of(userId)));
+    }
+
+    // PUT /users changed the account (discount_availed)
+    public void updatedAfterCommit(int userId) {
+        afterCommit(() -> publish("updated", List.of(userId)));
+    }
+
+    public void allDeletedAfterCommit() {
+        afterCommit(() -> publish("all-deleted", List.of()));
+    }
+
+    public void awaitDelivery(long seq) {
+        long deadline = System.currentTimeMillis() + createWaitMillis;
+        synchronized (this) {
+            while (deliveredSeq < seq && !failing) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return;
+                }
+                try {
+                    wait(remaining);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private synchronized long publish(String type, Collection<Integer> userIds) {
+        if (!enabled) {
+            return 0;
+        }
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("seq", ++lastSeq);
+        event.put("type", type);
+        event.put("ids", userIds);
+        queue.addLast(event);
+        if (queue.size() > capacity) {
+            // The marketplace notices the gap and reloads the ids
+            queue.removeFirst();
+        }
+        notifyAll();
+        return lastSeq;
+    }
+
+    private void deliver() {
+        long backoff = 100;
+        while (!Thread.currentThread().isInterrupted()) {
+            List<Map<String, Object>> batch;
+            synchronized (this) {
+                try {
+                    while (queue.isEmpty()) {
+                        wait();
+                    }
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+                batch = new ArrayList<>(queue.stream().limit(maxBatch).toList());
+            }
+            long upTo = (Long) batch.get(batch.size() - 1).get("seq");
+            try {
+                // The marketplace skips events it already has, so a delivery may be sent again
+                ServiceResponse response = serviceClient.target("marketplace").post("/marketplace/user-events")
+                    .json(objectMapper.writeValueAsString(Map.of("stream", stream, "events", batch)))
+                    .idempotent(true)
+                    .send();
+                if (response.status != 200) {
+                    throw new IllegalStateException("POST /marketplace/user-events answered " + response.status);
+                }
+                synchronized (this) {
+                    while (!queue.isEmpty() && (Long) queue.peekFirst().get("seq") <= upTo) {
+                        queue.removeFirst();
+                    }
+                    deliveredSeq = upTo;
+                    failing = false;
+                    notifyAll();
+                }
+                backoff = 100;
+            }
+            catch (Exception e) {
+                synchronized (this) {
+                    failing = true;
+                    notifyAll();
+                }
+                log.debug("Delivering user events up to {} failed, retrying in {} ms: {}", upTo, backoff, e.getMessage());
+                try {
+                    Thread.sleep(backoff);
+                }
+                catch (InterruptedException interrupted) {
+                    return;
+                }
+                backoff = Math.min(maxBackoffMillis, backoff * 2);
+            }
+        }
+    }
+
+    private void afterCommit(Runnable publication) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            publication.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                publication.run();
+            }
+        });
+    }
+}
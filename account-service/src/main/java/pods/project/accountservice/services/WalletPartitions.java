@@ -0,0 +1,46 @@
+package pods.project.accountservice.services;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+// Routes wallet calls to the wallet-service partition that owns the user.
+//
+// User ids are hashed onto the 32-bit range, which is split into one equal slice per
+// URL in wallet.partition.urls (in order); partitionOf() must match WalletPartition in
+// wallet-service, which rejects users outside its slice with 421.
+@Component
+public class WalletPartitions {
+
+    @Value("${wallet.partition.urls}")
+    private List<String> urls;
+
+    @PostConstruct
+    public void validate() {
+        if (urls.isEmpty()) {
+            throw new IllegalStateException("wallet.partition.urls must list at least one wallet-service URL");
+        }
+    }
+
+    public static int partitionOf(int userId, int count) {
+        int hash = userId * 0x9E3779B9;
+        hash ^= hash >>> 16;
+        return (int) (((hash & 0xFFFFFFFFL) * count) >>> 32);
+    }
+
+    // Name of the partition's target in the ServiceClient (see AccountConfig)
+    public static String targetName(int partition) {
+        return "wallet-" + partition;
+    }
+
+    // Target of the partition owning the user's wallet
+    public String targetFor(int userId) {
+        return targetName(partitionOf(userId, urls.size()));
+    }
+
+    public List<String> all() {
+        return urls;
+    }
+}
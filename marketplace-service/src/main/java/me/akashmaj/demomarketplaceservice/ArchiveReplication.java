@@ -0,0 +1,125 @@
+package me.akashmaj.demomarketplaceservice;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.*;
+import akka.actor.typed.receptionist.Receptionist;
+import akka.actor.typed.receptionist.ServiceKey;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Copies every record of this node's order archive to the other marketplace nodes, so every
+// node's archive holds the latest state of every order, wherever its entity runs.
+//
+// Each node has its own archive directory and one of these actors, found through the
+// receptionist. A record appended here (Order.changeStatus) is sent to every known peer; a node
+// seen for the first time is sent the whole archive. Records are merged with
+// OrderArchive.merge, which never replaces a DELIVERED/CANCELLED state, so copies arriving twice
+// or late are harmless. This lets the Gateway allocate ids, answer GETs and find the orders to
+// reset from its own node's archive, and an Order entity whose shard moved to another node
+// reload its state there. A record still on its way when its node crashes is lost.
+public class ArchiveReplication extends AbstractBehavior<ArchiveReplication.Command> {
+
+    public static final ServiceKey<Command> SERVICE_KEY = ServiceKey.create(Command.class, "OrderArchiveReplication");
+
+    // Records per message when catching a node up, so each stays well below artery's frame size
+    private static final int CATCH_UP_BATCH = 200;
+
+    private final OrderArchive archive;
+    private Set<ActorRef<Command>> peers = new HashSet<>();
+
+    public static Behavior<Command> create(OrderArchive archive) {
+        return Behaviors.setup(context -> new ArchiveReplication(context, archive));
+    }
+
+    private ArchiveReplication(ActorContext<Command> context, OrderArchive archive) {
+        super(context);
+        this.archive = archive;
+        ActorRef<Receptionist.Listing> listingAdapter = context.messageAdapter(Receptionist.Listing.class, PeersChanged::new);
+        context.getSystem().receptionist().tell(Receptionist.register(SERVICE_KEY, context.getSelf()));
+        context.getSystem().receptionist().tell(Receptionist.subscribe(SERVICE_KEY, listingAdapter));
+    }
+
+    @Override
+    public Receive<Command> createReceive() {
+        return newReceiveBuilder()
+            .onMessage(Publish.class, this::onPublish)
+            .onMessage(Replicate.class, this::onReplicate)
+            .onMessage(PeersChanged.class, this::onPeersChanged)
+            .build();
+    }
+
+    private Behavior<Command> onPublish(Publish msg) {
+        Replicate replicate = new Replicate(List.of(msg.record));
+        peers.forEach(peer -> peer.tell(replicate));
+        return this;
+    }
+
+    private Behavior<Command> onReplicate(Replicate msg) {
+        msg.records.forEach(archive::merge);
+        return this;
+    }
+
+    private Behavior<Command> onPeersChanged(PeersChanged msg) {
+        Set<ActorRef<Command>> current = new HashSet<>(msg.listing.getServiceInstances(SERVICE_KEY));
+        current.remove(getContext().getSelf());
+        for (ActorRef<Command> peer : current) {
+            if (!peers.contains(peer)) {
+                catchUp(peer);
+            }
+        }
+        peers = current;
+        return this;
+    }
+
+    // Sends a newly seen node everything archived here; records appended later reach it through onPublish
+    private void catchUp(ActorRef<Command> peer) {
+        List<OrderArchive.Record> batch = new ArrayList<>(CATCH_UP_BATCH);
+        int sent = 0;
+        for (int orderId = 1; orderId <= archive.maxOrderId(); orderId++) {
+            OrderArchive.Record record = archive.lookup(orderId);
+            if (record == null) {
+                continue;
+            }
+            batch.add(record);
+            if (batch.size() == CATCH_UP_BATCH) {
+                peer.tell(new Replicate(batch));
+                sent += batch.size();
+                batch = new ArrayList<>(CATCH_UP_BATCH);
+            }
+        }
+        if (!batch.isEmpty()) {
+            peer.tell(new Replicate(batch));
+            sent += batch.size();
+        }
+        getContext().getLog().info("Sent {} archived orders to {}", sent, peer.path().address());
+    }
+
+    public interface Command {}
+
+    // A record this node just appended (never leaves this node)
+    public static class Publish implements Command {
+        public final OrderArchive.Record record;
+        public Publish(OrderArchive.Record record) { this.record = record; }
+    }
+
+    // Records appended on another node
+    public static class Replicate implements Command {
+        public final List<OrderArchive.Record> records;
+
+        @JsonCreator
+        public Replicate(@JsonProperty("records") List<OrderArchive.Record> records) {
+            this.records = records;
+        }
+    }
+
+    private static class PeersChanged implements Command {
+        final Receptionist.Listing listing;
+        PeersChanged(Receptionist.Listing listing) { this.listing = listing; }
+    }
+}
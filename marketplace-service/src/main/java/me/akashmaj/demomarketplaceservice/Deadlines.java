@@ -0,0 +1,71 @@
+package me.akashmaj.demomarketplaceservice;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.typesafe.config.Config;
+import pods.project.serviceclient.ServiceRequest;
+
+import java.time.Duration;
+import java.time.Instant;
+
+// Deadline of each request to the marketplace's HTTP API, with the settings of marketplace.deadlines.
+//
+// It is the time the client still waits: its X-Deadline-Ms header (which ServiceClient sends
+// with every call, e.g. account-service's) capped at max, or else the endpoint's default. It
+// travels with the Gateway message into PostOrder and DeleteOrder, which stop working on the
+// request once it has passed and give their wallet and account calls what is left of it. The
+// HTTP response is 504 once the deadline (plus answer-grace) has passed without an answer.
+public class Deadlines {
+
+    // Endpoints with a default of their own under marketplace.deadlines.endpoints
+    public static final String GET_PRODUCTS = "get-products";
+    public static final String GET_PRODUCT = "get-product";
+    public static final String CREATE_ORDER = "create-order";
+    public static final String GET_ORDER = "get-order";
+    public static final String CANCEL_ORDER = "cancel-order";
+    public static final String RESET = "reset";
+
+    private final Config endpoints;
+    private final Duration defaultTimeout;
+    private final Duration max;
+    private final Duration answerGrace;
+
+    private Deadlines(Config endpoints, Duration defaultTimeout, Duration max, Duration answerGrace) {
+        this.endpoints = endpoints;
+        this.defaultTimeout = defaultTimeout;
+        this.max = max;
+        this.answerGrace = answerGrace;
+    }
+
+    public static Deadlines fromConfig(Config config) {
+        return new Deadlines(config.getConfig("endpoints"), config.getDuration("default"),
+            config.getDuration("max"), config.getDuration("answer-grace"));
+    }
+
+    public Instant forRequest(HttpExchange exchange, String endpoint) {
+        Duration timeout = endpoints.hasPath(endpoint) ? endpoints.getDuration(endpoint) : defaultTimeout;
+        String header = exchange.getRequestHeaders().getFirst(ServiceRequest.DEADLINE_HEADER);
+        if (header != null) {
+            try {
+                timeout = Duration.ofMillis(Math.min(Long.parseLong(header.trim()), max.toMillis()));
+            } catch (NumberFormatException e) {
+                // Not a deadline: the endpoint's default applies
+            }
+        }
+        return Instant.now().plus(timeout);
+    }
+
+    // How long the HTTP response waits for the Gateway: a little past the deadline, so the
+    // answer of a saga that was still finishing its last step (e.g. PLACED) is not lost
+    public Duration askTimeout(Instant deadline) {
+        return remaining(deadline).plus(answerGrace);
+    }
+
+    // Negative once the deadline has passed
+    public static Duration remaining(Instant deadline) {
+        return Duration.between(Instant.now(), deadline);
+    }
+
+    public static boolean expired(Instant deadline) {
+        return !Instant.now().isBefore(deadline);
+    }
+}
@@ -8,11 +8,10 @@ import akka.cluster.sharding.typed.javadsl.ClusterSharding;
 import akka.cluster.sharding.typed.javadsl.EntityRef;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import java.net.URI;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Instant;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.UUID;
 
 import akka.cluster.sharding.typed.javadsl.EntityTypeKey;
 import com.fasterxml.jackson.annotation.JsonCreator;
@@ -36,16 +35,19 @@ public class DeleteOrder extends AbstractBehavior<DeleteOrder.Command> {
     }
 
     private final int orderId;
+    private final Instant deadline;
     private final ActorRef<Gateway.GeneralResponse> replyTo;
     private final ClusterSharding sharding;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     private DeleteOrder(ActorContext<Command> context,
                         int orderId,
+                        Instant deadline,
                         ActorRef<Gateway.GeneralResponse> replyTo,
                         ClusterSharding sharding) {
         super(context);
         this.orderId = orderId;
+        this.deadline = deadline;
         this.replyTo = replyTo;
         this.sharding = sharding;
 
@@ -54,6 +56,14 @@ public class DeleteOrder extends AbstractBehavior<DeleteOrder.Command> {
     }
 
     private Behavior<Command> onInitiateCancellation(InitiateCancellation msg) {
+        // Only a cancellation not started yet is given up: once the order is cancelled its
+        // refund must go through, whoever still waits for the answer.
+        if (Deadlines.expired(deadline)) {
+            if (replyTo != null) {
+                replyTo.tell(new Gateway.GeneralResponse(false, Gateway.DEADLINE_EXCEEDED + "order " + orderId + " not cancelled"));
+            }
+            return Behaviors.stopped();
+        }
         // Use ClusterSharding to get the EntityRef for the Order actor.
         EntityRef<Order.Command> orderRef = sharding.entityRefFor(Order.ENTITY_TYPE_KEY, String.valueOf(orderId));
         ActorRef<Gateway.OrderInfo> adapter =
@@ -113,28 +123,40 @@ public class DeleteOrder extends AbstractBehavior<DeleteOrder.Command> {
         return Behaviors.same();
     }
 
+    // Sent with a key of its own, so wallet-service credits it once however often it arrives:
+    // the REST call is retried after a lost answer, and an RPC call that failed is sent again over REST
     private void refundWallet(int user_id, int amount) {
+        String refundKey = "refund-" + orderId + "-" + UUID.randomUUID();
+        if (DemoMarketplaceServiceApplication.walletRpc != null) {
+            try {
+                // Only a failure of wallet-service itself is worth sending again
+                if (DemoMarketplaceServiceApplication.walletRpc.updateBalance(user_id, amount, refundKey).status < 500) {
+                    return;
+                }
+            } catch (Exception e) {
+                getContext().getLog().warn("Refund of order {} over wallet RPC failed, sending it over REST: {}", orderId, e.toString());
+            }
+        }
         try {
             Map<String, Object> data = new HashMap<>();
             data.put("action", "credit");
             data.put("amount", amount);
             String json = objectMapper.writeValueAsString(data);
 
-            HttpRequest request = HttpRequest.newBuilder()
-                .uri(new URI("http://localhost:8082/wallets/" + user_id))
-                .header("Content-Type", "application/json")
-                .PUT(HttpRequest.BodyPublishers.ofString(json))
-                .build();
-
-            DemoMarketplaceServiceApplication.httpClient.send(request, BodyHandlers.ofString());
+            DemoMarketplaceServiceApplication.serviceClient.target(DemoMarketplaceServiceApplication.walletPartitions.targetFor(user_id))
+                .put("/wallets/" + user_id)
+                .json(json)
+                .idempotencyKey(refundKey)
+                .send();
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
     public static Behavior<Command> create(int orderId,
+                                           Instant deadline,
                                            ActorRef<Gateway.GeneralResponse> replyTo,
                                            ClusterSharding sharding) {
-        return Behaviors.setup(context -> new DeleteOrder(context, orderId, replyTo, sharding));
+        return Behaviors.setup(context -> new DeleteOrder(context, orderId, deadline, replyTo, sharding));
     }
 }
\ No newline at end of file
@@ -5,11 +5,12 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.time.Duration;
-import java.net.http.HttpClient;
+import java.time.Instant;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 
@@ -17,11 +18,16 @@ import java.util.ArrayList;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.ActorSystem;
+import akka.actor.typed.DispatcherSelector;
 import akka.actor.typed.Scheduler;
 import akka.actor.typed.javadsl.Behaviors;
+import akka.cluster.sharding.typed.ClusterShardingSettings;
 import akka.cluster.sharding.typed.javadsl.ClusterSharding;
 import akka.cluster.sharding.typed.javadsl.Entity;
 import akka.actor.typed.javadsl.AskPattern;
@@ -37,14 +43,22 @@ import java.util.concurrent.CompletableFuture;
 import akka.cluster.sharding.typed.javadsl.EntityRef;
 import akka.actor.typed.javadsl.Routers;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import pods.project.serviceclient.ServiceClient;
 
 @SpringBootApplication
 public class DemoMarketplaceServiceApplication {
 
     public static ActorSystem<Void> system;
-    public static Duration askTimeout;
+    public static Deadlines deadlines;
     public static Scheduler scheduler;
-    public static HttpClient httpClient;
+    public static ServiceClient serviceClient;
+    public static OrderArchive orderArchive;
+    public static ActorRef<ArchiveReplication.Command> archiveReplication;
+    public static WalletPartitions walletPartitions;
+    public static WalletRpcClient walletRpc;
+    public static UserRegistry userRegistry;
+    public static Dependencies dependencies;
+    public static OrderRequests.Settings orderRequests;
 
     public static void main(String[] args) throws IOException {
         // Get port from command-line arguments
@@ -52,6 +66,14 @@ public class DemoMarketplaceServiceApplication {
         Config config = ConfigFactory.parseString("akka.remote.artery.canonical.port=" + port)
                                      .withFallback(ConfigFactory.load("application.conf"));
 
+        orderArchive = OrderArchive.fromConfig(config.getConfig("marketplace.order-archive"), port);
+        walletPartitions = WalletPartitions.fromConfig(config.getConfig("marketplace"));
+        walletRpc = WalletRpcClient.fromConfig(config.getConfig("marketplace.wallet-rpc"), walletPartitions);
+        serviceClient = ServiceTargets.fromConfig(config.getConfig("marketplace"), walletPartitions);
+        userRegistry = UserRegistry.fromConfig(config.getConfig("marketplace.user-registry"));
+        deadlines = Deadlines.fromConfig(config.getConfig("marketplace.deadlines"));
+        orderRequests = OrderRequests.Settings.fromConfig(config.getConfig("marketplace.idempotency"));
+
         system = ActorSystem.create(Behaviors.setup(context -> {
 
             // ClusterSharding sharding = ClusterSharding.get(context.getSystem());
@@ -80,11 +102,36 @@ public class DemoMarketplaceServiceApplication {
             // // Spawn worker actors for GroupRouter
             // spawnWorkerActors(context, sharding, scheduler);
 
+            // Circuit breakers run on the system's scheduler: set up before anything calls out
+            dependencies = Dependencies.fromConfig(config.getConfig("marketplace.dependencies"),
+                context.getSystem().classicSystem().scheduler(), walletPartitions);
+            if (userRegistry != null) {
+                userRegistry.start(serviceClient.target(ServiceTargets.ACCOUNT), dependencies.account());
+            }
+
+            // Before any Order entity starts: they publish every state change to the other nodes
+            archiveReplication = context.spawn(ArchiveReplication.create(orderArchive), "ArchiveReplication");
+
             ClusterSharding sharding = ClusterSharding.get(context.getSystem());
 
             // Initialize sharded entities (MUST be done by every node)
-            sharding.init(Entity.of(Product.ENTITY_TYPE_KEY, ctx -> Product.create(sharding)));
-            sharding.init(Entity.of(Order.ENTITY_TYPE_KEY, ctx -> Order.create()));
+            sharding.init(Entity.of(Product.ENTITY_TYPE_KEY, ctx -> Product.create(sharding))
+                .withEntityProps(MarketplaceDispatchers.selectorFor(context.getSystem(), MarketplaceDispatchers.PRODUCT)));
+            // Orders (unlike products) keep their state in the order archive, so idle ones can be passivated.
+            Duration orderIdleTimeout = config.getDuration("marketplace.order-passivate-idle-after");
+            ClusterShardingSettings orderShardingSettings = ClusterShardingSettings.create(context.getSystem());
+            sharding.init(Entity.of(Order.ENTITY_TYPE_KEY, ctx -> Order.create(ctx))
+                .withEntityProps(MarketplaceDispatchers.selectorFor(context.getSystem(), MarketplaceDispatchers.ORDER))
+                .withSettings(orderShardingSettings.withPassivationStrategy(
+                    orderShardingSettings.passivationStrategySettings().withIdleEntityPassivation(orderIdleTimeout))));
+            // Users passivate themselves when idle (see User), once nothing only they know is pending
+            Duration userIdleTimeout = config.getDuration("marketplace.user-passivate-idle-after");
+            sharding.init(Entity.of(User.ENTITY_TYPE_KEY, ctx -> User.create(ctx, userIdleTimeout))
+                .withEntityProps(MarketplaceDispatchers.selectorFor(context.getSystem(), MarketplaceDispatchers.USER)));
+            // Idempotency keys live only in their slot's memory, so slots are never passivated
+            sharding.init(Entity.of(OrderRequests.ENTITY_TYPE_KEY, ctx -> OrderRequests.create(orderRequests))
+                .withEntityProps(MarketplaceDispatchers.selectorFor(context.getSystem(), MarketplaceDispatchers.ORDER))
+                .withSettings(ClusterShardingSettings.create(context.getSystem()).withNoPassivationStrategy()));
 
             // Only primary node will load products
             if ("8083".equals(port)) {
@@ -111,9 +158,7 @@ public class DemoMarketplaceServiceApplication {
             return Behaviors.empty();
         }), "ClusterSystem", config);
 
-        askTimeout = Duration.ofSeconds(30);
         scheduler = system.scheduler();
-        httpClient = HttpClient.newHttpClient();
     }
 
         private static List<Product.InitializeProduct> loadProductsFromExcel(String fileName) {
@@ -153,7 +198,7 @@ public class DemoMarketplaceServiceApplication {
         // private static void spawnWorkerActors(akka.actor.typed.javadsl.ActorContext<Void> context, ClusterSharding sharding, Scheduler scheduler) {
         //     for (int i = 0; i < 50; i++) {
         //         // Replace with appropriate arguments for PostOrder
-        //         context.spawn(PostOrder.create("{}", null, sharding, i, new ArrayList<>(), scheduler), "PostOrder-" + i);
+        //         context.spawn(PostOrder.create("{}", null, sharding, i, scheduler), "PostOrder-" + i);
 
         //         // Replace with appropriate arguments for DeleteOrder
         //         context.spawn(DeleteOrder.create(i, null, sharding), "DeleteOrder-" + i);
@@ -163,8 +208,9 @@ public class DemoMarketplaceServiceApplication {
         private static void spawnWorkerActors(akka.actor.typed.javadsl.ActorContext<Void> context, ClusterSharding sharding, Scheduler scheduler) 
         throws IOException {
             // Create PostOrder workers
+            DispatcherSelector postOrderDispatcher = MarketplaceDispatchers.selectorFor(context.getSystem(), MarketplaceDispatchers.POST_ORDER);
             for (int i = 0; i < 50; i++) {
-                context.spawn(PostOrder.create("{}", null, sharding, i, new ArrayList<>(), scheduler), "PostOrder-" + i);
+                context.spawn(PostOrder.create("{}", Instant.MAX, null, sharding, i, scheduler), "PostOrder-" + i, postOrderDispatcher);
             }
         
             // Register PostOrder GroupRouter
@@ -174,8 +220,9 @@ public class DemoMarketplaceServiceApplication {
             );
         
             // Create DeleteOrder workers
+            DispatcherSelector deleteOrderDispatcher = MarketplaceDispatchers.selectorFor(context.getSystem(), MarketplaceDispatchers.DELETE_ORDER);
             for (int i = 0; i < 50; i++) {
-                context.spawn(DeleteOrder.create(i, null, sharding), "DeleteOrder-" + i);
+                context.spawn(DeleteOrder.create(i, Instant.MAX, null, sharding), "DeleteOrder-" + i, deleteOrderDispatcher);
             }
         
             // Register DeleteOrder GroupRouter
@@ -185,12 +232,14 @@ public class DemoMarketplaceServiceApplication {
             );
         
             // Pass the routers to the Gateway actor
-            ActorRef<Gateway.Command> gateway = context.spawn(Gateway.create(postOrderRouter, deleteOrderRouter, sharding), "Gateway");
+            ActorRef<Gateway.Command> gateway = context.spawn(Gateway.create(postOrderRouter, deleteOrderRouter, sharding), "Gateway",
+                MarketplaceDispatchers.selectorFor(context.getSystem(), MarketplaceDispatchers.GATEWAY));
             startHttpServer(gateway, context.getSystem());
         }
 
     static class HttpHandlerImpl implements HttpHandler {
         private final ActorRef<Gateway.Command> gateway;
+        private final ObjectMapper objectMapper = new ObjectMapper();
 
         public HttpHandlerImpl(ActorRef<Gateway.Command> gateway) {
             this.gateway = gateway;
@@ -211,7 +260,9 @@ public class DemoMarketplaceServiceApplication {
                     } else if (parts[1].equals("orders")) {
                         handleOrderRequests(exchange, method, parts);
                     } else if (parts[1].equals("marketplace")) {
-                        handleMarketplaceRequests(exchange, method);
+                        handleMarketplaceRequests(exchange, method, parts);
+                    } else if (parts[1].equals("metrics")) {
+                        handleMetricsRequests(exchange, method, parts);
                     } else {
                         sendResponse(exchange, 404, "Not Found");
                     }
@@ -226,16 +277,14 @@ public class DemoMarketplaceServiceApplication {
 
         private void handleProductRequests(HttpExchange exchange, String method, String[] parts) throws IOException {
             if (parts.length == 2 && method.equalsIgnoreCase("GET")) {
-                AskPattern.ask(gateway,
-                    (ActorRef<Gateway.ProductsResponse> replyTo) -> new Gateway.GetAllProducts(replyTo),
-                    askTimeout, scheduler)
-                .thenAccept(resp -> sendResponse(exchange, 200, resp.toJson()));
+                ask(exchange, Deadlines.GET_PRODUCTS,
+                    (ActorRef<Gateway.ProductsResponse> replyTo, Instant deadline) -> new Gateway.GetAllProducts(replyTo),
+                    resp -> sendResponse(exchange, 200, resp.toJson()));
             } else if (parts.length == 3 && method.equalsIgnoreCase("GET")) {
                 int productId = Integer.parseInt(parts[2]);
-                AskPattern.ask(gateway,
-                    (ActorRef<Gateway.ProductInfo> replyTo) -> new Gateway.GetProduct(productId, replyTo),
-                    askTimeout, scheduler)
-                .thenAccept(productInfo -> {
+                ask(exchange, Deadlines.GET_PRODUCT,
+                    (ActorRef<Gateway.ProductInfo> replyTo, Instant deadline) -> new Gateway.GetProduct(productId, replyTo),
+                    productInfo -> {
                     if (productInfo.productId == -1)
                         sendResponse(exchange, 404, "Product not found");
                     else
@@ -249,21 +298,31 @@ public class DemoMarketplaceServiceApplication {
         private void handleOrderRequests(HttpExchange exchange, String method, String[] parts) throws IOException {
             if (parts.length == 2 && method.equalsIgnoreCase("POST")) {
                 String body = new String(exchange.getRequestBody().readAllBytes());
-                AskPattern.ask(gateway,
-                    (ActorRef<Gateway.OrderInfo> replyTo) -> new Gateway.CreateOrder(body, replyTo),
-                    askTimeout, scheduler)
-                .thenAccept(orderInfo -> {
-                    if (!"PLACED".equals(orderInfo.status))
+                // Requests with the same key place one order; retries get its answer (see OrderRequests)
+                String idempotencyKey = exchange.getRequestHeaders().getFirst(OrderRequests.KEY_HEADER);
+                if (idempotencyKey != null && !orderRequests.isValid(idempotencyKey)) {
+                    sendResponse(exchange, 400, "Invalid " + OrderRequests.KEY_HEADER + " (1 to " + orderRequests.maxKeyLength + " characters)");
+                    return;
+                }
+                ask(exchange, Deadlines.CREATE_ORDER,
+                    (ActorRef<Gateway.OrderInfo> replyTo, Instant deadline) -> new Gateway.CreateOrder(body, deadline, idempotencyKey, replyTo),
+                    orderInfo -> {
+                    if (orderInfo.status.startsWith(Gateway.DEADLINE_EXCEEDED))
+                        sendResponse(exchange, 504, orderInfo.status);
+                    else if (orderInfo.status.startsWith(Gateway.SERVICE_UNAVAILABLE))
+                        sendResponse(exchange, 503, orderInfo.status);
+                    else if (orderInfo.status.startsWith(Gateway.KEY_REUSED))
+                        sendResponse(exchange, 422, orderInfo.status);
+                    else if (!"PLACED".equals(orderInfo.status))
                         sendResponse(exchange, 400, orderInfo.status);
                     else
                         sendResponse(exchange, 201, orderInfo.toJson());
                 });
             } else if (parts.length == 3 && method.equalsIgnoreCase("GET")) {
                 int orderId = Integer.parseInt(parts[2]);
-                AskPattern.ask(gateway,
-                    (ActorRef<Gateway.OrderInfo> replyTo) -> new Gateway.GetOrder(orderId, replyTo),
-                    askTimeout, scheduler)
-                .thenAccept(orderInfo -> {
+                ask(exchange, Deadlines.GET_ORDER,
+                    (ActorRef<Gateway.OrderInfo> replyTo, Instant deadline) -> new Gateway.GetOrder(orderId, replyTo),
+                    orderInfo -> {
                     if (orderInfo.orderId == -1)
                         sendResponse(exchange, 404, "Order not found");
                     else
@@ -271,11 +330,12 @@ public class DemoMarketplaceServiceApplication {
                 });
             } else if (parts.length == 3 && method.equalsIgnoreCase("DELETE")) {
                 int orderId = Integer.parseInt(parts[2]);
-                AskPattern.ask(gateway,
-                    (ActorRef<Gateway.GeneralResponse> replyTo) -> new Gateway.DeleteOrderRequest(orderId, replyTo),
-                    askTimeout, scheduler)
-                .thenAccept(resp -> {
-                    if (!resp.success)
+                ask(exchange, Deadlines.CANCEL_ORDER,
+                    (ActorRef<Gateway.GeneralResponse> replyTo, Instant deadline) -> new Gateway.DeleteOrderRequest(orderId, deadline, replyTo),
+                    resp -> {
+                    if (!resp.success && resp.message.startsWith(Gateway.DEADLINE_EXCEEDED))
+                        sendResponse(exchange, 504, resp.message);
+                    else if (!resp.success)
                         sendResponse(exchange, 400, "Order cancellation failed");
                     else
                         sendResponse(exchange, 200, resp.toJson());
@@ -285,17 +345,80 @@ public class DemoMarketplaceServiceApplication {
             }
         }
 
-        private void handleMarketplaceRequests(HttpExchange exchange, String method) throws IOException {
-            if (method.equalsIgnoreCase("DELETE")) {
-                AskPattern.ask(gateway,
-                    (ActorRef<Gateway.GeneralResponse> replyTo) -> new Gateway.GlobalReset(replyTo),
-                    askTimeout, scheduler)
-                .thenAccept(resp -> sendResponse(exchange, 200, resp.message));
+        private void handleMarketplaceRequests(HttpExchange exchange, String method, String[] parts) throws IOException {
+            if (parts.length == 3 && parts[2].equals("user-events") && method.equalsIgnoreCase("POST")) {
+                // Account creations and deletions pushed by account-service (see UserRegistry)
+                if (userRegistry == null) {
+                    sendResponse(exchange, 200, "{\"applied_seq\":-1}");
+                    return;
+                }
+                long applied = userRegistry.apply(objectMapper.readTree(exchange.getRequestBody()));
+                sendResponse(exchange, 200, "{\"applied_seq\":" + applied + "}");
+            } else if (parts.length == 4 && parts[2].equals("users") && method.equalsIgnoreCase("DELETE")) {
+                // Account-service cancels a deleted user's orders (and refunds them) before removing the wallet
+                int userId = Integer.parseInt(parts[3]);
+                ask(exchange, Deadlines.RESET,
+                    (ActorRef<Gateway.GeneralResponse> replyTo, Instant deadline) -> new Gateway.CancelUserOrders(userId, replyTo),
+                    resp -> sendResponse(exchange, resp.success ? 200 : 500, resp.message));
+            } else if (parts.length == 2 && method.equalsIgnoreCase("DELETE")) {
+                ask(exchange, Deadlines.RESET,
+                    (ActorRef<Gateway.GeneralResponse> replyTo, Instant deadline) -> new Gateway.GlobalReset(replyTo),
+                    resp -> sendResponse(exchange, resp.success ? 200 : 500, resp.message));
             } else {
                 sendResponse(exchange, 404, "Not Found");
             }
         }
 
+        // GET /metrics/dispatchers - queue depth and utilization of each dispatcher.
+        // GET /metrics/user-registry - size of the user registry and how orders were checked against it.
+        // GET /metrics/http-client - calls to account-service and the wallet partitions, per target and endpoint.
+        // GET /metrics/dependencies - circuit breaker state and transitions, and bulkhead use, per dependency.
+        // GET /metrics/idempotency - Idempotency-Key use of the order slots on this node.
+        private void handleMetricsRequests(HttpExchange exchange, String method, String[] parts) {
+            if (parts.length == 3 && parts[2].equals("dispatchers") && method.equalsIgnoreCase("GET")) {
+                sendResponse(exchange, 200, DispatcherMetrics.toJson());
+            } else if (parts.length == 3 && parts[2].equals("user-registry") && method.equalsIgnoreCase("GET") && userRegistry != null) {
+                sendResponse(exchange, 200, userRegistry.toJson());
+            } else if (parts.length == 3 && parts[2].equals("http-client") && method.equalsIgnoreCase("GET")) {
+                try {
+                    sendResponse(exchange, 200, objectMapper.writeValueAsString(serviceClient.metrics()));
+                } catch (IOException e) {
+                    sendResponse(exchange, 500, "Internal Server Error");
+                }
+            } else if (parts.length == 3 && parts[2].equals("dependencies") && method.equalsIgnoreCase("GET")) {
+                try {
+                    sendResponse(exchange, 200, objectMapper.writeValueAsString(dependencies.metrics()));
+                } catch (IOException e) {
+                    sendResponse(exchange, 500, "Internal Server Error");
+                }
+            } else if (parts.length == 3 && parts[2].equals("idempotency") && method.equalsIgnoreCase("GET")) {
+                sendResponse(exchange, 200, OrderRequests.metricsJson());
+            } else {
+                sendResponse(exchange, 404, "Not Found");
+            }
+        }
+
+        // Asks the Gateway within the request's deadline (see Deadlines), answering 504 once it has passed
+        private <T> void ask(HttpExchange exchange, String endpoint,
+                             BiFunction<ActorRef<T>, Instant, Gateway.Command> message, Consumer<T> onReply) {
+            Instant deadline = deadlines.forRequest(exchange, endpoint);
+            if (Deadlines.expired(deadline)) {
+                sendResponse(exchange, 504, Gateway.DEADLINE_EXCEEDED + "not started");
+                return;
+            }
+            AskPattern.ask(gateway, (ActorRef<T> replyTo) -> message.apply(replyTo, deadline),
+                    deadlines.askTimeout(deadline), scheduler)
+                .whenComplete((reply, failure) -> {
+                    if (failure == null) {
+                        onReply.accept(reply);
+                    } else if (failure instanceof TimeoutException || failure.getCause() instanceof TimeoutException) {
+                        sendResponse(exchange, 504, Gateway.DEADLINE_EXCEEDED + "no answer in time");
+                    } else {
+                        sendResponse(exchange, 500, "Internal Server Error: " + failure.getMessage());
+                    }
+                });
+        }
+
         private void sendResponse(HttpExchange exchange, int statusCode, String response) {
             try {
                 exchange.getResponseHeaders().set("Content-Type", "application/json");
@@ -0,0 +1,56 @@
+package me.akashmaj.demomarketplaceservice;
+
+import akka.actor.Scheduler;
+import akka.pattern.CircuitBreaker;
+import com.typesafe.config.Config;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// The Dependency (circuit breaker and bulkhead) of account-service and of each wallet partition,
+// named like their ServiceClient targets, with the settings of marketplace.dependencies.
+public class Dependencies {
+
+    private final Dependency account;
+    private final Dependency[] wallets;
+    private final WalletPartitions partitions;
+
+    private Dependencies(Dependency account, Dependency[] wallets, WalletPartitions partitions) {
+        this.account = account;
+        this.wallets = wallets;
+        this.partitions = partitions;
+    }
+
+    public static Dependencies fromConfig(Config config, Scheduler scheduler, WalletPartitions partitions) {
+        Dependency[] wallets = new Dependency[partitions.count()];
+        for (int partition = 0; partition < wallets.length; partition++) {
+            wallets[partition] = create(WalletPartitions.target(partition), config, scheduler);
+        }
+        return new Dependencies(create(ServiceTargets.ACCOUNT, config, scheduler), wallets, partitions);
+    }
+
+    private static Dependency create(String name, Config config, Scheduler scheduler) {
+        CircuitBreaker breaker = CircuitBreaker.create(scheduler, config.getInt("max-failures"),
+                config.getDuration("call-timeout"), config.getDuration("reset-timeout"))
+            .withExponentialBackoff(config.getDuration("max-reset-timeout"));
+        return new Dependency(name, breaker, config.getInt("max-concurrent"));
+    }
+
+    public Dependency account() {
+        return account;
+    }
+
+    // The partition owning the user's wallet
+    public Dependency walletFor(int userId) {
+        return wallets[partitions.partitionOf(userId)];
+    }
+
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put(account.name(), account.metrics());
+        for (Dependency wallet : wallets) {
+            metrics.put(wallet.name(), wallet.metrics());
+        }
+        return metrics;
+    }
+}
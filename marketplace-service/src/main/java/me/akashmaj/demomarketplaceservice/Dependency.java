@@ -0,0 +1,145 @@
+package me.akashmaj.demomarketplaceservice;
+
+import akka.pattern.CircuitBreaker;
+import akka.pattern.CircuitBreakerOpenException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+// A service the marketplace calls (account-service, one wallet partition), behind a circuit
+// breaker and a bulkhead.
+//
+// The breaker (Akka's CircuitBreaker) opens after max-failures failed calls in a row: no
+// response, a response failed() says is one (5xx), or slower than call-timeout. While it is
+// open, calls fail at once with DependencyUnavailableException instead of waiting on the
+// dependency. After reset-timeout one trial call goes through (half-open): the breaker closes
+// if it succeeds, or opens again for twice as long (up to max-reset-timeout) if it fails.
+//
+// The bulkhead lets at most max-concurrent blocking calls wait on the dependency at once and
+// turns the others away, so a slow dependency cannot hold every blocking-io-dispatcher thread.
+// Asynchronous calls hold no thread; the service client's max-connections queues them.
+public class Dependency {
+
+    private static final Logger log = LoggerFactory.getLogger(Dependency.class);
+
+    private final String name;
+    private final CircuitBreaker breaker;
+    private final Semaphore bulkhead;
+    private final int maxConcurrent;
+
+    private volatile String state = "closed";
+    private volatile long stateSince = System.currentTimeMillis();
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder halfOpened = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder deadlinePassed = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder rejectedOpen = new LongAdder();
+    private final LongAdder rejectedFull = new LongAdder();
+
+    Dependency(String name, CircuitBreaker breaker, int maxConcurrent) {
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.bulkhead = new Semaphore(maxConcurrent);
+        this.breaker = breaker
+            .addOnOpenListener(() -> transition("open", opened))
+            .addOnHalfOpenListener(() -> transition("half-open", halfOpened))
+            .addOnCloseListener(() -> transition("closed", closed))
+            .addOnCallTimeoutListener(elapsed -> timedOut.increment())
+            .addOnCallBreakerOpenListener(rejectedOpen::increment);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    // Makes a blocking call; throws DependencyUnavailableException if it is not let through
+    public <T> T call(Callable<T> body, Predicate<T> failure) throws Exception {
+        return call(body, failure, null);
+    }
+
+    // Like call, for a call cut short at the caller's deadline: failing once the deadline has
+    // passed says nothing about the dependency (the client may have asked for 50 ms), so it
+    // does not count against the breaker
+    public <T> T call(Callable<T> body, Predicate<T> failure, Instant deadline) throws Exception {
+        if (!bulkhead.tryAcquire()) {
+            rejectedFull.increment();
+            throw new DependencyUnavailableException(name, "bulkhead full");
+        }
+        try {
+            return breaker.callWithSyncCircuitBreaker(body, (result, error) -> judge(result, error, failure, deadline));
+        } catch (CircuitBreakerOpenException e) {
+            throw new DependencyUnavailableException(name, "circuit breaker open");
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    // Makes an asynchronous call; fails with DependencyUnavailableException if the breaker is open
+    public <T> CompletionStage<T> callAsync(Callable<CompletionStage<T>> body, Predicate<T> failure) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        breaker.callWithCircuitBreakerCS(body, (response, error) -> judge(response, error, failure, null))
+            .whenComplete((response, error) -> {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                if (cause instanceof CircuitBreakerOpenException) {
+                    result.completeExceptionally(new DependencyUnavailableException(name, "circuit breaker open"));
+                } else if (cause != null) {
+                    result.completeExceptionally(cause);
+                } else {
+                    result.complete(response);
+                }
+            });
+        return result;
+    }
+
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("state", state);
+        metrics.put("state_for_ms", System.currentTimeMillis() - stateSince);
+        metrics.put("opened", opened.sum());
+        metrics.put("half_opened", halfOpened.sum());
+        metrics.put("closed", closed.sum());
+        metrics.put("succeeded", succeeded.sum());
+        metrics.put("failed", failed.sum());
+        metrics.put("deadline_passed", deadlinePassed.sum());
+        metrics.put("timed_out", timedOut.sum());
+        metrics.put("rejected_open", rejectedOpen.sum());
+        metrics.put("rejected_bulkhead_full", rejectedFull.sum());
+        metrics.put("in_flight", maxConcurrent - bulkhead.availablePermits());
+        metrics.put("max_concurrent", maxConcurrent);
+        return metrics;
+    }
+
+    // Whether the breaker counts the call as failed. Counted here rather than by the breaker's
+    // call listeners, which take every exception for a failure whatever this says. A call that
+    // failed at its caller's deadline counts as neither (the breaker takes it for a success).
+    private <T> boolean judge(Optional<T> result, Optional<Throwable> error, Predicate<T> failure, Instant deadline) {
+        if (error.isPresent() && deadline != null && Deadlines.expired(deadline)) {
+            deadlinePassed.increment();
+            return false;
+        }
+        boolean callFailed = error.isPresent() || result.map(failure::test).orElse(false);
+        (callFailed ? failed : succeeded).increment();
+        return callFailed;
+    }
+
+    private void transition(String newState, LongAdder counter) {
+        state = newState;
+        stateSince = System.currentTimeMillis();
+        counter.increment();
+        log.warn("Circuit breaker of {} is {}", name, newState);
+    }
+}
@@ -0,0 +1,12 @@
+package me.akashmaj.demomarketplaceservice;
+
+// A call not made because its dependency's circuit breaker is open or its bulkhead is full (see Dependency).
+public class DependencyUnavailableException extends RuntimeException {
+
+    public final String dependency;
+
+    public DependencyUnavailableException(String dependency, String reason) {
+        super(dependency + " " + reason);
+        this.dependency = dependency;
+    }
+}
@@ -0,0 +1,75 @@
+package me.akashmaj.demomarketplaceservice;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+
+// Live view of the executors behind the instrumented dispatchers.
+// Pools are registered by InstrumentedExecutorConfigurator when Akka creates them.
+public final class DispatcherMetrics {
+
+    private static final Map<String, ExecutorService> executors = new ConcurrentHashMap<>();
+
+    private DispatcherMetrics() {}
+
+    static void register(String dispatcherId, ExecutorService executor) {
+        executors.put(dispatcherId, executor);
+    }
+
+    public static Map<String, Snapshot> snapshot() {
+        Map<String, Snapshot> snapshots = new TreeMap<>();
+        for (Map.Entry<String, ExecutorService> entry : executors.entrySet()) {
+            snapshots.put(entry.getKey(), Snapshot.of(entry.getValue()));
+        }
+        return snapshots;
+    }
+
+    public static String toJson() {
+        StringBuilder sb = new StringBuilder("{");
+        for (Map.Entry<String, Snapshot> entry : snapshot().entrySet()) {
+            sb.append(String.format("\"%s\":%s,", entry.getKey(), entry.getValue().toJson()));
+        }
+        if (sb.length() > 1) sb.deleteCharAt(sb.length() - 1);
+        sb.append("}");
+        return sb.toString();
+    }
+
+    public static class Snapshot {
+        public final long queueDepth;
+        public final int activeThreads;
+        public final int poolSize;
+        public final int maxThreads;
+
+        Snapshot(long queueDepth, int activeThreads, int poolSize, int maxThreads) {
+            this.queueDepth = queueDepth;
+            this.activeThreads = activeThreads;
+            this.poolSize = poolSize;
+            this.maxThreads = maxThreads;
+        }
+
+        static Snapshot of(ExecutorService executor) {
+            if (executor instanceof ForkJoinPool pool) {
+                return new Snapshot(pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount(),
+                    pool.getActiveThreadCount(), pool.getPoolSize(), pool.getParallelism());
+            }
+            if (executor instanceof ThreadPoolExecutor pool) {
+                return new Snapshot(pool.getQueue().size(),
+                    pool.getActiveCount(), pool.getPoolSize(), pool.getMaximumPoolSize());
+            }
+            return new Snapshot(-1, -1, -1, -1);
+        }
+
+        // Fraction of the configured threads that are currently running tasks.
+        public double utilization() {
+            return maxThreads <= 0 ? 0.0 : (double) activeThreads / maxThreads;
+        }
+
+        public String toJson() {
+            return String.format("{\"queue_depth\":%d,\"active_threads\":%d,\"pool_size\":%d,\"max_threads\":%d,\"utilization\":%.3f}",
+                queueDepth, activeThreads, poolSize, maxThreads, utilization());
+        }
+    }
+}
@@ -6,16 +6,24 @@ import akka.actor.typed.Behavior;
 import akka.cluster.sharding.typed.javadsl.ClusterSharding;
 import akka.cluster.sharding.typed.javadsl.EntityRef;
 
+import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class Gateway extends AbstractBehavior<Gateway.Command> {
+    // Start of the status of an order that failed because a service it needs is unavailable (503, not 400)
+    public static final String SERVICE_UNAVAILABLE = "Service unavailable: ";
+    // Start of the status of a request given up because its deadline passed (504)
+    public static final String DEADLINE_EXCEEDED = "Deadline exceeded: ";
+    // Start of the status of an order refused because its Idempotency-Key came with another order (422)
+    public static final String KEY_REUSED = "Idempotency-Key reused: ";
+
     private final ClusterSharding sharding;
     private final ActorRef<PostOrder.Command> postOrderRouter;
     private final ActorRef<DeleteOrder.Command> deleteOrderRouter;
-    private final Map<Integer, ActorRef<Order.Command>> orderActors = new ConcurrentHashMap<>();
-    private final List<Integer> userIdList = new ArrayList<>();
-    private int orderIdCounter = 1; // Simple order ID generator.
+    private final OrderArchive orderArchive;
+    private final OrderRequests.Settings orderRequests;
+    private final ActorRef<OrderRequests.Claimed> keyClaimedAdapter;
+    private int orderIdCounter; // Simple order ID generator.
 
     // Constructor
     public static Behavior<Command> create(ActorRef<PostOrder.Command> postOrderRouter, ActorRef<DeleteOrder.Command> deleteOrderRouter, ClusterSharding sharding) {
@@ -27,6 +35,10 @@ public class Gateway extends AbstractBehavior<Gateway.Command> {
         this.postOrderRouter = postOrderRouter;
         this.deleteOrderRouter = deleteOrderRouter;
         this.sharding = sharding;
+        this.orderArchive = DemoMarketplaceServiceApplication.orderArchive;
+        this.orderIdCounter = orderArchive.maxOrderId() + 1;
+        this.orderRequests = DemoMarketplaceServiceApplication.orderRequests;
+        this.keyClaimedAdapter = context.messageAdapter(OrderRequests.Claimed.class, KeyClaimed::new);
     }
 
     @Override
@@ -37,10 +49,12 @@ public class Gateway extends AbstractBehavior<Gateway.Command> {
             .onMessage(GetProduct.class, this::onGetProduct)
             // Orders endpoints.
             .onMessage(CreateOrder.class, this::onCreateOrder)
+            .onMessage(KeyClaimed.class, this::onKeyClaimed)
             .onMessage(GetOrder.class, this::onGetOrder)
             .onMessage(UpdateOrder.class, this::onUpdateOrder)
             .onMessage(DeleteOrderRequest.class, this::onDeleteOrder)
             .onMessage(GlobalReset.class, this::onGlobalReset)
+            .onMessage(CancelUserOrders.class, this::onCancelUserOrders)
             .build();
     }
 
@@ -60,31 +74,47 @@ public class Gateway extends AbstractBehavior<Gateway.Command> {
     }
 
     private Behavior<Command> onCreateOrder(CreateOrder msg) {
+        if (msg.idempotencyKey != null) {
+            // The key's slot answers a retry itself, or hands the order back to be placed (see OrderRequests)
+            EntityRef<OrderRequests.Command> slot = sharding.entityRefFor(OrderRequests.ENTITY_TYPE_KEY, orderRequests.slotOf(msg.idempotencyKey));
+            slot.tell(new OrderRequests.PlaceOnce(msg.idempotencyKey, msg.orderData, msg.deadline, msg.replyTo, keyClaimedAdapter));
+            return this;
+        }
+        placeOrder(msg.orderData, msg.deadline, msg.replyTo);
+        return this;
+    }
+
+    private Behavior<Command> onKeyClaimed(KeyClaimed msg) {
+        placeOrder(msg.claimed.orderData, msg.claimed.deadline, msg.claimed.answerTo);
+        return this;
+    }
+
+    private void placeOrder(String orderData, Instant deadline, ActorRef<OrderInfo> replyTo) {
+        // The archive also holds the orders of the other nodes (see ArchiveReplication): after a
+        // restart, ids go on past the orders they still have
+        orderIdCounter = Math.max(orderIdCounter, orderArchive.maxOrderId() + 1);
         String uniqueName = "PostOrder-" + java.util.UUID.randomUUID().toString();
-        getContext().spawn(PostOrder.create(msg.orderData, msg.replyTo, sharding, orderIdCounter, userIdList, getContext().getSystem().scheduler()), uniqueName);
+        getContext().spawn(PostOrder.create(orderData, deadline, replyTo, sharding, orderIdCounter, getContext().getSystem().scheduler()), uniqueName,
+            MarketplaceDispatchers.selectorFor(getContext().getSystem(), MarketplaceDispatchers.POST_ORDER));
         orderIdCounter++;
-        return this;
     }
 
-    // GET /orders/{orderId}
+    // GET /orders/{orderId} – terminal orders are answered from the archive without waking the entity.
     private Behavior<Command> onGetOrder(GetOrder msg) {
-        ActorRef<Order.Command> orderActor = orderActors.get(msg.orderId);
-        if (orderActor != null) {
-            orderActor.tell(new Order.GetOrder(msg.orderId, msg.replyTo));
+        OrderInfo terminalReply = orderArchive.terminalReply(msg.orderId);
+        if (terminalReply != null) {
+            msg.replyTo.tell(terminalReply);
         } else {
-            msg.replyTo.tell(new Gateway.OrderInfo(-1, -1, 0, "", new ArrayList<>()));
+            EntityRef<Order.Command> orderRef = sharding.entityRefFor(Order.ENTITY_TYPE_KEY, String.valueOf(msg.orderId));
+            orderRef.tell(new Order.GetOrder(msg.orderId, msg.replyTo));
         }
         return this;
     }
 
     // PUT /orders/{orderId} – update order (e.g. mark delivered).
     private Behavior<Command> onUpdateOrder(UpdateOrder msg) {
-        ActorRef<Order.Command> orderActor = orderActors.get(msg.orderId);
-        if (orderActor != null) {
-            orderActor.tell(new Order.UpdateOrder(msg.orderId, msg.updateData, msg.replyTo));
-        } else {
-            msg.replyTo.tell(new Gateway.OrderInfo(-1, -1, 0, "", new ArrayList<>()));
-        }
+        EntityRef<Order.Command> orderRef = sharding.entityRefFor(Order.ENTITY_TYPE_KEY, String.valueOf(msg.orderId));
+        orderRef.tell(new Order.UpdateOrder(msg.orderId, msg.updateData, msg.replyTo));
         return this;
     }
 
@@ -92,18 +122,42 @@ public class Gateway extends AbstractBehavior<Gateway.Command> {
     // DELETE /orders/{orderId} – cancel order by spawning a DeleteOrder worker.
     private Behavior<Command> onDeleteOrder(DeleteOrderRequest msg) {
         String uniqueName = "DeleteOrder-" + java.util.UUID.randomUUID().toString();
-        getContext().spawn(DeleteOrder.create(msg.orderId, msg.replyTo, sharding), uniqueName);
+        getContext().spawn(DeleteOrder.create(msg.orderId, msg.deadline, msg.replyTo, sharding), uniqueName,
+            MarketplaceDispatchers.selectorFor(getContext().getSystem(), MarketplaceDispatchers.DELETE_ORDER));
         return this;
     }
 
         // DELETE /marketplace – global reset (cancel all orders in PLACED status).
         private Behavior<Command> onGlobalReset(GlobalReset msg) {
-            // Iterate over all order IDs (assuming you have a way to get all order IDs).
-            for (int orderId : orderActors.keySet()) { // Replace with a proper way to fetch all order IDs if needed.
-                String uniqueName = "DeleteOrder-" + java.util.UUID.randomUUID().toString();
-                getContext().spawn(DeleteOrder.create(orderId, msg.replyTo, sharding), uniqueName);
+            return cancelOrders("Global reset", record -> true, msg.replyTo);
+        }
+
+        // DELETE /marketplace/users/{userId}: only the orders of that user
+        private Behavior<Command> onCancelUserOrders(CancelUserOrders msg) {
+            return cancelOrders("User " + msg.userId, record -> record != null && record.userId == msg.userId, msg.replyTo);
+        }
+
+        private Behavior<Command> cancelOrders(String description, java.util.function.Predicate<OrderArchive.Record> filter,
+                                               ActorRef<GeneralResponse> replyTo) {
+            // Every order placed so far is in the archive; orders it has as DELIVERED/CANCELLED stay
+            // so. An id with no record yet (being placed, or its record still on its way from the
+            // node of its entity) is passed to the filter as null: the entity itself tells.
+            List<Integer> placedOrderIds = new ArrayList<>();
+            int lastOrderId = Math.max(orderIdCounter - 1, orderArchive.maxOrderId());
+            for (int orderId = 1; orderId <= lastOrderId; orderId++) {
+                OrderArchive.Record record = orderArchive.lookup(orderId);
+                if ((record == null || !record.isTerminal()) && filter.test(record)) {
+                    placedOrderIds.add(orderId);
+                }
+            }
+            if (placedOrderIds.isEmpty()) {
+                replyTo.tell(new GeneralResponse(true, description + ": Cancelled all orders"));
+                return this;
             }
-            msg.replyTo.tell(new GeneralResponse(true, "Global reset: Cancelled all orders"));
+            // One worker cancels them all and refunds the wallets with one batch request per wallet partition.
+            String uniqueName = "ResetOrders-" + java.util.UUID.randomUUID().toString();
+            getContext().spawn(ResetOrders.create(placedOrderIds, description, replyTo, sharding), uniqueName,
+                MarketplaceDispatchers.selectorFor(getContext().getSystem(), MarketplaceDispatchers.DELETE_ORDER));
             return this;
         }
 
@@ -125,8 +179,21 @@ public class Gateway extends AbstractBehavior<Gateway.Command> {
     // Orders messages.
     public static class CreateOrder implements Command {
         public final String orderData; // JSON string.
+        public final Instant deadline; // See Deadlines.
+        public final String idempotencyKey; // Null when the request has none.
         public final ActorRef<OrderInfo> replyTo;
-        public CreateOrder(String orderData, ActorRef<OrderInfo> replyTo) { this.orderData = orderData; this.replyTo = replyTo; }
+        public CreateOrder(String orderData, Instant deadline, String idempotencyKey, ActorRef<OrderInfo> replyTo) {
+            this.orderData = orderData;
+            this.deadline = deadline;
+            this.idempotencyKey = idempotencyKey;
+            this.replyTo = replyTo;
+        }
+    }
+
+    // The slot of an order's Idempotency-Key has it placed.
+    private static class KeyClaimed implements Command {
+        final OrderRequests.Claimed claimed;
+        KeyClaimed(OrderRequests.Claimed claimed) { this.claimed = claimed; }
     }
 
     public static class GetOrder implements Command {
@@ -144,9 +211,11 @@ public class Gateway extends AbstractBehavior<Gateway.Command> {
 
     public static class DeleteOrderRequest implements Command {
         public final int orderId;
+        public final Instant deadline;
         public final ActorRef<GeneralResponse> replyTo;
-        public DeleteOrderRequest(int orderId, ActorRef<GeneralResponse> replyTo) {
+        public DeleteOrderRequest(int orderId, Instant deadline, ActorRef<GeneralResponse> replyTo) {
             this.orderId = orderId;
+            this.deadline = deadline;
             this.replyTo = replyTo;
         }
     }
@@ -156,6 +225,15 @@ public class Gateway extends AbstractBehavior<Gateway.Command> {
         public GlobalReset(ActorRef<GeneralResponse> replyTo) { this.replyTo = replyTo; }
     }
 
+    public static class CancelUserOrders implements Command {
+        public final int userId;
+        public final ActorRef<GeneralResponse> replyTo;
+        public CancelUserOrders(int userId, ActorRef<GeneralResponse> replyTo) {
+            this.userId = userId;
+            this.replyTo = replyTo;
+        }
+    }
+
     // ----- Response message types -----
     public static class ProductInfo {
         public final int productId;
@@ -0,0 +1,42 @@
+package me.akashmaj.demomarketplaceservice;
+
+import akka.dispatch.DispatcherPrerequisites;
+import akka.dispatch.ExecutorServiceConfigurator;
+import akka.dispatch.ExecutorServiceFactory;
+import akka.dispatch.ForkJoinExecutorConfigurator;
+import akka.dispatch.ThreadPoolExecutorConfigurator;
+import com.typesafe.config.Config;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+// Executor used by the marketplace dispatchers in application.conf.
+// It builds the usual Akka fork-join / thread-pool executor (chosen by
+// "instrumented-executor.delegate") and registers the created pool with
+// DispatcherMetrics so queue depth and utilization can be reported.
+public class InstrumentedExecutorConfigurator extends ExecutorServiceConfigurator {
+
+    private final ExecutorServiceConfigurator delegate;
+
+    public InstrumentedExecutorConfigurator(Config config, DispatcherPrerequisites prerequisites) {
+        super(config, prerequisites);
+        String delegateType = config.getString("instrumented-executor.delegate");
+        if ("thread-pool-executor".equals(delegateType)) {
+            this.delegate = new ThreadPoolExecutorConfigurator(config.getConfig("thread-pool-executor"), prerequisites);
+        } else if ("fork-join-executor".equals(delegateType)) {
+            this.delegate = new ForkJoinExecutorConfigurator(config.getConfig("fork-join-executor"), prerequisites);
+        } else {
+            throw new IllegalArgumentException("Unsupported instrumented-executor.delegate: " + delegateType);
+        }
+    }
+
+    @Override
+    public ExecutorServiceFactory createExecutorServiceFactory(String id, ThreadFactory threadFactory) {
+        ExecutorServiceFactory factory = delegate.createExecutorServiceFactory(id, threadFactory);
+        return () -> {
+            ExecutorService executor = factory.createExecutorService();
+            DispatcherMetrics.register(id, executor);
+            return executor;
+        };
+    }
+}
@@ -0,0 +1,23 @@
+package me.akashmaj.demomarketplaceservice;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.DispatcherSelector;
+
+// Maps each actor kind to the dispatcher configured for it under
+// "marketplace.dispatchers" in application.conf.
+public final class MarketplaceDispatchers {
+
+    public static final String PRODUCT = "product";
+    public static final String ORDER = "order";
+    public static final String USER = "user";
+    public static final String GATEWAY = "gateway";
+    public static final String POST_ORDER = "post-order";
+    public static final String DELETE_ORDER = "delete-order";
+
+    private MarketplaceDispatchers() {}
+
+    public static DispatcherSelector selectorFor(ActorSystem<?> system, String actorKind) {
+        String dispatcherId = system.settings().config().getString("marketplace.dispatchers." + actorKind);
+        return DispatcherSelector.fromConfig(dispatcherId);
+    }
+}
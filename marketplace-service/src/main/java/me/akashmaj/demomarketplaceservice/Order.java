@@ -3,42 +3,79 @@ package me.akashmaj.demomarketplaceservice;
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.Behavior;
 import akka.actor.typed.javadsl.*;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.sharding.typed.javadsl.EntityContext;
 import akka.cluster.sharding.typed.javadsl.EntityTypeKey;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class Order extends AbstractBehavior<Order.Command> {
     private final int orderId;
-    private final int user_id;
-    private int total_price;
-    private String status; // PLACED, CANCELLED, DELIVERED.
-    private final List<OrderItem> items;
-    private final List<Integer> userIdList;
+    private int userId;
+    private int totalPrice;
+    private Status status; // null until the order is placed.
+    private int[] productIds;
+    private int[] quantities;
+    private final ActorRef<ClusterSharding.ShardCommand> shard;
+    // Built on the first reply after the order became DELIVERED/CANCELLED (it never changes again)
+    private Gateway.OrderInfo terminalReply;
 
     public static final EntityTypeKey<Command> ENTITY_TYPE_KEY = EntityTypeKey.create(Command.class, "Order");
 
-    public static Behavior<Command> create(int orderId, int user_id, int total_price, List<OrderItem> items, List<Integer> userIdList) {
-        return Behaviors.setup(context -> new Order(context, orderId, user_id, total_price, items, userIdList));
+    private static final int[] NO_ITEMS = new int[0];
+    private static final Gateway.OrderInfo NOT_FOUND = new Gateway.OrderInfo(-1, -1, 0, "", List.of());
+
+    public enum Status {
+        PLACED((byte) 1), DELIVERED((byte) 2), CANCELLED((byte) 3);
+
+        public final byte code;
+
+        Status(byte code) {
+            this.code = code;
+        }
+
+        public boolean isTerminal() {
+            return this != PLACED;
+        }
+
+        public static Status fromCode(byte code) {
+            for (Status status : values()) {
+                if (status.code == code) {
+                    return status;
+                }
+            }
+            throw new IllegalArgumentException("Unknown order status code " + code);
+        }
     }
 
-    public static Behavior<Command> create() {
-        return Behaviors.setup(context -> new Order(context, 0, 0, 0, new ArrayList<>(), new ArrayList<>()));
+    // Sharded entity: (re)loads its state from the order archive, so a passivated
+    // order comes back exactly as it was; an unknown id starts out empty.
+    public static Behavior<Command> create(EntityContext<Command> entityContext) {
+        return Behaviors.setup(context -> {
+            int orderId = Integer.parseInt(entityContext.getEntityId());
+            OrderArchive.Record record = DemoMarketplaceServiceApplication.orderArchive.lookup(orderId);
+            if (record == null) {
+                return new Order(context, orderId, 0, 0, null, NO_ITEMS, NO_ITEMS, entityContext.getShard());
+            }
+            return new Order(context, orderId, record.userId, record.totalPrice, record.status,
+                record.productIds, record.quantities, entityContext.getShard());
+        });
     }
 
-    private Order(ActorContext<Command> context, int orderId, int user_id, int total_price, List<OrderItem> items, List<Integer> userIdList) {
+    private Order(ActorContext<Command> context, int orderId, int userId, int totalPrice, Status status,
+                  int[] productIds, int[] quantities, ActorRef<ClusterSharding.ShardCommand> shard) {
         super(context);
         this.orderId = orderId;
-        this.user_id = user_id;
-        this.total_price = total_price;
-        this.status = "PLACED";
-        this.items = items;
-        this.userIdList = userIdList;
-        if (!this.userIdList.contains(user_id)) {
-            this.userIdList.add(user_id);
-        }
+        this.userId = userId;
+        this.totalPrice = totalPrice;
+        this.status = status;
+        this.productIds = productIds;
+        this.quantities = quantities;
+        this.shard = shard;
     }
 
     @Override
@@ -52,51 +89,97 @@ public class Order extends AbstractBehavior<Order.Command> {
     }
 
     private Behavior<Command> onGetOrder(GetOrder msg) {
-        msg.replyTo.tell(new Gateway.OrderInfo(orderId, user_id, total_price, status, getItemsInfo()));
+        if (status == null) {
+            msg.replyTo.tell(NOT_FOUND);
+            passivate();
+        } else {
+            msg.replyTo.tell(reply());
+            if (status.isTerminal()) {
+                passivate();
+            }
+        }
         return this;
     }
 
     private Behavior<Command> onUpdateOrder(UpdateOrder msg) {
-        if ("PLACED".equals(status) && msg.updateData.contains("DELIVERED")) {
-            status = "DELIVERED";
-            msg.replyTo.tell(new Gateway.OrderInfo(orderId, user_id, total_price, status, getItemsInfo()));
+        if (status == Status.PLACED && msg.updateData.contains("DELIVERED")) {
+            changeStatus(Status.DELIVERED);
+            msg.replyTo.tell(reply());
+            passivate();
         } else {
-            msg.replyTo.tell(new Gateway.OrderInfo(-1, -1, 0, "", new ArrayList<>()));
+            msg.replyTo.tell(NOT_FOUND);
         }
         return this;
     }
 
     private Behavior<Command> onCancelOrder(CancelOrder msg) {
-        if ("PLACED".equals(status)) {
-            status = "CANCELLED";
-            msg.replyTo.tell(new Gateway.OrderInfo(orderId, user_id, total_price, status, getItemsInfo()));
+        if (status == Status.PLACED) {
+            changeStatus(Status.CANCELLED);
+            msg.replyTo.tell(reply());
+            passivate();
         } else {
-            msg.replyTo.tell(new Gateway.OrderInfo(-1, -1, 0, "", new ArrayList<>()));
+            msg.replyTo.tell(NOT_FOUND);
         }
         return this;
     }
 
+    // Only an order id nobody has used yet can be placed: a PlaceOrder repeated, or sent to an id
+    // that (reloaded from the archive) already holds an order, is ignored.
     private Behavior<Command> onPlaceOrder(PlaceOrder msg) {
-        this.status = "PLACED";
-        this.total_price = msg.totalPrice;
-        this.items.clear();
-        this.items.addAll(msg.items);
-
-        if (!userIdList.contains(msg.userId)) {
-            userIdList.add(msg.userId);
+        if (status != null) {
+            getContext().getLog().warn("Ignoring PlaceOrder for order {} of user {}: the order is already {}",
+                msg.orderId, msg.userId, status);
+            if (status.isTerminal()) {
+                passivate();
+            }
+            return this;
+        }
+        this.userId = msg.userId;
+        this.totalPrice = msg.totalPrice;
+        this.productIds = new int[msg.items.size()];
+        this.quantities = new int[msg.items.size()];
+        for (int i = 0; i < msg.items.size(); i++) {
+            productIds[i] = msg.items.get(i).product_id;
+            quantities[i] = msg.items.get(i).quantity;
         }
+        changeStatus(Status.PLACED);
 
         getContext().getLog().info("Order {} placed successfully for user {}", msg.orderId, msg.userId);
 
         return this;
     }
 
-    private List<OrderItemInfo> getItemsInfo() {
-        List<OrderItemInfo> infos = new ArrayList<>();
-        for (OrderItem item : items) {
-            infos.add(new OrderItemInfo(item.id, item.product_id, item.quantity));
+    // Records the new state in the archive so the entity can be passivated without losing it,
+    // and in the other nodes' archives in case its shard moves there.
+    private void changeStatus(Status newStatus) {
+        status = newStatus;
+        OrderArchive.Record record = DemoMarketplaceServiceApplication.orderArchive.append(orderId, userId, totalPrice, status, productIds, quantities);
+        DemoMarketplaceServiceApplication.archiveReplication.tell(new ArchiveReplication.Publish(record));
+    }
+
+    // Terminal and unknown orders are served from the archive, so the entity can go.
+    private void passivate() {
+        if (shard != null) {
+            shard.tell(new ClusterSharding.Passivate<>(getContext().getSelf()));
+        }
+    }
+
+    private Gateway.OrderInfo reply() {
+        if (!status.isTerminal()) {
+            return toOrderInfo(orderId, userId, totalPrice, status, productIds, quantities);
+        }
+        if (terminalReply == null) {
+            terminalReply = toOrderInfo(orderId, userId, totalPrice, status, productIds, quantities);
+        }
+        return terminalReply;
+    }
+
+    static Gateway.OrderInfo toOrderInfo(int orderId, int userId, int totalPrice, Status status, int[] productIds, int[] quantities) {
+        List<OrderItemInfo> items = new ArrayList<>(productIds.length);
+        for (int i = 0; i < productIds.length; i++) {
+            items.add(new OrderItemInfo(orderId, productIds[i], quantities[i]));
         }
-        return infos;
+        return new Gateway.OrderInfo(orderId, userId, totalPrice, status.name(), Collections.unmodifiableList(items));
     }
 
     public interface Command {}
@@ -0,0 +1,290 @@
+package me.akashmaj.demomarketplaceservice;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.typesafe.config.Config;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+// Append-only, memory-mapped store of order state.
+//
+// Every state change of an Order (PLACED, DELIVERED, CANCELLED) is appended as a
+// compact binary record to the current segment file; a memory-mapped index file
+// maps orderId -> (segment, position) of the latest record. Order entities reload
+// their state from here after passivation, and the Gateway serves terminal orders
+// straight from the mapped segments without re-creating the actor, so the heap
+// only holds orders that are actively in use.
+//
+// Each node has its own directory (the configured one plus the node's port), and
+// ArchiveReplication copies the records of the other nodes' orders into it.
+//
+// A DELIVERED/CANCELLED order never changes again, so the GET reply of the most recently
+// read terminal orders is kept (at most terminal-reply-cache of them, least recently used
+// dropped first) instead of being decoded and built again for every GET.
+//
+// Record layout: orderId:int userId:int totalPrice:int status:byte itemCount:short
+//                then itemCount x (productId:int quantity:int)
+public class OrderArchive {
+
+    private static final int HEADER_BYTES = 15;
+    private static final int ITEM_BYTES = 8;
+    private static final int INDEX_ENTRY_BYTES = 8;
+    private static final int INDEX_CHUNK_ENTRIES = 1 << 20;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private final List<MappedByteBuffer> indexChunks = new ArrayList<>();
+    private final FileChannel indexChannel;
+    private MappedByteBuffer currentSegment;
+    private int maxOrderId = 0;
+    private final Map<Integer, Gateway.OrderInfo> terminalReplies;
+
+    public OrderArchive(Path directory, int segmentSize, boolean clearOnStart, int terminalReplyCache) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.terminalReplies = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Gateway.OrderInfo> eldest) {
+                return size() > terminalReplyCache;
+            }
+        };
+        try {
+            if (clearOnStart) {
+                deleteAll(directory);
+            }
+            Files.createDirectories(directory);
+            this.indexChannel = FileChannel.open(directory.resolve("index.dat"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open order archive in " + directory, e);
+        }
+    }
+
+    // The node's archive: nodes on one host must not share (or clear) each other's files
+    public static OrderArchive fromConfig(Config config, String port) {
+        return new OrderArchive(Path.of(config.getString("directory") + "-" + port),
+            (int) config.getBytes("segment-size").longValue(),
+            config.getBoolean("clear-on-start"),
+            config.getInt("terminal-reply-cache"));
+    }
+
+    // Appends the latest state of an order and points the index at it; returns the record written.
+    public synchronized Record append(int orderId, int userId, int totalPrice, Order.Status status, int[] productIds, int[] quantities) {
+        int recordBytes = HEADER_BYTES + productIds.length * ITEM_BYTES;
+        if (recordBytes > segmentSize) {
+            throw new IllegalArgumentException("Order " + orderId + " does not fit in an archive segment");
+        }
+        if (currentSegment.remaining() < recordBytes) {
+            currentSegment = openSegment(segments.size());
+        }
+        int position = currentSegment.position();
+        currentSegment.putInt(orderId);
+        currentSegment.putInt(userId);
+        currentSegment.putInt(totalPrice);
+        currentSegment.put(status.code);
+        currentSegment.putShort((short) productIds.length);
+        for (int i = 0; i < productIds.length; i++) {
+            currentSegment.putInt(productIds[i]);
+            currentSegment.putInt(quantities[i]);
+        }
+
+        MappedByteBuffer chunk = indexChunk(orderId);
+        int slot = (orderId % INDEX_CHUNK_ENTRIES) * INDEX_ENTRY_BYTES;
+        chunk.putInt(slot, segments.size()); // segment number + 1, so 0 means "absent"
+        chunk.putInt(slot + 4, position);
+        maxOrderId = Math.max(maxOrderId, orderId);
+        return new Record(orderId, userId, totalPrice, status, productIds, quantities);
+    }
+
+    // Applies a record copied from another node. A DELIVERED/CANCELLED order never changes
+    // again, so its state is kept over any record that comes later, and records arriving
+    // twice or out of order leave the latest state.
+    public synchronized void merge(Record record) {
+        Record current = lookup(record.orderId);
+        if (current != null && (current.isTerminal() || !record.isTerminal())) {
+            return;
+        }
+        append(record.orderId, record.userId, record.totalPrice, record.status, record.productIds, record.quantities);
+    }
+
+    // Returns the latest archived state of the order, or null if it was never archived.
+    public Record lookup(int orderId) {
+        int segmentNumber;
+        int position;
+        MappedByteBuffer segment;
+        synchronized (this) {
+            if (orderId <= 0 || orderId / INDEX_CHUNK_ENTRIES >= indexChunks.size()) {
+                return null;
+            }
+            MappedByteBuffer chunk = indexChunks.get(orderId / INDEX_CHUNK_ENTRIES);
+            int slot = (orderId % INDEX_CHUNK_ENTRIES) * INDEX_ENTRY_BYTES;
+            segmentNumber = chunk.getInt(slot);
+            position = chunk.getInt(slot + 4);
+            if (segmentNumber == 0) {
+                return null;
+            }
+            segment = segments.get(segmentNumber - 1);
+        }
+        return readRecord(segment, position);
+    }
+
+    // The GET reply of a DELIVERED/CANCELLED order, built once while it stays cached;
+    // null if the order is not archived in a terminal state.
+    public Gateway.OrderInfo terminalReply(int orderId) {
+        synchronized (terminalReplies) {
+            Gateway.OrderInfo reply = terminalReplies.get(orderId);
+            if (reply != null) {
+                return reply;
+            }
+        }
+        Record record = lookup(orderId);
+        if (record == null || !record.isTerminal()) {
+            return null;
+        }
+        Gateway.OrderInfo reply = record.toOrderInfo();
+        synchronized (terminalReplies) {
+            terminalReplies.put(orderId, reply);
+        }
+        return reply;
+    }
+
+    public synchronized int maxOrderId() {
+        return maxOrderId;
+    }
+
+    private static Record readRecord(MappedByteBuffer segment, int position) {
+        int orderId = segment.getInt(position);
+        int userId = segment.getInt(position + 4);
+        int totalPrice = segment.getInt(position + 8);
+        Order.Status status = Order.Status.fromCode(segment.get(position + 12));
+        int itemCount = segment.getShort(position + 13);
+        int[] productIds = new int[itemCount];
+        int[] quantities = new int[itemCount];
+        int offset = position + HEADER_BYTES;
+        for (int i = 0; i < itemCount; i++) {
+            productIds[i] = segment.getInt(offset);
+            quantities[i] = segment.getInt(offset + 4);
+            offset += ITEM_BYTES;
+        }
+        return new Record(orderId, userId, totalPrice, status, productIds, quantities);
+    }
+
+    // Re-maps the existing segments and finds the append position of the last one.
+    // Segments are zero-filled when created, so the first record with orderId 0 marks the end.
+    private void recover() throws IOException {
+        int segmentCount = 0;
+        while (Files.exists(segmentPath(segmentCount))) {
+            segmentCount++;
+        }
+        if (segmentCount == 0) {
+            currentSegment = openSegment(0);
+        } else {
+            for (int i = 0; i < segmentCount; i++) {
+                currentSegment = openSegment(i);
+                int position = 0;
+                while (position + HEADER_BYTES <= segmentSize && currentSegment.getInt(position) != 0) {
+                    maxOrderId = Math.max(maxOrderId, currentSegment.getInt(position));
+                    position += HEADER_BYTES + currentSegment.getShort(position + 13) * ITEM_BYTES;
+                }
+                currentSegment.position(position);
+            }
+        }
+        long indexEntries = indexChannel.size() / INDEX_ENTRY_BYTES;
+        for (long i = 0; i < indexEntries; i += INDEX_CHUNK_ENTRIES) {
+            indexChunks.add(mapIndexChunk(indexChunks.size()));
+        }
+    }
+
+    private MappedByteBuffer openSegment(int segmentNumber) {
+        try (RandomAccessFile file = new RandomAccessFile(segmentPath(segmentNumber).toFile(), "rw")) {
+            MappedByteBuffer segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            segments.add(segment);
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to map order archive segment " + segmentNumber, e);
+        }
+    }
+
+    private MappedByteBuffer indexChunk(int orderId) {
+        int chunkNumber = orderId / INDEX_CHUNK_ENTRIES;
+        while (indexChunks.size() <= chunkNumber) {
+            indexChunks.add(mapIndexChunk(indexChunks.size()));
+        }
+        return indexChunks.get(chunkNumber);
+    }
+
+    private MappedByteBuffer mapIndexChunk(int chunkNumber) {
+        long chunkBytes = (long) INDEX_CHUNK_ENTRIES * INDEX_ENTRY_BYTES;
+        try {
+            return indexChannel.map(FileChannel.MapMode.READ_WRITE, chunkNumber * chunkBytes, chunkBytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to map order archive index chunk " + chunkNumber, e);
+        }
+    }
+
+    private Path segmentPath(int segmentNumber) {
+        return directory.resolve(String.format("segment-%05d.dat", segmentNumber));
+    }
+
+    private static void deleteAll(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    public static class Record {
+        public final int orderId;
+        public final int userId;
+        public final int totalPrice;
+        public final Order.Status status;
+        public final int[] productIds;
+        public final int[] quantities;
+
+        @JsonCreator
+        Record(
+            @JsonProperty("orderId") int orderId,
+            @JsonProperty("userId") int userId,
+            @JsonProperty("totalPrice") int totalPrice,
+            @JsonProperty("status") Order.Status status,
+            @JsonProperty("productIds") int[] productIds,
+            @JsonProperty("quantities") int[] quantities
+        ) {
+            this.orderId = orderId;
+            this.userId = userId;
+            this.totalPrice = totalPrice;
+            this.status = status;
+            this.productIds = productIds;
+            this.quantities = quantities;
+        }
+
+        @JsonIgnore
+        public boolean isTerminal() {
+            return status.isTerminal();
+        }
+
+        public Gateway.OrderInfo toOrderInfo() {
+            return Order.toOrderInfo(orderId, userId, totalPrice, status, productIds, quantities);
+        }
+    }
+}
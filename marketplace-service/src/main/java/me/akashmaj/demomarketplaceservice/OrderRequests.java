@@ -0,0 +1,284 @@
+package me.akashmaj.demomarketplaceservice;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.*;
+import akka.cluster.sharding.typed.javadsl.EntityTypeKey;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.typesafe.config.Config;
+import pods.project.serviceclient.ServiceRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+// Sharded store of the Idempotency-Key of each POST /orders, so a client can retry or hedge an
+// order without it being placed twice.
+//
+// A key is hashed onto one of marketplace.idempotency.slots entities. The first request with a
+// key claims it and the Gateway runs its PostOrder, whose answer comes back here: requests with
+// the key that come while it runs wait for that answer, later ones get it from the store. An
+// answer saying the order was not placed for a passing reason (a service unavailable, the
+// deadline passed) is not kept, so a retry places the order again. A key sent again with
+// another body is refused (422).
+//
+// A slot keeps at most max-keys-per-slot keys, dropping the oldest answered ones first, and
+// forgets an answer ttl after it came; an order still unanswered running-grace past its deadline
+// is given up on. Keys are kept in memory only: they are lost with the node holding their slot.
+public class OrderRequests extends AbstractBehavior<OrderRequests.Command> {
+
+    public static final EntityTypeKey<Command> ENTITY_TYPE_KEY = EntityTypeKey.create(Command.class, "OrderRequests");
+    public static final String KEY_HEADER = ServiceRequest.IDEMPOTENCY_KEY_HEADER;
+
+    // Counts of this node's slots, for GET /metrics/idempotency
+    private static final LongAdder keys = new LongAdder();
+    private static final LongAdder claimed = new LongAdder();
+    private static final LongAdder joined = new LongAdder();
+    private static final LongAdder replayed = new LongAdder();
+    private static final LongAdder reused = new LongAdder();
+    private static final LongAdder notKept = new LongAdder();
+    private static final LongAdder evicted = new LongAdder();
+    private static final LongAdder expired = new LongAdder();
+
+    // The settings of marketplace.idempotency
+    public static class Settings {
+        public final int slots;
+        public final int maxKeyLength;
+        final int maxKeysPerSlot;
+        final Duration ttl;
+        final Duration runningGrace;
+        final Duration sweepInterval;
+
+        Settings(int slots, int maxKeyLength, int maxKeysPerSlot, Duration ttl, Duration runningGrace, Duration sweepInterval) {
+            this.slots = slots;
+            this.maxKeyLength = maxKeyLength;
+            this.maxKeysPerSlot = maxKeysPerSlot;
+            this.ttl = ttl;
+            this.runningGrace = runningGrace;
+            this.sweepInterval = sweepInterval;
+        }
+
+        public static Settings fromConfig(Config config) {
+            return new Settings(config.getInt("slots"), config.getInt("max-key-length"), config.getInt("max-keys-per-slot"),
+                config.getDuration("ttl"), config.getDuration("running-grace"), config.getDuration("sweep-interval"));
+        }
+
+        // Entity id of the key's slot (String.hashCode is the same on every node)
+        public String slotOf(String key) {
+            return String.valueOf(Math.floorMod(key.hashCode(), slots));
+        }
+
+        public boolean isValid(String key) {
+            return !key.isBlank() && key.length() <= maxKeyLength;
+        }
+    }
+
+    private static class Entry {
+        final UUID fingerprint;
+        final List<ActorRef<Gateway.OrderInfo>> waiting = new ArrayList<>();
+        // Takes PostOrder's answer to this slot; null once answered
+        ActorRef<Gateway.OrderInfo> answerTo;
+        Gateway.OrderInfo answer;
+        long expiresAt;
+
+        Entry(UUID fingerprint, long expiresAt) {
+            this.fingerprint = fingerprint;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Settings settings;
+    // Oldest first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+    public static Behavior<Command> create(Settings settings) {
+        return Behaviors.withTimers(timers -> Behaviors.setup(context -> new OrderRequests(context, settings, timers)));
+    }
+
+    private OrderRequests(ActorContext<Command> context, Settings settings, TimerScheduler<Command> timers) {
+        super(context);
+        this.settings = settings;
+        timers.startTimerWithFixedDelay(Sweep.INSTANCE, settings.sweepInterval);
+    }
+
+    @Override
+    public Receive<Command> createReceive() {
+        return newReceiveBuilder()
+            .onMessage(PlaceOnce.class, this::onPlaceOnce)
+            .onMessage(Answered.class, this::onAnswered)
+            .onMessage(Sweep.class, this::onSweep)
+            .build();
+    }
+
+    private Behavior<Command> onPlaceOnce(PlaceOnce msg) {
+        UUID fingerprint = UUID.nameUUIDFromBytes(msg.orderData.getBytes(StandardCharsets.UTF_8));
+        Entry entry = entries.get(msg.key);
+        if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+            remove(msg.key, entry);
+            expired.increment();
+            entry = null;
+        }
+        if (entry == null) {
+            entry = new Entry(fingerprint, msg.deadline.plus(settings.runningGrace).toEpochMilli());
+            entry.waiting.add(msg.replyTo);
+            entry.answerTo = getContext().spawnAnonymous(answerTo(msg.key));
+            entries.put(msg.key, entry);
+            keys.increment();
+            claimed.increment();
+            msg.claimedBy.tell(new Claimed(msg.orderData, msg.deadline, entry.answerTo));
+            evictOverflow();
+        } else if (!entry.fingerprint.equals(fingerprint)) {
+            reused.increment();
+            msg.replyTo.tell(new Gateway.OrderInfo(0, 0, 0,
+                Gateway.KEY_REUSED + "Idempotency-Key " + msg.key + " was sent with another order", new ArrayList<>()));
+        } else if (entry.answer != null) {
+            replayed.increment();
+            msg.replyTo.tell(entry.answer);
+        } else {
+            // A retry or hedge of an order still running gets its answer too
+            joined.increment();
+            entry.waiting.add(msg.replyTo);
+        }
+        return this;
+    }
+
+    private Behavior<Command> onAnswered(Answered msg) {
+        Entry entry = entries.get(msg.key);
+        if (entry == null || entry.answer != null) {
+            // Given up on already
+            return this;
+        }
+        entry.waiting.forEach(waiting -> waiting.tell(msg.info));
+        entry.waiting.clear();
+        entry.answerTo = null;
+        if (msg.info.status.startsWith(Gateway.SERVICE_UNAVAILABLE) || msg.info.status.startsWith(Gateway.DEADLINE_EXCEEDED)) {
+            remove(msg.key, entry);
+            notKept.increment();
+            return this;
+        }
+        entry.answer = msg.info;
+        entry.expiresAt = System.currentTimeMillis() + settings.ttl.toMillis();
+        // Moved to the end, so the map stays (roughly) in the order keys expire
+        entries.remove(msg.key);
+        entries.put(msg.key, entry);
+        return this;
+    }
+
+    private Behavior<Command> onSweep(Sweep msg) {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entry.expiresAt <= now) {
+                stopAnswerTo(entry);
+                iterator.remove();
+                keys.decrement();
+                expired.increment();
+            }
+        }
+        return this;
+    }
+
+    // Drops the oldest answered keys over the limit; keys of running orders stay until answered
+    private void evictOverflow() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (entries.size() > settings.maxKeysPerSlot && iterator.hasNext()) {
+            if (iterator.next().answer != null) {
+                iterator.remove();
+                keys.decrement();
+                evicted.increment();
+            }
+        }
+    }
+
+    private void remove(String key, Entry entry) {
+        stopAnswerTo(entry);
+        entries.remove(key);
+        keys.decrement();
+    }
+
+    private void stopAnswerTo(Entry entry) {
+        if (entry.answerTo != null) {
+            getContext().stop(entry.answerTo);
+            entry.answerTo = null;
+        }
+    }
+
+    // PostOrder answers one order; this hands the answer to the slot under the order's key
+    private Behavior<Gateway.OrderInfo> answerTo(String key) {
+        ActorRef<Command> slot = getContext().getSelf();
+        return Behaviors.receive(Gateway.OrderInfo.class)
+            .onMessage(Gateway.OrderInfo.class, info -> {
+                slot.tell(new Answered(key, info));
+                return Behaviors.stopped();
+            })
+            .build();
+    }
+
+    public static String metricsJson() {
+        return String.format("{\"keys\":%d,\"claimed\":%d,\"joined\":%d,\"replayed\":%d,\"key_reused\":%d,\"not_kept\":%d,\"evicted\":%d,\"expired\":%d}",
+            keys.sum(), claimed.sum(), joined.sum(), replayed.sum(), reused.sum(), notKept.sum(), evicted.sum(), expired.sum());
+    }
+
+    public interface Command {}
+
+    // Places the order once per key: the answer goes to replyTo, and claimedBy is told to run
+    // the order when the key is new
+    public static class PlaceOnce implements Command {
+        public final String key;
+        public final String orderData;
+        public final Instant deadline;
+        public final ActorRef<Gateway.OrderInfo> replyTo;
+        public final ActorRef<Claimed> claimedBy;
+
+        @JsonCreator
+        public PlaceOnce(
+            @JsonProperty("key") String key,
+            @JsonProperty("orderData") String orderData,
+            @JsonProperty("deadline") Instant deadline,
+            @JsonProperty("replyTo") ActorRef<Gateway.OrderInfo> replyTo,
+            @JsonProperty("claimedBy") ActorRef<Claimed> claimedBy
+        ) {
+            this.key = key;
+            this.orderData = orderData;
+            this.deadline = deadline;
+            this.replyTo = replyTo;
+            this.claimedBy = claimedBy;
+        }
+    }
+
+    // The key was new: run the order and send its answer to answerTo
+    public static class Claimed {
+        public final String orderData;
+        public final Instant deadline;
+        public final ActorRef<Gateway.OrderInfo> answerTo;
+
+        @JsonCreator
+        public Claimed(
+            @JsonProperty("orderData") String orderData,
+            @JsonProperty("deadline") Instant deadline,
+            @JsonProperty("answerTo") ActorRef<Gateway.OrderInfo> answerTo
+        ) {
+            this.orderData = orderData;
+            this.deadline = deadline;
+            this.answerTo = answerTo;
+        }
+    }
+
+    // Internal messages (never leave this node).
+    private static class Answered implements Command {
+        final String key;
+        final Gateway.OrderInfo info;
+        Answered(String key, Gateway.OrderInfo info) { this.key = key; this.info = info; }
+    }
+
+    private enum Sweep implements Command { INSTANCE }
+}
@@ -10,9 +10,10 @@ import akka.cluster.sharding.typed.javadsl.EntityRef;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.core.type.TypeReference;
 
-import java.net.URI;
-import java.net.http.*;
-import java.net.http.HttpResponse.BodyHandlers;
+import pods.project.serviceclient.ServiceResponse;
+import pods.project.serviceclient.Target;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -35,6 +36,20 @@ public class PostOrder extends AbstractBehavior<PostOrder.Command> {
         }
     }
 
+    // Message to receive the first-order discount decision from the User entity.
+    public static final class DiscountDecisionResponse implements Command {
+        public final User.DiscountDecision decision;
+        public DiscountDecisionResponse(User.DiscountDecision decision) {
+            this.decision = decision;
+        }
+    }
+
+    // Timer message to send an unanswered hold capture again (see onCaptureRetry).
+    private static final class CaptureRetry implements Command {
+        final Duration delay;
+        CaptureRetry(Duration delay) { this.delay = delay; }
+    }
+
     // Message to receive stock reduction responses.
     public static final class StockReductionResponse implements Command {
         public final int productId;
@@ -47,10 +62,11 @@ public class PostOrder extends AbstractBehavior<PostOrder.Command> {
 
     private final ObjectMapper objectMapper = new ObjectMapper();
     private final String orderData;
+    // The client gives up on the order then: no step is started after it (see Deadlines)
+    private final Instant deadline;
     private final ActorRef<Gateway.OrderInfo> replyTo;
     private final ClusterSharding sharding;
     private final int orderId;
-    private final List<Integer> userIdList;
     private final Scheduler scheduler;
 
     // Parsed order details.
@@ -68,20 +84,30 @@ public class PostOrder extends AbstractBehavior<PostOrder.Command> {
     // Cost fields.
     private int totalCost = 0;
     private int finalCost = 0;
+    private boolean discountClaimed = false;
+    private String holdId;
+    // When a capture went unanswered (System.nanoTime)
+    private long captureUnknownSince;
+
+    // Captures sent again after one went unanswered: backing off up to the max delay, for as
+    // long as wallet-service remembers captured holds (wallet.holds.captured-ttl-seconds)
+    private static final Duration CAPTURE_RETRY_DELAY = Duration.ofMillis(500);
+    private static final Duration CAPTURE_RETRY_MAX_DELAY = Duration.ofSeconds(10);
+    private static final Duration CAPTURE_RESOLVE_FOR = Duration.ofMinutes(10);
 
     private PostOrder(ActorContext<Command> context,
         String orderData,
+        Instant deadline,
         ActorRef<Gateway.OrderInfo> replyTo,
         ClusterSharding sharding,
         int orderId,
-        List<Integer> userIdList,
         Scheduler scheduler) {
         super(context);
         this.orderData = orderData;
+        this.deadline = deadline;
         this.replyTo = replyTo;
         this.sharding = sharding;
         this.orderId = orderId;
-        this.userIdList = userIdList;
         this.scheduler = scheduler;
 
         // Only send Initialize if replyTo is not null
@@ -91,18 +117,22 @@ public class PostOrder extends AbstractBehavior<PostOrder.Command> {
     }
 
     public static Behavior<Command> create(String orderData,
+                                           Instant deadline,
                                            ActorRef<Gateway.OrderInfo> replyTo,
                                            ClusterSharding sharding,
                                            int orderId,
-                                           List<Integer> userIdList,
                                            Scheduler scheduler) {
-        return Behaviors.setup(context -> new PostOrder(context, orderData, replyTo, sharding, orderId, userIdList, scheduler));
+        return Behaviors.setup(context -> new PostOrder(context, orderData, deadline, replyTo, sharding, orderId, scheduler));
     }
 
     // --- Phase 1: Parse order data and collect product details ---
     private Behavior<Command> onInitialize(Initialize msg) {
         try {
             getContext().getLog().info("Received order data: {}", orderData);
+            // Waited in the mailbox past the deadline: nobody reads the answer any more
+            if (Deadlines.expired(deadline)) {
+                return deadlineExceeded();
+            }
     
             Map<String, Object> orderRequest = objectMapper.readValue(orderData, new TypeReference<Map<String, Object>>() {});
             
@@ -112,6 +142,13 @@ public class PostOrder extends AbstractBehavior<PostOrder.Command> {
                 return Behaviors.stopped();
             }
             userId = (Integer) orderRequest.get("user_id");
+
+            // Turn away unknown users without asking account-service (see UserRegistry)
+            UserRegistry userRegistry = DemoMarketplaceServiceApplication.userRegistry;
+            if (userRegistry != null && !userRegistry.exists(userId, deadline)) {
+                replyTo.tell(new Gateway.OrderInfo(orderId, 0, 0, "Invalid order data: User " + userId + " does not exist", new ArrayList<>()));
+                return Behaviors.stopped();
+            }
     
             // Validate items
             if (!orderRequest.containsKey("items") || !(orderRequest.get("items") instanceof List)) {
@@ -168,7 +205,7 @@ public class PostOrder extends AbstractBehavior<PostOrder.Command> {
     //             totalCost += quantity * pi.price;
     //         }
     //         // Query Account Service for discount detail (simulate with isFirstOrder check)
-    //         boolean discountApplicable = !userIdList.contains(userId);
+    //         boolean discountApplicable = true;
     //         finalCost = discountApplicable ? (int)(totalCost * 0.9) : totalCost;
     //         // Debit wallet.
     //         if (!debitWallet(userId, finalCost)) {
@@ -207,35 +244,76 @@ public class PostOrder extends AbstractBehavior<PostOrder.Command> {
                 }
                 totalCost += quantity * pi.price;
             }
-            // Query Account Service for discount detail (simulate with isFirstOrder check)
-            boolean discountApplicable = !userIdList.contains(userId);
-            finalCost = discountApplicable ? (int)(totalCost * 0.9) : totalCost;
-            // Debit wallet.
-            if (!debitWallet(userId, finalCost)) {
-                replyTo.tell(new Gateway.OrderInfo(orderId, 0, 0, "Insufficient wallet balance", convertItemsToOrderItemInfo(items)));
-                return Behaviors.stopped();
+            if (Deadlines.expired(deadline)) {
+                return deadlineExceeded();
             }
-            // Move to Phase 2: Reduce stock.
-            pendingStockReductionResponses = items.size();
-            for (Map<String, Object> item : items) {
-                int prodId = (Integer) item.get("product_id");
-                int quantity = (Integer) item.get("quantity");
-                ActorRef<Product.OperationResponse> adapter = getContext().messageAdapter(Product.OperationResponse.class,
-                        op -> new StockReductionResponse(prodId, op));
-                EntityRef<Product.Command> productRef = sharding.entityRefFor(Product.ENTITY_TYPE_KEY, String.valueOf(prodId));
-                
-                if(productRef != null) {
-                    productRef.tell(new Product.ReduceStock(quantity, adapter));
-                } else {
-                    refundWallet(userId, finalCost);
-                    replyTo.tell(new Gateway.OrderInfo(orderId, 0, 0, "Product not found: " + prodId, convertItemsToOrderItemInfo(items)));
-                    return Behaviors.stopped();
-                }
+            // Ask the user's shard whether this order gets the first-order discount.
+            ActorRef<User.DiscountDecision> adapter = getContext().messageAdapter(User.DiscountDecision.class,
+                    DiscountDecisionResponse::new);
+            EntityRef<User.Command> userRef = sharding.entityRefFor(User.ENTITY_TYPE_KEY, String.valueOf(userId));
+            UserRegistry registry = DemoMarketplaceServiceApplication.userRegistry;
+            userRef.tell(new User.ClaimDiscount(adapter, registry == null ? 0 : registry.profileVersion(userId)));
+            return waitingForDiscountDecision();
+        }
+        return this;
+    }
+
+    // --- Phase 2 state: Waiting for the discount decision ---
+    private Receive<Command> waitingForDiscountDecision() {
+        return newReceiveBuilder()
+            .onMessage(DiscountDecisionResponse.class, this::onDiscountDecision)
+            .build();
+    }
 
+    private Behavior<Command> onDiscountDecision(DiscountDecisionResponse msg) {
+        discountClaimed = msg.decision.granted;
+        finalCost = discountClaimed ? (int)(totalCost * 0.9) : totalCost;
+        if (Deadlines.expired(deadline)) {
+            releaseDiscount();
+            return deadlineExceeded();
+        }
+        // Reserve the funds; they are only debited once the stock is secured.
+        try {
+            holdId = holdFunds(userId, finalCost);
+        } catch (Exception e) {
+            // Nothing to undo: a hold placed without an answer expires on its own
+            releaseDiscount();
+            if (Deadlines.expired(deadline)) {
+                return deadlineExceeded();
             }
-            return waitingForStockReduction();
+            replyTo.tell(new Gateway.OrderInfo(orderId, 0, 0, walletUnavailable(e), convertItemsToOrderItemInfo(items)));
+            return Behaviors.stopped();
         }
-        return this;
+        if (holdId == null) {
+            releaseDiscount();
+            replyTo.tell(new Gateway.OrderInfo(orderId, 0, 0, "Insufficient wallet balance", convertItemsToOrderItemInfo(items)));
+            return Behaviors.stopped();
+        }
+        if (Deadlines.expired(deadline)) {
+            releaseHold();
+            releaseDiscount();
+            return deadlineExceeded();
+        }
+        // Move to Phase 3: Reduce stock.
+        pendingStockReductionResponses = items.size();
+        for (Map<String, Object> item : items) {
+            int prodId = (Integer) item.get("product_id");
+            int quantity = (Integer) item.get("quantity");
+            ActorRef<Product.OperationResponse> adapter = getContext().messageAdapter(Product.OperationResponse.class,
+                    op -> new StockReductionResponse(prodId, op));
+            EntityRef<Product.Command> productRef = sharding.entityRefFor(Product.ENTITY_TYPE_KEY, String.valueOf(prodId));
+            
+            if(productRef != null) {
+                productRef.tell(new Product.ReduceStock(quantity, adapter));
+            } else {
+                releaseHold();
+                releaseDiscount();
+                replyTo.tell(new Gateway.OrderInfo(orderId, 0, 0, "Product not found: " + prodId, convertItemsToOrderItemInfo(items)));
+                return Behaviors.stopped();
+            }
+
+        }
+        return waitingForStockReduction();
     }
     
     // Helper method to convert List<Map<String, Object>> to List<Order.OrderItemInfo>
@@ -249,7 +327,7 @@ public class PostOrder extends AbstractBehavior<PostOrder.Command> {
         return orderItemInfos;
     }
 
-    // --- Phase 2 state: Waiting for stock reduction responses ---
+    // --- Phase 3 state: Waiting for stock reduction responses ---
     private Receive<Command> waitingForStockReduction() {
         return newReceiveBuilder()
             .onMessage(StockReductionResponse.class, this::onStockReductionResponse)
@@ -262,106 +340,203 @@ public class PostOrder extends AbstractBehavior<PostOrder.Command> {
 
         if (pendingStockReductionResponses == 0) {
             boolean allSuccess = stockReductionResults.values().stream().allMatch(s -> s);
-            if (allSuccess) {
+            if (!allSuccess) {
+                return compensate("Stock reduction failed, order cancelled");
+            }
+            // Debit the held funds only now that the stock is secured, and only if the client
+            // still waits: a capture once started is not cut short.
+            if (Deadlines.expired(deadline)) {
+                return compensate(Gateway.DEADLINE_EXCEEDED + "order not placed");
+            }
+            try {
+                // The hold expired before the capture if it was not captured
+                return captureHold() ? placeOrder() : compensate("Payment failed, order cancelled");
+            } catch (DependencyUnavailableException e) {
+                // Not sent: nothing was debited
+                return compensate(walletUnavailable(e));
+            } catch (Exception e) {
+                // Sent, but the answer was lost: the funds may have been debited, so undoing the
+                // order now could keep the money of an order never placed. Find out first.
+                getContext().getLog().warn("Capture for order {} got no answer ({}), asking again", orderId, e.toString());
+                captureUnknownSince = System.nanoTime();
+                getContext().scheduleOnce(CAPTURE_RETRY_DELAY, getContext().getSelf(), new CaptureRetry(CAPTURE_RETRY_DELAY));
+                return resolvingCapture();
+            }
+        }
+        // Stay in this phase; "this" would fall back to waitingForProductDetails().
+        return Behaviors.same();
+    }
 
-                updateUserDiscount(userId, false);
 
-                // All stock reductions succeeded.
-                List<Order.OrderItem> orderItems = new ArrayList<>();
-                for (Map<String, Object> item : items) {
-                    int prodId = (Integer) item.get("product_id");
-                    int quantity = (Integer) item.get("quantity");
-                    orderItems.add(new Order.OrderItem(orderId, prodId, quantity));
-                }
-                EntityRef<Order.Command> orderRef = sharding.entityRefFor(Order.ENTITY_TYPE_KEY, String.valueOf(orderId));
-                orderRef.tell(new Order.PlaceOrder(orderId, userId, finalCost, orderItems));
-                replyTo.tell(new Gateway.OrderInfo(orderId, userId, finalCost, "PLACED", convertItemsToOrderItemInfo(items)));
-                return Behaviors.stopped();
-            } else {
-                // At least one stock reduction failed; perform compensation.
-                refundWallet(userId, finalCost);
-                for (Map<String, Object> item : items) {
-                    int prodId = (Integer) item.get("product_id");
-                    int quantity = (Integer) item.get("quantity");
-                    EntityRef<Product.Command> productRef = sharding.entityRefFor(Product.ENTITY_TYPE_KEY, String.valueOf(prodId));
-                    productRef.tell(new Product.RestoreStock(quantity,
-                                    getContext().messageAdapter(Product.OperationResponse.class, 
-                                            op -> new StockReductionResponse(prodId, op))));
-                }
-                replyTo.tell(new Gateway.OrderInfo(orderId, 0, 0, "Stock reduction failed, order cancelled", new ArrayList<>()));
+    // --- Phase 4 state (only after a capture without an answer): capture again until one answers ---
+    // Wallet-service answers a capture sent again for a hold it already captured as done, and
+    // one for a hold it released (it expired) as not found, so the first answer tells.
+    private Receive<Command> resolvingCapture() {
+        return newReceiveBuilder()
+            .onMessage(CaptureRetry.class, this::onCaptureRetry)
+            .build();
+    }
+
+    private Behavior<Command> onCaptureRetry(CaptureRetry msg) {
+        boolean captured;
+        try {
+            captured = captureHold();
+        } catch (Exception e) {
+            if (System.nanoTime() - captureUnknownSince > CAPTURE_RESOLVE_FOR.toNanos()) {
+                // Neither undone nor placed: the stock stays taken and the funds may be debited
+                getContext().getLog().error("Giving up on the capture of hold {} for order {} of user {} ({} debited or not): {}",
+                    holdId, orderId, userId, finalCost, e.toString());
+                releaseDiscount();
+                replyTo.tell(new Gateway.OrderInfo(orderId, 0, 0, Gateway.SERVICE_UNAVAILABLE + "payment outcome unknown, order not placed", new ArrayList<>()));
                 return Behaviors.stopped();
             }
+            Duration delay = msg.delay.multipliedBy(2).compareTo(CAPTURE_RETRY_MAX_DELAY) > 0 ? CAPTURE_RETRY_MAX_DELAY : msg.delay.multipliedBy(2);
+            getContext().scheduleOnce(delay, getContext().getSelf(), new CaptureRetry(delay));
+            return Behaviors.same();
         }
-        return this;
+        if (!captured) {
+            return compensate("Payment failed, order cancelled");
+        }
+        if (Deadlines.expired(deadline)) {
+            // The client was told the order was not placed (504): give the money back
+            refundCapture();
+            return compensate(Gateway.DEADLINE_EXCEEDED + "order not placed");
+        }
+        return placeOrder();
     }
 
+    private Behavior<Command> placeOrder() {
+        confirmDiscount();
+        List<Order.OrderItem> orderItems = new ArrayList<>();
+        for (Map<String, Object> item : items) {
+            int prodId = (Integer) item.get("product_id");
+            int quantity = (Integer) item.get("quantity");
+            orderItems.add(new Order.OrderItem(orderId, prodId, quantity));
+        }
+        EntityRef<Order.Command> orderRef = sharding.entityRefFor(Order.ENTITY_TYPE_KEY, String.valueOf(orderId));
+        orderRef.tell(new Order.PlaceOrder(orderId, userId, finalCost, orderItems));
+        replyTo.tell(new Gateway.OrderInfo(orderId, userId, finalCost, "PLACED", convertItemsToOrderItemInfo(items)));
+        return Behaviors.stopped();
+    }
 
-    private boolean debitWallet(int user_id, int amount) {
-        try {
-            Map<String, Object> data = new HashMap<>();
-            data.put("action", "debit");
-            data.put("amount", amount);
-            String json = objectMapper.writeValueAsString(data);
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(new URI("http://localhost:8082/wallets/" + user_id))
-                    .header("Content-Type", "application/json")
-                    .PUT(HttpRequest.BodyPublishers.ofString(json))
-                    .build();
-            HttpResponse<String> response = DemoMarketplaceServiceApplication.httpClient.send(request, BodyHandlers.ofString());
-            return response.statusCode() == 200;
-        } catch (Exception e) {
-            e.printStackTrace();
-            return false;
+    // At least one stock reduction failed, or the funds were not debited: undo the other steps
+    private Behavior<Command> compensate(String reason) {
+        releaseHold();
+        releaseDiscount();
+        for (Map<String, Object> item : items) {
+            int prodId = (Integer) item.get("product_id");
+            int quantity = (Integer) item.get("quantity");
+            EntityRef<Product.Command> productRef = sharding.entityRefFor(Product.ENTITY_TYPE_KEY, String.valueOf(prodId));
+            productRef.tell(new Product.RestoreStock(quantity,
+                            getContext().messageAdapter(Product.OperationResponse.class,
+                                    op -> new StockReductionResponse(prodId, op))));
         }
+        replyTo.tell(new Gateway.OrderInfo(orderId, 0, 0, reason, new ArrayList<>()));
+        return Behaviors.stopped();
     }
 
-    private void refundWallet(int user_id, int amount) {
+    // Credits back a capture of an order not placed after all. Keyed by the hold, so
+    // wallet-service applies it once however often it is sent (see DeleteOrder.refundWallet).
+    private void refundCapture() {
+        String refundKey = "capture-refund-" + holdId;
+        getContext().getLog().warn("Refunding the capture of hold {}: order {} was given up", holdId, orderId);
+        if (DemoMarketplaceServiceApplication.walletRpc != null) {
+            try {
+                if (DemoMarketplaceServiceApplication.walletRpc.updateBalance(userId, finalCost, refundKey).status < 500) {
+                    return;
+                }
+            } catch (Exception e) {
+                getContext().getLog().warn("Refund of hold {} over wallet RPC failed, sending it over REST: {}", holdId, e.toString());
+            }
+        }
         try {
             Map<String, Object> data = new HashMap<>();
             data.put("action", "credit");
-            data.put("amount", amount);
-            String json = objectMapper.writeValueAsString(data);
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(new URI("http://localhost:8082/wallets/" + user_id))
-                    .header("Content-Type", "application/json")
-                    .PUT(HttpRequest.BodyPublishers.ofString(json))
-                    .build();
-            DemoMarketplaceServiceApplication.httpClient.send(request, BodyHandlers.ofString());
+            data.put("amount", finalCost);
+            ServiceResponse response = walletService(userId).put("/wallets/" + userId)
+                .json(objectMapper.writeValueAsString(data))
+                .idempotencyKey(refundKey)
+                .send();
+            if (response.status != 200) {
+                getContext().getLog().error("Refund of {} to user {} for hold {} failed: {}", finalCost, userId, holdId, response.status);
+            }
         } catch (Exception e) {
-            e.printStackTrace();
+            getContext().getLog().error("Refund of {} to user {} for hold {} failed: {}", finalCost, userId, holdId, e.toString());
         }
     }
 
-    private void updateUserDiscount(int user_id, boolean discountAvailed) {
-        try {
-            Map<String, Object> data = new HashMap<>();
-            data.put("id", user_id);
-            data.put("discount_availed", discountAvailed);
-            String json = objectMapper.writeValueAsString(data);
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(new URI("http://localhost:8080/users"))
-                    .header("Content-Type", "application/json")
-                    .PUT(HttpRequest.BodyPublishers.ofString(json))
-                    .build();
-            DemoMarketplaceServiceApplication.httpClient.send(request, BodyHandlers.ofString());
-        } catch (Exception e) {
-            e.printStackTrace();
+    // Places a hold on the user's wallet and returns its id, or null if the funds are not available.
+    // Throws when the wallet partition gives no answer (by the deadline), or is not asked (see Dependency).
+    private String holdFunds(int user_id, int amount) throws Exception {
+        Dependency wallet = DemoMarketplaceServiceApplication.dependencies.walletFor(user_id);
+        WalletRpcClient walletRpc = DemoMarketplaceServiceApplication.walletRpc;
+        if (walletRpc != null) {
+            WalletRpcClient.Response response = wallet.call(() -> walletRpc.placeHold(user_id, amount, deadline), r -> r.status >= 500, deadline);
+            return response.status == 201 ? response.text() : null;
+        }
+        Map<String, Object> data = new HashMap<>();
+        data.put("amount", amount);
+        String json = objectMapper.writeValueAsString(data);
+        ServiceResponse response = wallet.call(() -> walletService(user_id).post("/wallets/" + user_id + "/holds").json(json).deadline(deadline).send(),
+            r -> r.status >= 500, deadline);
+        if (response.status != 201) {
+            return null;
         }
+        return objectMapper.readTree(response.body).path("hold_id").asText(null);
     }
 
-    private int getUser(int user_id) {
-        try {
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(new URI("http://localhost:8080/users/" + user_id))
-                    .header("Content-Type", "application/json")
-                    .GET()
-                    .build();
-            HttpResponse<String> response = DemoMarketplaceServiceApplication.httpClient.send(request, BodyHandlers.ofString());
-            System.out.println("Response: " + response.body());
-            return response.statusCode();
-        } catch (Exception e) {
-            e.printStackTrace();
-            return 404;
+    // Whether the held funds were debited; throws like holdFunds
+    private boolean captureHold() throws Exception {
+        Dependency wallet = DemoMarketplaceServiceApplication.dependencies.walletFor(userId);
+        WalletRpcClient walletRpc = DemoMarketplaceServiceApplication.walletRpc;
+        if (walletRpc != null) {
+            return wallet.call(() -> walletRpc.captureHold(userId, holdId), r -> r.status >= 500).status == 200;
+        }
+        return wallet.call(() -> walletService(userId).post("/wallets/holds/" + holdId + "/capture").send(),
+            r -> r.status >= 500).status == 200;
+    }
+
+    // Releasing only drops the reservation in wallet-service, so it is sent without waiting;
+    // if it is lost (or not sent, the breaker being open) the hold still expires on its own.
+    private void releaseHold() {
+        Dependency wallet = DemoMarketplaceServiceApplication.dependencies.walletFor(userId);
+        WalletRpcClient walletRpc = DemoMarketplaceServiceApplication.walletRpc;
+        if (walletRpc != null) {
+            wallet.callAsync(() -> walletRpc.releaseHold(userId, holdId), r -> r.status >= 500);
+            return;
+        }
+        wallet.callAsync(() -> walletService(userId).post("/wallets/holds/" + holdId + "/release").sendAsync(), r -> r.status >= 500);
+    }
+
+    // Gives up on an order whose deadline passed before its next step; undo the steps taken first
+    private Behavior<Command> deadlineExceeded() {
+        getContext().getLog().warn("Order {} given up: its deadline passed", orderId);
+        replyTo.tell(new Gateway.OrderInfo(orderId, 0, 0, Gateway.DEADLINE_EXCEEDED + "order not placed", new ArrayList<>()));
+        return Behaviors.stopped();
+    }
+
+    // Status of an order that failed because the wallet partition could not be asked or did not answer (503)
+    private String walletUnavailable(Exception e) {
+        getContext().getLog().warn("Wallet call for order {} failed: {}", orderId, e.toString());
+        String reason = e instanceof DependencyUnavailableException ? e.getMessage() : "wallet service did not answer";
+        return Gateway.SERVICE_UNAVAILABLE + reason + ", order not placed";
+    }
+
+    // The wallet partition owning the user's wallet
+    private static Target walletService(int userId) {
+        return DemoMarketplaceServiceApplication.serviceClient.target(DemoMarketplaceServiceApplication.walletPartitions.targetFor(userId));
+    }
+
+    // The User entity syncs a confirmed claim to account-service on its own.
+    private void confirmDiscount() {
+        if (discountClaimed) {
+            sharding.entityRefFor(User.ENTITY_TYPE_KEY, String.valueOf(userId)).tell(new User.ConfirmDiscount());
+        }
+    }
+
+    private void releaseDiscount() {
+        if (discountClaimed) {
+            sharding.entityRefFor(User.ENTITY_TYPE_KEY, String.valueOf(userId)).tell(new User.ReleaseDiscount());
         }
     }
 
@@ -0,0 +1,179 @@
+package me.akashmaj.demomarketplaceservice;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.*;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.sharding.typed.javadsl.EntityRef;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import pods.project.serviceclient.ServiceResponse;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+// Worker for DELETE /marketplace and DELETE /marketplace/users/{userId}: cancels the given PLACED orders, restores their stock and
+// refunds all cancelled orders with one POST /wallets/batch per wallet partition instead
+// of one wallet request per order. Entries the batch answers FAILED for are sent again one
+// by one (PUT /wallets/{id} with an Idempotency-Key, so the client may retry it); refunds
+// still failing after that are logged and make the reset fail.
+public class ResetOrders extends AbstractBehavior<ResetOrders.Command> {
+
+    public interface Command {}
+
+    private static class CancelOrderResponse implements Command {
+        final Gateway.OrderInfo orderInfo;
+        CancelOrderResponse(Gateway.OrderInfo orderInfo) { this.orderInfo = orderInfo; }
+    }
+
+    private static class StockRestored implements Command {
+        final Product.OperationResponse response;
+        StockRestored(Product.OperationResponse response) { this.response = response; }
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    // Starts the reply message, e.g. "Global reset"
+    private final String description;
+    private final ActorRef<Gateway.GeneralResponse> replyTo;
+    private final ClusterSharding sharding;
+    private final List<Map<String, Object>> refunds = new ArrayList<>();
+    // Order of each refund, in the same order
+    private final List<Integer> refundedOrderIds = new ArrayList<>();
+    private int pendingCancellations;
+    // Part of the Idempotency-Key of refunds sent again, so keys of an earlier reset never match
+    private final String resetId = UUID.randomUUID().toString();
+
+    public static Behavior<Command> create(List<Integer> orderIds,
+                                           String description,
+                                           ActorRef<Gateway.GeneralResponse> replyTo,
+                                           ClusterSharding sharding) {
+        return Behaviors.setup(context -> new ResetOrders(context, orderIds, description, replyTo, sharding));
+    }
+
+    private ResetOrders(ActorContext<Command> context,
+                        List<Integer> orderIds,
+                        String description,
+                        ActorRef<Gateway.GeneralResponse> replyTo,
+                        ClusterSharding sharding) {
+        super(context);
+        this.description = description;
+        this.replyTo = replyTo;
+        this.sharding = sharding;
+        this.pendingCancellations = orderIds.size();
+
+        ActorRef<Gateway.OrderInfo> adapter = context.messageAdapter(Gateway.OrderInfo.class, CancelOrderResponse::new);
+        for (int orderId : orderIds) {
+            EntityRef<Order.Command> orderRef = sharding.entityRefFor(Order.ENTITY_TYPE_KEY, String.valueOf(orderId));
+            orderRef.tell(new Order.CancelOrder(orderId, adapter));
+        }
+    }
+
+    @Override
+    public Receive<Command> createReceive() {
+        return newReceiveBuilder()
+            .onMessage(CancelOrderResponse.class, this::onCancelOrderResponse)
+            .onMessage(StockRestored.class, msg -> Behaviors.same())
+            .build();
+    }
+
+    private Behavior<Command> onCancelOrderResponse(CancelOrderResponse msg) {
+        Gateway.OrderInfo info = msg.orderInfo;
+        if ("CANCELLED".equals(info.status)) {
+            ActorRef<Product.OperationResponse> stockAdapter =
+                getContext().messageAdapter(Product.OperationResponse.class, StockRestored::new);
+            for (Order.OrderItemInfo item : info.items) {
+                EntityRef<Product.Command> productRef = sharding.entityRefFor(Product.ENTITY_TYPE_KEY, String.valueOf(item.product_id));
+                productRef.tell(new Product.RestoreStock(item.quantity, stockAdapter));
+            }
+            Map<String, Object> refund = new HashMap<>();
+            refund.put("user_id", info.user_id);
+            refund.put("action", "credit");
+            refund.put("amount", info.total_price);
+            refunds.add(refund);
+            refundedOrderIds.add(info.orderId);
+        }
+        pendingCancellations--;
+        if (pendingCancellations > 0) {
+            return Behaviors.same();
+        }
+        List<Integer> failed = refunds.isEmpty() ? List.of() : refundWallets();
+        if (!failed.isEmpty()) {
+            getContext().getLog().error("{}: refunds of orders {} failed", description, failed);
+            replyTo.tell(new Gateway.GeneralResponse(false, description + ": Cancelled all orders, but refunds of orders " + failed + " failed"));
+            return Behaviors.stopped();
+        }
+        replyTo.tell(new Gateway.GeneralResponse(true, description + ": Cancelled all orders"));
+        return Behaviors.stopped();
+    }
+
+    // Splits the refunds by owning partition and sends the batches in parallel; returns the
+    // orders whose refund failed
+    private List<Integer> refundWallets() {
+        WalletPartitions partitions = DemoMarketplaceServiceApplication.walletPartitions;
+        Map<Integer, List<Integer>> batches = new HashMap<>();
+        for (int i = 0; i < refunds.size(); i++) {
+            batches.computeIfAbsent(partitions.partitionOf((Integer) refunds.get(i).get("user_id")), partition -> new ArrayList<>()).add(i);
+        }
+        Map<Integer, CompletableFuture<ServiceResponse>> responses = new HashMap<>();
+        List<Integer> failed = new ArrayList<>();
+        for (Map.Entry<Integer, List<Integer>> batch : batches.entrySet()) {
+            try {
+                String json = objectMapper.writeValueAsString(batch.getValue().stream().map(refunds::get).toList());
+                responses.put(batch.getKey(), DemoMarketplaceServiceApplication.serviceClient.target(WalletPartitions.target(batch.getKey()))
+                    .post("/wallets/batch")
+                    .json(json)
+                    .sendAsync());
+            } catch (Exception e) {
+                e.printStackTrace();
+                batch.getValue().forEach(i -> failed.add(refundedOrderIds.get(i)));
+            }
+        }
+        for (Map.Entry<Integer, CompletableFuture<ServiceResponse>> response : responses.entrySet()) {
+            List<Integer> entries = batches.get(response.getKey());
+            JsonNode results;
+            try {
+                ServiceResponse batchResponse = response.getValue().get();
+                results = batchResponse.status == 200 ? objectMapper.readTree(batchResponse.body) : null;
+            } catch (Exception e) {
+                e.printStackTrace();
+                results = null;
+            }
+            if (results == null || !results.isArray() || results.size() != entries.size()) {
+                // Not known which entries were applied: sending them again could credit twice
+                entries.forEach(i -> failed.add(refundedOrderIds.get(i)));
+                continue;
+            }
+            // Results come back in request order; a FAILED entry was not applied
+            for (int j = 0; j < entries.size(); j++) {
+                int i = entries.get(j);
+                if (!"OK".equals(results.get(j).path("status").asText()) && !refundAgain(i)) {
+                    failed.add(refundedOrderIds.get(i));
+                }
+            }
+        }
+        return failed;
+    }
+
+    private boolean refundAgain(int i) {
+        Map<String, Object> refund = refunds.get(i);
+        int userId = (Integer) refund.get("user_id");
+        try {
+            Map<String, Object> data = new HashMap<>();
+            data.put("action", "credit");
+            data.put("amount", refund.get("amount"));
+            ServiceResponse response = DemoMarketplaceServiceApplication.serviceClient.target(DemoMarketplaceServiceApplication.walletPartitions.targetFor(userId))
+                .put("/wallets/" + userId)
+                .json(objectMapper.writeValueAsString(data))
+                .idempotencyKey("reset-refund-" + refundedOrderIds.get(i) + "-" + resetId)
+                .send();
+            return response.status == 200;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+}
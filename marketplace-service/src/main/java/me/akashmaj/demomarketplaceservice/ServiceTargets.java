@@ -0,0 +1,30 @@
+package me.akashmaj.demomarketplaceservice;
+
+import com.typesafe.config.Config;
+import pods.project.serviceclient.ServiceClient;
+import pods.project.serviceclient.TargetOptions;
+
+// The marketplace's REST calls to other services, all through one ServiceClient: "account"
+// (marketplace.account-service-url) and one "wallet-<i>" per wallet partition, with the
+// pool, deadline and retry settings of marketplace.http-client.
+public class ServiceTargets {
+
+    public static final String ACCOUNT = "account";
+
+    public static ServiceClient fromConfig(Config config, WalletPartitions partitions) {
+        Config client = config.getConfig("http-client");
+        ServiceClient.Builder builder = ServiceClient.builder()
+            .defaults(TargetOptions.DEFAULTS
+                .maxConnections(client.getInt("max-connections"))
+                .connectTimeout(client.getDuration("connect-timeout"))
+                .timeout(client.getDuration("timeout"))
+                .maxAttempts(client.getInt("max-attempts"))
+                .backoff(client.getDuration("backoff"), client.getDuration("max-backoff"))
+                .http2(client.getBoolean("http2")))
+            .target(ACCOUNT, config.getString("account-service-url"));
+        for (int partition = 0; partition < partitions.count(); partition++) {
+            builder.target(WalletPartitions.target(partition), partitions.url(partition));
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,315 @@
+package me.akashmaj.demomarketplaceservice;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.*;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.sharding.typed.javadsl.EntityContext;
+import akka.cluster.sharding.typed.javadsl.EntityTypeKey;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import pods.project.serviceclient.ServiceResponse;
+import pods.project.serviceclient.Target;
+
+import java.time.Duration;
+
+// Sharded per-user profile owning the first-order discount decision.
+//
+// The discount-availed flag is loaded once from account-service and cached here,
+// so PostOrder gets an O(1) answer from the user's shard. A claim is reserved for
+// the saga that asked first; the saga then confirms it (order placed) or releases
+// it (order failed). Confirmed claims are written back to account-service
+// asynchronously, off the order path, retried with a backoff capped at SYNC_RETRY_MAX_DELAY
+// until account-service takes them (or no longer has the account).
+//
+// A profile that cannot be loaded (account-service down, breaker open) grants no discount:
+// claims are denied, and the load is tried again every LOAD_RETRY_DELAY. A claim carrying a
+// newer profile version than the one loaded (see UserRegistry.profileVersion: the account was
+// created again, deleted or updated since) makes the entity load the profile again first.
+// Entities idle for marketplace.user-passivate-idle-after are passivated, unless a claim is
+// pending or a discount is not yet written back.
+public class User extends AbstractBehavior<User.Command> {
+
+    public static final EntityTypeKey<Command> ENTITY_TYPE_KEY = EntityTypeKey.create(Command.class, "User");
+
+    private static final Duration CLAIM_TIMEOUT = Duration.ofSeconds(60);
+    private static final Duration SYNC_RETRY_DELAY = Duration.ofSeconds(2);
+    private static final Duration SYNC_RETRY_MAX_DELAY = Duration.ofMinutes(1);
+    private static final Duration LOAD_RETRY_DELAY = Duration.ofSeconds(5);
+    // Failed write-backs are logged as errors from this attempt on (they are still retried)
+    private static final int SYNC_ATTEMPTS_BEFORE_ERROR = 5;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final int userId;
+    private final StashBuffer<Command> stash;
+    private final TimerScheduler<Command> timers;
+    private final ActorRef<ClusterSharding.ShardCommand> shard;
+
+    private boolean loaded;
+    private boolean discountAvailed;
+    private boolean claimPending;
+    // Confirmed here but not yet written back to account-service
+    private boolean syncPending;
+    // Profile version the loaded profile is at least as new as; the one the load in progress
+    // is for (-1: the first claim's, as the entity, and so the load, was started for it)
+    private long loadedVersion;
+    private long loadingVersion = -1;
+
+    public static Behavior<Command> create(EntityContext<Command> entityContext, Duration idleTimeout) {
+        int userId = Integer.parseInt(entityContext.getEntityId());
+        return Behaviors.withStash(1000, stash ->
+            Behaviors.withTimers(timers ->
+                Behaviors.setup(context -> new User(context, userId, stash, timers, entityContext.getShard(), idleTimeout))));
+    }
+
+    private User(ActorContext<Command> context, int userId, StashBuffer<Command> stash, TimerScheduler<Command> timers,
+                 ActorRef<ClusterSharding.ShardCommand> shard, Duration idleTimeout) {
+        super(context);
+        this.userId = userId;
+        this.stash = stash;
+        this.timers = timers;
+        this.shard = shard;
+        context.setReceiveTimeout(idleTimeout, Idle.INSTANCE);
+        loadProfile();
+    }
+
+    @Override
+    public Receive<Command> createReceive() {
+        return loading();
+    }
+
+    // --- Loading: wait for account-service before answering claims ---
+    // (a reload keeps confirming, releasing and syncing claims granted before it)
+    private Receive<Command> loading() {
+        return newReceiveBuilder()
+            .onMessage(ProfileLoaded.class, this::onProfileLoaded)
+            .onMessage(ClaimDiscount.class, msg -> {
+                if (loadingVersion < 0) {
+                    loadingVersion = msg.profileVersion;
+                }
+                stash.stash(msg);
+                return Behaviors.same();
+            })
+            .onMessage(ConfirmDiscount.class, this::onConfirmDiscount)
+            .onMessage(ReleaseDiscount.class, this::onReleaseDiscount)
+            .onMessage(ClaimExpired.class, this::onClaimExpired)
+            .onMessage(SyncResult.class, this::onSyncResult)
+            .onMessage(SyncRetry.class, this::onSyncRetry)
+            .onMessage(Idle.class, msg -> Behaviors.same())
+            .build();
+    }
+
+    private Behavior<Command> onProfileLoaded(ProfileLoaded msg) {
+        loaded = msg.loaded;
+        if (loaded) {
+            // A discount confirmed here and not written back yet still counts
+            discountAvailed = msg.discountAvailed || syncPending;
+            loadedVersion = Math.max(loadedVersion, loadingVersion);
+            getContext().getLog().debug("User {} loaded, discount availed: {}", userId, discountAvailed);
+        } else {
+            // Claims are denied until a load gets through
+            getContext().getLog().warn("Could not load user {} from account-service, retrying in {}", userId, LOAD_RETRY_DELAY);
+            timers.startSingleTimer(LoadRetry.INSTANCE, LOAD_RETRY_DELAY);
+        }
+        return stash.unstashAll(ready());
+    }
+
+    // --- Ready: answer claims from the cached flag ---
+    // (handlers return Behaviors.same(); returning "this" would fall back to loading())
+    private Receive<Command> ready() {
+        return newReceiveBuilder()
+            .onMessage(ClaimDiscount.class, this::onClaimDiscount)
+            .onMessage(ConfirmDiscount.class, this::onConfirmDiscount)
+            .onMessage(ReleaseDiscount.class, this::onReleaseDiscount)
+            .onMessage(ClaimExpired.class, this::onClaimExpired)
+            .onMessage(SyncResult.class, this::onSyncResult)
+            .onMessage(SyncRetry.class, this::onSyncRetry)
+            .onMessage(LoadRetry.class, msg -> reload(loadedVersion))
+            .onMessage(Idle.class, this::onIdle)
+            .build();
+    }
+
+    private Behavior<Command> onClaimDiscount(ClaimDiscount msg) {
+        if (loaded && msg.profileVersion > loadedVersion) {
+            // The account changed since it was loaded
+            stash.stash(msg);
+            return reload(msg.profileVersion);
+        }
+        boolean granted = loaded && !discountAvailed && !claimPending;
+        if (granted) {
+            claimPending = true;
+            // A saga that dies between claim and confirm must not block the discount forever.
+            timers.startSingleTimer(ClaimExpired.INSTANCE, CLAIM_TIMEOUT);
+        }
+        msg.replyTo.tell(new DiscountDecision(userId, granted));
+        return Behaviors.same();
+    }
+
+    private Behavior<Command> onConfirmDiscount(ConfirmDiscount msg) {
+        claimPending = false;
+        timers.cancel(ClaimExpired.INSTANCE);
+        if (!discountAvailed) {
+            discountAvailed = true;
+            syncPending = true;
+            syncToAccountService(1);
+        }
+        return Behaviors.same();
+    }
+
+    private Behavior<Command> onReleaseDiscount(ReleaseDiscount msg) {
+        claimPending = false;
+        timers.cancel(ClaimExpired.INSTANCE);
+        return Behaviors.same();
+    }
+
+    private Behavior<Command> onClaimExpired(ClaimExpired msg) {
+        if (claimPending) {
+            getContext().getLog().warn("Discount claim of user {} expired without confirmation", userId);
+            claimPending = false;
+        }
+        return Behaviors.same();
+    }
+
+    // The entity stays resident (onIdle) until the write-back gets through
+    private Behavior<Command> onSyncResult(SyncResult msg) {
+        if (msg.success) {
+            syncPending = false;
+            return Behaviors.same();
+        }
+        long backoff = SYNC_RETRY_DELAY.toMillis() << Math.min(msg.attempt - 1, 16);
+        Duration delay = Duration.ofMillis(Math.min(backoff, SYNC_RETRY_MAX_DELAY.toMillis()));
+        if (msg.attempt >= SYNC_ATTEMPTS_BEFORE_ERROR) {
+            getContext().getLog().error("Syncing discount of user {} to account-service failed {} times, retrying in {}",
+                userId, msg.attempt, delay);
+        }
+        timers.startSingleTimer(new SyncRetry(msg.attempt + 1), delay);
+        return Behaviors.same();
+    }
+
+    private Behavior<Command> onSyncRetry(SyncRetry msg) {
+        syncToAccountService(msg.attempt);
+        return Behaviors.same();
+    }
+
+    // The state only here goes with the entity: keep it until it is settled
+    private Behavior<Command> onIdle(Idle msg) {
+        if (!claimPending && !syncPending) {
+            shard.tell(new ClusterSharding.Passivate<>(getContext().getSelf()));
+        }
+        return Behaviors.same();
+    }
+
+    private Behavior<Command> reload(long version) {
+        timers.cancel(LoadRetry.INSTANCE);
+        loadingVersion = version;
+        loadProfile();
+        return loading();
+    }
+
+    private void loadProfile() {
+        getContext().pipeToSelf(account().callAsync(() -> accountService().get("/users/" + userId).sendAsync(), r -> r.status >= 500),
+            (response, failure) -> failure == null ? profileIn(response) : new ProfileLoaded(false, false));
+    }
+
+    // A user account-service does not have (404) has not availed the discount; any other
+    // answer but a readable 200 leaves the profile unloaded
+    private ProfileLoaded profileIn(ServiceResponse response) {
+        if (response.status == 404) {
+            return new ProfileLoaded(true, false);
+        }
+        if (response.status != 200) {
+            return new ProfileLoaded(false, false);
+        }
+        try {
+            JsonNode account = objectMapper.readTree(response.body);
+            return new ProfileLoaded(true, account.path("discount_availed").asBoolean(false));
+        } catch (Exception e) {
+            return new ProfileLoaded(false, false);
+        }
+    }
+
+    // POST /users/{id}/claim-discount is a single conditional UPDATE in account-service;
+    // "claimed": false just means an earlier attempt already got through. A 404 settles it too:
+    // the account is gone, so there is nothing left to write the discount to.
+    private void syncToAccountService(int attempt) {
+        getContext().pipeToSelf(account().callAsync(() -> accountService().post("/users/" + userId + "/claim-discount").idempotent(true).sendAsync(),
+                r -> r.status >= 500),
+            (response, failure) -> new SyncResult(attempt, failure == null && (response.status == 200 || response.status == 404)));
+    }
+
+    private static Target accountService() {
+        return DemoMarketplaceServiceApplication.serviceClient.target(ServiceTargets.ACCOUNT);
+    }
+
+    private static Dependency account() {
+        return DemoMarketplaceServiceApplication.dependencies.account();
+    }
+
+    public interface Command {}
+
+    public static class ClaimDiscount implements Command {
+        public final ActorRef<DiscountDecision> replyTo;
+        // UserRegistry.profileVersion of the user when the claim was sent
+        public final long profileVersion;
+
+        @JsonCreator
+        public ClaimDiscount(
+            @JsonProperty("replyTo") ActorRef<DiscountDecision> replyTo,
+            @JsonProperty("profileVersion") long profileVersion
+        ) {
+            this.replyTo = replyTo;
+            this.profileVersion = profileVersion;
+        }
+    }
+
+    public static class ConfirmDiscount implements Command {
+        @JsonCreator
+        public ConfirmDiscount() {}
+    }
+
+    public static class ReleaseDiscount implements Command {
+        @JsonCreator
+        public ReleaseDiscount() {}
+    }
+
+    public static class DiscountDecision {
+        public final int userId;
+        public final boolean granted;
+
+        @JsonCreator
+        public DiscountDecision(
+            @JsonProperty("userId") int userId,
+            @JsonProperty("granted") boolean granted
+        ) {
+            this.userId = userId;
+            this.granted = granted;
+        }
+    }
+
+    // Internal messages (never leave this node).
+    private static class ProfileLoaded implements Command {
+        final boolean loaded;
+        final boolean discountAvailed;
+        ProfileLoaded(boolean loaded, boolean discountAvailed) { this.loaded = loaded; this.discountAvailed = discountAvailed; }
+    }
+
+    private enum ClaimExpired implements Command { INSTANCE }
+
+    private enum LoadRetry implements Command { INSTANCE }
+
+    private enum Idle implements Command { INSTANCE }
+
+    private static class SyncResult implements Command {
+        final int attempt;
+        final boolean success;
+        SyncResult(int attempt, boolean success) { this.attempt = attempt; this.success = success; }
+    }
+
+    private static class SyncRetry implements Command {
+        final int attempt;
+        SyncRetry(int attempt) { this.attempt = attempt; }
+    }
+}
@@ -0,0 +1,285 @@
+package me.akashmaj.demomarketplaceservice;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pods.project.serviceclient.ServiceResponse;
+import pods.project.serviceclient.Target;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// The ids of the users that exist in account-service, so PostOrder can turn away the orders
+// of unknown users without asking account-service.
+//
+// The ids are bits in a bitmap of 64K-id pages, allocated on first use (8 KB each: a million
+// consecutive ids take 128 KB). It is loaded from account-service's GET /users on start and
+// kept current by the numbered events account-service pushes (POST /marketplace/user-events,
+// see UserEventPublisher there). A gap in the numbers, or a new event stream (account-service
+// restarted), means events were missed: the ids are loaded again in the background.
+//
+// Only a loaded registry with no gap is trusted to say a user does not exist; until then a
+// missing id is looked up in account-service. A user it still has after a deletion it missed
+// only costs the order a failed wallet call, as before.
+//
+// The events also version the profiles User entities cache: profileVersion(id) goes up with
+// every event naming the user (created, deleted, updated by PUT /users) and with every event
+// that may have changed anyone (all-deleted, a gap), and a User entity reloads its profile when
+// a claim comes with a newer version than it loaded. Versions are kept per id hash, so a
+// collision only costs a needless reload.
+public class UserRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(UserRegistry.class);
+
+    private static final int PAGE_BITS = 16;
+    private static final int PROFILE_VERSION_SLOTS = 1 << 16;
+    private static final Duration RELOAD_RETRY_DELAY = Duration.ofSeconds(2);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final int pageSize;
+    private final Duration timeout;
+    private final ExecutorService reloader = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "user-registry-reload");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Target accountService;
+    private Dependency accountDependency;
+
+    private volatile IdBitmap ids = new IdBitmap();
+    private volatile boolean ready;
+
+    // Guarded by this
+    private String stream;
+    private long lastSeq;
+    private long gaps;
+    private boolean reloading;
+    // Ids loaded by the reload in progress; events are applied to it as well
+    private IdBitmap loading;
+    // Events applied (seq starts again with each stream)
+    private long version;
+
+    // The version of the last event naming each user, by id hash, and of the last one that may have changed anyone
+    private final AtomicLongArray profileVersions = new AtomicLongArray(PROFILE_VERSION_SLOTS);
+    private volatile long allProfilesVersion;
+
+    private final LongAdder known = new LongAdder();
+    private final LongAdder unknown = new LongAdder();
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder reloads = new LongAdder();
+
+    public UserRegistry(int pageSize, Duration timeout) {
+        this.pageSize = pageSize;
+        this.timeout = timeout;
+    }
+
+    // Null when marketplace.user-registry.enabled is off (orders are then not checked)
+    public static UserRegistry fromConfig(Config config) {
+        if (!config.getBoolean("enabled")) {
+            return null;
+        }
+        return new UserRegistry(config.getInt("page-size"), config.getDuration("timeout"));
+    }
+
+    // Starts the first load
+    public void start(Target accountService, Dependency accountDependency) {
+        this.accountService = accountService;
+        this.accountDependency = accountDependency;
+        synchronized (this) {
+            gapFound();
+        }
+    }
+
+    // A lookup in account-service waits until the deadline of the order at most
+    public boolean exists(int userId, Instant deadline) {
+        if (ids.contains(userId)) {
+            known.increment();
+            return true;
+        }
+        if (ready) {
+            unknown.increment();
+            return false;
+        }
+        lookups.increment();
+        return lookUp(userId, deadline);
+    }
+
+    // Version of the profile of the user: User entities holding an older one load it again
+    public long profileVersion(int userId) {
+        return Math.max(allProfilesVersion, profileVersions.get(Math.floorMod(Integer.hashCode(userId), PROFILE_VERSION_SLOTS)));
+    }
+
+    // One delivery of events: {"stream": "...", "events": [{"seq": n, "type": "created" |
+    // "deleted" | "updated" | "all-deleted", "ids": [...]}, ...]}. Returns the number of the last event applied.
+    public synchronized long apply(JsonNode delivery) {
+        String deliveryStream = delivery.path("stream").asText();
+        for (JsonNode event : delivery.path("events")) {
+            long seq = event.path("seq").asLong();
+            boolean sameStream = deliveryStream.equals(stream);
+            if (sameStream && seq <= lastSeq) {
+                // Delivered again after a lost acknowledgement
+                continue;
+            }
+            // The first stream seen is taken as is: the first load started before it came
+            boolean gap = stream != null && !(sameStream && seq == lastSeq + 1);
+            stream = deliveryStream;
+            lastSeq = seq;
+            version++;
+            if (event.path("type").asText().equals("all-deleted")) {
+                allProfilesVersion = version;
+            } else {
+                event.path("ids").forEach(id -> profileVersions.set(Math.floorMod(Integer.hashCode(id.asInt()), PROFILE_VERSION_SLOTS), version));
+            }
+            applyTo(ids, event);
+            if (loading != null) {
+                applyTo(loading, event);
+            }
+            if (gap) {
+                gapFound();
+            }
+        }
+        return lastSeq;
+    }
+
+    public String toJson() {
+        long seq;
+        synchronized (this) {
+            seq = lastSeq;
+        }
+        return String.format("{\"ready\":%b,\"users\":%d,\"known\":%d,\"unknown\":%d,\"remote_lookups\":%d,\"reloads\":%d,\"last_seq\":%d}",
+            ready, ids.size(), known.sum(), unknown.sum(), lookups.sum(), reloads.sum(), seq);
+    }
+
+    private static void applyTo(IdBitmap bitmap, JsonNode event) {
+        switch (event.path("type").asText()) {
+            case "created" -> event.path("ids").forEach(id -> bitmap.add(id.asInt()));
+            case "deleted" -> event.path("ids").forEach(id -> bitmap.remove(id.asInt()));
+            case "all-deleted" -> bitmap.clear();
+            default -> { }
+        }
+    }
+
+    // Call holding this
+    private void gapFound() {
+        gaps++;
+        // The events missed may have changed any profile
+        allProfilesVersion = version;
+        ready = false;
+        if (!reloading && accountService != null) {
+            reloading = true;
+            reloader.execute(this::reload);
+        }
+    }
+
+    // Loads all ids into a new bitmap and swaps it in; again if another gap was found meanwhile
+    private void reload() {
+        while (true) {
+            long gapsBefore;
+            IdBitmap fresh = new IdBitmap();
+            synchronized (this) {
+                gapsBefore = gaps;
+                loading = fresh;
+            }
+            try {
+                loadAll(fresh);
+                reloads.increment();
+            } catch (Exception e) {
+                synchronized (this) {
+                    loading = null;
+                }
+                log.warn("Loading user ids from account-service failed, retrying in {}", RELOAD_RETRY_DELAY, e);
+                try {
+                    Thread.sleep(RELOAD_RETRY_DELAY.toMillis());
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                continue;
+            }
+            synchronized (this) {
+                ids = fresh;
+                loading = null;
+                if (gaps == gapsBefore) {
+                    ready = true;
+                    reloading = false;
+                    return;
+                }
+            }
+        }
+    }
+
+    // Walks GET /users page by page (keyset pagination: each page seeks from the last id)
+    private void loadAll(IdBitmap into) throws Exception {
+        String cursor = null;
+        do {
+            String path = "/users?limit=" + pageSize + (cursor == null ? "" : "&cursor=" + cursor);
+            ServiceResponse response = accountDependency.call(() -> accountService.get(path)
+                .header("Accept", "application/json")
+                .timeout(timeout)
+                .send(), r -> r.status >= 500);
+            if (response.status != 200) {
+                throw new IllegalStateException("GET /users answered " + response.status);
+            }
+            JsonNode page = objectMapper.readTree(response.body);
+            for (JsonNode user : page.path("users")) {
+                into.add(user.path("id").asInt());
+            }
+            cursor = page.path("next_cursor").isNull() ? null : page.path("next_cursor").asText();
+        } while (cursor != null);
+    }
+
+    // Whether account-service has the user; if it cannot tell (or its breaker is open, or the
+    // deadline passes), the order is let through
+    private boolean lookUp(int userId, Instant deadline) {
+        try {
+            return accountDependency.call(() -> accountService.get("/users/" + userId).timeout(timeout).deadline(deadline).send(),
+                r -> r.status >= 500, deadline).status != 404;
+        } catch (Exception e) {
+            return true;
+        }
+    }
+
+    // Set of int ids as bits, in pages of 64K ids allocated on first use
+    static class IdBitmap {
+        private final ConcurrentHashMap<Integer, AtomicLongArray> pages = new ConcurrentHashMap<>();
+        private final AtomicLong size = new AtomicLong();
+
+        boolean contains(int id) {
+            AtomicLongArray page = pages.get(id >> PAGE_BITS);
+            return page != null && (page.get((id & 0xFFFF) >>> 6) & (1L << id)) != 0;
+        }
+
+        void add(int id) {
+            AtomicLongArray page = pages.computeIfAbsent(id >> PAGE_BITS, key -> new AtomicLongArray(1 << (PAGE_BITS - 6)));
+            long bit = 1L << id;
+            if ((page.getAndAccumulate((id & 0xFFFF) >>> 6, bit, (word, mask) -> word | mask) & bit) == 0) {
+                size.incrementAndGet();
+            }
+        }
+
+        void remove(int id) {
+            AtomicLongArray page = pages.get(id >> PAGE_BITS);
+            long bit = 1L << id;
+            if (page != null && (page.getAndAccumulate((id & 0xFFFF) >>> 6, bit, (word, mask) -> word & ~mask) & bit) != 0) {
+                size.decrementAndGet();
+            }
+        }
+
+        void clear() {
+            pages.clear();
+            size.set(0);
+        }
+
+        long size() {
+            return size.get();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package me.akashmaj.demomarketplaceservice;
+
+import com.typesafe.config.Config;
+
+import java.util.List;
+
+// Routes wallet calls to the wallet-service partition that owns the user.
+//
+// User ids are hashed onto the 32-bit range, which is split into one equal slice per
+// configured partition URL (in order); partitionOf() must match WalletPartition in
+// wallet-service, which rejects users outside its slice with 421.
+public class WalletPartitions {
+
+    private final List<String> urls;
+
+    public WalletPartitions(List<String> urls) {
+        if (urls.isEmpty()) {
+            throw new IllegalArgumentException("At least one wallet partition URL is required");
+        }
+        this.urls = List.copyOf(urls);
+    }
+
+    public static WalletPartitions fromConfig(Config config) {
+        return new WalletPartitions(config.getStringList("wallet-partitions"));
+    }
+
+    public static int partitionOf(int userId, int count) {
+        int hash = userId * 0x9E3779B9;
+        hash ^= hash >>> 16;
+        return (int) (((hash & 0xFFFFFFFFL) * count) >>> 32);
+    }
+
+    public int partitionOf(int userId) {
+        return partitionOf(userId, urls.size());
+    }
+
+    // Name of the partition's target in DemoMarketplaceServiceApplication.serviceClient (see ServiceTargets)
+    public static String target(int partition) {
+        return "wallet-" + partition;
+    }
+
+    // Target of the partition owning the user's wallet
+    public String targetFor(int userId) {
+        return target(partitionOf(userId));
+    }
+
+    // Base URL (e.g. http://localhost:8082) of the partition
+    public String url(int partition) {
+        return urls.get(partition);
+    }
+
+    public int count() {
+        return urls.size();
+    }
+}
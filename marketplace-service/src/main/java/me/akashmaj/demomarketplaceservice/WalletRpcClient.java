@@ -0,0 +1,240 @@
+package me.akashmaj.demomarketplaceservice;
+
+import com.typesafe.config.Config;
+
+import java.io.*;
+import java.net.Socket;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Client of wallet-service's binary RPC port (see WalletRpcEndpoint there for the frame layout).
+//
+// Every partition gets a few persistent connections; calls are spread over them round
+// robin and many can be in flight on one connection at a time, matched to their responses
+// by request id. A connection that fails is reopened by the next call that picks it, and
+// the calls waiting on it fail like a refused HTTP request would.
+public class WalletRpcClient {
+
+    static final byte UPDATE_BALANCE = 1;
+    static final byte PLACE_HOLD = 2;
+    static final byte CAPTURE_HOLD = 3;
+    static final byte RELEASE_HOLD = 4;
+    static final byte UPDATE_BALANCE_ONCE = 5;
+
+    private final WalletPartitions partitions;
+    private final List<Connection[]> connections = new ArrayList<>();
+    private final Duration timeout;
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    private final AtomicInteger nextConnection = new AtomicInteger();
+
+    // Status is the HTTP status the REST endpoint would have answered with
+    public static class Response {
+        public final int status;
+        private final byte[] body;
+
+        Response(int status, byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        public int balance() throws IOException {
+            return new DataInputStream(new ByteArrayInputStream(body)).readInt();
+        }
+
+        public String text() throws IOException {
+            return new DataInputStream(new ByteArrayInputStream(body)).readUTF();
+        }
+    }
+
+    public WalletRpcClient(WalletPartitions partitions, List<String> addresses, int connectionsPerPartition, Duration timeout) {
+        if (addresses.size() != partitions.count()) {
+            throw new IllegalArgumentException("Expected one wallet RPC address per wallet partition, got "
+                + addresses.size() + " for " + partitions.count());
+        }
+        this.partitions = partitions;
+        this.timeout = timeout;
+        for (String address : addresses) {
+            String host = address.substring(0, address.lastIndexOf(':'));
+            int port = Integer.parseInt(address.substring(address.lastIndexOf(':') + 1));
+            Connection[] partitionConnections = new Connection[connectionsPerPartition];
+            for (int i = 0; i < connectionsPerPartition; i++) {
+                partitionConnections[i] = new Connection(host, port);
+            }
+            connections.add(partitionConnections);
+        }
+    }
+
+    // Null when marketplace.wallet-rpc.enabled is off (wallet calls then use REST)
+    public static WalletRpcClient fromConfig(Config config, WalletPartitions partitions) {
+        if (!config.getBoolean("enabled")) {
+            return null;
+        }
+        return new WalletRpcClient(partitions, config.getStringList("partitions"),
+            config.getInt("connections-per-partition"), config.getDuration("timeout"));
+    }
+
+    public Response updateBalance(int userId, int delta) throws Exception {
+        return await(send(userId, UPDATE_BALANCE, out -> {
+            out.writeInt(userId);
+            out.writeInt(delta);
+        }), null);
+    }
+
+    // Applied once per key: a call sent again with it returns the first call's balance
+    public Response updateBalance(int userId, int delta, String key) throws Exception {
+        return await(send(userId, UPDATE_BALANCE_ONCE, out -> {
+            out.writeInt(userId);
+            out.writeInt(delta);
+            out.writeUTF(key);
+        }), null);
+    }
+
+    public Response placeHold(int userId, int amount) throws Exception {
+        return placeHold(userId, amount, null);
+    }
+
+    // Waits until the deadline at most (a hold nobody waits for expires on its own)
+    public Response placeHold(int userId, int amount, Instant deadline) throws Exception {
+        if (deadline != null && Deadlines.expired(deadline)) {
+            throw new TimeoutException("Deadline passed before placing the hold");
+        }
+        return await(send(userId, PLACE_HOLD, out -> {
+            out.writeInt(userId);
+            out.writeInt(amount);
+        }), deadline);
+    }
+
+    // The hold lives on the partition of its user
+    public Response captureHold(int userId, String holdId) throws Exception {
+        return await(send(userId, CAPTURE_HOLD, out -> out.writeUTF(holdId)), null);
+    }
+
+    public CompletableFuture<Response> releaseHold(int userId, String holdId) {
+        return send(userId, RELEASE_HOLD, out -> out.writeUTF(holdId));
+    }
+
+    private interface Payload {
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    private CompletableFuture<Response> send(int userId, byte op, Payload payload) {
+        CompletableFuture<Response> response = new CompletableFuture<>();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+            payload.writeTo(new DataOutputStream(bytes));
+            Connection[] partitionConnections = connections.get(partitions.partitionOf(userId));
+            Connection connection = partitionConnections[Math.floorMod(nextConnection.getAndIncrement(), partitionConnections.length)];
+            connection.send(nextRequestId.incrementAndGet(), op, bytes.toByteArray(), response);
+        } catch (IOException e) {
+            response.completeExceptionally(e);
+        }
+        return response;
+    }
+
+    // Waits for the timeout, or until the deadline if that comes first (in nanoseconds: a wait
+    // rounded down would give up just before the deadline, as if the wallet were too slow)
+    private Response await(CompletableFuture<Response> response, Instant deadline) throws Exception {
+        long waitNanos = timeout.toNanos();
+        if (deadline != null) {
+            waitNanos = Math.min(waitNanos, Deadlines.remaining(deadline).toNanos());
+        }
+        try {
+            return response.get(Math.max(0, waitNanos), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // Nobody waits for the answer any more: take the call off its connection
+            response.cancel(false);
+            throw e;
+        }
+    }
+
+    private static class Connection {
+        final String host;
+        final int port;
+        final Map<Integer, CompletableFuture<Response>> pending = new ConcurrentHashMap<>();
+
+        // Guarded by this
+        Socket socket;
+        DataOutputStream out;
+
+        Connection(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        synchronized void send(int requestId, byte op, byte[] payload, CompletableFuture<Response> response) throws IOException {
+            if (socket == null) {
+                connect();
+            }
+            pending.put(requestId, response);
+            // A call that gave up waiting must not stay in the map
+            response.whenComplete((result, error) -> pending.remove(requestId));
+            try {
+                out.writeInt(5 + payload.length);
+                out.writeInt(requestId);
+                out.writeByte(op);
+                out.write(payload);
+                out.flush();
+            } catch (IOException e) {
+                fail(socket, e);
+                throw e;
+            }
+        }
+
+        private void connect() throws IOException {
+            Socket opened = new Socket(host, port);
+            opened.setTcpNoDelay(true);
+            socket = opened;
+            out = new DataOutputStream(new BufferedOutputStream(opened.getOutputStream()));
+            Thread reader = new Thread(() -> readLoop(opened), "wallet-rpc-reader-" + host + ":" + port);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        private void readLoop(Socket opened) {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(opened.getInputStream()));
+                while (true) {
+                    int length = in.readInt();
+                    int requestId = in.readInt();
+                    int status = in.readShort();
+                    byte[] body = new byte[length - 6];
+                    in.readFully(body);
+                    CompletableFuture<Response> response = pending.remove(requestId);
+                    if (response != null) {
+                        response.complete(new Response(status, body));
+                    }
+                }
+            } catch (IOException e) {
+                fail(opened, e);
+            }
+        }
+
+        // Closes the socket (if it is still the current one) and fails every call waiting on it
+        private void fail(Socket failed, IOException cause) {
+            List<CompletableFuture<Response>> waiting = List.of();
+            synchronized (this) {
+                // Calls are only added under this lock while the socket is current, so these are all its calls
+                if (socket == failed) {
+                    socket = null;
+                    out = null;
+                    waiting = List.copyOf(pending.values());
+                    pending.clear();
+                }
+            }
+            try {
+                failed.close();
+            } catch (IOException ignored) {
+                // Already broken
+            }
+            waiting.forEach(response -> response.completeExceptionally(cause));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package pods.project.serviceclient;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Calls and latency (from the call to its outcome, retries and time in line included) of one endpoint.
+//
+// Latencies go into a log-linear histogram of microseconds: 8 buckets per power of two, so a
+// percentile is off by at most 12.5%, in 2.5 KB per endpoint whatever the number of calls.
+class EndpointMetrics {
+
+    private static final int SUB_BUCKETS = 8;
+    private static final int BUCKETS = 62 * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder calls = new LongAdder();
+    // No response (ServiceCallException)
+    private final LongAdder failures = new LongAdder();
+    // Responses with a 5xx status
+    private final LongAdder serverErrors = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    void record(long nanos, int status) {
+        long micros = nanos / 1000;
+        calls.increment();
+        if (status == 0) {
+            failures.increment();
+        }
+        else if (status >= 500) {
+            serverErrors.increment();
+        }
+        totalMicros.add(micros);
+        maxMicros.accumulateAndGet(micros, Math::max);
+        buckets.incrementAndGet(bucketOf(micros));
+    }
+
+    void retried() {
+        retries.increment();
+    }
+
+    Map<String, Object> snapshot() {
+        long count = calls.sum();
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("calls", count);
+        snapshot.put("failures", failures.sum());
+        snapshot.put("server_errors", serverErrors.sum());
+        snapshot.put("retries", retries.sum());
+        snapshot.put("mean_ms", count == 0 ? 0.0 : millis(totalMicros.sum() / count));
+        snapshot.put("p50_ms", millis(percentile(0.50)));
+        snapshot.put("p90_ms", millis(percentile(0.90)));
+        snapshot.put("p99_ms", millis(percentile(0.99)));
+        snapshot.put("max_ms", millis(maxMicros.get()));
+        return snapshot;
+    }
+
+    private long percentile(double fraction) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += buckets.get(i);
+        }
+        long rank = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank && seen > 0) {
+                return Math.min(upperBoundOf(i), maxMicros.get());
+            }
+        }
+        return 0;
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) Math.max(0, micros);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int bucket = (exponent - 2) * SUB_BUCKETS + (int) ((micros >>> (exponent - 3)) & (SUB_BUCKETS - 1));
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + 2;
+        long width = 1L << (exponent - 3);
+        return (SUB_BUCKETS + bucket % SUB_BUCKETS) * width + width - 1;
+    }
+
+    private static double millis(long micros) {
+        return Math.round(micros / 10.0) / 100.0;
+    }
+}
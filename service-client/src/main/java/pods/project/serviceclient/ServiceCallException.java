@@ -0,0 +1,17 @@
+package pods.project.serviceclient;
+
+// A call that got no response: the target could not be reached or answered too late, after
+// any retries. A response with an error status is not an exception (see ServiceResponse).
+public class ServiceCallException extends RuntimeException {
+
+    private final boolean deadlineExceeded;
+
+    public ServiceCallException(String message, Throwable cause, boolean deadlineExceeded) {
+        super(message, cause);
+        this.deadlineExceeded = deadlineExceeded;
+    }
+
+    public boolean isDeadlineExceeded() {
+        return deadlineExceeded;
+    }
+}
@@ -0,0 +1,98 @@
+package pods.project.serviceclient;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// HTTP client for calls between the services: named targets (e.g. "account", "wallet-0") with
+// their base URLs from each service's configuration, each with its own keep-alive connection
+// pool, limit on requests in flight, deadline and retries (see Target), and per-endpoint
+// call and latency metrics.
+//
+//     ServiceClient client = ServiceClient.builder()
+//         .target("account", "http://localhost:8080")
+//         .build();
+//     ServiceResponse response = client.target("account").get("/users/" + userId).send();
+public class ServiceClient implements AutoCloseable {
+
+    private final Map<String, Target> targets;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService timer;
+
+    private ServiceClient(Map<String, String> urls, Map<String, TargetOptions> options) {
+        AtomicInteger threads = new AtomicInteger();
+        // Runs response handling and the callers' continuations; the selector threads only do I/O
+        executor = Executors.newCachedThreadPool(r -> daemon(r, "service-client-" + threads.incrementAndGet()));
+        timer = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "service-client-timer"));
+        Map<String, Target> byName = new LinkedHashMap<>();
+        urls.forEach((name, url) -> byName.put(name, new Target(name, url, options.get(name), executor, timer)));
+        targets = Collections.unmodifiableMap(byName);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public Target target(String name) {
+        Target target = targets.get(name);
+        if (target == null) {
+            throw new IllegalArgumentException("No target named " + name + " is configured");
+        }
+        return target;
+    }
+
+    public Map<String, Target> targets() {
+        return targets;
+    }
+
+    // Per target: its settings, requests in flight and waiting, and calls and latency per endpoint
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        targets.forEach((name, target) -> metrics.put(name, target.metrics()));
+        return metrics;
+    }
+
+    @Override
+    public void close() {
+        targets.values().forEach(Target::close);
+        timer.shutdownNow();
+        executor.shutdown();
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    public static class Builder {
+
+        private final Map<String, String> urls = new LinkedHashMap<>();
+        private final Map<String, TargetOptions> options = new LinkedHashMap<>();
+        private TargetOptions defaults = TargetOptions.DEFAULTS;
+
+        // Options of the targets added without their own; set before adding them
+        public Builder defaults(TargetOptions defaults) {
+            this.defaults = defaults;
+            return this;
+        }
+
+        public Builder target(String name, String baseUrl) {
+            return target(name, baseUrl, defaults);
+        }
+
+        public Builder target(String name, String baseUrl, TargetOptions targetOptions) {
+            urls.put(name, baseUrl);
+            options.put(name, targetOptions);
+            return this;
+        }
+
+        public ServiceClient build() {
+            return new ServiceClient(urls, options);
+        }
+    }
+}
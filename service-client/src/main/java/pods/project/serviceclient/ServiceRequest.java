@@ -0,0 +1,125 @@
+package pods.project.serviceclient;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+// One call to a target, built from Target.get()/post()/put()/delete() and sent with send() or sendAsync().
+public class ServiceRequest {
+
+    // Milliseconds the caller still waits for the response, sent with every attempt so the
+    // service called can stop working on it once nobody will read the answer. Relative, so
+    // the two hosts' clocks need not agree.
+    public static final String DEADLINE_HEADER = "X-Deadline-Ms";
+
+    // Key the service called applies a request once by: a request sent again with the same key
+    // gets the first one's result, e.g. wallet-service's PUT /wallets/{id}
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+    private final Target target;
+    final String method;
+    final String path;
+    private final Map<String, String> headers = new LinkedHashMap<>();
+    private String body;
+    private Duration timeout;
+    private Instant deadline;
+    boolean idempotent;
+    String endpoint;
+
+    ServiceRequest(Target target, String method, String path) {
+        this.target = target;
+        this.method = method;
+        this.path = path;
+        // PUT is left out: wallet-service's PUT /wallets/{id} credits or debits (see idempotencyKey())
+        this.idempotent = method.equals("GET") || method.equals("HEAD") || method.equals("DELETE");
+    }
+
+    public ServiceRequest header(String name, String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    public ServiceRequest json(String body) {
+        headers.put("Content-Type", "application/json");
+        this.body = body;
+        return this;
+    }
+
+    // Deadline from now, instead of the target's timeout
+    public ServiceRequest timeout(Duration timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    // Gives up by then at the latest, e.g. when the caller's own client stops waiting; the
+    // timeout still applies if it comes first
+    public ServiceRequest deadline(Instant deadline) {
+        this.deadline = deadline;
+        return this;
+    }
+
+    // Whether the request may be sent again after a failure that could have reached the target
+    // (a lost connection, 502, 503, 504). Defaults to true for GET, HEAD and DELETE. A request
+    // that could not connect is retried either way.
+    public ServiceRequest idempotent(boolean idempotent) {
+        this.idempotent = idempotent;
+        return this;
+    }
+
+    // Sends the key with every attempt, which makes the request safe to retry (see idempotent())
+    public ServiceRequest idempotencyKey(String key) {
+        headers.put(IDEMPOTENCY_KEY_HEADER, key);
+        this.idempotent = true;
+        return this;
+    }
+
+    // Name of the endpoint the latency is recorded under; by default the method and the path
+    // with its ids replaced by {id}, e.g. "POST /wallets/{id}/holds"
+    public ServiceRequest endpoint(String endpoint) {
+        this.endpoint = endpoint;
+        return this;
+    }
+
+    public CompletableFuture<ServiceResponse> sendAsync() {
+        return target.execute(this);
+    }
+
+    // Blocks for the response; throws ServiceCallException when there is none
+    public ServiceResponse send() {
+        try {
+            return sendAsync().join();
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof ServiceCallException failure) {
+                throw failure;
+            }
+            throw new ServiceCallException(method + " " + path + " failed", e.getCause(), false);
+        }
+    }
+
+    // System.nanoTime() by which the response must be in
+    long deadlineNanos(Duration defaultTimeout) {
+        long now = System.nanoTime();
+        long nanos = (timeout != null ? timeout : defaultTimeout).toNanos();
+        if (deadline != null) {
+            nanos = Math.min(nanos, Duration.between(Instant.now(), deadline).toNanos());
+        }
+        return now + nanos;
+    }
+
+    HttpRequest toHttpRequest(String baseUrl, Duration timeout, HttpClient.Version version) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(baseUrl + path))
+            .version(version)
+            .timeout(timeout)
+            .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body));
+        headers.forEach(builder::header);
+        builder.header(DEADLINE_HEADER, Long.toString(Math.max(1, timeout.toMillis())));
+        return builder.build();
+    }
+}
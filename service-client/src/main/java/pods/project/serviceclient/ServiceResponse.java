@@ -0,0 +1,21 @@
+package pods.project.serviceclient;
+
+import java.net.http.HttpHeaders;
+
+public class ServiceResponse {
+
+    public final int status;
+    public final String body;
+    private final HttpHeaders headers;
+
+    ServiceResponse(int status, String body, HttpHeaders headers) {
+        this.status = status;
+        this.body = body;
+        this.headers = headers;
+    }
+
+    // First value of the header, or null
+    public String header(String name) {
+        return headers.firstValue(name).orElse(null);
+    }
+}
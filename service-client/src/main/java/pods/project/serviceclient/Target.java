@@ -0,0 +1,221 @@
+package pods.project.serviceclient;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+// One service instance, called by base URL over its own pool of keep-alive connections.
+//
+// At most maxConnections requests are in flight; the others wait in line (in order) until one
+// completes or their deadline passes. Every attempt of a request gets what is left of its
+// deadline as timeout. Retries wait a random time (full jitter), so callers that failed
+// together do not come back together.
+public class Target {
+
+    // Path segments that are ids: numbers, UUIDs and other hex
+    private static final Pattern ID_SEGMENT = Pattern.compile("(?=[^/]*\\d)[0-9a-fA-F-]+");
+
+    private final String name;
+    private final String baseUrl;
+    private final TargetOptions options;
+    private final HttpClient httpClient;
+    private final ScheduledExecutorService timer;
+    private final Map<String, EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+
+    // Guarded by this
+    private int inFlight;
+    private final ArrayDeque<CompletableFuture<Void>> waiting = new ArrayDeque<>();
+
+    Target(String name, String baseUrl, TargetOptions options, ExecutorService executor, ScheduledExecutorService timer) {
+        this.name = name;
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.options = options;
+        this.timer = timer;
+        this.httpClient = HttpClient.newBuilder()
+            .version(options.http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+            .connectTimeout(options.connectTimeout)
+            .executor(executor)
+            .build();
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public String baseUrl() {
+        return baseUrl;
+    }
+
+    public ServiceRequest get(String path) {
+        return new ServiceRequest(this, "GET", path);
+    }
+
+    public ServiceRequest post(String path) {
+        return new ServiceRequest(this, "POST", path);
+    }
+
+    public ServiceRequest put(String path) {
+        return new ServiceRequest(this, "PUT", path);
+    }
+
+    public ServiceRequest delete(String path) {
+        return new ServiceRequest(this, "DELETE", path);
+    }
+
+    CompletableFuture<ServiceResponse> execute(ServiceRequest request) {
+        long deadline = request.deadlineNanos(options.timeout);
+        EndpointMetrics metrics = endpoints.computeIfAbsent(
+            request.endpoint != null ? request.endpoint : request.method + " " + endpointPath(request.path),
+            endpoint -> new EndpointMetrics());
+        long started = System.nanoTime();
+        CompletableFuture<ServiceResponse> result = new CompletableFuture<>();
+        attempt(request, deadline, 1, metrics, result);
+        return result.whenComplete((response, failure) ->
+            metrics.record(System.nanoTime() - started, response == null ? 0 : response.status));
+    }
+
+    private void attempt(ServiceRequest request, long deadline, int attempt, EndpointMetrics metrics,
+                         CompletableFuture<ServiceResponse> result) {
+        acquire(request, deadline).whenComplete((ignored, notAdmitted) -> {
+            if (notAdmitted != null) {
+                result.completeExceptionally(notAdmitted);
+                return;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                release();
+                result.completeExceptionally(deadlineExceeded(request, null));
+                return;
+            }
+            httpClient.sendAsync(request.toHttpRequest(baseUrl, Duration.ofNanos(remaining), httpClient.version()),
+                    BodyHandlers.ofString())
+                .whenComplete((response, error) -> {
+                    release();
+                    Throwable failure = error instanceof CompletionException ? error.getCause() : error;
+                    if (attempt < options.maxAttempts && retryable(request, response, failure)) {
+                        long delay = backoffNanos(attempt);
+                        if (System.nanoTime() + delay < deadline) {
+                            metrics.retried();
+                            timer.schedule(() -> attempt(request, deadline, attempt + 1, metrics, result), delay, TimeUnit.NANOSECONDS);
+                            return;
+                        }
+                    }
+                    if (failure instanceof HttpTimeoutException && !(failure instanceof HttpConnectTimeoutException)) {
+                        result.completeExceptionally(deadlineExceeded(request, failure));
+                    }
+                    else if (failure != null) {
+                        result.completeExceptionally(new ServiceCallException(
+                            request.method + " " + baseUrl + request.path + " failed: " + failure, failure, false));
+                    }
+                    else {
+                        result.complete(new ServiceResponse(response.statusCode(), response.body(), response.headers()));
+                    }
+                });
+        });
+    }
+
+    // Completes when the request may be sent, or exceptionally when its deadline passes first
+    private CompletableFuture<Void> acquire(ServiceRequest request, long deadline) {
+        CompletableFuture<Void> turn = new CompletableFuture<>();
+        synchronized (this) {
+            if (inFlight < options.maxConnections) {
+                inFlight++;
+                turn.complete(null);
+                return turn;
+            }
+            waiting.addLast(turn);
+        }
+        timer.schedule(() -> {
+            boolean dropped;
+            synchronized (this) {
+                dropped = waiting.remove(turn);
+            }
+            if (dropped) {
+                turn.completeExceptionally(deadlineExceeded(request, null));
+            }
+        }, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        return turn;
+    }
+
+    // Hands the connection to the next request in line, if any
+    private void release() {
+        CompletableFuture<Void> next;
+        synchronized (this) {
+            next = waiting.pollFirst();
+            if (next == null) {
+                inFlight--;
+                return;
+            }
+        }
+        next.complete(null);
+    }
+
+    private static boolean retryable(ServiceRequest request, HttpResponse<String> response, Throwable failure) {
+        if (failure != null) {
+            // Not connected: the request never reached the target
+            if (failure instanceof ConnectException || failure instanceof HttpConnectTimeoutException) {
+                return true;
+            }
+            return request.idempotent && failure instanceof IOException && !(failure instanceof HttpTimeoutException);
+        }
+        int status = response.statusCode();
+        return request.idempotent && (status == 502 || status == 503 || status == 504);
+    }
+
+    private long backoffNanos(int attempt) {
+        long cap = Math.min(options.maxBackoff.toNanos(), options.backoff.toNanos() << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    private ServiceCallException deadlineExceeded(ServiceRequest request, Throwable cause) {
+        return new ServiceCallException(request.method + " " + baseUrl + request.path + ": deadline exceeded", cause, true);
+    }
+
+    static String endpointPath(String path) {
+        int query = path.indexOf('?');
+        String[] segments = (query < 0 ? path : path.substring(0, query)).split("/", -1);
+        for (int i = 0; i < segments.length; i++) {
+            if (ID_SEGMENT.matcher(segments[i]).matches()) {
+                segments[i] = "{id}";
+            }
+        }
+        return String.join("/", segments);
+    }
+
+    Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("url", baseUrl);
+        metrics.put("http_version", httpClient.version().toString());
+        metrics.put("max_connections", options.maxConnections);
+        synchronized (this) {
+            metrics.put("in_flight", inFlight);
+            metrics.put("waiting", waiting.size());
+        }
+        Map<String, Object> byEndpoint = new LinkedHashMap<>();
+        endpoints.entrySet().stream()
+            .sorted(Map.Entry.comparingByKey())
+            .forEach(entry -> byEndpoint.put(entry.getKey(), entry.getValue().snapshot()));
+        metrics.put("endpoints", byEndpoint);
+        return metrics;
+    }
+
+    void close() {
+        httpClient.shutdownNow();
+    }
+}
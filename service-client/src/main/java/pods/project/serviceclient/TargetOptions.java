@@ -0,0 +1,63 @@
+package pods.project.serviceclient;
+
+import java.time.Duration;
+
+// Connection, deadline and retry settings of one target (a service instance called by base URL).
+//
+// Immutable: every setter returns a copy, so one set of defaults can be shared and adjusted per target.
+public final class TargetOptions {
+
+    public static final TargetOptions DEFAULTS = new TargetOptions(64, Duration.ofSeconds(2), Duration.ofSeconds(10),
+        3, Duration.ofMillis(50), Duration.ofSeconds(1), false);
+
+    // Requests in flight to the target at once (with HTTP/1.1 also its open connections); more wait in line
+    final int maxConnections;
+    final Duration connectTimeout;
+    // Deadline of a request that sets none, counted from the call and covering retries and time in line
+    final Duration timeout;
+    // Tries per request, the first included
+    final int maxAttempts;
+    // Retry n waits a random time up to min(maxBackoff, backoff * 2^(n-1))
+    final Duration backoff;
+    final Duration maxBackoff;
+    // Prefer HTTP/2: negotiated with ALPN over https, by an h2c upgrade over http; falls back to HTTP/1.1
+    final boolean http2;
+
+    private TargetOptions(int maxConnections, Duration connectTimeout, Duration timeout, int maxAttempts,
+                          Duration backoff, Duration maxBackoff, boolean http2) {
+        if (maxConnections < 1 || maxAttempts < 1) {
+            throw new IllegalArgumentException("maxConnections and maxAttempts must be at least 1");
+        }
+        this.maxConnections = maxConnections;
+        this.connectTimeout = connectTimeout;
+        this.timeout = timeout;
+        this.maxAttempts = maxAttempts;
+        this.backoff = backoff;
+        this.maxBackoff = maxBackoff;
+        this.http2 = http2;
+    }
+
+    public TargetOptions maxConnections(int maxConnections) {
+        return new TargetOptions(maxConnections, connectTimeout, timeout, maxAttempts, backoff, maxBackoff, http2);
+    }
+
+    public TargetOptions connectTimeout(Duration connectTimeout) {
+        return new TargetOptions(maxConnections, connectTimeout, timeout, maxAttempts, backoff, maxBackoff, http2);
+    }
+
+    public TargetOptions timeout(Duration timeout) {
+        return new TargetOptions(maxConnections, connectTimeout, timeout, maxAttempts, backoff, maxBackoff, http2);
+    }
+
+    public TargetOptions maxAttempts(int maxAttempts) {
+        return new TargetOptions(maxConnections, connectTimeout, timeout, maxAttempts, backoff, maxBackoff, http2);
+    }
+
+    public TargetOptions backoff(Duration backoff, Duration maxBackoff) {
+        return new TargetOptions(maxConnections, connectTimeout, timeout, maxAttempts, backoff, maxBackoff, http2);
+    }
+
+    public TargetOptions http2(boolean http2) {
+        return new TargetOptions(maxConnections, connectTimeout, timeout, maxAttempts, backoff, maxBackoff, http2);
+    }
+}
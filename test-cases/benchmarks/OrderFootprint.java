@@ -0,0 +1,118 @@
+/*
+ * Heap footprint of one resident Order entity, measured with JOL (org.openjdk.jol:jol-core).
+ *
+ * "before" is the state Order kept until it stored its status as an enum and its items as
+ * packed int arrays: a status String (always a shared literal), a List<OrderItem>, and a
+ * List<Integer> of its (boxed) user id. BeforeOrder rebuilds it: those fields on the same
+ * superclass. "after" is the Order class of the tree. Objects shared by all entities (status
+ * strings, enum constants, the entity context and shard) are not counted.
+ *
+ * Also prints what a GET of an order costs: the reply (Gateway.OrderInfo with its items) built
+ * for a PLACED order on every GET, and for a DELIVERED/CANCELLED one what its cached reply keeps
+ * resident instead (Order.terminalReply, or an entry of the archive's terminal-reply-cache,
+ * which holds the reply behind a LinkedHashMap entry and a boxed order id).
+ *
+ * Usage (JDK 11+ runs the source file directly; the marketplace must be compiled):
+ *   cd marketplace-service && mvn -q compile dependency:build-classpath -Dmdep.outputFile=/tmp/cp.txt
+ *   java -Djdk.attach.allowAttachSelf -XX:+EnableDynamicAgentLoading -cp ~/.m2/repository/org/openjdk/jol/jol-core/0.17/jol-core-0.17.jar:target/classes:$(cat /tmp/cp.txt) \
+ *        ../test-cases/benchmarks/OrderFootprint.java [items]
+ *
+ * Output on JDK 21 (x86_64, compressed oops), 3 items:
+ *   Order: Instance size: 64 bytes (AbstractBehavior 28 B, orderId/userId/totalPrice, status,
+ *          productIds, quantities, shard, terminalReply; 4 B alignment gap)
+ *   before: Order 56 B + items/user id 248 B = 304 B per resident order
+ *   after:  Order 64 B + items 64 B = 128 B per resident order
+ *   reply: 184 B allocated per GET of a PLACED order; a DELIVERED/CANCELLED order's is built once:
+ *     resident in Order.terminalReply: 184 B, per archive terminal-reply-cache entry: 246 B, per cache hit: 0 B
+ *
+ * So the terminal reply field costs every resident order 8 B (its 4 B reference rounds the
+ * object up from 56 to 64 B) and saves 184 B of garbage per repeated GET; a full default
+ * cache of 10000 terminal replies holds about 2.4 MB.
+ */
+import akka.actor.typed.javadsl.AbstractBehavior;
+import akka.actor.typed.javadsl.Receive;
+import me.akashmaj.demomarketplaceservice.Gateway;
+import me.akashmaj.demomarketplaceservice.Order;
+import org.openjdk.jol.info.ClassLayout;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class OrderFootprint {
+
+    // The fields Order had before (shard and context are shared or not counted, as in Order)
+    static class BeforeOrder extends AbstractBehavior<Object> {
+        private final int orderId = 0;
+        private int user_id;
+        private int total_price;
+        private String status;
+        private List<Order.OrderItem> items;
+        private List<Integer> userIdList;
+        private Object shard;
+
+        BeforeOrder() {
+            super(null);
+        }
+
+        @Override
+        public Receive<Object> createReceive() {
+            return null;
+        }
+    }
+
+    public static void main(String[] args) {
+        int itemCount = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int orderId = 1_000_001;
+        int userId = 900_000_001;
+
+        List<Order.OrderItem> items = new ArrayList<>();
+        for (int i = 0; i < itemCount; i++) {
+            items.add(new Order.OrderItem(orderId, 101 + i, 1 + i));
+        }
+        List<Integer> userIdList = new ArrayList<>();
+        userIdList.add(userId);
+        long beforeShell = ClassLayout.parseClass(BeforeOrder.class).instanceSize();
+        long beforeState = GraphLayout.parseInstance(items, userIdList).totalSize();
+
+        int[] productIds = new int[itemCount];
+        int[] quantities = new int[itemCount];
+        long afterShell = ClassLayout.parseClass(Order.class).instanceSize();
+        long afterState = GraphLayout.parseInstance(productIds, quantities).totalSize();
+
+        // The status string is shared (a constant), so it is not part of the reply's cost
+        long replySize = GraphLayout.parseInstance(reply(orderId, userId, itemCount)).totalSize()
+            - GraphLayout.parseInstance("DELIVERED").totalSize();
+
+        // A full archive reply cache, per entry (access-ordered, as in OrderArchive)
+        int entries = 10_000;
+        Map<Integer, Gateway.OrderInfo> cache = new LinkedHashMap<>(16, 0.75f, true);
+        for (int i = 0; i < entries; i++) {
+            cache.put(orderId + i, reply(orderId + i, userId, itemCount));
+        }
+        long cacheEntrySize = (GraphLayout.parseInstance(cache).totalSize()
+            - GraphLayout.parseInstance("DELIVERED").totalSize()) / entries;
+
+        System.out.println(ClassLayout.parseClass(Order.class).toPrintable());
+        System.out.printf("%d items%n", itemCount);
+        System.out.printf("before: Order %d B + items/user id %d B = %d B per resident order%n",
+            beforeShell, beforeState, beforeShell + beforeState);
+        System.out.printf("after:  Order %d B + items %d B = %d B per resident order%n",
+            afterShell, afterState, afterShell + afterState);
+        System.out.printf("reply: %d B allocated per GET of a PLACED order; a DELIVERED/CANCELLED order's is built once:%n", replySize);
+        System.out.printf("  resident in Order.terminalReply: %d B, per archive terminal-reply-cache entry: %d B, per cache hit: 0 B%n",
+            replySize, cacheEntrySize);
+    }
+
+    private static Gateway.OrderInfo reply(int orderId, int userId, int itemCount) {
+        List<Order.OrderItemInfo> items = new ArrayList<>(itemCount);
+        for (int i = 0; i < itemCount; i++) {
+            items.add(new Order.OrderItemInfo(orderId, 101 + i, 1 + i));
+        }
+        // As Order.toOrderInfo builds it
+        return new Gateway.OrderInfo(orderId, userId, 1000, "DELIVERED", Collections.unmodifiableList(items));
+    }
+}
@@ -0,0 +1,90 @@
+"""
+Accounts per second of a bulk import through POST /users/import.
+
+Streams USERS generated accounts (ids from FIRST_USER_ID on, unique emails) as one CSV or
+JSON body with chunked transfer encoding, so the body is never held in memory on either
+side, and prints the import summary returned by account-service. Every 1000th account
+repeats the email of the one before it, to exercise the duplicate check.
+
+For comparison, "signups" creates the first SIGNUPS of the same accounts one
+POST /users at a time over one keep-alive connection.
+
+Usage: python3 account_import.py [users] [csv|json|signups] [first_user_id] [port]
+Only uses the standard library.
+"""
+import http.client
+import json
+import sys
+import time
+
+USERS = int(sys.argv[1]) if len(sys.argv) > 1 else 1_000_000
+FORMAT = sys.argv[2] if len(sys.argv) > 2 else "csv"
+FIRST_USER_ID = int(sys.argv[3]) if len(sys.argv) > 3 else 10_000_000
+PORT = int(sys.argv[4]) if len(sys.argv) > 4 else 8080
+HOST = "localhost"
+SIGNUPS = 5000
+BATCH = 1000
+
+
+def email_of(index):
+    if index % 1000 == 999:
+        index -= 1
+    return f"import{FIRST_USER_ID + index}@bench.example"
+
+
+def csv_body():
+    yield b"id,name,email,discount_availed\n"
+    for start in range(0, USERS, BATCH):
+        yield "".join(f"{FIRST_USER_ID + i},User {i},{email_of(i)},false\n"
+                      for i in range(start, min(USERS, start + BATCH))).encode()
+
+
+def json_body():
+    yield b"["
+    for start in range(0, USERS, BATCH):
+        yield ((b"," if start else b"") + ",".join(
+            json.dumps({"id": FIRST_USER_ID + i, "name": f"User {i}", "email": email_of(i)})
+            for i in range(start, min(USERS, start + BATCH))).encode())
+    yield b"]"
+
+
+def bulk_import():
+    connection = http.client.HTTPConnection(HOST, PORT, timeout=3600)
+    content_type = "text/csv" if FORMAT == "csv" else "application/json"
+    started = time.time()
+    connection.request("POST", "/users/import", body=csv_body() if FORMAT == "csv" else json_body(),
+                       headers={"Content-Type": content_type}, encode_chunked=True)
+    response = connection.getresponse()
+    text = response.read().decode()
+    elapsed = time.time() - started
+    if response.status != 200:
+        raise SystemExit(f"{response.status}: {text}")
+    result = json.loads(text)
+    result.pop("rejected_records")
+    print(f"{FORMAT} import of {USERS} accounts: {result['imported'] / elapsed:.0f} accounts/s end to end "
+          f"({elapsed:.1f} s)")
+    print(f"server summary: {result}")
+
+
+def signups():
+    connection = http.client.HTTPConnection(HOST, PORT, timeout=60)
+    created = 0
+    started = time.time()
+    for i in range(SIGNUPS):
+        body = json.dumps({"id": FIRST_USER_ID + i, "name": f"User {i}", "email": email_of(i)})
+        try:
+            connection.request("POST", "/users", body=body, headers={"Content-Type": "application/json"})
+            response = connection.getresponse()
+        except (http.client.RemoteDisconnected, ConnectionError):
+            # The server ended the keep-alive connection (Tomcat does after 100 requests): reopen it
+            connection.close()
+            connection.request("POST", "/users", body=body, headers={"Content-Type": "application/json"})
+            response = connection.getresponse()
+        response.read()
+        created += response.status == 201
+    elapsed = time.time() - started
+    print(f"one POST /users per account: {created / elapsed:.0f} accounts/s ({created} created in {elapsed:.1f} s)")
+
+
+if __name__ == "__main__":
+    signups() if FORMAT == "signups" else bulk_import()
@@ -0,0 +1,120 @@
+"""
+Sign-ups per second and latency of POST /users under concurrency, plus a duplicate-email race.
+
+Phase 1 keeps CLIENTS sign-ups in flight for SECONDS, every one with a new id and email,
+and reports requests/s and p50/p99 latency.
+Phase 2 fires RACERS sign-ups with the same email (and different ids) at once: exactly
+one must get 201 and all the others 400.
+
+Usage: python3 account_signups.py [clients] [seconds] [racers] [port]
+Only uses the standard library.
+"""
+import asyncio
+import json
+import sys
+import time
+
+CLIENTS = int(sys.argv[1]) if len(sys.argv) > 1 else 32
+SECONDS = float(sys.argv[2]) if len(sys.argv) > 2 else 15
+RACERS = int(sys.argv[3]) if len(sys.argv) > 3 else 50
+PORT = int(sys.argv[4]) if len(sys.argv) > 4 else 8080
+HOST = "localhost"
+# Far away from the ids the test cases use; a run's ids are unique per start time
+FIRST_USER_ID = 2_000_000 + int(time.time()) % 100_000 * 1000
+
+
+async def read_http_response(reader):
+    status_line = await reader.readline()
+    if not status_line:
+        return None
+    status = int(status_line.split()[1])
+    headers = {}
+    while True:
+        line = await reader.readline()
+        if line in (b"\r\n", b""):
+            break
+        name, _, value = line.decode().partition(":")
+        headers[name.strip().lower()] = value.strip()
+    if "content-length" in headers:
+        await reader.readexactly(int(headers["content-length"]))
+    elif headers.get("transfer-encoding") == "chunked":
+        while True:
+            size = int((await reader.readline()).strip(), 16)
+            await reader.readexactly(size + 2)
+            if size == 0:
+                break
+    if headers.get("connection") == "close":
+        return -status
+    return status
+
+
+def sign_up(user_id, email):
+    body = json.dumps({"id": user_id, "name": f"user {user_id}", "email": email}).encode()
+    return (f"POST /users HTTP/1.1\r\nHost: {HOST}\r\nContent-Type: application/json\r\n"
+            f"Content-Length: {len(body)}\r\n\r\n").encode() + body
+
+
+async def client(index, stop, latencies, counts):
+    reader, writer = await asyncio.open_connection(HOST, PORT)
+    i = 0
+    while not stop.is_set():
+        user_id = FIRST_USER_ID + i * CLIENTS + index
+        started = time.perf_counter()
+        writer.write(sign_up(user_id, f"signup{user_id}@bench.example"))
+        await writer.drain()
+        status = await read_http_response(reader)
+        if status is None or status < 0:
+            # The server ended the keep-alive connection (Tomcat does after 100 requests): reopen it
+            writer.close()
+            reader, writer = await asyncio.open_connection(HOST, PORT)
+            if status is None:
+                continue
+            status = -status
+        if status == 201:
+            latencies.append(time.perf_counter() - started)
+        else:
+            counts["failed"] += 1
+        i += 1
+    writer.close()
+
+
+async def racer(user_id, email, statuses):
+    reader, writer = await asyncio.open_connection(HOST, PORT)
+    writer.write(sign_up(user_id, email))
+    await writer.drain()
+    statuses.append(abs(await read_http_response(reader)))
+    writer.close()
+
+
+def percentile(values, p):
+    values = sorted(values)
+    return values[min(len(values) - 1, int(len(values) * p))] if values else 0
+
+
+async def main():
+    latencies = []
+    counts = {"failed": 0}
+    stop = asyncio.Event()
+    tasks = [asyncio.create_task(client(i, stop, latencies, counts)) for i in range(CLIENTS)]
+    started = time.time()
+    await asyncio.sleep(SECONDS)
+    stop.set()
+    await asyncio.wait(tasks, timeout=10)
+    elapsed = time.time() - started
+    print(f"sign-ups: {len(latencies) / elapsed:.0f} req/s  p50 {percentile(latencies, 0.5) * 1000:.1f} ms  "
+          f"p99 {percentile(latencies, 0.99) * 1000:.1f} ms  (created {len(latencies)}, failed {counts['failed']}, "
+          f"clients {CLIENTS})")
+
+    statuses = []
+    first_id = FIRST_USER_ID + 900_000
+    email = f"race{first_id}@bench.example"
+    await asyncio.gather(*(racer(first_id + i, email, statuses) for i in range(RACERS)))
+    created = statuses.count(201)
+    rejected = statuses.count(400)
+    verdict = "ok" if created == 1 and rejected == RACERS - 1 else "WRONG"
+    print(f"same-email race: {created} created, {rejected} rejected, "
+          f"{RACERS - created - rejected} other of {RACERS}: {verdict}")
+
+
+if __name__ == "__main__":
+    asyncio.run(main())
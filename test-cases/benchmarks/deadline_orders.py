@@ -0,0 +1,162 @@
+"""
+Orders the marketplace places after their client gave up, with a slow wallet-service.
+
+Creates USERS accounts with funded wallets, then slows wallet-service down without making it
+fail: for SECONDS it is frozen with SIGSTOP for FROZEN_MS of every 1000 ms (so this script must
+run on the same host), and its calls take up to FROZEN_MS instead of a few ms. Meanwhile
+IN_FLIGHT clients place orders with an X-Deadline-Ms header of DEADLINE_MS and stop reading the
+answer when that has passed. Orders go round robin to products 101-120, and every order a
+client saw placed is cancelled, which restores its stock: stock still missing after the run
+was taken by orders nobody learned of (the shipped products have about 200 units in all, so
+keep runs short enough not to sell out).
+
+Prints the answers the clients got in time, the orders given up on, and the orders placed
+after all. A marketplace that ignores the header keeps working on every order until its own
+timeouts.
+
+Usage: python3 deadline_orders.py [deadline_ms] [in_flight] [seconds] [frozen_ms] [users]
+Only uses the standard library.
+"""
+import asyncio
+import http.client
+import json
+import os
+import signal
+import sys
+import time
+
+DEADLINE_MS = int(sys.argv[1]) if len(sys.argv) > 1 else 300
+IN_FLIGHT = int(sys.argv[2]) if len(sys.argv) > 2 else 16
+SECONDS = float(sys.argv[3]) if len(sys.argv) > 3 else 30
+FROZEN_MS = int(sys.argv[4]) if len(sys.argv) > 4 else 600
+USERS = int(sys.argv[5]) if len(sys.argv) > 5 else 200
+HOST = "localhost"
+ACCOUNT_PORT, MARKETPLACE_PORT, WALLET_PORT = 8080, 8081, 8082
+PRODUCT_IDS = range(101, 121)
+BALANCE = 10**9
+FIRST_USER_ID = 700_000_000 + int(time.time()) % 100_000 * 1000
+
+
+def call(port, method, path, body=None):
+    connection = http.client.HTTPConnection(HOST, port, timeout=120)
+    connection.request(method, path, body=json.dumps(body) if body is not None else None,
+                       headers={"Content-Type": "application/json"})
+    response = connection.getresponse()
+    data = response.read()
+    connection.close()
+    return response.status, data
+
+
+def wallet_pid():
+    for pid in os.listdir("/proc"):
+        if pid.isdigit():
+            try:
+                with open(f"/proc/{pid}/cmdline", "rb") as f:
+                    args = f.read().split(b"\0")
+            except OSError:
+                continue
+            if args[0].endswith(b"java") and any(b"wallet-service" in arg for arg in args) \
+                    and not any(arg.startswith(b"--server.port=") and arg != f"--server.port={WALLET_PORT}".encode()
+                                for arg in args):
+                return int(pid)
+    raise SystemExit(f"wallet-service on port {WALLET_PORT} not found")
+
+
+def setup():
+    accounts = [{"id": FIRST_USER_ID + i, "name": f"Buyer {i}", "email": f"deadline{FIRST_USER_ID + i}@bench.example"}
+                for i in range(USERS)]
+    status, _ = call(ACCOUNT_PORT, "POST", "/users/import", accounts)
+    if status != 200:
+        raise SystemExit(f"import: {status}")
+    for account in accounts:
+        status, _ = call(WALLET_PORT, "PUT", f"/wallets/{account['id']}", {"action": "credit", "amount": BALANCE})
+        if status != 200:
+            raise SystemExit(f"wallet {account['id']}: {status}")
+
+
+def stock():
+    return sum(json.loads(call(MARKETPLACE_PORT, "GET", f"/products/{product_id}")[1])["stock_quantity"]
+               for product_id in PRODUCT_IDS)
+
+
+async def request(method, path, body=None, deadline_ms=None):
+    payload = json.dumps(body).encode() if body is not None else b""
+    extra = f"X-Deadline-Ms: {deadline_ms}\r\n" if deadline_ms is not None else ""
+    reader, writer = await asyncio.open_connection(HOST, MARKETPLACE_PORT)
+    try:
+        writer.write((f"{method} {path} HTTP/1.1\r\nHost: {HOST}\r\nContent-Type: application/json\r\n{extra}"
+                      f"Content-Length: {len(payload)}\r\nConnection: close\r\n\r\n").encode() + payload)
+        await writer.drain()
+        status_line = await reader.readline()
+        headers = {}
+        while True:
+            line = await reader.readline()
+            if line in (b"\r\n", b""):
+                break
+            name, _, value = line.decode().partition(":")
+            headers[name.strip().lower()] = value.strip()
+        data = await reader.readexactly(int(headers["content-length"])) if "content-length" in headers else await reader.read()
+        return int(status_line.split()[1]), data
+    finally:
+        writer.close()
+
+
+async def client(index, stop, statuses, counts):
+    i = index
+    while not stop.is_set():
+        user_id = FIRST_USER_ID + i % USERS
+        product_id = PRODUCT_IDS[i % len(PRODUCT_IDS)]
+        i += IN_FLIGHT
+        started = time.perf_counter()
+        try:
+            # The client stops waiting at its deadline, like the caller the header speaks for
+            status, data = await asyncio.wait_for(
+                request("POST", "/orders", {"user_id": user_id, "items": [{"product_id": product_id, "quantity": 1}]},
+                        DEADLINE_MS), DEADLINE_MS / 1000)
+        except asyncio.TimeoutError:
+            counts["given up"] += 1
+            continue
+        statuses.setdefault(status, []).append(time.perf_counter() - started)
+        if status == 201:
+            cancel_status, _ = await request("DELETE", f"/orders/{json.loads(data)['order_id']}")
+            counts["cancelled" if cancel_status == 200 else "not cancelled"] += 1
+
+
+async def slow_down(pid, stop):
+    while not stop.is_set():
+        os.kill(pid, signal.SIGSTOP)
+        await asyncio.sleep(FROZEN_MS / 1000)
+        os.kill(pid, signal.SIGCONT)
+        await asyncio.sleep((1000 - FROZEN_MS) / 1000)
+
+
+async def main():
+    setup()
+    stock_before = stock()
+    pid = wallet_pid()
+    statuses = {}
+    counts = {"given up": 0, "cancelled": 0, "not cancelled": 0}
+    stop = asyncio.Event()
+    slower = asyncio.create_task(slow_down(pid, stop))
+    tasks = [asyncio.create_task(client(i, stop, statuses, counts)) for i in range(IN_FLIGHT)]
+    try:
+        await asyncio.sleep(SECONDS)
+        stop.set()
+        await asyncio.wait(tasks, timeout=60)
+    finally:
+        stop.set()
+        await slower
+        os.kill(pid, signal.SIGCONT)
+    # Let the marketplace finish what it was still working on
+    await asyncio.sleep(15)
+    placed_anyway = stock_before - stock()
+    answered = ", ".join(f"{status} x{len(latencies)} (p50 {sorted(latencies)[len(latencies) // 2] * 1000:.0f} ms)"
+                         for status, latencies in sorted(statuses.items()))
+    print(f"deadline {DEADLINE_MS} ms, wallet frozen {FROZEN_MS} ms of every second, in flight {IN_FLIGHT}, {SECONDS:.0f} s")
+    print(f"  answered in time: {answered or 'none'}; cancelled {counts['cancelled']}")
+    print(f"  given up by the client: {counts['given up']}")
+    print(f"  placed anyway (never answered, so never cancelled): {placed_anyway} of {stock_before} units in stock")
+
+
+if __name__ == "__main__":
+    asyncio.run(main())
@@ -0,0 +1,192 @@
+"""
+Orders placed twice when clients retry POST /orders quickly against a slow wallet-service.
+
+Creates USERS accounts with funded wallets, then slows wallet-service down without making it
+fail: for SECONDS it is frozen with SIGSTOP for FROZEN_MS of every 1000 ms (so this script must
+run on the same host). Meanwhile IN_FLIGHT clients place orders with short timeouts instead of
+long ones: an attempt not answered within TIMEOUT_MS is abandoned and the same order sent again,
+up to ATTEMPTS times. With MODE "key" every attempt of one order carries the same
+Idempotency-Key header; with "none" it carries none (what a client had to do before).
+
+Orders go round robin to products 101-120, and every order a client learned of is cancelled,
+which restores its stock: stock still missing after the run was taken by orders placed again
+by a retry, or by orders no attempt learned of (the shipped products have about 200 units in
+all, so keep runs short enough not to sell out). The debits are counted the same way, from the
+wallet balances after the holds of abandoned attempts have expired or been captured.
+
+Usage: python3 idempotent_order_retries.py [mode] [timeout_ms] [attempts] [in_flight] [seconds] [frozen_ms] [users]
+Only uses the standard library.
+"""
+import asyncio
+import http.client
+import json
+import os
+import signal
+import sys
+import time
+import urllib.request
+import uuid
+
+MODE = sys.argv[1] if len(sys.argv) > 1 else "key"
+TIMEOUT_MS = int(sys.argv[2]) if len(sys.argv) > 2 else 300
+ATTEMPTS = int(sys.argv[3]) if len(sys.argv) > 3 else 5
+IN_FLIGHT = int(sys.argv[4]) if len(sys.argv) > 4 else 8
+SECONDS = float(sys.argv[5]) if len(sys.argv) > 5 else 20
+FROZEN_MS = int(sys.argv[6]) if len(sys.argv) > 6 else 600
+USERS = int(sys.argv[7]) if len(sys.argv) > 7 else 100
+HOST = "localhost"
+ACCOUNT_PORT, MARKETPLACE_PORT, WALLET_PORT = 8080, 8081, 8082
+PRODUCT_IDS = range(101, 121)
+BALANCE = 10**9
+FIRST_USER_ID = 800_000_000 + int(time.time()) % 100_000 * 1000
+
+
+def call(port, method, path, body=None):
+    connection = http.client.HTTPConnection(HOST, port, timeout=120)
+    connection.request(method, path, body=json.dumps(body) if body is not None else None,
+                       headers={"Content-Type": "application/json"})
+    response = connection.getresponse()
+    data = response.read()
+    connection.close()
+    return response.status, data
+
+
+def wallet_pid():
+    for pid in os.listdir("/proc"):
+        if pid.isdigit():
+            try:
+                with open(f"/proc/{pid}/cmdline", "rb") as f:
+                    args = f.read().split(b"\0")
+            except OSError:
+                continue
+            if args[0].endswith(b"java") and any(b"wallet-service" in arg for arg in args) \
+                    and not any(arg.startswith(b"--server.port=") and arg != f"--server.port={WALLET_PORT}".encode()
+                                for arg in args):
+                return int(pid)
+    raise SystemExit(f"wallet-service on port {WALLET_PORT} not found")
+
+
+def setup():
+    accounts = [{"id": FIRST_USER_ID + i, "name": f"Buyer {i}", "email": f"retry{FIRST_USER_ID + i}@bench.example"}
+                for i in range(USERS)]
+    status, _ = call(ACCOUNT_PORT, "POST", "/users/import", accounts)
+    if status != 200:
+        raise SystemExit(f"import: {status}")
+    for account in accounts:
+        status, _ = call(WALLET_PORT, "PUT", f"/wallets/{account['id']}", {"action": "credit", "amount": BALANCE})
+        if status != 200:
+            raise SystemExit(f"wallet {account['id']}: {status}")
+
+
+def stock():
+    return sum(json.loads(call(MARKETPLACE_PORT, "GET", f"/products/{product_id}")[1])["stock_quantity"]
+               for product_id in PRODUCT_IDS)
+
+
+def debited():
+    return sum(BALANCE - json.loads(call(WALLET_PORT, "GET", f"/wallets/{FIRST_USER_ID + i}")[1])["balance"]
+               for i in range(USERS))
+
+
+async def request(method, path, body=None, key=None):
+    payload = json.dumps(body).encode() if body is not None else b""
+    extra = f"Idempotency-Key: {key}\r\n" if key is not None else ""
+    reader, writer = await asyncio.open_connection(HOST, MARKETPLACE_PORT)
+    try:
+        writer.write((f"{method} {path} HTTP/1.1\r\nHost: {HOST}\r\nContent-Type: application/json\r\n{extra}"
+                      f"Content-Length: {len(payload)}\r\nConnection: close\r\n\r\n").encode() + payload)
+        await writer.drain()
+        status_line = await reader.readline()
+        headers = {}
+        while True:
+            line = await reader.readline()
+            if line in (b"\r\n", b""):
+                break
+            name, _, value = line.decode().partition(":")
+            headers[name.strip().lower()] = value.strip()
+        data = await reader.readexactly(int(headers["content-length"])) if "content-length" in headers else await reader.read()
+        return int(status_line.split()[1]), data
+    finally:
+        writer.close()
+
+
+async def client(index, stop, counts, latencies):
+    i = index
+    while not stop.is_set():
+        user_id = FIRST_USER_ID + i % USERS
+        product_id = PRODUCT_IDS[i % len(PRODUCT_IDS)]
+        i += IN_FLIGHT
+        order = {"user_id": user_id, "items": [{"product_id": product_id, "quantity": 1}]}
+        key = str(uuid.uuid4()) if MODE == "key" else None
+        counts["orders"] += 1
+        started = time.perf_counter()
+        for attempt in range(ATTEMPTS):
+            counts["attempts"] += 1
+            try:
+                status, data = await asyncio.wait_for(request("POST", "/orders", order, key), TIMEOUT_MS / 1000)
+            except asyncio.TimeoutError:
+                continue
+            if status == 201:
+                latencies.append(time.perf_counter() - started)
+                cancel_status, _ = await request("DELETE", f"/orders/{json.loads(data)['order_id']}")
+                counts["placed and cancelled" if cancel_status == 200 else "not cancelled"] += 1
+            else:
+                counts[f"answered {status}"] = counts.get(f"answered {status}", 0) + 1
+            break
+        else:
+            counts["all attempts timed out"] += 1
+
+
+async def slow_down(pid, stop):
+    while not stop.is_set():
+        os.kill(pid, signal.SIGSTOP)
+        await asyncio.sleep(FROZEN_MS / 1000)
+        os.kill(pid, signal.SIGCONT)
+        await asyncio.sleep((1000 - FROZEN_MS) / 1000)
+
+
+def idempotency_metrics():
+    try:
+        with urllib.request.urlopen(f"http://{HOST}:{MARKETPLACE_PORT}/metrics/idempotency", timeout=5) as response:
+            return json.loads(response.read())
+    except Exception:
+        return None
+
+
+async def main():
+    setup()
+    stock_before = stock()
+    pid = wallet_pid()
+    counts = {"orders": 0, "attempts": 0, "placed and cancelled": 0, "not cancelled": 0, "all attempts timed out": 0}
+    latencies = []
+    stop = asyncio.Event()
+    slower = asyncio.create_task(slow_down(pid, stop))
+    tasks = [asyncio.create_task(client(i, stop, counts, latencies)) for i in range(IN_FLIGHT)]
+    try:
+        await asyncio.sleep(SECONDS)
+        stop.set()
+        await asyncio.wait(tasks, timeout=60)
+    finally:
+        stop.set()
+        await slower
+        os.kill(pid, signal.SIGCONT)
+    # Let abandoned attempts finish, and their holds be captured or expire (wallet.holds.default-ttl-seconds)
+    await asyncio.sleep(70)
+    extra_orders = stock_before - stock()
+    extra_debits = debited()
+    latencies.sort()
+    p50 = f"{latencies[len(latencies) // 2] * 1000:.0f} ms" if latencies else "-"
+    print(f"mode {MODE}: attempts time out after {TIMEOUT_MS} ms, up to {ATTEMPTS} per order; wallet frozen "
+          f"{FROZEN_MS} ms of every second; in flight {IN_FLIGHT}, {SECONDS:.0f} s")
+    print(f"  orders {counts['orders']} in {counts['attempts']} attempts; "
+          + ", ".join(f"{name} {count}" for name, count in counts.items() if name not in ("orders", "attempts")))
+    print(f"  time to a placed order p50 {p50}")
+    print(f"  orders placed that no client kept (retried twice or never learned of): {extra_orders} units of stock,"
+          f" {extra_debits} debited")
+    metrics = idempotency_metrics()
+    if metrics is not None:
+        print(f"  marketplace keys: {metrics}")
+
+
+if __name__ == "__main__":
+    asyncio.run(main())
@@ -0,0 +1,135 @@
+"""
+Walking every account through GET /users: keyset pages vs the NDJSON stream.
+
+  pages  - follows next_cursor with limit=LIMIT until the last page
+  stream - one GET /users with Accept: application/x-ndjson, lines counted as they arrive
+  seek   - latency of one page at the start of the table and one near its end (keyset
+           pagination seeks on the primary key, so both should cost the same)
+While each walk runs, the account-service resident set size is sampled from /proc, so the
+script must run on the same host; it should stay flat however many accounts there are.
+Load accounts first, e.g. with account_import.py.
+
+Usage: python3 list_users.py [limit] [port]
+Only uses the standard library.
+"""
+import http.client
+import json
+import os
+import sys
+import threading
+import time
+
+LIMIT = int(sys.argv[1]) if len(sys.argv) > 1 else 1000
+PORT = int(sys.argv[2]) if len(sys.argv) > 2 else 8080
+HOST = "localhost"
+
+
+def account_service_pid():
+    for pid in os.listdir("/proc"):
+        if pid.isdigit():
+            try:
+                with open(f"/proc/{pid}/cmdline", "rb") as f:
+                    args = f.read().split(b"\0")
+                if args[0].endswith(b"java") and any(b"account-service" in arg for arg in args):
+                    return int(pid)
+            except OSError:
+                pass
+    raise SystemExit("account-service process not found")
+
+
+def rss_mb(pid):
+    with open(f"/proc/{pid}/status") as f:
+        for line in f:
+            if line.startswith("VmRSS:"):
+                return int(line.split()[1]) / 1024
+    return 0
+
+
+class RssSampler(threading.Thread):
+    def __init__(self, pid):
+        super().__init__(daemon=True)
+        self.pid = pid
+        self.peak = self.start_rss = rss_mb(pid)
+        self.done = threading.Event()
+
+    def run(self):
+        while not self.done.wait(0.2):
+            self.peak = max(self.peak, rss_mb(self.pid))
+
+
+def get(connection, path, accept="application/json"):
+    connection.request("GET", path, headers={"Accept": accept})
+    response = connection.getresponse()
+    body = response.read()
+    if response.status != 200:
+        raise SystemExit(f"GET {path}: {response.status} {body[:200]}")
+    return json.loads(body)
+
+
+def walk_pages(connection):
+    count = 0
+    pages = 0
+    cursor = None
+    last_id = None
+    while True:
+        page = get(connection, f"/users?limit={LIMIT}" + (f"&cursor={cursor}" if cursor is not None else ""))
+        pages += 1
+        count += len(page["users"])
+        if page["users"]:
+            last_id = page["users"][-1]["id"]
+        cursor = page["next_cursor"]
+        if cursor is None:
+            return count, pages, last_id
+
+
+def stream_all():
+    connection = http.client.HTTPConnection(HOST, PORT, timeout=3600)
+    connection.request("GET", "/users", headers={"Accept": "application/x-ndjson"})
+    response = connection.getresponse()
+    # Counts lines a block at a time: parsing each line here would measure this script, not the service
+    count = 0
+    while True:
+        block = response.read(65536)
+        if not block:
+            break
+        count += block.count(b"\n")
+    connection.close()
+    return count
+
+
+def timed(label, pid, walk):
+    sampler = RssSampler(pid)
+    sampler.start()
+    started = time.time()
+    result = walk()
+    elapsed = time.time() - started
+    sampler.done.set()
+    count = result[0] if isinstance(result, tuple) else result
+    print(f"{label:6} {count} accounts in {elapsed:.1f} s: {count / elapsed:.0f} accounts/s  "
+          f"account-service RSS {sampler.start_rss:.0f} -> peak {sampler.peak:.0f} MB")
+    return result
+
+
+def page_latency(connection, cursor, rounds=20):
+    started = time.perf_counter()
+    for _ in range(rounds):
+        get(connection, f"/users?limit={LIMIT}" + (f"&cursor={cursor}" if cursor is not None else ""))
+    return (time.perf_counter() - started) / rounds * 1000
+
+
+def main():
+    pid = account_service_pid()
+    connection = http.client.HTTPConnection(HOST, PORT, timeout=60)
+    # One warm-up pass, so both walks run on compiled code
+    timed("warmup", pid, lambda: walk_pages(connection))
+    count, pages, last_id = timed("pages", pid, lambda: walk_pages(connection))
+    if not count:
+        raise SystemExit("No accounts to list: load some first")
+    print(f"       ({pages} pages of up to {LIMIT})")
+    timed("stream", pid, stream_all)
+    print(f"seek   first page {page_latency(connection, None):.1f} ms, "
+          f"page near the end {page_latency(connection, last_id - LIMIT * 2):.1f} ms")
+
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,126 @@
+"""
+Orders placed and cancelled per second over the marketplace's REST calls to wallet-service.
+
+Creates USERS accounts (POST /users/import) with well-funded wallets, then keeps IN_FLIGHT
+clients each placing an order (wallet hold + capture) and cancelling it (wallet refund) for
+SECONDS, and reports cycles/s and p50/p99 of both steps. Run the marketplace with
+-Dmarketplace.wallet-rpc.enabled=off so the wallet calls go over REST. When the marketplace
+has GET /metrics/http-client, the calls and latency it recorded per wallet endpoint are
+printed as well.
+
+Usage: python3 order_wallet_calls.py [in_flight] [seconds] [users]
+Only uses the standard library.
+"""
+import asyncio
+import http.client
+import json
+import sys
+import time
+import urllib.request
+
+IN_FLIGHT = int(sys.argv[1]) if len(sys.argv) > 1 else 16
+SECONDS = float(sys.argv[2]) if len(sys.argv) > 2 else 20
+USERS = int(sys.argv[3]) if len(sys.argv) > 3 else 200
+HOST = "localhost"
+ACCOUNT_PORT, MARKETPLACE_PORT, WALLET_PORT = 8080, 8081, 8082
+# A new range per run, so every run starts from fresh accounts
+FIRST_USER_ID = 500_000_000 + int(time.time()) % 100_000 * 1000
+
+
+def setup():
+    accounts = [{"id": FIRST_USER_ID + i, "name": f"Buyer {i}", "email": f"buyer{FIRST_USER_ID + i}@bench.example"}
+                for i in range(USERS)]
+    connection = http.client.HTTPConnection(HOST, ACCOUNT_PORT, timeout=120)
+    connection.request("POST", "/users/import", body=json.dumps(accounts), headers={"Content-Type": "application/json"})
+    response = connection.getresponse()
+    if response.status != 200:
+        raise SystemExit(f"import: {response.status} {response.read()[:200]}")
+    response.read()
+    wallets = http.client.HTTPConnection(HOST, WALLET_PORT, timeout=60)
+    for account in accounts:
+        wallets.request("PUT", f"/wallets/{account['id']}", body=json.dumps({"action": "credit", "amount": 10**9}),
+                        headers={"Content-Type": "application/json"})
+        response = wallets.getresponse()
+        response.read()
+        if response.status != 200:
+            raise SystemExit(f"wallet {account['id']}: {response.status}")
+
+
+async def request(method, path, body=None):
+    payload = json.dumps(body).encode() if body is not None else b""
+    # One connection per request: the marketplace's HTTP server closes idle keep-alive connections
+    reader, writer = await asyncio.open_connection(HOST, MARKETPLACE_PORT)
+    writer.write((f"{method} {path} HTTP/1.1\r\nHost: {HOST}\r\nContent-Type: application/json\r\n"
+                  f"Content-Length: {len(payload)}\r\nConnection: close\r\n\r\n").encode() + payload)
+    await writer.drain()
+    status_line = await reader.readline()
+    headers = {}
+    while True:
+        line = await reader.readline()
+        if line in (b"\r\n", b""):
+            break
+        name, _, value = line.decode().partition(":")
+        headers[name.strip().lower()] = value.strip()
+    data = await reader.readexactly(int(headers["content-length"])) if "content-length" in headers else await reader.read()
+    writer.close()
+    return int(status_line.split()[1]), data
+
+
+async def client(index, stop, placed, cancelled, counts):
+    i = index
+    while not stop.is_set():
+        user_id = FIRST_USER_ID + i % USERS
+        i += IN_FLIGHT
+        started = time.perf_counter()
+        status, data = await request("POST", "/orders", {"user_id": user_id, "items": [{"product_id": 101, "quantity": 1}]})
+        placed.append(time.perf_counter() - started)
+        if status != 201:
+            counts["failed"] += 1
+            continue
+        order_id = json.loads(data)["order_id"]
+        started = time.perf_counter()
+        status, _ = await request("DELETE", f"/orders/{order_id}")
+        cancelled.append(time.perf_counter() - started)
+        counts["cycles" if status == 200 else "failed"] += 1
+
+
+def percentile(values, p):
+    values = sorted(values)
+    return values[min(len(values) - 1, int(len(values) * p))] * 1000 if values else 0
+
+
+def client_metrics():
+    try:
+        with urllib.request.urlopen(f"http://{HOST}:{MARKETPLACE_PORT}/metrics/http-client", timeout=5) as response:
+            return json.loads(response.read())
+    except Exception:
+        return None
+
+
+async def main():
+    setup()
+    placed, cancelled = [], []
+    counts = {"cycles": 0, "failed": 0}
+    stop = asyncio.Event()
+    tasks = [asyncio.create_task(client(i, stop, placed, cancelled, counts)) for i in range(IN_FLIGHT)]
+    started = time.time()
+    await asyncio.sleep(SECONDS)
+    stop.set()
+    await asyncio.wait(tasks, timeout=60)
+    elapsed = time.time() - started
+    print(f"{counts['cycles'] / elapsed:.0f} orders placed and cancelled/s ({counts['cycles']} cycles, "
+          f"{counts['failed']} failed, in flight {IN_FLIGHT})")
+    print(f"POST /orders   p50 {percentile(placed, 0.5):.1f} ms  p99 {percentile(placed, 0.99):.1f} ms")
+    print(f"DELETE /orders p50 {percentile(cancelled, 0.5):.1f} ms  p99 {percentile(cancelled, 0.99):.1f} ms")
+    metrics = client_metrics()
+    if metrics is None:
+        return
+    for target, target_metrics in metrics.items():
+        for endpoint, stats in target_metrics["endpoints"].items():
+            print(f"  {target} ({target_metrics['http_version']}) {endpoint}: {stats['calls']} calls, "
+                  f"p50 {stats['p50_ms']} ms, p99 {stats['p99_ms']} ms, retries {stats['retries']}, "
+                  f"failures {stats['failures']}")
+
+
+if __name__ == "__main__":
+    asyncio.run(main())
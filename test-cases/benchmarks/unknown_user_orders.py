@@ -0,0 +1,98 @@
+"""
+Cost of orders placed for users that do not exist, with and without the marketplace's user registry.
+
+Keeps IN_FLIGHT POST /orders running for SECONDS, each for a different user id that
+account-service does not have, and reports orders/s and p50/p99 latency (all must be 400).
+Run it once against a marketplace with marketplace.user-registry.enabled = on and once with
+it off (-Dmarketplace.user-registry.enabled=off) to compare; the registry's counters are
+printed when GET /metrics/user-registry is available.
+
+Usage: python3 unknown_user_orders.py [in_flight] [seconds] [port]
+Only uses the standard library.
+"""
+import asyncio
+import json
+import sys
+import time
+import urllib.request
+
+IN_FLIGHT = int(sys.argv[1]) if len(sys.argv) > 1 else 16
+SECONDS = float(sys.argv[2]) if len(sys.argv) > 2 else 15
+PORT = int(sys.argv[3]) if len(sys.argv) > 3 else 8081
+HOST = "localhost"
+# Ids nobody signs up with; a new range per run so no User entity has seen them yet
+FIRST_USER_ID = 900_000_000 + int(time.time()) % 100_000 * 1000
+
+
+async def read_http_response(reader):
+    status_line = await reader.readline()
+    if not status_line:
+        return None
+    status = int(status_line.split()[1])
+    headers = {}
+    while True:
+        line = await reader.readline()
+        if line in (b"\r\n", b""):
+            break
+        name, _, value = line.decode().partition(":")
+        headers[name.strip().lower()] = value.strip()
+    if "content-length" in headers:
+        await reader.readexactly(int(headers["content-length"]))
+    return status
+
+
+async def client(index, stop, latencies, counts):
+    i = 0
+    while not stop.is_set():
+        user_id = FIRST_USER_ID + i * IN_FLIGHT + index
+        body = json.dumps({"user_id": user_id, "items": [{"product_id": 101, "quantity": 1}]}).encode()
+        started = time.perf_counter()
+        # One connection per order: the marketplace's HTTP server closes idle keep-alive connections
+        reader, writer = await asyncio.open_connection(HOST, PORT)
+        writer.write((f"POST /orders HTTP/1.1\r\nHost: {HOST}\r\nContent-Type: application/json\r\n"
+                      f"Content-Length: {len(body)}\r\nConnection: close\r\n\r\n").encode() + body)
+        await writer.drain()
+        status = await read_http_response(reader)
+        writer.close()
+        latencies.append(time.perf_counter() - started)
+        counts["rejected" if status == 400 else "other"] += 1
+        i += 1
+
+
+def percentile(values, p):
+    values = sorted(values)
+    return values[min(len(values) - 1, int(len(values) * p))] if values else 0
+
+
+def registry_metrics():
+    try:
+        with urllib.request.urlopen(f"http://{HOST}:{PORT}/metrics/user-registry", timeout=5) as response:
+            return json.loads(response.read())
+    except Exception:
+        return None
+
+
+async def main():
+    latencies = []
+    counts = {"rejected": 0, "other": 0}
+    stop = asyncio.Event()
+    before = registry_metrics()
+    tasks = [asyncio.create_task(client(i, stop, latencies, counts)) for i in range(IN_FLIGHT)]
+    started = time.time()
+    await asyncio.sleep(SECONDS)
+    stop.set()
+    await asyncio.wait(tasks, timeout=60)
+    elapsed = time.time() - started
+    print(f"unknown-user orders: {len(latencies) / elapsed:.0f} orders/s  p50 {percentile(latencies, 0.5) * 1000:.1f} ms  "
+          f"p99 {percentile(latencies, 0.99) * 1000:.1f} ms  (400: {counts['rejected']}, other: {counts['other']}, "
+          f"in flight {IN_FLIGHT})")
+    after = registry_metrics()
+    if before and after:
+        print(f"registry: turned away locally {after['unknown'] - before['unknown']}, "
+              f"looked up in account-service {after['remote_lookups'] - before['remote_lookups']}")
+    else:
+        print("registry: disabled")
+
+
+if __name__ == "__main__":
+    asyncio.run(main())
@@ -0,0 +1,105 @@
+"""
+Throughput and latency of wallet-service with a large number of concurrent connections.
+
+Opens CONNECTIONS persistent HTTP/1.1 connections at once; each one keeps sending
+PUT /wallets/{user_id} credits (spread over 100 wallets) back to back for SECONDS.
+Prints completed requests per second, latency percentiles, failed requests and the
+connections that could not be opened. Run it against the servlet stack and against
+the reactive one (--spring.main.web-application-type=reactive) to compare them.
+
+Usage: python3 wallet_connections.py [connections] [seconds] [host] [port]
+Only uses the standard library.
+"""
+import asyncio
+import json
+import sys
+import time
+
+CONNECTIONS = int(sys.argv[1]) if len(sys.argv) > 1 else 1000
+SECONDS = float(sys.argv[2]) if len(sys.argv) > 2 else 20
+HOST = sys.argv[3] if len(sys.argv) > 3 else "localhost"
+PORT = int(sys.argv[4]) if len(sys.argv) > 4 else 8082
+WALLETS = 100
+FIRST_USER_ID = 515000
+
+
+async def read_response(reader):
+    status_line = await reader.readline()
+    if not status_line:
+        raise ConnectionError("connection closed")
+    status = int(status_line.split()[1])
+    headers = {}
+    while True:
+        line = await reader.readline()
+        if line in (b"\r\n", b"\n", b""):
+            break
+        name, _, value = line.decode().partition(":")
+        headers[name.strip().lower()] = value.strip()
+    if "content-length" in headers:
+        await reader.readexactly(int(headers["content-length"]))
+    elif headers.get("transfer-encoding") == "chunked":
+        while True:
+            size = int((await reader.readline()).strip(), 16)
+            await reader.readexactly(size + 2)
+            if size == 0:
+                break
+    return status
+
+
+async def client(index, start_event, stats):
+    user_id = FIRST_USER_ID + index % WALLETS
+    body = json.dumps({"action": "credit", "amount": 1}).encode()
+    request = (f"PUT /wallets/{user_id} HTTP/1.1\r\nHost: {HOST}:{PORT}\r\n"
+               f"Content-Type: application/json\r\nContent-Length: {len(body)}\r\n\r\n").encode() + body
+    try:
+        reader, writer = await asyncio.open_connection(HOST, PORT)
+    except OSError:
+        stats["refused"] += 1
+        return
+    await start_event.wait()
+    try:
+        # Runs until main() cancels it
+        while True:
+            started = time.perf_counter()
+            writer.write(request)
+            await writer.drain()
+            status = await read_response(reader)
+            if status == 200:
+                stats["latencies"].append((time.perf_counter() - started) * 1000)
+            else:
+                stats["failed"] += 1
+    except (OSError, ConnectionError, asyncio.IncompleteReadError, ValueError, IndexError):
+        stats["failed"] += 1
+    finally:
+        writer.close()
+
+
+def percentile(sorted_samples, p):
+    return sorted_samples[min(len(sorted_samples) - 1, int(len(sorted_samples) * p / 100))]
+
+
+async def main():
+    stats = {"latencies": [], "failed": 0, "refused": 0}
+    start_event = asyncio.Event()
+    tasks = [asyncio.create_task(client(i, start_event, stats)) for i in range(CONNECTIONS)]
+    # Let every connection open before the clock starts
+    await asyncio.sleep(min(10, 1 + CONNECTIONS / 500))
+    started = time.time()
+    start_event.set()
+    await asyncio.sleep(SECONDS)
+    for task in tasks:
+        task.cancel()
+    await asyncio.gather(*tasks, return_exceptions=True)
+    elapsed = time.time() - started
+
+    latencies = sorted(stats["latencies"])
+    print(f"connections: {CONNECTIONS}  seconds: {elapsed:.1f}")
+    print(f"completed:   {len(latencies)}  ({len(latencies) / elapsed:.0f} req/s)")
+    print(f"failed:      {stats['failed']}  refused connections: {stats['refused']}")
+    if latencies:
+        print(f"latency ms:  p50 {percentile(latencies, 50):.1f}  p90 {percentile(latencies, 90):.1f}  "
+              f"p99 {percentile(latencies, 99):.1f}  max {latencies[-1]:.1f}")
+
+
+if __name__ == "__main__":
+    asyncio.run(main())
@@ -0,0 +1,98 @@
+"""
+Contended-wallet throughput benchmark.
+
+Many threads credit and debit ONE wallet through PUT /wallets/{user_id} for a
+fixed duration, then the final balance is checked against the successful
+operations. Prints ops/sec and per-operation latency so runs against different
+wallet-service builds or engines can be compared.
+
+Usage: python3 wallet_contention.py [threads] [seconds] [wallet_url]
+Only uses the standard library.
+"""
+import json
+import sys
+import threading
+import time
+import urllib.error
+import urllib.request
+
+THREADS = int(sys.argv[1]) if len(sys.argv) > 1 else 32
+SECONDS = float(sys.argv[2]) if len(sys.argv) > 2 else 10
+WALLET_SERVICE_URL = sys.argv[3] if len(sys.argv) > 3 else "http://localhost:8082"
+USER_ID = 424242
+INITIAL_BALANCE = 1_000_000
+
+
+def put_wallet(user_id, action, amount):
+    body = json.dumps({"action": action, "amount": amount}).encode()
+    request = urllib.request.Request(f"{WALLET_SERVICE_URL}/wallets/{user_id}", data=body, method="PUT",
+                                     headers={"Content-Type": "application/json"})
+    try:
+        with urllib.request.urlopen(request) as response:
+            return response.status
+    except urllib.error.HTTPError as e:
+        return e.code
+
+
+def get_balance(user_id):
+    with urllib.request.urlopen(f"{WALLET_SERVICE_URL}/wallets/{user_id}") as response:
+        return json.loads(response.read())["balance"]
+
+
+def worker(index, deadline, results, latencies):
+    ok, failed, net = 0, 0, 0
+    samples = []
+    i = 0
+    while time.time() < deadline:
+        action = "credit" if (index + i) % 2 == 0 else "debit"
+        amount = 10
+        start = time.perf_counter()
+        status = put_wallet(USER_ID, action, amount)
+        samples.append((time.perf_counter() - start) * 1000)
+        if status == 200:
+            ok += 1
+            net += amount if action == "credit" else -amount
+        else:
+            failed += 1
+        i += 1
+    results[index] = (ok, failed, net)
+    latencies[index] = samples
+
+
+def percentile(sorted_samples, p):
+    return sorted_samples[min(len(sorted_samples) - 1, int(len(sorted_samples) * p / 100))]
+
+
+def main():
+    put_wallet(USER_ID, "credit", INITIAL_BALANCE)
+    start_balance = get_balance(USER_ID)
+
+    results = [None] * THREADS
+    latencies = [None] * THREADS
+    deadline = time.time() + SECONDS
+    threads = [threading.Thread(target=worker, args=(i, deadline, results, latencies)) for i in range(THREADS)]
+    start = time.time()
+    for t in threads:
+        t.start()
+    for t in threads:
+        t.join()
+    elapsed = time.time() - start
+
+    ok = sum(r[0] for r in results)
+    failed = sum(r[1] for r in results)
+    net = sum(r[2] for r in results)
+    final_balance = get_balance(USER_ID)
+
+    print(f"threads={THREADS} duration={elapsed:.1f}s")
+    print(f"successful ops={ok} failed ops={failed} throughput={ok / elapsed:.0f} ops/sec")
+    samples = sorted(s for r in latencies for s in r)
+    print(f"latency ms p50={percentile(samples, 50):.2f} p90={percentile(samples, 90):.2f} "
+          f"p99={percentile(samples, 99):.2f}")
+    consistent = final_balance == start_balance + net
+    print(f"balance {start_balance} -> {final_balance} (expected {start_balance + net}): "
+          f"{'consistent' if consistent else 'INCONSISTENT'}")
+    return consistent
+
+
+if __name__ == "__main__":
+    sys.exit(0 if main() else 1)
@@ -0,0 +1,192 @@
+"""
+What a stalled wallet partition does to the marketplace's orders.
+
+Needs two wallet partitions (see the readme): ports 8082 and 8092, the marketplace and
+account-service configured with both. Creates USERS accounts with funded wallets, then keeps
+IN_FLIGHT clients placing and cancelling orders, half of them for users of partition 0 and half
+for users of partition 1, through a warm-up and three phases of SECONDS each:
+
+  healthy - both partitions answer
+  stalled - the partition-1 wallet-service is frozen with SIGSTOP (it accepts connections but
+            never answers, like a wedged JVM), so this script must run on the same host
+  resumed - SIGCONT; reports how long until an order of a partition-1 user is placed again
+
+For each phase and partition it prints completed place+cancel cycles/s and the count and
+median latency of each response status. Breaker states come from GET /metrics/dependencies
+when the marketplace has it.
+
+Usage: python3 wallet_outage_orders.py [in_flight] [seconds] [users]
+Only uses the standard library.
+"""
+import asyncio
+import http.client
+import json
+import os
+import signal
+import sys
+import time
+import urllib.request
+
+IN_FLIGHT = int(sys.argv[1]) if len(sys.argv) > 1 else 32
+SECONDS = float(sys.argv[2]) if len(sys.argv) > 2 else 30
+USERS = int(sys.argv[3]) if len(sys.argv) > 3 else 400
+HOST = "localhost"
+ACCOUNT_PORT, MARKETPLACE_PORT = 8080, 8081
+WALLET_PORTS = [8082, 8092]
+FIRST_USER_ID = 600_000_000 + int(time.time()) % 100_000 * 1000
+
+
+def partition_of(user_id, count=2):
+    # Same hash as WalletPartitions.partitionOf
+    h = (user_id * 0x9E3779B9) & 0xFFFFFFFF
+    h ^= h >> 16
+    return (h * count) >> 32
+
+
+def wallet_pid(port):
+    for pid in os.listdir("/proc"):
+        if pid.isdigit():
+            try:
+                with open(f"/proc/{pid}/cmdline", "rb") as f:
+                    args = f.read().split(b"\0")
+            except OSError:
+                continue
+            if args[0].endswith(b"java") and any(b"wallet-service" in arg for arg in args) \
+                    and any(arg == f"--server.port={port}".encode() for arg in args):
+                return int(pid)
+    raise SystemExit(f"wallet-service on port {port} not found (start it with --server.port={port})")
+
+
+def setup():
+    accounts = [{"id": FIRST_USER_ID + i, "name": f"Buyer {i}", "email": f"outage{FIRST_USER_ID + i}@bench.example"}
+                for i in range(USERS)]
+    connection = http.client.HTTPConnection(HOST, ACCOUNT_PORT, timeout=120)
+    connection.request("POST", "/users/import", body=json.dumps(accounts), headers={"Content-Type": "application/json"})
+    response = connection.getresponse()
+    response.read()
+    if response.status != 200:
+        raise SystemExit(f"import: {response.status}")
+    wallets = [http.client.HTTPConnection(HOST, port, timeout=60) for port in WALLET_PORTS]
+    users = ([], [])
+    for account in accounts:
+        partition = partition_of(account["id"])
+        users[partition].append(account["id"])
+        wallets[partition].request("PUT", f"/wallets/{account['id']}",
+                                   body=json.dumps({"action": "credit", "amount": 10**9}),
+                                   headers={"Content-Type": "application/json"})
+        response = wallets[partition].getresponse()
+        response.read()
+        if response.status != 200:
+            raise SystemExit(f"wallet {account['id']}: {response.status}")
+    return users
+
+
+async def request(method, path, body=None):
+    payload = json.dumps(body).encode() if body is not None else b""
+    reader, writer = await asyncio.open_connection(HOST, MARKETPLACE_PORT)
+    writer.write((f"{method} {path} HTTP/1.1\r\nHost: {HOST}\r\nContent-Type: application/json\r\n"
+                  f"Content-Length: {len(payload)}\r\nConnection: close\r\n\r\n").encode() + payload)
+    await writer.drain()
+    status_line = await reader.readline()
+    headers = {}
+    while True:
+        line = await reader.readline()
+        if line in (b"\r\n", b""):
+            break
+        name, _, value = line.decode().partition(":")
+        headers[name.strip().lower()] = value.strip()
+    data = await reader.readexactly(int(headers["content-length"])) if "content-length" in headers else await reader.read()
+    writer.close()
+    return int(status_line.split()[1]) if status_line else 0, data
+
+
+class Phase:
+    def __init__(self, name):
+        self.name = name
+        self.cycles = [0, 0]
+        self.statuses = [{}, {}]
+        self.first_placed = [None, None]
+        self.started = time.time()
+        self.ended = None
+
+
+async def client(index, users, state, stop):
+    partition = index % 2
+    i = index // 2
+    while not stop.is_set():
+        user_id = users[partition][i % len(users[partition])]
+        i += IN_FLIGHT
+        phase = state["phase"]
+        started = time.perf_counter()
+        try:
+            status, data = await asyncio.wait_for(
+                request("POST", "/orders", {"user_id": user_id, "items": [{"product_id": 101, "quantity": 1}]}), 120)
+        except (asyncio.TimeoutError, OSError):
+            status, data = 0, b""
+        elapsed = time.perf_counter() - started
+        phase.statuses[partition].setdefault(status, []).append(elapsed)
+        if status != 201:
+            continue
+        if phase.first_placed[partition] is None:
+            phase.first_placed[partition] = time.time()
+        await request("DELETE", f"/orders/{json.loads(data)['order_id']}")
+        phase.cycles[partition] += 1
+
+
+def dependency_states():
+    try:
+        with urllib.request.urlopen(f"http://{HOST}:{MARKETPLACE_PORT}/metrics/dependencies", timeout=5) as response:
+            metrics = json.loads(response.read())
+        return ", ".join(f"{name} {m['state']} (opened {m['opened']}, rejected {m['rejected_open']})"
+                         for name, m in metrics.items() if name.startswith("wallet"))
+    except Exception:
+        return "no breakers"
+
+
+def report(phase):
+    duration = (phase.ended or time.time()) - phase.started
+    print(f"{phase.name}:")
+    for partition in (0, 1):
+        statuses = ", ".join(
+            f"{status or 'no answer'} x{len(latencies)} (p50 {sorted(latencies)[len(latencies) // 2] * 1000:.0f} ms)"
+            for status, latencies in sorted(phase.statuses[partition].items()))
+        print(f"  partition {partition} users: {phase.cycles[partition] / duration:.1f} cycles/s; {statuses or 'no responses'}")
+    print(f"  breakers: {dependency_states()}")
+
+
+async def main():
+    users = setup()
+    stalled_pid = wallet_pid(WALLET_PORTS[1])
+    stop = asyncio.Event()
+    state = {"phase": Phase("warm-up")}
+    tasks = [asyncio.create_task(client(i, users, state, stop)) for i in range(IN_FLIGHT)]
+    await asyncio.sleep(SECONDS)
+    state["phase"] = Phase("healthy")
+    await asyncio.sleep(SECONDS)
+    state["phase"].ended = time.time()
+    report(state["phase"])
+
+    os.kill(stalled_pid, signal.SIGSTOP)
+    state["phase"] = Phase("stalled (partition 1 frozen)")
+    try:
+        await asyncio.sleep(SECONDS)
+        state["phase"].ended = time.time()
+        report(state["phase"])
+    finally:
+        os.kill(stalled_pid, signal.SIGCONT)
+
+    resumed = Phase("resumed")
+    state["phase"] = resumed
+    await asyncio.sleep(SECONDS)
+    resumed.ended = time.time()
+    report(resumed)
+    if resumed.first_placed[1]:
+        print(f"  first partition-1 order placed {resumed.first_placed[1] - resumed.started:.1f} s after SIGCONT")
+    else:
+        print("  no partition-1 order placed after SIGCONT")
+    stop.set()
+    await asyncio.wait(tasks, timeout=150)
+
+
+if __name__ == "__main__":
+    asyncio.run(main())
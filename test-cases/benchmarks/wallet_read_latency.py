@@ -0,0 +1,85 @@
+"""
+Read latency of GET /wallets/{user_id} while a debit storm runs on the same wallet.
+
+Writer threads debit and credit one wallet through PUT /wallets/{user_id}; reader
+threads GET the same wallet and record each request's latency. Prints the latency
+percentiles of the reads and the write throughput achieved meanwhile.
+
+Usage: python3 wallet_read_latency.py [writers] [readers] [seconds] [wallet_url]
+Only uses the standard library.
+"""
+import json
+import sys
+import threading
+import time
+import urllib.error
+import urllib.request
+
+WRITERS = int(sys.argv[1]) if len(sys.argv) > 1 else 32
+READERS = int(sys.argv[2]) if len(sys.argv) > 2 else 4
+SECONDS = float(sys.argv[3]) if len(sys.argv) > 3 else 10
+WALLET_SERVICE_URL = sys.argv[4] if len(sys.argv) > 4 else "http://localhost:8082"
+USER_ID = 434343
+
+
+def put_wallet(user_id, action, amount):
+    body = json.dumps({"action": action, "amount": amount}).encode()
+    request = urllib.request.Request(f"{WALLET_SERVICE_URL}/wallets/{user_id}", data=body, method="PUT",
+                                     headers={"Content-Type": "application/json"})
+    try:
+        with urllib.request.urlopen(request) as response:
+            return response.status
+    except urllib.error.HTTPError as e:
+        return e.code
+
+
+def writer(index, deadline, writes):
+    count = 0
+    i = 0
+    while time.time() < deadline:
+        action = "debit" if (index + i) % 2 == 0 else "credit"
+        if put_wallet(USER_ID, action, 1) == 200:
+            count += 1
+        i += 1
+    writes[index] = count
+
+
+def reader(index, deadline, latencies):
+    samples = []
+    while time.time() < deadline:
+        start = time.perf_counter()
+        with urllib.request.urlopen(f"{WALLET_SERVICE_URL}/wallets/{USER_ID}") as response:
+            response.read()
+        samples.append((time.perf_counter() - start) * 1000)
+    latencies[index] = samples
+
+
+def percentile(sorted_samples, p):
+    return sorted_samples[min(len(sorted_samples) - 1, int(len(sorted_samples) * p / 100))]
+
+
+def main():
+    put_wallet(USER_ID, "credit", 1_000_000)
+
+    writes = [0] * WRITERS
+    latencies = [None] * READERS
+    deadline = time.time() + SECONDS
+    threads = [threading.Thread(target=writer, args=(i, deadline, writes)) for i in range(WRITERS)]
+    threads += [threading.Thread(target=reader, args=(i, deadline, latencies)) for i in range(READERS)]
+    start = time.time()
+    for t in threads:
+        t.start()
+    for t in threads:
+        t.join()
+    elapsed = time.time() - start
+
+    samples = sorted(s for r in latencies for s in r)
+    print(f"writers={WRITERS} readers={READERS} duration={elapsed:.1f}s")
+    print(f"writes: {sum(writes) / elapsed:.0f} ops/sec")
+    print(f"reads:  {len(samples)} requests, latency ms "
+          f"p50={percentile(samples, 50):.1f} p90={percentile(samples, 90):.1f} "
+          f"p99={percentile(samples, 99):.1f} max={samples[-1]:.1f}")
+
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,163 @@
+"""
+Calls per second and wallet-service CPU per call: binary RPC port vs REST.
+
+Keeps IN_FLIGHT balance updates (alternating credit/debit of 1 over 100 wallets) running
+for SECONDS through each path in turn:
+  rest - PUT /wallets/{user_id} with a JSON body, one keep-alive HTTP/1.1 connection per
+         in-flight call (HTTP/1.1 cannot multiplex)
+  rpc  - UPDATE_BALANCE frames on wallet.rpc.port, all calls multiplexed over CONNECTIONS
+         sockets, as the marketplace's WalletRpcClient does
+CPU per call is the wallet-service process's user+system time (from /proc) divided by the
+calls completed, so the script must run on the same host as wallet-service.
+
+Usage: python3 wallet_rpc_vs_rest.py [in_flight] [seconds] [connections] [rest_port] [rpc_port]
+Only uses the standard library.
+"""
+import asyncio
+import json
+import os
+import struct
+import sys
+import time
+
+IN_FLIGHT = int(sys.argv[1]) if len(sys.argv) > 1 else 64
+SECONDS = float(sys.argv[2]) if len(sys.argv) > 2 else 15
+CONNECTIONS = int(sys.argv[3]) if len(sys.argv) > 3 else 4
+REST_PORT = int(sys.argv[4]) if len(sys.argv) > 4 else 8082
+RPC_PORT = int(sys.argv[5]) if len(sys.argv) > 5 else 9082
+HOST = "localhost"
+WALLETS = 100
+FIRST_USER_ID = 616000
+UPDATE_BALANCE = 1
+
+
+def wallet_service_pid():
+    for pid in os.listdir("/proc"):
+        if pid.isdigit():
+            try:
+                with open(f"/proc/{pid}/cmdline", "rb") as f:
+                    if b"wallet-service" in f.read():
+                        return int(pid)
+            except OSError:
+                pass
+    raise SystemExit("wallet-service process not found")
+
+
+def cpu_seconds(pid):
+    with open(f"/proc/{pid}/stat") as f:
+        fields = f.read().rsplit(")", 1)[1].split()
+    return (int(fields[11]) + int(fields[12])) / os.sysconf("SC_CLK_TCK")
+
+
+async def read_http_response(reader):
+    status_line = await reader.readline()
+    if not status_line:
+        return None
+    status = int(status_line.split()[1])
+    headers = {}
+    while True:
+        line = await reader.readline()
+        if line in (b"\r\n", b""):
+            break
+        name, _, value = line.decode().partition(":")
+        headers[name.strip().lower()] = value.strip()
+    if "content-length" in headers:
+        await reader.readexactly(int(headers["content-length"]))
+    elif headers.get("transfer-encoding") == "chunked":
+        while True:
+            size = int((await reader.readline()).strip(), 16)
+            await reader.readexactly(size + 2)
+            if size == 0:
+                break
+    if headers.get("connection") == "close":
+        return -status
+    return status
+
+
+async def rest_caller(index, stop, counts):
+    reader, writer = await asyncio.open_connection(HOST, REST_PORT)
+    i = 0
+    while not stop.is_set():
+        user_id = FIRST_USER_ID + (index + i) % WALLETS
+        body = json.dumps({"action": "credit" if i % 2 == 0 else "debit", "amount": 1}).encode()
+        writer.write((f"PUT /wallets/{user_id} HTTP/1.1\r\nHost: {HOST}\r\nContent-Type: application/json\r\n"
+                      f"Content-Length: {len(body)}\r\n\r\n").encode() + body)
+        await writer.drain()
+        status = await read_http_response(reader)
+        if status is None or status < 0:
+            # The server ended the keep-alive connection (Tomcat does after 100 requests): reopen it
+            writer.close()
+            reader, writer = await asyncio.open_connection(HOST, REST_PORT)
+            if status is None:
+                continue
+            status = -status
+        counts["ok" if status in (200, 400) else "failed"] += 1
+        i += 1
+    writer.close()
+
+
+class RpcConnection:
+    def __init__(self, reader, writer):
+        self.reader = reader
+        self.writer = writer
+        self.pending = {}
+        self.task = asyncio.create_task(self.read_loop())
+
+    async def read_loop(self):
+        while True:
+            length, request_id, status = struct.unpack(">iih", await self.reader.readexactly(10))
+            await self.reader.readexactly(length - 6)
+            self.pending.pop(request_id).set_result(status)
+
+    async def call(self, request_id, user_id, delta):
+        future = asyncio.get_running_loop().create_future()
+        self.pending[request_id] = future
+        self.writer.write(struct.pack(">iibii", 13, request_id, UPDATE_BALANCE, user_id, delta))
+        return await future
+
+
+async def rpc_caller(index, connections, stop, counts, ids):
+    i = 0
+    while not stop.is_set():
+        ids[0] += 1
+        user_id = FIRST_USER_ID + (index + i) % WALLETS
+        status = await connections[ids[0] % len(connections)].call(ids[0], user_id, 1 if i % 2 == 0 else -1)
+        counts["ok" if status in (200, 400) else "failed"] += 1
+        i += 1
+
+
+async def run(mode, pid):
+    counts = {"ok": 0, "failed": 0}
+    stop = asyncio.Event()
+    connections = []
+    if mode == "rpc":
+        for _ in range(CONNECTIONS):
+            connections.append(RpcConnection(*await asyncio.open_connection(HOST, RPC_PORT)))
+        ids = [0]
+        tasks = [asyncio.create_task(rpc_caller(i, connections, stop, counts, ids)) for i in range(IN_FLIGHT)]
+    else:
+        tasks = [asyncio.create_task(rest_caller(i, stop, counts)) for i in range(IN_FLIGHT)]
+    cpu_before = cpu_seconds(pid)
+    started = time.time()
+    await asyncio.sleep(SECONDS)
+    stop.set()
+    await asyncio.wait(tasks, timeout=10)
+    elapsed = time.time() - started
+    cpu_used = cpu_seconds(pid) - cpu_before
+    for connection in connections:
+        connection.task.cancel()
+        connection.writer.close()
+    calls = counts["ok"]
+    print(f"{mode:4}  {calls / elapsed:8.0f} calls/s  {cpu_used * 1e6 / max(calls, 1):8.0f} us CPU/call  "
+          f"(calls {calls}, failed {counts['failed']}, wallet-service CPU {cpu_used:.1f}s)")
+
+
+async def main():
+    pid = wallet_service_pid()
+    print(f"in flight: {IN_FLIGHT}  seconds: {SECONDS}  rpc connections: {CONNECTIONS}  wallet-service pid: {pid}")
+    for mode in ("rest", "rpc"):
+        await run(mode, pid)
+
+
+if __name__ == "__main__":
+    asyncio.run(main())
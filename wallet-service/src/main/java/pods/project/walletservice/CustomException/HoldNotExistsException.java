@@ -0,0 +1,12 @@
+package pods.project.walletservice.CustomException;
+
+public class HoldNotExistsException extends RuntimeException {
+
+    public HoldNotExistsException(String message) {
+        super(message);
+    }
+
+    public HoldNotExistsException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
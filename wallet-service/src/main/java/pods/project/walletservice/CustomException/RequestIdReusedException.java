@@ -0,0 +1,12 @@
+package pods.project.walletservice.CustomException;
+
+public class RequestIdReusedException extends RuntimeException {
+
+    public RequestIdReusedException(String message) {
+        super(message);
+    }
+
+    public RequestIdReusedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,12 @@
+package pods.project.walletservice.CustomException;
+
+public class WrongPartitionException extends RuntimeException {
+
+    public WrongPartitionException(String message) {
+        super(message);
+    }
+
+    public WrongPartitionException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
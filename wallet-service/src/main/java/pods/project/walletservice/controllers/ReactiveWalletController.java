@@ -0,0 +1,154 @@
+package pods.project.walletservice.controllers;
+
+import pods.project.walletservice.entities.WalletChangePage;
+import pods.project.walletservice.services.ReactiveWalletService;
+import pods.project.walletservice.services.WalletChangeFeed;
+import pods.project.walletservice.CustomException.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.*;
+
+// WalletController for the reactive stack (spring.main.web-application-type=reactive):
+// same endpoints, status codes and messages, served by WebFlux on Netty.
+@RestController
+@RequestMapping("/wallets")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveWalletController {
+
+	// 421: the user's wallet is owned by another wallet-service partition
+	private static final HttpStatusCode MISDIRECTED_REQUEST = HttpStatusCode.valueOf(421);
+
+	@Autowired
+    private ReactiveWalletService walletService;
+
+	@Autowired
+	private WalletChangeFeed walletChangeFeed;
+
+
+	// GET /wallets/changes?cursor=&limit=&wait_ms= - Balance changes after the cursor, as in WalletController
+    @GetMapping("/changes")
+    public Mono<ResponseEntity<Object>> getChanges(@RequestParam(required = false) String cursor,
+			@RequestParam(defaultValue = "500") int limit, @RequestParam(name = "wait_ms", defaultValue = "0") long waitMillis) {
+        return Mono.fromFuture(() -> walletChangeFeed.poll(cursor, limit, waitMillis))
+			.map(page -> new ResponseEntity<Object>(page, HttpStatus.OK))
+			.onErrorResume(ex -> Mono.just(new ResponseEntity<>("Error in reading wallet changes::" + ex.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR)));
+    }
+
+	// GET /wallets/changes/stream?cursor= - The feed as server-sent events, as in WalletController
+    @GetMapping(path = "/changes/stream", produces = "text/event-stream")
+    public Flux<ServerSentEvent<Object>> streamChanges(@RequestParam(required = false) String cursor,
+			@RequestHeader(name = "Last-Event-ID", required = false) String lastEventId) {
+		return poll(lastEventId != null ? lastEventId : cursor)
+			.expand(page -> poll(page.getNextCursor()))
+			.concatMapIterable(this::toEvents);
+    }
+
+	private Mono<WalletChangePage> poll(String cursor) {
+		return Mono.fromFuture(() -> walletChangeFeed.poll(cursor, 500, Long.MAX_VALUE));
+	}
+
+	private List<ServerSentEvent<Object>> toEvents(WalletChangePage page) {
+		List<ServerSentEvent<Object>> events = new ArrayList<>();
+		if (page.isReset()) {
+			events.add(ServerSentEvent.<Object>builder(page).event("reset").id(page.getNextCursor()).build());
+		}
+		String feed = page.getNextCursor().substring(0, page.getNextCursor().indexOf('.') + 1);
+		page.getChanges().forEach(change -> events.add(ServerSentEvent.<Object>builder(change).event("change").id(feed + change.getSeq()).build()));
+		if (!page.isReset() && page.getChanges().isEmpty()) {
+			events.add(ServerSentEvent.<Object>builder().comment("idle").build());
+		}
+		return events;
+	}
+
+	// GET /wallets/{userId} - Retrieve wallet by userId
+    @GetMapping("/{userId}")
+    public Mono<ResponseEntity<Object>> getUserById(@PathVariable int userId) {
+        return walletService.getByUserId(userId)
+			.map(wallet -> new ResponseEntity<Object>(wallet, HttpStatus.OK))
+			.onErrorResume(WalletNotExistsException.class, ex -> Mono.just(new ResponseEntity<>(ex.getMessage(), HttpStatus.NOT_FOUND)))
+			.onErrorResume(WrongPartitionException.class, ex -> Mono.just(new ResponseEntity<>(ex.getMessage(), MISDIRECTED_REQUEST)))
+			.onErrorResume(ex -> Mono.just(new ResponseEntity<>("Error in getting wallet detail::" + ex.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR)));
+    }
+
+	// PUT /wallets/{userId} - Update the wallet balance if it exists else create a new wallet with zero balance
+	// (with an Idempotency-Key header, a repeat of an update already applied returns its result)
+    @PutMapping("/{userId}")
+    public Mono<ResponseEntity<Object>> updateWalletBalance(@PathVariable Integer userId, @RequestBody Map<String, String> walletDetails,
+															@RequestHeader(value = "Idempotency-Key", required = false) String requestId) {
+        return walletService.updateWalletBalance(userId, walletDetails, requestId)
+			.map(wallet -> new ResponseEntity<Object>(wallet, HttpStatus.OK))
+			.onErrorResume(InsufficientBalanceException.class, ex -> Mono.just(new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST)))
+			.onErrorResume(RequestIdReusedException.class, ex -> Mono.just(new ResponseEntity<>(ex.getMessage(), HttpStatus.UNPROCESSABLE_ENTITY)))
+			.onErrorResume(BadRequestException.class, ex -> Mono.just(new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST)))
+			.onErrorResume(WrongPartitionException.class, ex -> Mono.just(new ResponseEntity<>(ex.getMessage(), MISDIRECTED_REQUEST)))
+			.onErrorResume(ex -> Mono.just(new ResponseEntity<>("Error in updating wallet detail::" + ex.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR)));
+    }
+
+	// POST /wallets/batch - Apply a list of {user_id, action, amount} credits/debits, returning one result per entry
+    @PostMapping("/batch")
+    public Mono<ResponseEntity<Object>> applyBatch(@RequestBody List<Map<String, String>> entries) {
+        return walletService.applyBatch(entries)
+			.map(results -> new ResponseEntity<Object>(results, HttpStatus.OK))
+			.onErrorResume(BadRequestException.class, ex -> Mono.just(new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST)))
+			.onErrorResume(ex -> Mono.just(new ResponseEntity<>("Error in applying wallet batch::" + ex.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR)));
+    }
+
+	// POST /wallets/{userId}/holds - Reserve funds until they are captured, released or the hold expires
+    @PostMapping("/{userId}/holds")
+    public Mono<ResponseEntity<Object>> placeHold(@PathVariable int userId, @RequestBody Map<String, String> holdDetails) {
+        return walletService.placeHold(userId, holdDetails)
+			.map(hold -> new ResponseEntity<Object>(hold, HttpStatus.CREATED))
+			.onErrorResume(InsufficientBalanceException.class, ex -> Mono.just(new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST)))
+			.onErrorResume(BadRequestException.class, ex -> Mono.just(new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST)))
+			.onErrorResume(WrongPartitionException.class, ex -> Mono.just(new ResponseEntity<>(ex.getMessage(), MISDIRECTED_REQUEST)))
+			.onErrorResume(ex -> Mono.just(new ResponseEntity<>("Error in placing hold::" + ex.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR)));
+    }
+
+	// POST /wallets/holds/{holdId}/capture - Debit the held funds
+    @PostMapping("/holds/{holdId}/capture")
+    public Mono<ResponseEntity<Object>> captureHold(@PathVariable String holdId) {
+        return walletService.captureHold(holdId)
+			.map(wallet -> new ResponseEntity<Object>(wallet, HttpStatus.OK))
+			.onErrorResume(HoldNotExistsException.class, ex -> Mono.just(new ResponseEntity<>(ex.getMessage(), HttpStatus.NOT_FOUND)))
+			.onErrorResume(InsufficientBalanceException.class, ex -> Mono.just(new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST)))
+			.onErrorResume(ex -> Mono.just(new ResponseEntity<>("Error in capturing hold::" + ex.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR)));
+    }
+
+	// POST /wallets/holds/{holdId}/release - Give the held funds back without touching the balance
+    @PostMapping("/holds/{holdId}/release")
+    public Mono<ResponseEntity<Object>> releaseHold(@PathVariable String holdId) {
+        return walletService.releaseHold(holdId)
+			.then(Mono.just(new ResponseEntity<Object>("Hold released successfully", HttpStatus.OK)))
+			.onErrorResume(HoldNotExistsException.class, ex -> Mono.just(new ResponseEntity<>(ex.getMessage(), HttpStatus.NOT_FOUND)))
+			.onErrorResume(ex -> Mono.just(new ResponseEntity<>("Error in releasing hold::" + ex.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR)));
+    }
+
+    // DELETE /wallets/{userId} - Delete the wallet associated with the userId
+	@DeleteMapping("/{userId}")
+	public Mono<ResponseEntity<Object>> deleteUser(@PathVariable int userId) {
+		return walletService.deleteWallet(userId)
+			.then(Mono.just(new ResponseEntity<Object>("Wallet deleted successfully", HttpStatus.OK)))
+			.onErrorResume(WalletNotExistsException.class, ex -> Mono.just(new ResponseEntity<>(ex.getMessage(), HttpStatus.NOT_FOUND)))
+			.onErrorResume(WrongPartitionException.class, ex -> Mono.just(new ResponseEntity<>(ex.getMessage(), MISDIRECTED_REQUEST)))
+			.onErrorResume(ex -> Mono.just(new ResponseEntity<>("Error in deleting wallet::" + ex.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR)));
+	}
+
+
+    // DELETE /wallets - Delete all wallets in Wallet services
+    @DeleteMapping("")
+    public Mono<ResponseEntity<Object>> deleteAllWallets() {
+		return walletService.deleteAllWallets()
+			.then(Mono.just(new ResponseEntity<Object>("All Wallets deleted successfully", HttpStatus.OK)))
+			.onErrorResume(ex -> Mono.just(new ResponseEntity<>("Error in deleting all wallets::" + ex.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR)));
+    }
+
+
+}
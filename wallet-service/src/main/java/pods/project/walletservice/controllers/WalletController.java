@@ -1,10 +1,16 @@
 package pods.project.walletservice.controllers;
 
+import pods.project.walletservice.entities.Hold;
 import pods.project.walletservice.entities.Wallet;
+import pods.project.walletservice.entities.WalletBatchResult;
+import pods.project.walletservice.entities.WalletChange;
+import pods.project.walletservice.entities.WalletChangePage;
+import pods.project.walletservice.services.WalletChangeFeed;
 import pods.project.walletservice.services.WalletService;
 import pods.project.walletservice.CustomException.*;
 import org.springframework.http.ResponseEntity;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -12,22 +18,75 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import java.net.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import org.springframework.transaction.annotation.Transactional;
 
 @RestController
 @RequestMapping("/wallets")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class WalletController {
 	
+	// 421: the user's wallet is owned by another wallet-service partition
+	private static final HttpStatusCode MISDIRECTED_REQUEST = HttpStatusCode.valueOf(421);
+
 	@Autowired
     private WalletService walletService;
 
+	@Autowired
+	private WalletChangeFeed walletChangeFeed;
+
+
+	// GET /wallets/changes?cursor=&limit=&wait_ms= - Balance changes after the cursor (no cursor: a reset page
+	// with the current one); with wait_ms, waits up to that long for a change when there is none yet
+    @GetMapping("/changes")
+    public CompletableFuture<ResponseEntity<Object>> getChanges(@RequestParam(required = false) String cursor,
+			@RequestParam(defaultValue = "500") int limit, @RequestParam(name = "wait_ms", defaultValue = "0") long waitMillis) {
+        return walletChangeFeed.poll(cursor, limit, waitMillis)
+			.thenApply(page -> new ResponseEntity<Object>(page, HttpStatus.OK))
+			.exceptionally(e -> new ResponseEntity<>("Error in reading wallet changes::" + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR));
+    }
+
+	// GET /wallets/changes/stream?cursor= - The same feed as server-sent events: a "reset" event (data: the page),
+	// then one "change" event per change; each event id is the cursor after it, so a reconnect resumes with Last-Event-ID
+    @GetMapping(path = "/changes/stream", produces = "text/event-stream")
+    public SseEmitter streamChanges(@RequestParam(required = false) String cursor,
+			@RequestHeader(name = "Last-Event-ID", required = false) String lastEventId) {
+		SseEmitter emitter = new SseEmitter(0L);
+		pushChanges(emitter, lastEventId != null ? lastEventId : cursor);
+		return emitter;
+    }
+
+	// Sends the next page of changes and waits for the one after it; an idle feed gets a comment now and then,
+	// which is also how a closed stream is noticed
+	private void pushChanges(SseEmitter emitter, String cursor) {
+		walletChangeFeed.poll(cursor, 500, Long.MAX_VALUE).thenAcceptAsync(page -> {
+			try {
+				if (page.isReset()) {
+					emitter.send(SseEmitter.event().name("reset").id(page.getNextCursor()).data(page));
+				}
+				String feed = page.getNextCursor().substring(0, page.getNextCursor().indexOf('.') + 1);
+				for (WalletChange change : page.getChanges()) {
+					emitter.send(SseEmitter.event().name("change").id(feed + change.getSeq()).data(change));
+				}
+				if (!page.isReset() && page.getChanges().isEmpty()) {
+					emitter.send(SseEmitter.event().comment("idle"));
+				}
+				pushChanges(emitter, page.getNextCursor());
+			}
+			catch (Exception e) {
+				emitter.completeWithError(e);
+			}
+		}, walletChangeFeed.delivery());
+	}
 
 	// GET /wallets/{userId} - Retrieve wallet by userId
     @GetMapping("/{userId}")
-	@Transactional
+	@Transactional(readOnly = true)
     public ResponseEntity<Object> getUserById(@PathVariable int userId) {
         try{
 			Wallet wallet = walletService.getByUserId(userId);
@@ -36,29 +95,109 @@ public class WalletController {
 		catch(WalletNotExistsException ex){
 			return new ResponseEntity<>(ex.getMessage(), HttpStatus.NOT_FOUND);
 		}
+		catch(WrongPartitionException ex){
+			return new ResponseEntity<>(ex.getMessage(), MISDIRECTED_REQUEST);
+		}
 		catch(Exception e){
 			return new ResponseEntity<>("Error in getting wallet detail::" + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
 		}
     }
 
 	// PUT /wallets/{userId} - Update the wallet balance if it exists else create a new wallet with zero balance
+	// (with an Idempotency-Key header, a repeat of an update already applied returns its result)
     @PutMapping("/{userId}")
-    public ResponseEntity<Object> updateWalletBalance(@PathVariable Integer userId, @RequestBody Map<String, String> walletDetails) {
+    public ResponseEntity<Object> updateWalletBalance(@PathVariable Integer userId, @RequestBody Map<String, String> walletDetails,
+													  @RequestHeader(value = "Idempotency-Key", required = false) String requestId) {
         try{
-			Wallet wallet = walletService.updateWalletBalance(userId, walletDetails);
+			Wallet wallet = walletService.updateWalletBalance(userId, walletDetails, requestId);
 			return new ResponseEntity<>(wallet, HttpStatus.OK);
 		}
 		catch(InsufficientBalanceException ex){
 			return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
 		}
+		catch(RequestIdReusedException ex){
+			return new ResponseEntity<>(ex.getMessage(), HttpStatus.UNPROCESSABLE_ENTITY);
+		}
 		catch(BadRequestException ex){
 			return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
 		}
+		catch(WrongPartitionException ex){
+			return new ResponseEntity<>(ex.getMessage(), MISDIRECTED_REQUEST);
+		}
 		catch(Exception e){
 			return new ResponseEntity<>("Error in updating wallet detail::" + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
 		}
     }
 
+	// POST /wallets/batch - Apply a list of {user_id, action, amount} credits/debits, returning one result per entry
+    @PostMapping("/batch")
+    public ResponseEntity<Object> applyBatch(@RequestBody List<Map<String, String>> entries) {
+        try{
+			List<WalletBatchResult> results = walletService.applyBatch(entries);
+			return new ResponseEntity<>(results, HttpStatus.OK);
+		}
+		catch(BadRequestException ex){
+			return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+		}
+		catch(Exception e){
+			return new ResponseEntity<>("Error in applying wallet batch::" + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+		}
+    }
+
+	// POST /wallets/{userId}/holds - Reserve funds until they are captured, released or the hold expires
+    @PostMapping("/{userId}/holds")
+    public ResponseEntity<Object> placeHold(@PathVariable int userId, @RequestBody Map<String, String> holdDetails) {
+        try{
+			Hold hold = walletService.placeHold(userId, holdDetails);
+			return new ResponseEntity<>(hold, HttpStatus.CREATED);
+		}
+		catch(InsufficientBalanceException ex){
+			return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+		}
+		catch(BadRequestException ex){
+			return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+		}
+		catch(WrongPartitionException ex){
+			return new ResponseEntity<>(ex.getMessage(), MISDIRECTED_REQUEST);
+		}
+		catch(Exception e){
+			return new ResponseEntity<>("Error in placing hold::" + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+		}
+    }
+
+	// POST /wallets/holds/{holdId}/capture - Debit the held funds
+    @PostMapping("/holds/{holdId}/capture")
+    public ResponseEntity<Object> captureHold(@PathVariable String holdId) {
+        try{
+			Wallet wallet = walletService.captureHold(holdId);
+			return new ResponseEntity<>(wallet, HttpStatus.OK);
+		}
+		catch(HoldNotExistsException ex){
+			return new ResponseEntity<>(ex.getMessage(), HttpStatus.NOT_FOUND);
+		}
+		catch(InsufficientBalanceException ex){
+			return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+		}
+		catch(Exception e){
+			return new ResponseEntity<>("Error in capturing hold::" + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+		}
+    }
+
+	// POST /wallets/holds/{holdId}/release - Give the held funds back without touching the balance
+    @PostMapping("/holds/{holdId}/release")
+    public ResponseEntity<Object> releaseHold(@PathVariable String holdId) {
+        try{
+			walletService.releaseHold(holdId);
+			return new ResponseEntity<>("Hold released successfully", HttpStatus.OK);
+		}
+		catch(HoldNotExistsException ex){
+			return new ResponseEntity<>(ex.getMessage(), HttpStatus.NOT_FOUND);
+		}
+		catch(Exception e){
+			return new ResponseEntity<>("Error in releasing hold::" + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+		}
+    }
+
     // DELETE /wallets/{userId} - Delete the wallet associated with the userId
 	@DeleteMapping("/{userId}")
 	public ResponseEntity<Object> deleteUser(@PathVariable int userId) {
@@ -71,6 +210,9 @@ public class WalletController {
 			// Handle specific exception related to wallet not found
 			return new ResponseEntity<>(ex.getMessage(), HttpStatus.NOT_FOUND);
 		}
+		catch(WrongPartitionException ex){
+			return new ResponseEntity<>(ex.getMessage(), MISDIRECTED_REQUEST);
+		}
 		catch (Exception e) {
 			// Catch any other generic exceptions
 			return new ResponseEntity<>("Error in deleting wallet::" + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
@@ -0,0 +1,214 @@
+package pods.project.walletservice.controllers;
+
+import pods.project.walletservice.entities.Hold;
+import pods.project.walletservice.entities.Wallet;
+import pods.project.walletservice.services.WalletService;
+import pods.project.walletservice.CustomException.*;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Binary RPC port for the marketplace's per-order wallet calls, next to the REST API.
+//
+// A call is a length-prefixed frame; the request id lets a client keep many calls in
+// flight on one connection and match the responses, which come back in completion order.
+// Each call runs the same WalletService method as the REST endpoint and answers with the
+// HTTP status that endpoint would use.
+//
+// Request:  length:int requestId:int op:byte payload
+// Response: length:int requestId:int status:short body
+//
+//   op                   payload                          body on success
+//   UPDATE_BALANCE       userId:int delta:int             balance:int
+//   UPDATE_BALANCE_ONCE  userId:int delta:int key:utf     balance:int
+//   PLACE_HOLD           userId:int amount:int            holdId:utf
+//   CAPTURE_HOLD         holdId:utf                       balance:int
+//   RELEASE_HOLD         holdId:utf                       (empty)
+//
+// (length counts the bytes after itself; error bodies are the message as utf. The key of
+// UPDATE_BALANCE_ONCE is the update's own request id, see WalletRequestLog: a call sent again
+// with it returns the first call's balance without applying the delta twice.)
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnExpression("${wallet.rpc.port:9082} > 0")
+public class WalletRpcEndpoint {
+
+    public static final byte UPDATE_BALANCE = 1;
+    public static final byte PLACE_HOLD = 2;
+    public static final byte CAPTURE_HOLD = 3;
+    public static final byte RELEASE_HOLD = 4;
+    public static final byte UPDATE_BALANCE_ONCE = 5;
+
+    private static final int MAX_FRAME_BYTES = 1 << 16;
+
+    private static final Logger log = LoggerFactory.getLogger(WalletRpcEndpoint.class);
+
+    @Autowired
+    private WalletService walletService;
+
+    @Value("${wallet.rpc.port:9082}")
+    private int port;
+
+    @Value("${wallet.rpc.threads:64}")
+    private int threads;
+
+    private ServerSocket serverSocket;
+    private ExecutorService workers;
+    private final AtomicInteger connectionCount = new AtomicInteger();
+
+    @PostConstruct
+    public void start() throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(port));
+        AtomicInteger workerCount = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "wallet-rpc-" + workerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Thread acceptor = new Thread(this::acceptLoop, "wallet-rpc-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("Wallet RPC listening on port {}", port);
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        serverSocket.close();
+        workers.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Thread reader = new Thread(() -> serve(socket), "wallet-rpc-conn-" + connectionCount.incrementAndGet());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    log.warn("Wallet RPC accept failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Reads frames off one connection and hands each call to the worker pool
+    private void serve(Socket socket) {
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            while (true) {
+                int length = in.readInt();
+                if (length < 5 || length > MAX_FRAME_BYTES) {
+                    throw new IOException("Invalid frame length " + length);
+                }
+                byte[] frame = new byte[length];
+                in.readFully(frame);
+                workers.execute(() -> respond(out, frame));
+            }
+        } catch (EOFException | SocketException e) {
+            // Client went away
+        } catch (IOException e) {
+            log.warn("Wallet RPC connection closed: {}", e.getMessage());
+        }
+    }
+
+    private void respond(DataOutputStream out, byte[] frame) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(16);
+        DataOutputStream bodyOut = new DataOutputStream(body);
+        int requestId = 0;
+        int status;
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+            requestId = in.readInt();
+            status = call(in.readByte(), in, bodyOut);
+        } catch (Exception e) {
+            body.reset();
+            status = errorStatus(e);
+            try {
+                bodyOut.writeUTF(String.valueOf(e.getMessage()));
+            } catch (IOException ignored) {
+                // ByteArrayOutputStream does not throw
+            }
+        }
+        synchronized (out) {
+            try {
+                out.writeInt(6 + body.size());
+                out.writeInt(requestId);
+                out.writeShort(status);
+                body.writeTo(out);
+                out.flush();
+            } catch (IOException e) {
+                // The connection is gone; its reader thread closes it
+            }
+        }
+    }
+
+    private int call(byte op, DataInputStream in, DataOutputStream body) throws IOException {
+        switch (op) {
+            case UPDATE_BALANCE:
+            case UPDATE_BALANCE_ONCE: {
+                int userId = in.readInt();
+                int delta = in.readInt();
+                String key = op == UPDATE_BALANCE_ONCE ? in.readUTF() : null;
+                Wallet wallet = walletService.updateWalletBalance(userId, Map.of(
+                    "action", delta >= 0 ? "credit" : "debit", "amount", String.valueOf(Math.abs((long) delta))), key);
+                body.writeInt(wallet.getBalance());
+                return 200;
+            }
+            case PLACE_HOLD: {
+                int userId = in.readInt();
+                int amount = in.readInt();
+                Hold hold = walletService.placeHold(userId, Map.of("amount", String.valueOf(amount)));
+                body.writeUTF(hold.getHoldId());
+                return 201;
+            }
+            case CAPTURE_HOLD: {
+                Wallet wallet = walletService.captureHold(in.readUTF());
+                body.writeInt(wallet.getBalance());
+                return 200;
+            }
+            case RELEASE_HOLD: {
+                walletService.releaseHold(in.readUTF());
+                return 200;
+            }
+            default:
+                throw new BadRequestException("Unknown operation " + op);
+        }
+    }
+
+    // Same status as the REST endpoint for the exception
+    private int errorStatus(Exception e) {
+        if (e instanceof InsufficientBalanceException || e instanceof BadRequestException || e instanceof EOFException) {
+            return 400;
+        }
+        if (e instanceof WalletNotExistsException || e instanceof HoldNotExistsException) {
+            return 404;
+        }
+        if (e instanceof WrongPartitionException) {
+            return 421;
+        }
+        if (e instanceof RequestIdReusedException) {
+            return 422;
+        }
+        return 500;
+    }
+}
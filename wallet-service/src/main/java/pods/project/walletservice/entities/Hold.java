@@ -0,0 +1,38 @@
+package pods.project.walletservice.entities;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+// Funds reserved on a wallet until they are captured, released or the hold expires.
+// Holds are kept in memory by WalletHolds, not in the database.
+public class Hold {
+    String hold_id;
+    Integer user_id;
+    Integer amount;
+    Long expires_at;
+
+    public Hold(String hold_id, Integer user_id, Integer amount, Long expires_at) {
+        this.hold_id = hold_id;
+        this.user_id = user_id;
+        this.amount = amount;
+        this.expires_at = expires_at;
+    }
+
+    @JsonProperty("hold_id")
+    public String getHoldId() {
+        return hold_id;
+    }
+
+    @JsonProperty("user_id")
+    public Integer getUserId() {
+        return user_id;
+    }
+
+    public Integer getAmount() {
+        return amount;
+    }
+
+    // Epoch milliseconds after which the hold is released automatically
+    @JsonProperty("expires_at")
+    public Long getExpiresAt() {
+        return expires_at;
+    }
+}
@@ -14,6 +14,11 @@ public class Wallet {
     @Column(name = "balance", nullable = false)
     Integer balance;
 
+    // Bumped by every balance change, so a JPA write of a stale Wallet fails instead of overwriting it
+    @Version
+    @Column(name = "version", columnDefinition = "bigint default 0 not null")
+    Long version;
+
     // Getter for user_id
     @JsonProperty("user_id")
     public Integer getUserId() {
@@ -0,0 +1,59 @@
+package pods.project.walletservice.entities;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+// Outcome of one entry of POST /wallets/batch
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class WalletBatchResult {
+    Integer user_id;
+    String action;
+    String amount;
+    String status;
+    Integer balance;
+    String message;
+
+    public static WalletBatchResult succeeded(Integer user_id, String action, String amount, Integer balance) {
+        WalletBatchResult result = new WalletBatchResult(user_id, action, amount, "OK");
+        result.balance = balance;
+        return result;
+    }
+
+    public static WalletBatchResult failed(Integer user_id, String action, String amount, String message) {
+        WalletBatchResult result = new WalletBatchResult(user_id, action, amount, "FAILED");
+        result.message = message;
+        return result;
+    }
+
+    private WalletBatchResult(Integer user_id, String action, String amount, String status) {
+        this.user_id = user_id;
+        this.action = action;
+        this.amount = amount;
+        this.status = status;
+    }
+
+    @JsonProperty("user_id")
+    public Integer getUserId() {
+        return user_id;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public String getAmount() {
+        return amount;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    // Balance of the wallet right after this entry (only for successful entries)
+    public Integer getBalance() {
+        return balance;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,29 @@
+package pods.project.walletservice.entities;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+// One entry of the wallet change feed: the balance a GET /wallets/{userId} would report
+// right after the change, or a null balance when the wallet was deleted
+public class WalletChange {
+    long seq;
+    Integer user_id;
+    Integer balance;
+
+    public WalletChange(long seq, Integer user_id, Integer balance) {
+        this.seq = seq;
+        this.user_id = user_id;
+        this.balance = balance;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    @JsonProperty("user_id")
+    public Integer getUserId() {
+        return user_id;
+    }
+
+    public Integer getBalance() {
+        return balance;
+    }
+}
@@ -0,0 +1,33 @@
+package pods.project.walletservice.entities;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+// Response of GET /wallets/changes: the changes after the given cursor and the cursor to
+// pass next. A reset page carries no changes: the consumer's cursor could not be resumed
+// (first call, changes no longer retained, service restarted or all wallets deleted), so
+// it must drop whatever it cached and continue from next_cursor.
+public class WalletChangePage {
+    String next_cursor;
+    boolean reset;
+    List<WalletChange> changes;
+
+    public WalletChangePage(String next_cursor, boolean reset, List<WalletChange> changes) {
+        this.next_cursor = next_cursor;
+        this.reset = reset;
+        this.changes = changes;
+    }
+
+    @JsonProperty("next_cursor")
+    public String getNextCursor() {
+        return next_cursor;
+    }
+
+    public boolean isReset() {
+        return reset;
+    }
+
+    public List<WalletChange> getChanges() {
+        return changes;
+    }
+}
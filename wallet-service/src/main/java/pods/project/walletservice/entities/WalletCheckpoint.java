@@ -0,0 +1,15 @@
+package pods.project.walletservice.entities;
+
+import jakarta.persistence.*;
+
+// Log position up to which the ledger engine has flushed balances into the Wallet table.
+// Lives next to Wallet so both are created and dropped together.
+@Entity
+public class WalletCheckpoint {
+    @Id
+    @Column(name = "id")
+    Integer id;
+
+    @Column(name = "lsn", nullable = false)
+    Long lsn;
+}
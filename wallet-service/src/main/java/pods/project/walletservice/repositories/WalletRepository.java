@@ -7,13 +7,33 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.data.jpa.repository.Query;
 import java.util.List;
 
-import org.springframework.data.jpa.repository.Lock;
-import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.transaction.annotation.Transactional;
 import java.util.Optional;
 
 @Repository
 public interface WalletRepository extends JpaRepository<Wallet, Integer> {
-    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    // Plain MVCC read: never waits for, or blocks, a concurrent balance update.
+    // (Every wallet write is a single conditional statement, so no read needs a row lock.)
+    @Transactional(readOnly = true)
     @Query("SELECT w FROM Wallet w WHERE w.user_id = :user_id")
     List<Wallet> findByUserId(@Param("user_id") Integer user_id);
+
+    // Single-statement conditional update (no row lock held across round trips).
+    // Returns the new balance, or nothing if the wallet is missing or the new balance would drop below floor
+    // or overflow an int (the check adds in BIGINT, where H2 would otherwise fail the statement).
+    @Transactional
+    @Query(value = "SELECT balance FROM FINAL TABLE (UPDATE wallet SET balance = balance + :delta, version = version + 1 WHERE user_id = :user_id AND CAST(balance AS BIGINT) + :delta BETWEEN :floor AND 2147483647)", nativeQuery = true)
+    List<Integer> addToBalance(@Param("user_id") Integer user_id, @Param("delta") int delta, @Param("floor") int floor);
+
+    // Creates a wallet with the given opening balance; fails on the primary key if it already exists.
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO wallet (user_id, balance) VALUES (:user_id, :balance)", nativeQuery = true)
+    int insertWallet(@Param("user_id") Integer user_id, @Param("balance") int balance);
+
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM wallet WHERE user_id = :user_id", nativeQuery = true)
+    int deleteByUserId(@Param("user_id") Integer user_id);
 }
\ No newline at end of file
@@ -0,0 +1,60 @@
+package pods.project.walletservice.services;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+// Non-blocking counterpart of WalletHolds.lockFor()/lockAll() for the reactive stack.
+//
+// A ReentrantLock cannot be held across a Mono (it would pin a thread, and the release
+// may run on another one), so each stripe is a queue of futures instead: a caller swaps
+// in its own future, runs once the previous caller's future completes, and completes
+// its own when done. Stripes are taken in ascending order, as in WalletHolds.lockAll().
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class AsyncUserLocks {
+
+    private static final int LOCK_STRIPES = 256;
+
+    private final List<AtomicReference<CompletableFuture<Void>>> tails = new ArrayList<>(LOCK_STRIPES);
+
+    public AsyncUserLocks() {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            tails.add(new AtomicReference<>(CompletableFuture.completedFuture(null)));
+        }
+    }
+
+    public <T> Mono<T> withLock(int userId, Supplier<Mono<T>> action) {
+        return withLocks(List.of(userId), action);
+    }
+
+    // Runs the action with the locks of all the given users held; they are released when it terminates or is cancelled.
+    public <T> Mono<T> withLocks(Collection<Integer> userIds, Supplier<Mono<T>> action) {
+        List<Integer> stripes = userIds.stream().map(userId -> Math.floorMod(userId, LOCK_STRIPES)).distinct().sorted().toList();
+        return Mono.defer(() -> {
+            List<Runnable> releases = Collections.synchronizedList(new ArrayList<>());
+            Mono<Void> acquired = Mono.empty();
+            for (int stripe : stripes) {
+                acquired = acquired.then(Mono.defer(() -> acquire(stripe, releases)));
+            }
+            return acquired.then(Mono.defer(action))
+                .doFinally(signal -> releases.forEach(Runnable::run));
+        });
+    }
+
+    private Mono<Void> acquire(int stripe, List<Runnable> releases) {
+        CompletableFuture<Void> mine = new CompletableFuture<>();
+        CompletableFuture<Void> previous = tails.get(stripe).getAndSet(mine);
+        // Never hand the stripe on before the previous holder is done, even if we are cancelled while waiting
+        releases.add(() -> previous.whenComplete((result, error) -> mine.complete(null)));
+        return Mono.fromFuture(previous, true);
+    }
+}
@@ -0,0 +1,222 @@
+package pods.project.walletservice.services;
+
+import pods.project.walletservice.entities.Hold;
+import pods.project.walletservice.entities.Wallet;
+import pods.project.walletservice.entities.WalletBatchResult;
+import pods.project.walletservice.stores.ReactiveWalletStore;
+import pods.project.walletservice.stores.WalletStore;
+import pods.project.walletservice.CustomException.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+// WalletService for the reactive stack: the same rules, with the Wallet table reached
+// through ReactiveWalletStore and the per-user locks taken through AsyncUserLocks.
+// Holds stay in the shared in-memory WalletHolds registry.
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveWalletService {
+
+    @Autowired
+    private ReactiveWalletStore walletStore;
+
+    @Autowired
+    private WalletHolds walletHolds;
+
+    @Autowired
+    private AsyncUserLocks userLocks;
+
+    @Autowired
+    private WalletPartition walletPartition;
+
+    @Autowired
+    private WalletChangeFeed walletChangeFeed;
+
+    @Autowired
+    private WalletRequestLog walletRequestLog;
+
+    @Value("${wallet.holds.default-ttl-seconds:60}")
+    private long defaultHoldTtlSeconds;
+
+
+    // The reported balance excludes funds reserved by open holds
+    public Mono<Wallet> getByUserId(int userId) {
+        return Mono.defer(() -> {
+            walletPartition.checkOwns(userId);
+            return walletStore.find(userId)
+                .switchIfEmpty(Mono.error(() -> new WalletNotExistsException("Wallet with id " + userId + " does not exist.")))
+                .map(wallet -> WalletService.toWallet(userId, wallet.getBalance() - walletHolds.reservedFor(userId)));
+        });
+    }
+
+    // Applied once per request id, like WalletService.updateWalletBalance
+    public Mono<Wallet> updateWalletBalance(Integer user_id, Map<String, String> walletDetails, String requestId) {
+        return Mono.defer(() -> {
+            walletPartition.checkOwns(user_id);
+            int delta = WalletService.parseDelta(walletDetails);
+            boolean once = WalletRequestLog.present(requestId);
+            // Credits take the lock too, so the change feed gets every user's balances in write order
+            return userLocks.withLock(user_id, () -> {
+                Wallet applied = once ? walletRequestLog.find(user_id, requestId, delta) : null;
+                if (applied != null) {
+                    return Mono.just(applied);
+                }
+                int reserved = walletHolds.reservedFor(user_id);
+                // A credit can never eat into held funds
+                return walletStore.applyDelta(user_id, delta, delta >= 0 ? 0 : reserved)
+                    .switchIfEmpty(Mono.error(() -> new InsufficientBalanceException("Insufficient balance")))
+                    .map(balance -> {
+                        Wallet wallet = published(user_id, balance - reserved);
+                        if (once) {
+                            walletRequestLog.record(user_id, requestId, delta, wallet);
+                        }
+                        return wallet;
+                    });
+            });
+        });
+    }
+
+    // Same contract as WalletService.applyBatch
+    public Mono<List<WalletBatchResult>> applyBatch(List<Map<String, String>> entries) {
+        return Mono.defer(() -> {
+            if (entries == null) {
+                throw new BadRequestException("Invalid payload");
+            }
+            WalletBatchResult[] results = new WalletBatchResult[entries.size()];
+            List<Integer> valid = new ArrayList<>();
+            Map<Integer, WalletStore.BalanceChange> changes = new HashMap<>();
+            for (int i = 0; i < entries.size(); i++) {
+                Map<String, String> entry = entries.get(i);
+                Integer userId = null;
+                try {
+                    userId = WalletService.parseUserId(entry);
+                    walletPartition.checkOwns(userId);
+                    changes.put(i, new WalletStore.BalanceChange(userId, WalletService.parseDelta(entry)));
+                    valid.add(i);
+                }
+                catch (BadRequestException | WrongPartitionException ex) {
+                    results[i] = entry == null ? WalletBatchResult.failed(null, null, null, ex.getMessage())
+                        : WalletBatchResult.failed(userId, entry.get("action"), entry.get("amount"), ex.getMessage());
+                }
+            }
+            valid.sort(Comparator.comparingInt(i -> changes.get(i).userId));
+
+            List<WalletStore.BalanceChange> ordered = valid.stream().map(changes::get).toList();
+            Set<Integer> userIds = ordered.stream().map(change -> change.userId).collect(Collectors.toSet());
+            return userLocks.withLocks(userIds, () -> {
+                Map<Integer, Integer> floors = new HashMap<>();
+                for (Integer userId : userIds) {
+                    floors.put(userId, walletHolds.reservedFor(userId));
+                }
+                return walletStore.applyDeltas(ordered, floors).map(balances -> {
+                    for (int j = 0; j < valid.size(); j++) {
+                        int i = valid.get(j);
+                        int userId = ordered.get(j).userId;
+                        Map<String, String> entry = entries.get(i);
+                        OptionalInt balance = balances.get(j);
+                        if (balance.isPresent()) {
+                            walletChangeFeed.balanceChanged(userId, balance.getAsInt() - floors.get(userId));
+                        }
+                        results[i] = balance.isPresent()
+                            ? WalletBatchResult.succeeded(userId, entry.get("action"), entry.get("amount"), balance.getAsInt() - floors.get(userId))
+                            : WalletBatchResult.failed(userId, entry.get("action"), entry.get("amount"), "Insufficient balance");
+                    }
+                    return Arrays.asList(results);
+                });
+            });
+        });
+    }
+
+    public Mono<Hold> placeHold(int userId, Map<String, String> holdDetails) {
+        return Mono.defer(() -> {
+            walletPartition.checkOwns(userId);
+            int amount = WalletService.parsePositive(holdDetails, "amount");
+            long ttlSeconds = holdDetails.get("ttl_seconds") == null ? defaultHoldTtlSeconds : WalletService.parsePositive(holdDetails, "ttl_seconds");
+            return userLocks.withLock(userId, () -> walletStore.find(userId)
+                .filter(wallet -> wallet.getBalance() - walletHolds.reservedFor(userId) >= amount)
+                .switchIfEmpty(Mono.error(() -> new InsufficientBalanceException("Insufficient balance")))
+                .map(wallet -> {
+                    Hold hold = walletHolds.place(userId, amount, ttlSeconds * 1000);
+                    walletChangeFeed.balanceChanged(userId, wallet.getBalance() - walletHolds.reservedFor(userId));
+                    return hold;
+                }));
+        });
+    }
+
+    // A hold already captured is answered as captured again (see WalletService.captureHold)
+    public Mono<Wallet> captureHold(String holdId) {
+        return Mono.defer(() -> {
+            Hold open = walletHolds.find(holdId);
+            Hold hold = open != null ? open : walletHolds.findCaptured(holdId);
+            if (hold == null) {
+                throw new HoldNotExistsException("Hold with id " + holdId + " does not exist.");
+            }
+            int userId = hold.getUserId();
+            return userLocks.withLock(userId, () -> {
+                if (walletHolds.find(holdId) == null) {
+                    return walletHolds.findCaptured(holdId) == null
+                        ? Mono.error(new HoldNotExistsException("Hold with id " + holdId + " does not exist."))
+                        : getByUserId(userId);
+                }
+                // Closed only after the debit, as in WalletService.captureHold
+                int reserved = walletHolds.reservedFor(userId) - hold.getAmount();
+                return walletStore.applyDelta(userId, -hold.getAmount(), reserved)
+                    .switchIfEmpty(Mono.error(() -> new InsufficientBalanceException("Insufficient balance")))
+                    .doOnNext(balance -> {
+                        walletHolds.remove(holdId);
+                        walletHolds.captured(hold);
+                    })
+                    .map(balance -> published(userId, balance - reserved));
+            });
+        });
+    }
+
+    public Mono<Void> releaseHold(String holdId) {
+        return Mono.defer(() -> {
+            Hold hold = walletHolds.find(holdId);
+            if (hold == null) {
+                throw new HoldNotExistsException("Hold with id " + holdId + " does not exist.");
+            }
+            int userId = hold.getUserId();
+            return userLocks.withLock(userId, () -> walletHolds.remove(holdId) == null
+                ? Mono.error(new HoldNotExistsException("Hold with id " + holdId + " does not exist."))
+                : walletStore.find(userId)
+                    .doOnNext(wallet -> walletChangeFeed.balanceChanged(userId, wallet.getBalance() - walletHolds.reservedFor(userId)))
+                    .then());
+        });
+    }
+
+    public Mono<Void> deleteWallet(int userId) {
+        return Mono.defer(() -> {
+            walletPartition.checkOwns(userId);
+            return userLocks.withLock(userId, () -> walletStore.delete(userId).flatMap(deleted -> {
+                if (!deleted) {
+                    return Mono.error(new WalletNotExistsException("Wallet with id " + userId + " does not exist."));
+                }
+                walletHolds.removeAll(userId);
+                walletRequestLog.removeAll(userId);
+                walletChangeFeed.walletDeleted(userId);
+                return Mono.empty();
+            }));
+        });
+    }
+
+    public Mono<Void> deleteAllWallets() {
+        return walletStore.deleteAll().then(Mono.fromRunnable(() -> {
+            walletHolds.clear();
+            walletRequestLog.clear();
+            walletChangeFeed.allDeleted();
+        }));
+    }
+
+    // Publishes the balance to the change feed (call with the user's lock held) and returns it as a Wallet
+    private Wallet published(int userId, int balance) {
+        walletChangeFeed.balanceChanged(userId, balance);
+        return WalletService.toWallet(userId, balance);
+    }
+}
@@ -0,0 +1,211 @@
+package pods.project.walletservice.services;
+
+import pods.project.walletservice.entities.WalletChange;
+import pods.project.walletservice.entities.WalletChangePage;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Append-only feed of wallet balance changes, so other services can keep a near-cache of
+// balances current instead of polling GET /wallets/{userId}.
+//
+// Every change gets the next sequence number and is kept in a ring of the last
+// wallet.feed.capacity changes (in memory only). Consumers read with a cursor, an opaque
+// "<feed>.<seq>" string: the feed part changes on every start and on DELETE /wallets, so a
+// cursor that cannot be resumed is answered with a reset page instead of silently skipping
+// changes. Callers publish with the user's lock held, so per user the feed order is the
+// order the balances were written in.
+@Component
+public class WalletChangeFeed {
+
+    @Value("${wallet.feed.capacity:65536}")
+    private int capacity;
+
+    // Upper bounds for what a consumer asks for
+    @Value("${wallet.feed.max-page:1000}")
+    private int maxPage;
+
+    @Value("${wallet.feed.max-wait-ms:25000}")
+    private long maxWaitMillis;
+
+    @Value("${wallet.feed.threads:4}")
+    private int threads;
+
+    private int[] userIds;
+    private int[] balances;
+    private boolean[] deleted;
+
+    // Guarded by this
+    private String feedId = newFeedId();
+    private long lastSeq;
+    private long firstSeq = 1;
+    private List<Waiter> waiters = new ArrayList<>();
+
+    // Completes long polls (on a change or when they time out), off the publishing threads
+    private ScheduledExecutorService delivery;
+
+    private class Waiter {
+        final String cursor;
+        final int limit;
+        final CompletableFuture<WalletChangePage> page = new CompletableFuture<>();
+        ScheduledFuture<?> timeout;
+
+        Waiter(String cursor, int limit) {
+            this.cursor = cursor;
+            this.limit = limit;
+        }
+
+        void complete() {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            page.complete(read(cursor, limit));
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        userIds = new int[capacity];
+        balances = new int[capacity];
+        deleted = new boolean[capacity];
+        AtomicInteger threadCount = new AtomicInteger();
+        delivery = Executors.newScheduledThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "wallet-feed-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        delivery.shutdownNow();
+    }
+
+    // Threads the feed completes long polls on; stream senders continue on them rather than on the caller's stack
+    public Executor delivery() {
+        return delivery;
+    }
+
+    // Balance the wallet now reports (stored balance minus open holds). Call with the user's lock held.
+    public void balanceChanged(int userId, int balance) {
+        append(userId, balance, false);
+    }
+
+    // Call with the user's lock held
+    public void walletDeleted(int userId) {
+        append(userId, 0, true);
+    }
+
+    // Every consumer has to start over
+    public void allDeleted() {
+        List<Waiter> woken;
+        synchronized (this) {
+            feedId = newFeedId();
+            firstSeq = lastSeq + 1;
+            woken = takeWaiters();
+        }
+        wake(woken);
+    }
+
+    // The changes after the cursor (at most limit of them); a reset page if the cursor is
+    // null or cannot be resumed
+    public synchronized WalletChangePage read(String cursor, int limit) {
+        long after = resumableSeq(cursor);
+        if (after < 0) {
+            return new WalletChangePage(cursorOf(lastSeq), true, List.of());
+        }
+        long upTo = Math.min(lastSeq, after + Math.max(1, Math.min(limit, maxPage)));
+        List<WalletChange> changes = new ArrayList<>((int) (upTo - after));
+        for (long seq = after + 1; seq <= upTo; seq++) {
+            int slot = (int) (seq % capacity);
+            changes.add(new WalletChange(seq, userIds[slot], deleted[slot] ? null : balances[slot]));
+        }
+        return new WalletChangePage(cursorOf(upTo), false, changes);
+    }
+
+    // Like read(), but if there is nothing after the cursor yet, completes with the first
+    // changes published within waitMillis (or with an empty page when that runs out)
+    public CompletableFuture<WalletChangePage> poll(String cursor, int limit, long waitMillis) {
+        Waiter waiter = new Waiter(cursor, limit);
+        synchronized (this) {
+            long after = resumableSeq(cursor);
+            if (after < 0 || after < lastSeq || waitMillis <= 0) {
+                return CompletableFuture.completedFuture(read(cursor, limit));
+            }
+            waiters.add(waiter);
+            waiter.timeout = delivery.schedule(() -> {
+                boolean waiting;
+                synchronized (this) {
+                    waiting = waiters.remove(waiter);
+                }
+                if (waiting) {
+                    waiter.complete();
+                }
+            }, Math.min(waitMillis, maxWaitMillis), TimeUnit.MILLISECONDS);
+        }
+        return waiter.page;
+    }
+
+    private void append(int userId, int balance, boolean walletDeleted) {
+        List<Waiter> woken;
+        synchronized (this) {
+            long seq = ++lastSeq;
+            int slot = (int) (seq % capacity);
+            userIds[slot] = userId;
+            balances[slot] = balance;
+            deleted[slot] = walletDeleted;
+            if (seq - firstSeq >= capacity) {
+                firstSeq = seq - capacity + 1;
+            }
+            woken = waiters.isEmpty() ? null : takeWaiters();
+        }
+        wake(woken);
+    }
+
+    private List<Waiter> takeWaiters() {
+        List<Waiter> taken = waiters;
+        waiters = new ArrayList<>();
+        return taken;
+    }
+
+    private void wake(List<Waiter> woken) {
+        if (woken != null && !woken.isEmpty()) {
+            delivery.execute(() -> woken.forEach(Waiter::complete));
+        }
+    }
+
+    // Sequence number the cursor points at, or -1 if it has to be reset. Call holding this.
+    private long resumableSeq(String cursor) {
+        if (cursor == null || !cursor.startsWith(feedId + ".")) {
+            return -1;
+        }
+        long seq;
+        try {
+            seq = Long.parseLong(cursor.substring(feedId.length() + 1));
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+        return seq < firstSeq - 1 || seq > lastSeq ? -1 : seq;
+    }
+
+    private String cursorOf(long seq) {
+        return feedId + "." + seq;
+    }
+
+    private static String newFeedId() {
+        return Long.toHexString(UUID.randomUUID().getMostSignificantBits() & Long.MAX_VALUE);
+    }
+}
@@ -0,0 +1,223 @@
+package pods.project.walletservice.services;
+
+import pods.project.walletservice.entities.Hold;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// In-memory registry of open holds.
+//
+// A hold does not touch the stored balance: it only raises the amount of the user's
+// balance that debits must leave untouched, so releasing (or expiring) a hold is a map
+// removal and only a capture writes to the wallet. Callers take lockFor(userId) around
+// reading the reserved amount and acting on it, so debits and new holds of one user
+// never both spend the same funds.
+//
+// Captured holds are remembered for wallet.holds.captured-ttl-seconds (at most
+// wallet.holds.max-captured of them), so a capture sent again after its answer was lost is
+// answered as done instead of as a hold that does not exist.
+@Component
+public class WalletHolds {
+
+    private static final int LOCK_STRIPES = 256;
+
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+    private final Map<String, Entry> holds = new ConcurrentHashMap<>();
+    // Sum of open holds per user (changed only under the user's lock)
+    private final Map<Integer, Integer> reserved = new HashMap<>();
+    private final ScheduledExecutorService expiry = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "wallet-hold-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Captured holds by id, oldest first
+    private final Map<String, Captured> captured = new LinkedHashMap<>();
+
+    @Value("${wallet.holds.captured-ttl-seconds:3600}")
+    private long capturedTtlSeconds;
+
+    @Value("${wallet.holds.max-captured:100000}")
+    private int maxCaptured;
+
+    private record Captured(Hold hold, long expiresAt) { }
+
+    // Told about every hold that expired, with the user's lock held
+    private volatile Consumer<Hold> expiryListener = hold -> { };
+
+    private static class Entry {
+        final Hold hold;
+        volatile ScheduledFuture<?> expiryTask;
+
+        Entry(Hold hold) {
+            this.hold = hold;
+        }
+    }
+
+    public WalletHolds() {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    public void onExpired(Consumer<Hold> listener) {
+        expiryListener = listener;
+    }
+
+    public ReentrantLock lockFor(int userId) {
+        return locks[Math.floorMod(userId, LOCK_STRIPES)];
+    }
+
+    // Locks of all the given users in a fixed order (ascending stripe), so two callers never deadlock.
+    public List<ReentrantLock> lockAll(Collection<Integer> userIds) {
+        List<ReentrantLock> held = userIds.stream().map(userId -> Math.floorMod(userId, LOCK_STRIPES))
+            .distinct().sorted().map(stripe -> locks[stripe]).toList();
+        held.forEach(ReentrantLock::lock);
+        return held;
+    }
+
+    public void unlockAll(List<ReentrantLock> held) {
+        for (int i = held.size() - 1; i >= 0; i--) {
+            held.get(i).unlock();
+        }
+    }
+
+    // Amount of the user's balance reserved by open holds. Call with the user's lock held.
+    public int reservedFor(int userId) {
+        synchronized (reserved) {
+            return reserved.getOrDefault(userId, 0);
+        }
+    }
+
+    // Records a new hold. Call with the user's lock held, after checking the funds are available.
+    public Hold place(int userId, int amount, long ttlMillis) {
+        Hold hold = new Hold(UUID.randomUUID().toString(), userId, amount, System.currentTimeMillis() + ttlMillis);
+        Entry entry = new Entry(hold);
+        synchronized (reserved) {
+            reserved.merge(userId, amount, Integer::sum);
+        }
+        holds.put(hold.getHoldId(), entry);
+        entry.expiryTask = expiry.schedule(() -> expire(hold.getHoldId()), ttlMillis, TimeUnit.MILLISECONDS);
+        return hold;
+    }
+
+    public Hold find(String holdId) {
+        Entry entry = holds.get(holdId);
+        return entry == null ? null : entry.hold;
+    }
+
+    // Closes the hold and returns it, or null if it was already captured, released or expired.
+    // Call with the lock of the hold's user held.
+    public Hold remove(String holdId) {
+        Entry entry = holds.remove(holdId);
+        if (entry == null) {
+            return null;
+        }
+        cancelExpiry(entry);
+        unreserve(entry.hold);
+        return entry.hold;
+    }
+
+    // Remembers a hold just captured. Call with the lock of the hold's user held.
+    public void captured(Hold hold) {
+        long now = System.currentTimeMillis();
+        synchronized (captured) {
+            captured.put(hold.getHoldId(), new Captured(hold, now + capturedTtlSeconds * 1000));
+            // All entries live equally long, so the expired ones are the oldest
+            Iterator<Captured> oldest = captured.values().iterator();
+            while (oldest.hasNext()) {
+                Captured entry = oldest.next();
+                if (captured.size() <= maxCaptured && entry.expiresAt > now) {
+                    break;
+                }
+                oldest.remove();
+            }
+        }
+    }
+
+    // The hold if it was captured (and is still remembered), else null
+    public Hold findCaptured(String holdId) {
+        Captured entry;
+        synchronized (captured) {
+            entry = captured.get(holdId);
+        }
+        return entry == null || entry.expiresAt <= System.currentTimeMillis() ? null : entry.hold;
+    }
+
+    // Drops every hold of a deleted wallet
+    public void removeAll(int userId) {
+        holds.values().removeIf(entry -> {
+            if (entry.hold.getUserId() != userId) {
+                return false;
+            }
+            cancelExpiry(entry);
+            return true;
+        });
+        synchronized (reserved) {
+            reserved.remove(userId);
+        }
+        synchronized (captured) {
+            captured.values().removeIf(entry -> entry.hold.getUserId() == userId);
+        }
+    }
+
+    public void clear() {
+        holds.values().forEach(this::cancelExpiry);
+        holds.clear();
+        synchronized (reserved) {
+            reserved.clear();
+        }
+        synchronized (captured) {
+            captured.clear();
+        }
+    }
+
+    private void expire(String holdId) {
+        Hold hold = find(holdId);
+        if (hold == null) {
+            return;
+        }
+        ReentrantLock lock = lockFor(hold.getUserId());
+        lock.lock();
+        try {
+            if (remove(holdId) != null) {
+                expiryListener.accept(hold);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void unreserve(Hold hold) {
+        synchronized (reserved) {
+            reserved.computeIfPresent(hold.getUserId(), (userId, amount) -> amount.equals(hold.getAmount()) ? null : amount - hold.getAmount());
+        }
+    }
+
+    private void cancelExpiry(Entry entry) {
+        ScheduledFuture<?> expiryTask = entry.expiryTask;
+        if (expiryTask != null) {
+            expiryTask.cancel(false);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        expiry.shutdownNow();
+    }
+}
@@ -0,0 +1,48 @@
+package pods.project.walletservice.services;
+
+import pods.project.walletservice.CustomException.WrongPartitionException;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+// The share of user ids this instance owns when wallet-service runs as several partitions.
+//
+// User ids are hashed onto the 32-bit range, which is split into wallet.partition.count
+// equal slices; this instance owns slice wallet.partition.index and refuses every other
+// user, so a misconfigured client cannot create a second wallet for the same user on
+// another partition. The routing clients in marketplace-service and account-service use
+// the same partitionOf(), so they must be kept in step with this one.
+@Component
+public class WalletPartition {
+
+    @Value("${wallet.partition.index:0}")
+    private int index;
+
+    @Value("${wallet.partition.count:1}")
+    private int count;
+
+    @PostConstruct
+    public void validate() {
+        if (count < 1 || index < 0 || index >= count) {
+            throw new IllegalStateException("wallet.partition.index must be in [0, wallet.partition.count), got "
+                + index + " of " + count);
+        }
+    }
+
+    public static int partitionOf(int userId, int count) {
+        int hash = userId * 0x9E3779B9;
+        hash ^= hash >>> 16;
+        return (int) (((hash & 0xFFFFFFFFL) * count) >>> 32);
+    }
+
+    public boolean owns(int userId) {
+        return count == 1 || partitionOf(userId, count) == index;
+    }
+
+    public void checkOwns(int userId) {
+        if (!owns(userId)) {
+            throw new WrongPartitionException("Wallet of user " + userId + " belongs to partition "
+                + partitionOf(userId, count) + ", not " + index + ".");
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package pods.project.walletservice.services;
+
+import pods.project.walletservice.entities.Wallet;
+import pods.project.walletservice.CustomException.RequestIdReusedException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Results of recent balance updates that came with a request id (the Idempotency-Key header
+// of PUT /wallets/{id}, or the request id of an RPC UPDATE_BALANCE_ONCE call), so an update
+// sent again after its answer was lost returns the original result instead of being applied
+// a second time.
+//
+// Ids are scoped to the user. At most wallet.requests.max-entries results are kept, in
+// memory, each for wallet.requests.ttl-seconds, the oldest dropped first. Callers hold the
+// user's lock (WalletHolds.lockFor or AsyncUserLocks) around finding and recording, so two
+// copies of one update never both get applied.
+@Component
+public class WalletRequestLog {
+
+    private record Key(int userId, String requestId) { }
+
+    private record Entry(int delta, Wallet result, long expiresAt) { }
+
+    private final Map<Key, Entry> entries = new LinkedHashMap<>();
+
+    @Value("${wallet.requests.max-entries:100000}")
+    private int maxEntries;
+
+    @Value("${wallet.requests.ttl-seconds:600}")
+    private long ttlSeconds;
+
+    // Result of the user's update with this id, or null if there was none (or it was forgotten).
+    // An id already used for a different amount is refused: that is another request.
+    public Wallet find(int userId, String requestId, int delta) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(new Key(userId, requestId));
+        }
+        if (entry == null || entry.expiresAt <= System.currentTimeMillis()) {
+            return null;
+        }
+        if (entry.delta != delta) {
+            throw new RequestIdReusedException("Request id " + requestId + " was already used for another update of wallet " + userId);
+        }
+        return entry.result;
+    }
+
+    public void record(int userId, String requestId, int delta, Wallet result) {
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            entries.put(new Key(userId, requestId), new Entry(delta, result, now + ttlSeconds * 1000));
+            // All entries live equally long, so the expired ones are the oldest
+            Iterator<Entry> oldest = entries.values().iterator();
+            while (oldest.hasNext()) {
+                Entry entry = oldest.next();
+                if (entries.size() <= maxEntries && entry.expiresAt > now) {
+                    break;
+                }
+                oldest.remove();
+            }
+        }
+    }
+
+    public void removeAll(int userId) {
+        synchronized (entries) {
+            entries.keySet().removeIf(key -> key.userId == userId);
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    // Blank ids count as none
+    public static boolean present(String requestId) {
+        return requestId != null && !requestId.isBlank();
+    }}
@@ -1,7 +1,9 @@
 package pods.project.walletservice.services;
 
+import pods.project.walletservice.entities.Hold;
 import pods.project.walletservice.entities.Wallet;
-import pods.project.walletservice.repositories.WalletRepository;
+import pods.project.walletservice.entities.WalletBatchResult;
+import pods.project.walletservice.stores.WalletStore;
 import pods.project.walletservice.CustomException.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -12,92 +14,297 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.data.jpa.repository.JpaRepository;
+import jakarta.annotation.PostConstruct;
 
 
 
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
 
 @Service
 public class WalletService {
 
     @Autowired
-    private WalletRepository walletRepository;
+    private WalletStore walletStore;
 
+    @Autowired
+    private WalletHolds walletHolds;
+
+    @Autowired
+    private WalletPartition walletPartition;
+
+    @Autowired
+    private WalletChangeFeed walletChangeFeed;
+
+    @Autowired
+    private WalletRequestLog walletRequestLog;
+
+    @Value("${wallet.holds.default-ttl-seconds:60}")
+    private long defaultHoldTtlSeconds;
+
+    @PostConstruct
+    public void publishExpiredHolds() {
+        // An expired hold gives its funds back, which changes the reported balance
+        walletHolds.onExpired(hold -> publishBalance(hold.getUserId()));
+    }
 
     // Method to check if wallet exists with the given userId
+    // (the reported balance excludes funds reserved by open holds)
     public Wallet getByUserId(int userId) {
+        walletPartition.checkOwns(userId);
         // Try to find the wallet by userId
-        List<Wallet> wallet = walletRepository.findByUserId(userId);
-        if (wallet.isEmpty()) {
-            throw new WalletNotExistsException("Wallet with id " + userId + " does not exist.");
-        }
-        return wallet.get(0);
+        Wallet wallet = walletStore.find(userId)
+            .orElseThrow(() -> new WalletNotExistsException("Wallet with id " + userId + " does not exist."));
+        return toWallet(userId, wallet.getBalance() - walletHolds.reservedFor(userId));
     }
 
     // Update the wallet balance of the user with the given userId
-    @Transactional
     public Wallet updateWalletBalance(Integer user_id, Map<String, String> walletDetails) {
-        // Try to find the user by userId
-        Wallet existingWallet = null, newWallet = null;
-        try{
-            existingWallet = this.getByUserId(user_id);
-        }
-        catch(WalletNotExistsException ex){
-            newWallet =  new Wallet();
-            newWallet.setUserId(user_id);
-            newWallet.setBalance(0);
-            existingWallet = walletRepository.save(newWallet);
-        }
-        boolean validPayload =  walletDetails != null && existingWallet!= null;
-        validPayload = validPayload && walletDetails.get("amount") != null && walletDetails.get("action") != null && (walletDetails.get("action").equals("credit") || walletDetails.get("action").equals("debit"));
-        validPayload = validPayload && !walletDetails.get("amount").isEmpty() && !walletDetails.get("action").isEmpty();
-        if (!validPayload) {
+        return updateWalletBalance(user_id, walletDetails, null);
+    }
+
+    // Same, applied once per request id: an update sent again with the id of one already
+    // applied returns that update's result (see WalletRequestLog)
+    public Wallet updateWalletBalance(Integer user_id, Map<String, String> walletDetails, String requestId) {
+        walletPartition.checkOwns(user_id);
+        int delta = parseDelta(walletDetails);
+        boolean once = WalletRequestLog.present(requestId);
+        // Credits take the lock too, so the change feed gets every user's balances in write order
+        ReentrantLock lock = walletHolds.lockFor(user_id);
+        lock.lock();
+        try {
+            Wallet applied = once ? walletRequestLog.find(user_id, requestId, delta) : null;
+            if (applied != null) {
+                return applied;
+            }
+            int reserved = walletHolds.reservedFor(user_id);
+            // A credit can never eat into held funds
+            OptionalInt balance = walletStore.applyDelta(user_id, delta, delta >= 0 ? 0 : reserved);
+            if (balance.isEmpty()) {
+                throw new InsufficientBalanceException("Insufficient balance");
+            }
+            walletChangeFeed.balanceChanged(user_id, balance.getAsInt() - reserved);
+            Wallet wallet = toWallet(user_id, balance.getAsInt() - reserved);
+            if (once) {
+                walletRequestLog.record(user_id, requestId, delta, wallet);
+            }
+            return wallet;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Apply a list of {"user_id", "action", "amount"} entries in one go.
+    // Entries of users owned by another partition fail on their own. Entries are applied in user_id order (keeping the request order per user) and results come
+    // back in request order; an invalid or rejected entry fails on its own.
+    public List<WalletBatchResult> applyBatch(List<Map<String, String>> entries) {
+        if (entries == null) {
             throw new BadRequestException("Invalid payload");
         }
+        WalletBatchResult[] results = new WalletBatchResult[entries.size()];
+        List<Integer> valid = new ArrayList<>();
+        Map<Integer, WalletStore.BalanceChange> changes = new HashMap<>();
+        for (int i = 0; i < entries.size(); i++) {
+            Map<String, String> entry = entries.get(i);
+            Integer userId = null;
+            try {
+                userId = parseUserId(entry);
+                walletPartition.checkOwns(userId);
+                changes.put(i, new WalletStore.BalanceChange(userId, parseDelta(entry)));
+                valid.add(i);
+            }
+            catch (BadRequestException | WrongPartitionException ex) {
+                results[i] = entry == null ? WalletBatchResult.failed(null, null, null, ex.getMessage())
+                    : WalletBatchResult.failed(userId, entry.get("action"), entry.get("amount"), ex.getMessage());
+            }
+        }
+        valid.sort(Comparator.comparingInt(i -> changes.get(i).userId));
 
-        Integer newBalance = null;
-        try{
-            Integer oldBalance = existingWallet.getBalance();
-            newBalance = oldBalance;
-            if(walletDetails.get("action").equals("credit")) {
-                newBalance += Integer.parseInt(walletDetails.get("amount"));
-            }else{
-                newBalance -= Integer.parseInt(walletDetails.get("amount"));
+        List<WalletStore.BalanceChange> ordered = valid.stream().map(changes::get).toList();
+        Set<Integer> userIds = ordered.stream().map(change -> change.userId).collect(Collectors.toSet());
+        List<ReentrantLock> locks = walletHolds.lockAll(userIds);
+        try {
+            Map<Integer, Integer> floors = new HashMap<>();
+            for (Integer userId : userIds) {
+                floors.put(userId, walletHolds.reservedFor(userId));
+            }
+            List<OptionalInt> balances = walletStore.applyDeltas(ordered, floors);
+            for (int j = 0; j < valid.size(); j++) {
+                int i = valid.get(j);
+                int userId = ordered.get(j).userId;
+                Map<String, String> entry = entries.get(i);
+                OptionalInt balance = balances.get(j);
+                if (balance.isPresent()) {
+                    walletChangeFeed.balanceChanged(userId, balance.getAsInt() - floors.get(userId));
+                }
+                results[i] = balance.isPresent()
+                    ? WalletBatchResult.succeeded(userId, entry.get("action"), entry.get("amount"), balance.getAsInt() - floors.get(userId))
+                    : WalletBatchResult.failed(userId, entry.get("action"), entry.get("amount"), "Insufficient balance");
             }
-            if(newBalance < 0){
+        } finally {
+            walletHolds.unlockAll(locks);
+        }
+        return Arrays.asList(results);
+    }
+
+    static int parseUserId(Map<String, String> entry) {
+        if (entry == null || entry.get("user_id") == null) {
+            throw new BadRequestException("Invalid payload");
+        }
+        try {
+            return Integer.parseInt(entry.get("user_id"));
+        }
+        catch (NumberFormatException e) {
+            throw new BadRequestException("Invalid payload");
+        }
+    }
+
+    // Reserve funds of the user for a later capture or release
+    public Hold placeHold(int userId, Map<String, String> holdDetails) {
+        walletPartition.checkOwns(userId);
+        int amount = parsePositive(holdDetails, "amount");
+        long ttlSeconds = holdDetails.get("ttl_seconds") == null ? defaultHoldTtlSeconds : parsePositive(holdDetails, "ttl_seconds");
+        ReentrantLock lock = walletHolds.lockFor(userId);
+        lock.lock();
+        try {
+            Optional<Wallet> wallet = walletStore.find(userId);
+            if (wallet.isEmpty() || wallet.get().getBalance() - walletHolds.reservedFor(userId) < amount) {
+                throw new InsufficientBalanceException("Insufficient balance");
+            }
+            Hold hold = walletHolds.place(userId, amount, ttlSeconds * 1000);
+            walletChangeFeed.balanceChanged(userId, wallet.get().getBalance() - walletHolds.reservedFor(userId));
+            return hold;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Debit the held amount and close the hold. Capturing a hold already captured debits
+    // nothing again and answers like the first capture did (with the balance of now).
+    public Wallet captureHold(String holdId) {
+        Hold hold = walletHolds.find(holdId);
+        if (hold == null) {
+            hold = walletHolds.findCaptured(holdId);
+        }
+        if (hold == null) {
+            throw new HoldNotExistsException("Hold with id " + holdId + " does not exist.");
+        }
+        int userId = hold.getUserId();
+        ReentrantLock lock = walletHolds.lockFor(userId);
+        lock.lock();
+        try {
+            if (walletHolds.find(holdId) == null) {
+                if (walletHolds.findCaptured(holdId) == null) {
+                    throw new HoldNotExistsException("Hold with id " + holdId + " does not exist.");
+                }
+                return getByUserId(userId);
+            }
+            // The hold is closed only once the debit is applied: if the store refuses it or fails,
+            // the funds stay reserved and the capture can be sent again
+            int reserved = walletHolds.reservedFor(userId) - hold.getAmount();
+            OptionalInt balance = walletStore.applyDelta(userId, -hold.getAmount(), reserved);
+            if (balance.isEmpty()) {
                 throw new InsufficientBalanceException("Insufficient balance");
             }
+            walletHolds.remove(holdId);
+            walletHolds.captured(hold);
+            walletChangeFeed.balanceChanged(userId, balance.getAsInt() - reserved);
+            return toWallet(userId, balance.getAsInt() - reserved);
+        } finally {
+            lock.unlock();
         }
-        catch(InsufficientBalanceException e) {
-            throw e;
+    }
+
+    // Close the hold without touching the balance
+    public void releaseHold(String holdId) {
+        Hold hold = walletHolds.find(holdId);
+        if (hold == null) {
+            throw new HoldNotExistsException("Hold with id " + holdId + " does not exist.");
         }
-        catch (Exception e) {
+        ReentrantLock lock = walletHolds.lockFor(hold.getUserId());
+        lock.lock();
+        try {
+            if (walletHolds.remove(holdId) == null) {
+                throw new HoldNotExistsException("Hold with id " + holdId + " does not exist.");
+            }
+            publishBalance(hold.getUserId());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static int parsePositive(Map<String, String> details, String field) {
+        if (details == null || details.get(field) == null) {
+            throw new BadRequestException("Invalid payload");
+        }
+        try {
+            int value = Integer.parseInt(details.get(field));
+            if (value <= 0) {
+                throw new BadRequestException("Invalid payload");
+            }
+            return value;
+        }
+        catch (NumberFormatException e) {
             throw new BadRequestException("Invalid payload");
         }
-        Wallet wallet_ = new Wallet();
-        wallet_.setBalance(newBalance);
-        wallet_.setUserId(user_id); /* this user must exist */
-        walletRepository.save(wallet_);
-        return wallet_;
+    }
+
+    // Signed amount of a {"action": "credit"|"debit", "amount": n} payload
+    static int parseDelta(Map<String, String> walletDetails) {
+        boolean validPayload = walletDetails != null;
+        validPayload = validPayload && walletDetails.get("amount") != null && walletDetails.get("action") != null && (walletDetails.get("action").equals("credit") || walletDetails.get("action").equals("debit"));
+        validPayload = validPayload && !walletDetails.get("amount").isEmpty() && !walletDetails.get("action").isEmpty();
+        if (!validPayload) {
+            throw new BadRequestException("Invalid payload");
+        }
+        int amount;
+        try {
+            amount = Integer.parseInt(walletDetails.get("amount"));
+        }
+        catch (NumberFormatException e) {
+            throw new BadRequestException("Invalid payload");
+        }
+        return walletDetails.get("action").equals("credit") ? amount : -amount;
+    }
+
+    // Publishes the balance the user's wallet reports now. Call with the user's lock held.
+    private void publishBalance(int userId) {
+        walletStore.find(userId).ifPresent(wallet ->
+            walletChangeFeed.balanceChanged(userId, wallet.getBalance() - walletHolds.reservedFor(userId)));
+    }
+
+    static Wallet toWallet(Integer user_id, int balance) {
+        Wallet wallet = new Wallet();
+        wallet.setUserId(user_id);
+        wallet.setBalance(balance);
+        return wallet;
     }
 
     // Delete user by userId
-    @Transactional
     public void deleteWallet(int userId) {
-        // Check if the Wallet exists
-        try{
-            Wallet existingWallet = this.getByUserId(userId);
-        }
-        catch(WalletNotExistsException ex){
-            throw ex;
+        walletPartition.checkOwns(userId);
+        ReentrantLock lock = walletHolds.lockFor(userId);
+        lock.lock();
+        try {
+            // Delete the wallet in the Wallet Service if it exists
+            if (!walletStore.delete(userId)) {
+                throw new WalletNotExistsException("Wallet with id " + userId + " does not exist.");
+            }
+            walletHolds.removeAll(userId);
+            walletRequestLog.removeAll(userId);
+            walletChangeFeed.walletDeleted(userId);
+        } finally {
+            lock.unlock();
         }
-        // Delete the wallet in the Wallet Service
-        walletRepository.deleteById(userId);
     }
 
     // Delete all user
     public void deleteAllWallets() {
         // Delete all the wallets in the Wallet Service
-        walletRepository.deleteAll();
+        walletStore.deleteAll();
+        walletHolds.clear();
+        walletRequestLog.clear();
+        walletChangeFeed.allDeleted();
     }
 }
\ No newline at end of file
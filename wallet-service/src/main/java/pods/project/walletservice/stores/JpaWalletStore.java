@@ -0,0 +1,107 @@
+package pods.project.walletservice.stores;
+
+import pods.project.walletservice.entities.Wallet;
+import pods.project.walletservice.repositories.WalletRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+
+// Default engine: every operation is a statement against the Wallet table.
+@Component
+@ConditionalOnProperty(name = "wallet.engine", havingValue = "jpa", matchIfMissing = true)
+public class JpaWalletStore implements WalletStore {
+
+    private static final int JDBC_BATCH_SIZE = 100;
+
+    @Autowired
+    private WalletRepository walletRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Override
+    public Optional<Wallet> find(int userId) {
+        List<Wallet> wallet = walletRepository.findByUserId(userId);
+        return wallet.isEmpty() ? Optional.empty() : Optional.of(wallet.get(0));
+    }
+
+    // Each step is one auto-committed statement, so concurrent updates on a wallet never queue on a held row lock.
+    @Override
+    public OptionalInt applyDelta(int userId, int delta, int floor) {
+        List<Integer> balance = walletRepository.addToBalance(userId, delta, floor);
+        if (balance.isEmpty() && delta >= 0) {
+            // No wallet yet: create it already holding the credit
+            try {
+                walletRepository.insertWallet(userId, delta);
+                return OptionalInt.of(delta);
+            }
+            catch (DataIntegrityViolationException ex) {
+                // A concurrent request created it first; apply the credit to that wallet
+                balance = walletRepository.addToBalance(userId, delta, floor);
+            }
+        }
+        return balance.isEmpty() ? OptionalInt.empty() : OptionalInt.of(balance.get(0));
+    }
+
+    // One transaction of JDBC-batched conditional updates. Callers pass the changes sorted by
+    // user_id, so two batches always take their row locks in the same order.
+    @Override
+    @Transactional
+    public List<OptionalInt> applyDeltas(List<BalanceChange> changes, Map<Integer, Integer> floors) {
+        if (changes.isEmpty()) {
+            return List.of();
+        }
+        // Wallets credited in this batch that do not exist yet start from zero
+        List<Integer> credited = changes.stream().filter(change -> change.delta >= 0).map(change -> change.userId).distinct().toList();
+        jdbcTemplate.batchUpdate("MERGE INTO wallet USING (VALUES (CAST(? AS INT))) AS s(user_id) ON wallet.user_id = s.user_id "
+                + "WHEN NOT MATCHED THEN INSERT (user_id, balance) VALUES (s.user_id, 0)",
+            credited, JDBC_BATCH_SIZE, (ps, userId) -> ps.setInt(1, userId));
+
+        // Bounded like WalletRepository.addToBalance: an entry that would overflow an int updates no
+        // row instead of failing the statement, which would roll back the whole batch
+        int[][] counts = jdbcTemplate.batchUpdate("UPDATE wallet SET balance = balance + ?, version = version + 1 "
+                + "WHERE user_id = ? AND CAST(balance AS BIGINT) + ? BETWEEN ? AND 2147483647",
+            changes, JDBC_BATCH_SIZE, (ps, change) -> {
+                ps.setInt(1, change.delta);
+                ps.setInt(2, change.userId);
+                ps.setInt(3, change.delta);
+                ps.setInt(4, floors.getOrDefault(change.userId, 0));
+            });
+
+        // Row locks are held until commit, so the balance after each entry follows from the final
+        // balance minus the later successful changes of the same user.
+        List<Integer> userIds = changes.stream().map(change -> change.userId).distinct().toList();
+        Map<Integer, Integer> balances = new HashMap<>();
+        jdbcTemplate.query("SELECT user_id, balance FROM wallet WHERE user_id IN ("
+                + String.join(",", Collections.nCopies(userIds.size(), "?")) + ")",
+            rs -> { balances.put(rs.getInt("user_id"), rs.getInt("balance")); }, userIds.toArray());
+
+        OptionalInt[] results = new OptionalInt[changes.size()];
+        for (int i = changes.size() - 1; i >= 0; i--) {
+            BalanceChange change = changes.get(i);
+            if (counts[i / JDBC_BATCH_SIZE][i % JDBC_BATCH_SIZE] == 0) {
+                results[i] = OptionalInt.empty();
+            } else {
+                int balance = balances.get(change.userId);
+                results[i] = OptionalInt.of(balance);
+                balances.put(change.userId, balance - change.delta);
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    @Override
+    public boolean delete(int userId) {
+        return walletRepository.deleteByUserId(userId) == 1;
+    }
+
+    @Override
+    public void deleteAll() {
+        walletRepository.deleteAllInBatch();
+    }
+}
@@ -0,0 +1,323 @@
+package pods.project.walletservice.stores;
+
+import pods.project.walletservice.entities.Wallet;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// In-memory wallet engine (wallet.engine=ledger).
+//
+// Balances live in a map split into lock stripes by user_id, so updates of different
+// users never contend and an update of one user is a few map operations. Every change
+// is appended to the WriteAheadLog while the stripe is held (keeping per-user log order)
+// and the request is answered once the log's group commit has made it durable.
+// A background checkpointer writes the changed balances into the Wallet table and
+// records the log position it covers; on startup the engine loads the Wallet table and
+// replays the log from that position.
+//
+// The Wallet table is the checkpoint, so keeping balances across restarts needs
+// spring.jpa.hibernate.ddl-auto=update rather than create.
+@Component
+@ConditionalOnProperty(name = "wallet.engine", havingValue = "ledger")
+@DependsOn("entityManagerFactory") // the tables must exist before recovery reads them
+public class LedgerWalletStore implements WalletStore {
+
+    private static final Logger log = LoggerFactory.getLogger(LedgerWalletStore.class);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${wallet.ledger.directory:./data/wallet-ledger}")
+    private String directory;
+
+    @Value("${wallet.ledger.segment-size:67108864}")
+    private int segmentSize;
+
+    @Value("${wallet.ledger.stripes:64}")
+    private int stripeCount;
+
+    @Value("${wallet.ledger.checkpoint-interval-ms:1000}")
+    private long checkpointIntervalMs;
+
+    private Stripe[] stripes;
+    private WriteAheadLog wal;
+    private ScheduledExecutorService checkpointer;
+
+    // Set by deleteAll() until the next checkpoint empties the Wallet table (guarded by all stripe locks)
+    private boolean cleared;
+
+    private static class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final Map<Integer, Integer> balances = new HashMap<>();
+        // Users changed since the last checkpoint
+        final Set<Integer> dirty = new HashSet<>();
+    }
+
+    @PostConstruct
+    public void start() {
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+        recover();
+        checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "wallet-checkpointer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkpointer.scheduleWithFixedDelay(this::checkpointQuietly, checkpointIntervalMs, checkpointIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        checkpointer.shutdown();
+        checkpointer.awaitTermination(10, TimeUnit.SECONDS);
+        checkpoint();
+        wal.close();
+    }
+
+    @Override
+    public Optional<Wallet> find(int userId) {
+        Stripe stripe = stripeOf(userId);
+        stripe.lock.lock();
+        try {
+            Integer balance = stripe.balances.get(userId);
+            return balance == null ? Optional.empty() : Optional.of(toWallet(userId, balance));
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    @Override
+    public OptionalInt applyDelta(int userId, int delta, int floor) {
+        Stripe stripe = stripeOf(userId);
+        int updated;
+        long lsn;
+        stripe.lock.lock();
+        try {
+            Integer balance = stripe.balances.get(userId);
+            if (balance == null && delta < 0) {
+                return OptionalInt.empty();
+            }
+            long sum = (balance == null ? 0L : balance) + delta;
+            // Like applyDeltas: a balance past Integer.MAX_VALUE is refused, not a 500
+            if (sum < floor || sum > Integer.MAX_VALUE) {
+                return OptionalInt.empty();
+            }
+            updated = (int) sum;
+            stripe.balances.put(userId, updated);
+            stripe.dirty.add(userId);
+            lsn = wal.append(WriteAheadLog.SET, userId, updated);
+        } finally {
+            stripe.lock.unlock();
+        }
+        wal.awaitDurable(lsn);
+        return OptionalInt.of(updated);
+    }
+
+    // Entries are applied one by one; the batch waits for the log once, after the last record.
+    @Override
+    public List<OptionalInt> applyDeltas(List<BalanceChange> changes, Map<Integer, Integer> floors) {
+        List<OptionalInt> results = new ArrayList<>(changes.size());
+        long lastLsn = 0;
+        for (BalanceChange change : changes) {
+            Stripe stripe = stripeOf(change.userId);
+            stripe.lock.lock();
+            try {
+                Integer balance = stripe.balances.get(change.userId);
+                long updated = (balance == null ? 0L : balance) + change.delta;
+                if ((balance == null && change.delta < 0) || updated < floors.getOrDefault(change.userId, 0) || updated > Integer.MAX_VALUE) {
+                    results.add(OptionalInt.empty());
+                    continue;
+                }
+                stripe.balances.put(change.userId, (int) updated);
+                stripe.dirty.add(change.userId);
+                lastLsn = wal.append(WriteAheadLog.SET, change.userId, (int) updated);
+                results.add(OptionalInt.of((int) updated));
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        wal.awaitDurable(lastLsn);
+        return results;
+    }
+
+    @Override
+    public boolean delete(int userId) {
+        Stripe stripe = stripeOf(userId);
+        long lsn;
+        stripe.lock.lock();
+        try {
+            if (stripe.balances.remove(userId) == null) {
+                return false;
+            }
+            stripe.dirty.add(userId);
+            lsn = wal.append(WriteAheadLog.DELETE, userId, 0);
+        } finally {
+            stripe.lock.unlock();
+        }
+        wal.awaitDurable(lsn);
+        return true;
+    }
+
+    @Override
+    public void deleteAll() {
+        long lsn;
+        lockAll();
+        try {
+            for (Stripe stripe : stripes) {
+                stripe.balances.clear();
+                stripe.dirty.clear();
+            }
+            cleared = true;
+            lsn = wal.append(WriteAheadLog.CLEAR, 0, 0);
+        } finally {
+            unlockAll();
+        }
+        wal.awaitDurable(lsn);
+    }
+
+    // Writes every balance changed since the last checkpoint into the Wallet table.
+    // The dirty sets are taken with all stripes held, so the snapshot is exactly the
+    // state after the log record preceding the recorded checkpoint position.
+    synchronized void checkpoint() {
+        Map<Integer, Integer> changes = new HashMap<>();
+        boolean clear;
+        long lsn;
+        lockAll();
+        try {
+            lsn = wal.position();
+            clear = cleared;
+            cleared = false;
+            for (Stripe stripe : stripes) {
+                for (Integer userId : stripe.dirty) {
+                    changes.put(userId, stripe.balances.get(userId));
+                }
+                stripe.dirty.clear();
+            }
+        } finally {
+            unlockAll();
+        }
+        if (!clear && changes.isEmpty()) {
+            return;
+        }
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                if (clear) {
+                    jdbcTemplate.update("DELETE FROM wallet");
+                }
+                List<Object[]> upserts = new ArrayList<>();
+                List<Object[]> deletes = new ArrayList<>();
+                for (Map.Entry<Integer, Integer> change : changes.entrySet()) {
+                    if (change.getValue() == null) {
+                        deletes.add(new Object[] { change.getKey() });
+                    } else {
+                        upserts.add(new Object[] { change.getKey(), change.getValue() });
+                    }
+                }
+                jdbcTemplate.batchUpdate("MERGE INTO wallet (user_id, balance) KEY (user_id) VALUES (?, ?)", upserts);
+                jdbcTemplate.batchUpdate("DELETE FROM wallet WHERE user_id = ?", deletes);
+                jdbcTemplate.update("MERGE INTO wallet_checkpoint (id, lsn) KEY (id) VALUES (1, ?)", lsn);
+            });
+        } catch (RuntimeException e) {
+            // Put the changes back so the next checkpoint retries them
+            lockAll();
+            try {
+                cleared |= clear;
+                for (Integer userId : changes.keySet()) {
+                    stripeOf(userId).dirty.add(userId);
+                }
+            } finally {
+                unlockAll();
+            }
+            throw e;
+        }
+        wal.truncateBefore(lsn);
+    }
+
+    private void checkpointQuietly() {
+        try {
+            checkpoint();
+        } catch (Exception e) {
+            log.warn("Wallet checkpoint failed, will retry: {}", e.getMessage());
+        }
+    }
+
+    // Loads the last checkpoint from the Wallet table and replays the log written after it.
+    private void recover() {
+        List<Long> checkpoints = jdbcTemplate.queryForList("SELECT lsn FROM wallet_checkpoint WHERE id = 1", Long.class);
+        long checkpointLsn = checkpoints.isEmpty() ? 0 : checkpoints.get(0);
+        jdbcTemplate.query("SELECT user_id, balance FROM wallet", rs -> {
+            int userId = rs.getInt("user_id");
+            stripeOf(userId).balances.put(userId, rs.getInt("balance"));
+        });
+
+        wal = new WriteAheadLog(Path.of(directory), segmentSize);
+        if (wal.firstLsn() > checkpointLsn) {
+            log.warn("Wallet log starts at {} but the last checkpoint is at {}; balances in between are lost "
+                + "(was the Wallet table recreated?)", wal.firstLsn(), checkpointLsn);
+        }
+        int[] replayed = { 0 };
+        wal.replay(checkpointLsn, (type, userId, balance) -> {
+            if (type == WriteAheadLog.CLEAR) {
+                for (Stripe stripe : stripes) {
+                    stripe.balances.clear();
+                    stripe.dirty.clear();
+                }
+                cleared = true;
+            } else {
+                Stripe stripe = stripeOf(userId);
+                if (type == WriteAheadLog.SET) {
+                    stripe.balances.put(userId, balance);
+                } else {
+                    stripe.balances.remove(userId);
+                }
+                stripe.dirty.add(userId);
+            }
+            replayed[0]++;
+        });
+        log.info("Wallet ledger recovered from checkpoint {} plus {} log records", checkpointLsn, replayed[0]);
+    }
+
+    private Stripe stripeOf(int userId) {
+        return stripes[Math.floorMod(userId, stripes.length)];
+    }
+
+    private void lockAll() {
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].lock.unlock();
+        }
+    }
+
+    private Wallet toWallet(int userId, int balance) {
+        Wallet wallet = new Wallet();
+        wallet.setUserId(userId);
+        wallet.setBalance(balance);
+        return wallet;
+    }
+}
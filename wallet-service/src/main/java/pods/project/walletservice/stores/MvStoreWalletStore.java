@@ -0,0 +1,198 @@
+package pods.project.walletservice.stores;
+
+import pods.project.walletservice.entities.Wallet;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.h2.engine.IsolationLevel;
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.tx.Transaction;
+import org.h2.mvstore.tx.TransactionMap;
+import org.h2.mvstore.tx.TransactionStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Key-value wallet engine (wallet.engine=mvstore).
+//
+// Wallets are a user_id -> balance map in H2's MVStore, used directly through its
+// TransactionStore: no SQL parsing, Hibernate or JDBC on the request path. Reads are
+// MVCC snapshot reads and never wait. Writers of one user are serialized on a striped
+// lock (MVStore's own row locks do not cover keys that do not exist yet, which is how
+// a credit creates a wallet), and each operation or batch commits as one transaction.
+// Like the H2 database itself, committed changes reach the file within
+// wallet.mvstore.auto-commit-delay-ms.
+@Component
+@ConditionalOnProperty(name = "wallet.engine", havingValue = "mvstore")
+public class MvStoreWalletStore implements WalletStore {
+
+    private static final String MAP_NAME = "wallets";
+    private static final int LOCK_TIMEOUT_MILLIS = 5000;
+
+    @Value("${wallet.mvstore.file:./data/wallet-store.mv}")
+    private String file;
+
+    @Value("${wallet.mvstore.auto-commit-delay-ms:1000}")
+    private int autoCommitDelayMs;
+
+    @Value("${wallet.mvstore.stripes:64}")
+    private int stripeCount;
+
+    private MVStore store;
+    private TransactionStore transactions;
+    private ReentrantLock[] locks;
+
+    @PostConstruct
+    public void start() {
+        try {
+            Path parent = Path.of(file).toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create directory for " + file, e);
+        }
+        store = new MVStore.Builder().fileName(file).open();
+        store.setAutoCommitDelay(autoCommitDelayMs);
+        transactions = new TransactionStore(store);
+        transactions.init();
+        locks = new ReentrantLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        transactions.close();
+        store.close();
+    }
+
+    @Override
+    public Optional<Wallet> find(int userId) {
+        Transaction tx = begin();
+        try {
+            Integer balance = wallets(tx).get(userId);
+            return balance == null ? Optional.empty() : Optional.of(toWallet(userId, balance));
+        } finally {
+            tx.commit();
+        }
+    }
+
+    @Override
+    public OptionalInt applyDelta(int userId, int delta, int floor) {
+        ReentrantLock lock = lockFor(userId);
+        lock.lock();
+        try {
+            Transaction tx = begin();
+            try {
+                OptionalInt balance = apply(wallets(tx), userId, delta, floor);
+                tx.commit();
+                return balance;
+            } catch (RuntimeException e) {
+                tx.rollback();
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The whole batch is one MVStore transaction, under the locks of all its users.
+    @Override
+    public List<OptionalInt> applyDeltas(List<BalanceChange> changes, Map<Integer, Integer> floors) {
+        List<ReentrantLock> held = changes.stream().map(change -> Math.floorMod(change.userId, locks.length))
+            .distinct().sorted().map(stripe -> locks[stripe]).toList();
+        held.forEach(ReentrantLock::lock);
+        try {
+            Transaction tx = begin();
+            try {
+                TransactionMap<Integer, Integer> wallets = wallets(tx);
+                List<OptionalInt> results = new ArrayList<>(changes.size());
+                for (BalanceChange change : changes) {
+                    results.add(apply(wallets, change.userId, change.delta, floors.getOrDefault(change.userId, 0)));
+                }
+                tx.commit();
+                return results;
+            } catch (RuntimeException e) {
+                tx.rollback();
+                throw e;
+            }
+        } finally {
+            for (int i = held.size() - 1; i >= 0; i--) {
+                held.get(i).unlock();
+            }
+        }
+    }
+
+    @Override
+    public boolean delete(int userId) {
+        ReentrantLock lock = lockFor(userId);
+        lock.lock();
+        try {
+            Transaction tx = begin();
+            boolean deleted = wallets(tx).remove(userId) != null;
+            tx.commit();
+            return deleted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void deleteAll() {
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+        try {
+            Transaction tx = begin();
+            TransactionMap<Integer, Integer> wallets = wallets(tx);
+            for (Integer userId : new ArrayList<>(wallets.keySet())) {
+                wallets.remove(userId);
+            }
+            tx.commit();
+        } finally {
+            for (int i = locks.length - 1; i >= 0; i--) {
+                locks[i].unlock();
+            }
+        }
+    }
+
+    // Call with the user's lock held.
+    private OptionalInt apply(TransactionMap<Integer, Integer> wallets, int userId, int delta, int floor) {
+        Integer balance = wallets.get(userId);
+        if (balance == null && delta < 0) {
+            return OptionalInt.empty();
+        }
+        long updated = (balance == null ? 0L : balance) + delta;
+        // A balance past Integer.MAX_VALUE is refused like one below the floor, not a 500
+        if (updated < floor || updated > Integer.MAX_VALUE) {
+            return OptionalInt.empty();
+        }
+        wallets.put(userId, (int) updated);
+        return OptionalInt.of((int) updated);
+    }
+
+    private Transaction begin() {
+        return transactions.begin(null, LOCK_TIMEOUT_MILLIS, 0, IsolationLevel.READ_COMMITTED);
+    }
+
+    private TransactionMap<Integer, Integer> wallets(Transaction tx) {
+        return tx.openMap(MAP_NAME);
+    }
+
+    private ReentrantLock lockFor(int userId) {
+        return locks[Math.floorMod(userId, locks.length)];
+    }
+
+    private Wallet toWallet(int userId, int balance) {
+        Wallet wallet = new Wallet();
+        wallet.setUserId(userId);
+        wallet.setBalance(balance);
+        return wallet;
+    }
+}
@@ -0,0 +1,167 @@
+package pods.project.walletservice.stores;
+
+import pods.project.walletservice.entities.Wallet;
+import io.r2dbc.h2.H2ConnectionConfiguration;
+import io.r2dbc.h2.H2ConnectionFactory;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactory;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.*;
+
+// R2DBC access to the Wallet table for the reactive stack (spring.main.web-application-type=reactive).
+//
+// Same statements as JpaWalletStore, on the same H2 database (spring.datasource.url), but
+// returning Monos. H2 runs embedded, so a statement still executes on the thread that
+// subscribes to it: every call is moved onto a bounded "wallet-r2dbc" scheduler, sized
+// like the connection pool, which keeps Netty's event loops free of database work and
+// row-lock waits.
+//
+// The transaction manager is built here rather than exposed as a bean: a second
+// TransactionManager bean would stop Boot from creating the JPA one the rest of the
+// service relies on.
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveWalletStore {
+
+    private static final String UPDATE_BALANCE = "SELECT balance FROM FINAL TABLE (UPDATE wallet SET balance = balance + :delta, "
+        + "version = version + 1 WHERE user_id = :userId AND CAST(balance AS BIGINT) + :delta BETWEEN :floor AND 2147483647)";
+
+    @Value("${spring.datasource.url}")
+    private String jdbcUrl;
+
+    @Value("${spring.datasource.username}")
+    private String username;
+
+    @Value("${spring.datasource.password}")
+    private String password;
+
+    @Value("${wallet.engine:jpa}")
+    private String engine;
+
+    @Value("${wallet.reactive.db-threads:32}")
+    private int dbThreads;
+
+    private ConnectionPool connectionPool;
+    private DatabaseClient databaseClient;
+    private TransactionalOperator transactionalOperator;
+    private Scheduler scheduler;
+
+    @PostConstruct
+    public void start() {
+        // The ledger and mvstore engines own the balances themselves; only the table engine can share them
+        if (!"jpa".equals(engine)) {
+            throw new IllegalStateException("The reactive wallet stack needs wallet.engine=jpa, got " + engine);
+        }
+        if (!jdbcUrl.startsWith("jdbc:h2:")) {
+            throw new IllegalStateException("The reactive wallet stack needs an H2 spring.datasource.url, got " + jdbcUrl);
+        }
+        H2ConnectionFactory h2 = new H2ConnectionFactory(H2ConnectionConfiguration.builder()
+            .url(jdbcUrl.substring("jdbc:h2:".length()))
+            .username(username)
+            .password(password)
+            .build());
+        // Reuse H2 sessions instead of opening one per statement
+        connectionPool = new ConnectionPool(ConnectionPoolConfiguration.builder(h2).maxSize(dbThreads).build());
+        ConnectionFactory connectionFactory = connectionPool;
+        databaseClient = DatabaseClient.create(connectionFactory);
+        transactionalOperator = TransactionalOperator.create(new R2dbcTransactionManager(connectionFactory));
+        scheduler = Schedulers.newBoundedElastic(dbThreads, Integer.MAX_VALUE, "wallet-r2dbc");
+    }
+
+    @PreDestroy
+    public void stop() {
+        connectionPool.dispose();
+        scheduler.dispose();
+    }
+
+    public Mono<Wallet> find(int userId) {
+        return databaseClient.sql("SELECT balance FROM wallet WHERE user_id = :userId")
+            .bind("userId", userId)
+            .map(row -> row.get("balance", Integer.class))
+            .one()
+            .map(balance -> toWallet(userId, balance))
+            .subscribeOn(scheduler);
+    }
+
+    // New balance, or empty if the wallet is missing (for a debit) or would drop below floor or overflow an int.
+    // Like JpaWalletStore.applyDelta every step is one auto-committed statement.
+    public Mono<Integer> applyDelta(int userId, int delta, int floor) {
+        Mono<Integer> created = delta < 0 ? Mono.empty()
+            : insertWallet(userId, delta).thenReturn(delta)
+                // A concurrent request created it first; apply the credit to that wallet
+                .onErrorResume(DataIntegrityViolationException.class, ex -> addToBalance(userId, delta, floor));
+        return addToBalance(userId, delta, floor)
+            .switchIfEmpty(created)
+            .subscribeOn(scheduler);
+    }
+
+    // All changes in one transaction, in the given (user_id sorted) order; one result per change.
+    public Mono<List<OptionalInt>> applyDeltas(List<WalletStore.BalanceChange> changes, Map<Integer, Integer> floors) {
+        return Flux.fromIterable(changes)
+            .concatMap(change -> {
+                Mono<Void> ensureWallet = change.delta < 0 ? Mono.empty()
+                    : databaseClient.sql("MERGE INTO wallet USING (VALUES (CAST(:userId AS INT))) AS s(user_id) ON wallet.user_id = s.user_id "
+                            + "WHEN NOT MATCHED THEN INSERT (user_id, balance) VALUES (s.user_id, 0)")
+                        .bind("userId", change.userId)
+                        .then();
+                return ensureWallet.then(addToBalance(change.userId, change.delta, floors.getOrDefault(change.userId, 0))
+                    .map(OptionalInt::of)
+                    .defaultIfEmpty(OptionalInt.empty()));
+            })
+            .collectList()
+            .as(transactionalOperator::transactional)
+            .subscribeOn(scheduler);
+    }
+
+    public Mono<Boolean> delete(int userId) {
+        return databaseClient.sql("DELETE FROM wallet WHERE user_id = :userId")
+            .bind("userId", userId)
+            .fetch()
+            .rowsUpdated()
+            .map(count -> count == 1)
+            .subscribeOn(scheduler);
+    }
+
+    public Mono<Void> deleteAll() {
+        return databaseClient.sql("DELETE FROM wallet")
+            .then()
+            .subscribeOn(scheduler);
+    }
+
+    private Mono<Integer> addToBalance(int userId, int delta, int floor) {
+        return databaseClient.sql(UPDATE_BALANCE)
+            .bind("delta", delta)
+            .bind("userId", userId)
+            .bind("floor", floor)
+            .map(row -> row.get("balance", Integer.class))
+            .one();
+    }
+
+    private Mono<Void> insertWallet(int userId, int balance) {
+        return databaseClient.sql("INSERT INTO wallet (user_id, balance) VALUES (:userId, :balance)")
+            .bind("userId", userId)
+            .bind("balance", balance)
+            .then();
+    }
+
+    private Wallet toWallet(int userId, int balance) {
+        Wallet wallet = new Wallet();
+        wallet.setUserId(userId);
+        wallet.setBalance(balance);
+        return wallet;
+    }
+}
@@ -0,0 +1,39 @@
+package pods.project.walletservice.stores;
+
+import pods.project.walletservice.entities.Wallet;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+
+// Storage engine behind WalletService, selected with the "wallet.engine" property.
+public interface WalletStore {
+
+    Optional<Wallet> find(int userId);
+
+    // Adds delta to the user's balance, creating the wallet on a credit if it does not exist.
+    // Returns the new balance, or nothing if the wallet is missing or the new balance would drop below floor
+    // (the funds still reserved by holds) or past Integer.MAX_VALUE; callers report both as insufficient balance.
+    OptionalInt applyDelta(int userId, int delta, int floor);
+
+    // Applies a batch of changes in the given order, each checked against the floor of its user
+    // like applyDelta; a failed entry does not stop the others. Returns the balance after each
+    // entry, or nothing for the entries that failed.
+    List<OptionalInt> applyDeltas(List<BalanceChange> changes, Map<Integer, Integer> floors);
+
+    // Returns false if the user has no wallet.
+    boolean delete(int userId);
+
+    void deleteAll();
+
+    class BalanceChange {
+        public final int userId;
+        public final int delta;
+
+        public BalanceChange(int userId, int delta) {
+            this.userId = userId;
+            this.delta = delta;
+        }
+    }
+}
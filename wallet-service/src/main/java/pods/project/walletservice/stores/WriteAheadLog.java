@@ -0,0 +1,231 @@
+package pods.project.walletservice.stores;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+// Memory-mapped write-ahead log of the ledger engine, with group commit.
+//
+// Records are appended into fixed-size segment files; the log sequence number (LSN)
+// of a record is its byte offset across all segments, so segment n covers
+// [n * segmentSize, (n + 1) * segmentSize). Appenders only copy into the mapping and
+// then wait in awaitDurable(); a single flusher thread forces everything appended so
+// far in one go, so one fsync covers every request that arrived meanwhile.
+//
+// Record layout: type:byte userId:int balance:int
+// The type byte is written last and segments are zero-filled, so a zero type marks
+// the end of a segment's records.
+public class WriteAheadLog {
+
+    public static final byte SET = 1;
+    public static final byte DELETE = 2;
+    public static final byte CLEAR = 3;
+
+    static final int RECORD_BYTES = 9;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<>();
+    private final Thread flusher;
+
+    // Guarded by this
+    private MappedByteBuffer current;
+    private long currentSegment;
+    private long position;
+
+    // Guarded by flushLock
+    private final Object flushLock = new Object();
+    private long durable;
+    private long requested;
+    private boolean closed;
+
+    public interface Visitor {
+        void apply(byte type, int userId, int balance);
+    }
+
+    public WriteAheadLog(Path directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize - segmentSize % RECORD_BYTES;
+        try {
+            Files.createDirectories(directory);
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    String name = file.getFileName().toString();
+                    if (name.startsWith("wal-") && name.endsWith(".log")) {
+                        long segmentNumber = Long.parseLong(name.substring(4, name.length() - 4));
+                        segments.put(segmentNumber, map(segmentNumber));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open wallet log in " + directory, e);
+        }
+        if (segments.isEmpty()) {
+            segments.put(0L, map(0));
+        }
+        currentSegment = segments.lastKey();
+        current = segments.get(currentSegment);
+        int offset = 0;
+        while (offset + RECORD_BYTES <= this.segmentSize && current.get(offset) != 0) {
+            offset += RECORD_BYTES;
+        }
+        position = currentSegment * this.segmentSize + offset;
+        durable = position;
+        requested = position;
+
+        flusher = new Thread(this::flushLoop, "wallet-wal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    // Copies a record into the log and returns the LSN just past it.
+    // The record is durable once awaitDurable() returns for that LSN.
+    public synchronized long append(byte type, int userId, int balance) {
+        int offset = (int) (position - currentSegment * segmentSize);
+        if (offset + RECORD_BYTES > segmentSize) {
+            // Older segments are forced here, so the flusher only ever syncs the current one
+            current.force();
+            currentSegment++;
+            current = map(currentSegment);
+            segments.put(currentSegment, current);
+            position = currentSegment * segmentSize;
+            offset = 0;
+        }
+        current.putInt(offset + 1, userId);
+        current.putInt(offset + 5, balance);
+        current.put(offset, type);
+        position += RECORD_BYTES;
+        return position;
+    }
+
+    public synchronized long position() {
+        return position;
+    }
+
+    public void awaitDurable(long lsn) {
+        synchronized (flushLock) {
+            if (lsn > requested) {
+                requested = lsn;
+                flushLock.notifyAll();
+            }
+            while (durable < lsn) {
+                if (closed) {
+                    throw new IllegalStateException("Wallet log is closed");
+                }
+                try {
+                    flushLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the wallet log", e);
+                }
+            }
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            synchronized (flushLock) {
+                while (requested <= durable && !closed) {
+                    try {
+                        flushLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+            }
+            long flushed = durable();
+            long target;
+            MappedByteBuffer segment;
+            int from;
+            int to;
+            synchronized (this) {
+                target = position;
+                segment = current;
+                long segmentStart = currentSegment * segmentSize;
+                from = (int) Math.max(0, flushed - segmentStart);
+                to = (int) (target - segmentStart);
+            }
+            if (to > from) {
+                segment.force(from, to - from);
+            }
+            synchronized (flushLock) {
+                durable = Math.max(durable, target);
+                flushLock.notifyAll();
+            }
+        }
+    }
+
+    private long durable() {
+        synchronized (flushLock) {
+            return durable;
+        }
+    }
+
+    // Calls the visitor for every record at or after the given LSN, in log order.
+    public synchronized void replay(long fromLsn, Visitor visitor) {
+        for (Map.Entry<Long, MappedByteBuffer> entry : segments.entrySet()) {
+            long segmentStart = entry.getKey() * segmentSize;
+            if (segmentStart + segmentSize <= fromLsn) {
+                continue;
+            }
+            MappedByteBuffer segment = entry.getValue();
+            int offset = (int) Math.max(0, fromLsn - segmentStart);
+            while (offset + RECORD_BYTES <= segmentSize && segment.get(offset) != 0) {
+                visitor.apply(segment.get(offset), segment.getInt(offset + 1), segment.getInt(offset + 5));
+                offset += RECORD_BYTES;
+            }
+        }
+    }
+
+    // Deletes the segments that hold nothing at or after the given LSN (after a checkpoint).
+    public synchronized void truncateBefore(long lsn) {
+        while (segments.firstKey() < currentSegment && (segments.firstKey() + 1) * segmentSize <= lsn) {
+            long segmentNumber = segments.pollFirstEntry().getKey();
+            try {
+                Files.deleteIfExists(segmentPath(segmentNumber));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to delete wallet log segment " + segmentNumber, e);
+            }
+        }
+    }
+
+    // LSN of the oldest record still on disk.
+    public synchronized long firstLsn() {
+        return segments.firstKey() * segmentSize;
+    }
+
+    public void close() {
+        long end;
+        synchronized (this) {
+            current.force();
+            end = position;
+        }
+        synchronized (flushLock) {
+            durable = Math.max(durable, end);
+            closed = true;
+            flushLock.notifyAll();
+        }
+    }
+
+    private MappedByteBuffer map(long segmentNumber) {
+        try (RandomAccessFile file = new RandomAccessFile(segmentPath(segmentNumber).toFile(), "rw")) {
+            return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to map wallet log segment " + segmentNumber, e);
+        }
+    }
+
+    private Path segmentPath(long segmentNumber) {
+        return directory.resolve(String.format("wal-%012d.log", segmentNumber));
+    }
+}
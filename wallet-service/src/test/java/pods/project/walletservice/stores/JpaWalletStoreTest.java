@@ -0,0 +1,84 @@
+package pods.project.walletservice.stores;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// Credits past Integer.MAX_VALUE on the default (JPA) engine: refused like an insufficient
+// balance, for single updates and batch entries alike, without touching the other entries.
+@SpringBootTest(properties = {
+    "wallet.engine=jpa",
+    "spring.datasource.url=jdbc:h2:mem:jpa-wallet-store-test;DB_CLOSE_DELAY=-1",
+    "spring.jpa.show-sql=false",
+    "wallet.rpc.port=0"
+})
+@AutoConfigureMockMvc
+class JpaWalletStoreTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private JpaWalletStore walletStore;
+
+    @BeforeEach
+    void clearWallets() {
+        walletStore.deleteAll();
+    }
+
+    @Test
+    void creditPastMaxValueIsInsufficientBalance() throws Exception {
+        credit(1, Integer.MAX_VALUE - 10);
+
+        mockMvc.perform(put("/wallets/1").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"action\":\"credit\",\"amount\":\"11\"}"))
+            .andExpect(status().isBadRequest())
+            .andExpect(content().string("Insufficient balance"));
+
+        mockMvc.perform(get("/wallets/1"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.balance").value(Integer.MAX_VALUE - 10));
+    }
+
+    @Test
+    void overflowingBatchEntryFailsAloneAndTheOthersAreApplied() throws Exception {
+        credit(1, Integer.MAX_VALUE - 10);
+        credit(2, 100);
+
+        mockMvc.perform(post("/wallets/batch").contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"user_id\":\"2\",\"action\":\"debit\",\"amount\":\"30\"},"
+                    + "{\"user_id\":\"1\",\"action\":\"credit\",\"amount\":\"11\"},"
+                    + "{\"user_id\":\"1\",\"action\":\"credit\",\"amount\":\"10\"},"
+                    + "{\"user_id\":\"3\",\"action\":\"credit\",\"amount\":\"5\"}]"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$[0].status").value("OK"))
+            .andExpect(jsonPath("$[0].balance").value(70))
+            .andExpect(jsonPath("$[1].status").value("FAILED"))
+            .andExpect(jsonPath("$[1].message").value("Insufficient balance"))
+            .andExpect(jsonPath("$[2].status").value("OK"))
+            .andExpect(jsonPath("$[2].balance").value(Integer.MAX_VALUE))
+            .andExpect(jsonPath("$[3].status").value("OK"))
+            .andExpect(jsonPath("$[3].balance").value(5));
+
+        mockMvc.perform(get("/wallets/1")).andExpect(jsonPath("$.balance").value(Integer.MAX_VALUE));
+        mockMvc.perform(get("/wallets/2")).andExpect(jsonPath("$.balance").value(70));
+        mockMvc.perform(get("/wallets/3")).andExpect(jsonPath("$.balance").value(5));
+    }
+
+    private void credit(int userId, int amount) throws Exception {
+        mockMvc.perform(put("/wallets/" + userId).contentType(MediaType.APPLICATION_JSON)
+                .content("{\"action\":\"credit\",\"amount\":\"" + amount + "\"}"))
+            .andExpect(status().isOk());
+    }
+}